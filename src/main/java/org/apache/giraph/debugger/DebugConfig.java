@@ -17,19 +17,35 @@
  */
 package org.apache.giraph.debugger;
 
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.debugger.selection.IntegrityCheckSampler;
+import org.apache.giraph.debugger.selection.VertexFilter;
+import org.apache.giraph.debugger.selection.VertexFilters;
+import org.apache.giraph.debugger.selection.VertexIdSet;
+import org.apache.giraph.debugger.selection.VertexIdSetBuilder;
+import org.apache.giraph.debugger.selection.VertexIdSets;
+import org.apache.giraph.debugger.selection.VertexSampler;
+import org.apache.giraph.debugger.utils.AsyncHDFSWriteService;
+import org.apache.giraph.debugger.utils.AsyncHDFSWriteService.OverflowPolicy;
+import org.apache.giraph.debugger.utils.DebuggerUtils;
+import org.apache.giraph.debugger.utils.TraceCodec;
 import org.apache.giraph.edge.Edge;
 import org.apache.giraph.graph.Computation;
 import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.utils.ReflectionUtils;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 
@@ -44,7 +60,9 @@ import org.apache.hadoop.io.WritableComparable;
  * <li>Configure which supersteps to debug.
  * <li>Add a message integrity constraint by setting
  * {@link #shouldCheckMessageIntegrity()} to true and then overriding
- * {@link #isMessageCorrect(WritableComparable, WritableComparable, Writable)}.
+ * {@link #isMessageCorrect(WritableComparable, WritableComparable, Writable)},
+ * or {@link #checkMessages(OutgoingMessageBatch, long)} to check all messages
+ * a vertex sent at once.
  * <li>Add a vertex value integrity constraint by setting
  * {@link #shouldCheckVertexValueIntegrity()} and then overriding
  * {@link #isVertexValueCorrect(WritableComparable, Writable)}.
@@ -54,14 +72,123 @@ import org.apache.hadoop.io.WritableComparable;
  * configure it as follows:
  * <ul>
  * <li>By passing -D{@link #VERTICES_TO_DEBUG_FLAG}=v1,v2,..,vn, specify a set
- * of integer or long vertex IDs to debug. The {@link Computation} class has to
- * have either a {@link LongWritable} or {@link IntWritable}. By default no
- * vertices are debugged.
+ * of integer, long or text vertex IDs to debug. The {@link Computation} class
+ * has to have either a {@link LongWritable}, {@link IntWritable} or
+ * {@link Text} vertex id. By default no vertices are debugged.
+ * <li>By passing -D{@link #VERTICES_TO_DEBUG_FILE_FLAG}=path specify a file,
+ * e.g., on HDFS, listing vertex IDs to debug one per line. Large sets of long
+ * IDs are sorted on local disk and kept off heap in a memory mapped file.
+ * <li>By passing -D{@link #VERTEX_SAMPLING_RATE}=r specify a fraction of
+ * vertices to debug, sampled by hashing their IDs with the seed given by
+ * -D{@link #VERTEX_SAMPLING_SEED}=s. This works for any vertex ID type and
+ * picks the same vertices on every worker, superstep and run.
+ * <li>By passing -D{@link #GLOBAL_VERTEX_SAMPLE_SIZE}=n specify to capture
+ * n vertices per superstep in total over all workers, sampled uniformly among
+ * the vertices selected by the other flags, instead of the first ones each
+ * worker computes.
+ * <li>By passing -D{@link #WRITER_MAX_QUEUED_BYTES}=b and
+ * -D{@link #WRITER_OVERFLOW_POLICY}=BLOCK/DROP_NEWEST/DROP_TO_SUMMARY specify
+ * how many bytes of traces a worker may hold while they are written, and
+ * whether to wait or to drop traces beyond that. By default workers wait.
+ * <li>By passing -D{@link #WRITER_FLUSH_TIMEOUT_MILLIS}=t specify to wait up
+ * to t milliseconds at the start of each superstep for the traces of the
+ * previous one to be written, which bounds the memory they hold at the cost
+ * of slowing supersteps down. By passing
+ * -D{@link #WRITER_SHUTDOWN_TIMEOUT_MILLIS}=t specify how long to wait for
+ * the remaining traces when a worker shuts down. By default workers do not
+ * wait between supersteps and wait up to a minute at shutdown.
+ * <li>By passing -D{@link #WRITER_OFF_HEAP_STAGING_BYTES}=b specify to keep
+ * the traces each compute thread saves in b bytes of direct memory until
+ * they are written, instead of on the heap. Writer threads compress and
+ * write staged traces straight from direct memory. Each trace is still
+ * serialized into a short-lived heap array first, which is garbage as soon as
+ * it is staged, and traces that do not fit stay on the heap. Note that
+ * -XX:MaxDirectMemorySize must allow b bytes for each compute thread. By
+ * default traces are kept on the heap.
+ * <li>By passing -D{@link #TRACE_CODEC}=NONE/DEFLATE/DEFLATE_FAST specify how
+ * to compress traces, and by passing -D{@link #TRACE_CODEC_DICTIONARY}=true
+ * specify to compress vertex traces with a dictionary sampled from the first
+ * traces of each worker, which pays off for small traces. By default traces
+ * are not compressed.
  * <li>By passing -D{@link #DEBUG_NEIGHBORS_FLAG}=true/false specify whether the
  * in-neighbors of vertices that were configured to be debugged should also be
  * debugged. By default this flag is set to false.
  * <li>By passing -D{@link #SUPERSTEPS_TO_DEBUG_FLAG}=s1,s2,...,sm specify a set
  * of supersteps to debug. By default all supersteps are debugged.
+ * <li>By passing
+ * -D{@link #EXCEPTION_CAPTURE_MODE}=SNAPSHOT_PREVIOUS_VALUE/SKIP_PREVIOUS_VALUE
+ * specify whether exception traces include the value of the vertex before
+ * compute(), which costs serializing every vertex value before compute(),
+ * or not, which makes catching exceptions nearly free. By default the value
+ * is included.
+ * <li>By passing -D{@link #MAX_CAPTURED_NEIGHBORS}=n,
+ * -D{@link #MAX_CAPTURED_IN_MESSAGES}=n and
+ * -D{@link #MAX_CAPTURED_OUT_MESSAGES}=n specify how many neighbors, incoming
+ * messages and messages sent to single vertices a trace may store. Traces of
+ * vertices with more store a uniform sample together with the exact count,
+ * a hash and the minimum and maximum of the whole list. By default there is
+ * no limit.
+ * <li>By passing -D{@link #INTEGRITY_CHECK_THREADS}=n specify to check vertex
+ * value and message constraints on n threads of their own, which is worth it
+ * when constraints are expensive. Compute threads hand the values and
+ * messages of -D{@link #INTEGRITY_CHECK_BATCH_SIZE}=b vertices at a time to
+ * these threads, and check batches themselves when
+ * -D{@link #INTEGRITY_CHECK_QUEUE_SIZE}=q batches are already waiting.
+ * Violation traces then include the vertex value before and after compute()
+ * and the violating messages, but not the edges or incoming messages. By
+ * default constraints are checked in compute().
+ * <li>By passing -D{@link #VERTEX_VALUE_CHECK_RATE}=r and
+ * -D{@link #MESSAGE_CHECK_RATE}=r specify the fraction of vertex values and
+ * messages to check, and by passing
+ * -D{@link #INTEGRITY_CHECK_SAMPLING}=HASH/BERNOULLI/STRATIFIED how to sample
+ * them. HASH samples by hashing ids with -D{@link #VERTEX_SAMPLING_SEED}=s
+ * and the superstep number. The master logs the violation rates estimated
+ * from the checks of each superstep with 95% confidence intervals, and
+ * publishes them in the aggregators of {@code DebuggerAggregators}. The
+ * checks run on all vertices of a superstep, also after
+ * {@link #NUM_VIOLATIONS_TO_LOG} are captured or the overhead or byte
+ * budgets stop capture, so that the estimates are not biased; these rates
+ * are what bounds the cost of checking. By default everything is checked.
+ * <li>By passing -D{@link #CAPTURE_CHANGED_VALUES_ONLY}=true specify to
+ * capture only vertices whose value compute() changed, comparing
+ * fingerprints of the value before and after compute(), or, by passing
+ * -D{@link #VALUE_CHANGE_EPSILON}=e, numeric values that differ by more than
+ * e. By passing -D{@link #MIN_STABLE_SUPERSTEPS}=n specify to capture only
+ * the first change after the value was stable for n debugged supersteps. The
+ * changes of every selected vertex are then recorded, even once no more
+ * vertices can be captured in a superstep, in a table of
+ * -D{@link #VALUE_CHANGE_TABLE_SLOTS}=s slots per worker that takes 8*s bytes
+ * of heap. A vertex whose slot is taken over by another one looks stable, so
+ * s should exceed the number of selected vertices per worker; 1M slots by
+ * default. By default vertices are captured whether their value changed or
+ * not.
+ * <li>By passing -D{@link #FLIGHT_RECORDER_BYTES}=b specify to keep the
+ * scenarios of the vertices selected by the other flags in b bytes of direct
+ * memory per worker, whether they are captured or not, and to save those of
+ * the last -D{@link #FLIGHT_RECORDER_SUPERSTEPS}=n supersteps when a vertex
+ * throws an exception or violates a constraint. Older scenarios are dropped
+ * when the memory is full. By default no history is kept.
+ * <li>By passing -D{@link #MAX_OVERHEAD_FRACTION}=f specify to capture fewer
+ * vertices, down to none, while intercepting compute() takes more than f
+ * times the time spent in compute(), and by passing
+ * -D{@link #MAX_TRACE_BYTES_PER_SUPERSTEP}=b to stop capturing once a worker
+ * saved b bytes of traces in a superstep. Traces record the fraction of
+ * vertices captured when they were. By default there is no limit.
+ * <li>By passing -D{@link #DRY_RUN}=true specify to make every capture and
+ * integrity decision as configured but to save no traces. Workers count the
+ * traces of each type they would have saved and estimate their sizes
+ * without encoding regular traces, and the master logs the totals of each
+ * superstep, writes them to a summary file, and publishes them in the
+ * aggregators of {@code DebuggerAggregators}. The bytes counted are held
+ * against -D{@link #MAX_TRACE_BYTES_PER_SUPERSTEP} as if they were saved. By
+ * default traces are saved.
+ * <li>By passing -D{@link #COLLECT_STATISTICS}=true specify to count the
+ * vertices intercepted, the integrity checks and violations, and the traces
+ * of each type saved, their bytes and a histogram of their sizes, and to
+ * keep intercepting vertices, only to count them, after
+ * {@link #MAX_OVERHEAD_FRACTION} or {@link #MAX_TRACE_BYTES_PER_SUPERSTEP}
+ * stop capture. The master writes the counts of all workers to a statistics
+ * record each superstep. By default no statistics are collected.
  * </ul>
  *
  * Note that if programmers use this class directly, then by default the
@@ -82,6 +209,23 @@ import org.apache.hadoop.io.WritableComparable;
 public class DebugConfig<I extends WritableComparable, V extends Writable,
   E extends Writable, M1 extends Writable, M2 extends Writable> {
 
+  /**
+   * How exceptions thrown by compute() are captured.
+   */
+  public enum ExceptionCaptureMode {
+    /**
+     * Serialize the value of every vertex before compute(), so that exception
+     * traces include the value the failing compute() started from.
+     */
+    SNAPSHOT_PREVIOUS_VALUE,
+    /**
+     * Do not serialize vertex values before compute(). Exception traces only
+     * include the value of the vertex when the exception was thrown, and
+     * tests generated from them start from a default vertex value.
+     */
+    SKIP_PREVIOUS_VALUE
+  }
+
   /**
    * String constant for splitting the parameter specifying which
    * supersteps should be debugged.
@@ -99,6 +243,18 @@ public class DebugConfig<I extends WritableComparable, V extends Writable,
    */
   private static final String VERTICES_TO_DEBUG_FLAG =
      "giraph.debugger.verticesToDebug";
+  /**
+   * String constant for specifying a file listing the vertices to debug, one
+   * per line.
+   */
+  private static final String VERTICES_TO_DEBUG_FILE_FLAG =
+    "giraph.debugger.verticesToDebugFile";
+  /**
+   * String constant for specifying the number of long vertex ids to debug
+   * above which they are kept in a memory mapped file instead of the heap.
+   */
+  private static final String MAX_VERTICES_TO_DEBUG_ON_HEAP =
+    "giraph.debugger.maxVerticesToDebugOnHeap";
   /**
    * String constant for specifying whether the neighbors of specified
    * vertices should be debugged.
@@ -116,6 +272,12 @@ public class DebugConfig<I extends WritableComparable, V extends Writable,
    */
   private static final String CATCH_EXCEPTIONS_FLAG =
     "giraph.debugger.catchExceptions";
+  /**
+   * String constant for specifying how exceptions are captured:
+   * SNAPSHOT_PREVIOUS_VALUE or SKIP_PREVIOUS_VALUE.
+   */
+  private static final String EXCEPTION_CAPTURE_MODE =
+    "giraph.debugger.exceptionCaptureMode";
   /**
    * String constant for specifying whether all vertices should be debugged.
    */
@@ -136,12 +298,234 @@ public class DebugConfig<I extends WritableComparable, V extends Writable,
    */
   private static final String NUM_RANDOM_VERTICES_TO_DEBUG =
     "giraph.debugger.numRandomVerticesToDebug";
+  /**
+   * String constant for specifying the fraction of vertices to sample by
+   * hashing their ids.
+   */
+  private static final String VERTEX_SAMPLING_RATE =
+    "giraph.debugger.vertexSamplingRate";
+  /**
+   * String constant for specifying the seed to hash vertex ids with when
+   * sampling them, which determines the sampled vertices.
+   */
+  private static final String VERTEX_SAMPLING_SEED =
+    "giraph.debugger.vertexSamplingSeed";
+  /**
+   * String constant for specifying the number of vertices to capture per
+   * superstep across all workers, sampled uniformly from the selected ones.
+   */
+  private static final String GLOBAL_VERTEX_SAMPLE_SIZE =
+    "giraph.debugger.globalVertexSampleSize";
+  /**
+   * String constant for specifying the number of threads writing traces.
+   */
+  private static final String WRITER_NUM_THREADS =
+    "giraph.debugger.writerNumThreads";
+  /**
+   * String constant for specifying the maximum number of bytes of traces
+   * waiting to be written by a worker.
+   */
+  private static final String WRITER_MAX_QUEUED_BYTES =
+    "giraph.debugger.writerMaxQueuedBytes";
+  /**
+   * String constant for specifying what to do with traces that do not fit in
+   * the write queue: BLOCK, DROP_NEWEST or DROP_TO_SUMMARY.
+   */
+  private static final String WRITER_OVERFLOW_POLICY =
+    "giraph.debugger.writerOverflowPolicy";
+  /**
+   * String constant for specifying how many milliseconds to wait for the
+   * traces of a superstep to be written before starting the next one. 0
+   * disables waiting between supersteps.
+   */
+  private static final String WRITER_FLUSH_TIMEOUT_MILLIS =
+    "giraph.debugger.writerFlushTimeoutMillis";
+  /**
+   * String constant for specifying how many milliseconds to wait for all
+   * traces to be written at shutdown.
+   */
+  private static final String WRITER_SHUTDOWN_TIMEOUT_MILLIS =
+    "giraph.debugger.writerShutdownTimeoutMillis";
+  /**
+   * String constant for specifying the number of bytes of direct memory each
+   * compute thread keeps its traces in until they are written. 0 means
+   * traces are kept on the heap.
+   */
+  private static final String WRITER_OFF_HEAP_STAGING_BYTES =
+    "giraph.debugger.writerOffHeapStagingBytes";
+  /**
+   * String constant for specifying the codec traces are compressed with:
+   * NONE, DEFLATE or DEFLATE_FAST.
+   */
+  private static final String TRACE_CODEC = "giraph.debugger.traceCodec";
+  /**
+   * String constant for specifying whether to compress vertex traces with a
+   * dictionary.
+   */
+  private static final String TRACE_CODEC_DICTIONARY =
+    "giraph.debugger.traceCodecDictionary";
+  /**
+   * String constant for specifying the maximum number of neighbors a trace
+   * stores. 0 means no limit.
+   */
+  private static final String MAX_CAPTURED_NEIGHBORS =
+    "giraph.debugger.maxCapturedNeighbors";
+  /**
+   * String constant for specifying the maximum number of incoming messages a
+   * trace stores. 0 means no limit.
+   */
+  private static final String MAX_CAPTURED_IN_MESSAGES =
+    "giraph.debugger.maxCapturedInMessages";
+  /**
+   * String constant for specifying the maximum number of messages sent to
+   * single vertices a trace stores. 0 means no limit.
+   */
+  private static final String MAX_CAPTURED_OUT_MESSAGES =
+    "giraph.debugger.maxCapturedOutMessages";
+  /**
+   * String constant for specifying the number of threads checking integrity
+   * constraints off the compute threads. 0 means they are checked in
+   * compute().
+   */
+  private static final String INTEGRITY_CHECK_THREADS =
+    "giraph.debugger.integrityCheckThreads";
+  /**
+   * String constant for specifying the number of vertices whose values and
+   * messages are handed to the integrity check threads at once.
+   */
+  private static final String INTEGRITY_CHECK_BATCH_SIZE =
+    "giraph.debugger.integrityCheckBatchSize";
+  /**
+   * String constant for specifying the number of batches waiting for the
+   * integrity check threads, beyond which compute threads check their batches
+   * themselves.
+   */
+  private static final String INTEGRITY_CHECK_QUEUE_SIZE =
+    "giraph.debugger.integrityCheckQueueSize";
+  /**
+   * String constant for specifying the fraction of vertex values to check
+   * against the vertex value constraint.
+   */
+  private static final String VERTEX_VALUE_CHECK_RATE =
+    "giraph.debugger.vertexValueCheckRate";
+  /**
+   * String constant for specifying the fraction of messages to check against
+   * the message constraint.
+   */
+  private static final String MESSAGE_CHECK_RATE =
+    "giraph.debugger.messageCheckRate";
+  /**
+   * String constant for specifying how vertex values and messages to check
+   * are sampled.
+   */
+  private static final String INTEGRITY_CHECK_SAMPLING =
+    "giraph.debugger.integrityCheckSampling";
+  /**
+   * String constant for specifying whether to capture only vertices whose
+   * value compute() changed.
+   */
+  private static final String CAPTURE_CHANGED_VALUES_ONLY =
+    "giraph.debugger.captureChangedValuesOnly";
+  /**
+   * String constant for specifying the largest difference between numeric
+   * vertex values that is not considered a change.
+   */
+  private static final String VALUE_CHANGE_EPSILON =
+    "giraph.debugger.valueChangeEpsilon";
+  /**
+   * String constant for specifying the number of supersteps a vertex value
+   * must have been stable for before a change is captured.
+   */
+  private static final String MIN_STABLE_SUPERSTEPS =
+    "giraph.debugger.minStableSupersteps";
+  /**
+   * String constant for specifying the number of vertices whose last value
+   * change each worker records when MIN_STABLE_SUPERSTEPS is set.
+   */
+  private static final String VALUE_CHANGE_TABLE_SLOTS =
+    "giraph.debugger.valueChangeTableSlots";
+  /**
+   * String constant for specifying the number of bytes of direct memory a
+   * worker keeps the scenarios of recent supersteps in. 0 means no history
+   * is kept.
+   */
+  private static final String FLIGHT_RECORDER_BYTES =
+    "giraph.debugger.flightRecorderBytes";
+  /**
+   * String constant for specifying the number of supersteps before an
+   * exception or violation whose scenarios are saved.
+   */
+  private static final String FLIGHT_RECORDER_SUPERSTEPS =
+    "giraph.debugger.flightRecorderSupersteps";
+  /**
+   * String constant for specifying the maximum fraction of the time spent in
+   * compute() that may be spent intercepting it. 0 means no limit.
+   */
+  private static final String MAX_OVERHEAD_FRACTION =
+    "giraph.debugger.maxOverheadFraction";
+  /**
+   * String constant for specifying the maximum number of bytes of traces a
+   * worker saves per superstep. 0 means no limit.
+   */
+  private static final String MAX_TRACE_BYTES_PER_SUPERSTEP =
+    "giraph.debugger.maxTraceBytesPerSuperstep";
+  /**
+   * String constant for specifying whether to only count the traces that
+   * would be saved instead of saving them.
+   */
+  private static final String DRY_RUN = "giraph.debugger.dryRun";
+  /**
+   * String constant for specifying whether to collect exact statistics of
+   * every superstep.
+   */
+  private static final String COLLECT_STATISTICS =
+    "giraph.debugger.collectStatistics";
 
   /**
    * Stores the set of specified vertices to debug, when VERTICES_TO_DEBUG_FLAG
-   * is specified.
+   * or VERTICES_TO_DEBUG_FILE_FLAG is specified.
+   */
+  private VertexIdSet<I> verticesToDebugSet;
+  /**
+   * The vertex id class of the computation, known when vertices to debug are
+   * specified by id.
+   */
+  private Class<?> vertexIdClass;
+  /**
+   * Samples vertices to debug by their id when VERTEX_SAMPLING_RATE is
+   * specified, null otherwise.
+   */
+  private VertexSampler vertexSampler;
+  /**
+   * Seed to hash vertex ids with when sampling them.
+   */
+  private long vertexSamplingSeed;
+  /**
+   * Number of vertices to capture per superstep across all workers, or 0 to
+   * capture the first numVerticesToLog selected vertices of each worker.
+   */
+  private int globalVertexSampleSize;
+  /**
+   * Ids of the neighbors of vertices to debug found in superstep 0, when
+   * DEBUG_NEIGHBORS_FLAG is set. Written concurrently by compute threads.
+   */
+  private final Set<I> discoveredNeighbors =
+    Collections.newSetFromMap(new ConcurrentHashMap<I, Boolean>());
+  /**
+   * verticesToDebugSet and the discovered neighbors combined into a
+   * {@link VertexIdSet}, reused across supersteps.
    */
-  private Set<I> verticesToDebugSet;
+  private VertexIdSet<I> compiledVerticesToDebug;
+  /**
+   * Number of discovered neighbors included in compiledVerticesToDebug.
+   */
+  private int numDiscoveredNeighborsCompiled;
+  /**
+   * Whether a subclass overrides
+   * {@link #shouldDebugVertex(Vertex, long)}, in which case compiled filters
+   * have to call it for every vertex.
+   */
+  private boolean isShouldDebugVertexOverridden;
 
   /**
    * The number of vertices to randomly capture for debugging.
@@ -165,17 +549,139 @@ public class DebugConfig<I extends WritableComparable, V extends Writable,
    */
   private boolean debugAllVertices = false;
   /**
-   * Maximum number of vertices to capture by each thread of every worker.
+   * Maximum number of vertices to capture by every worker per superstep.
    */
   private int numVerticesToLog;
   /**
-   * Maximum number of violations to capture by each thread of every worker.
+   * Maximum number of violations to capture by every worker per superstep.
    */
   private int numViolationsToLog;
   /**
    * Whether to capture exceptions or not.
    */
   private boolean shouldCatchExceptions;
+  /**
+   * Number of threads writing traces.
+   */
+  private int writerNumThreads;
+  /**
+   * Maximum number of bytes of traces waiting to be written by a worker.
+   */
+  private long writerMaxQueuedBytes;
+  /**
+   * What to do with traces that do not fit in the write queue.
+   */
+  private OverflowPolicy writerOverflowPolicy;
+  /**
+   * Number of milliseconds to wait for the traces of a superstep to be
+   * written.
+   */
+  private long writerFlushTimeoutMillis;
+  /**
+   * Number of milliseconds to wait for all traces to be written at shutdown.
+   */
+  private long writerShutdownTimeoutMillis;
+  /**
+   * Number of bytes of direct memory each compute thread keeps its traces in
+   * until they are written, or 0 to keep them on the heap.
+   */
+  private int writerOffHeapStagingBytes;
+  /**
+   * The codec traces are compressed with.
+   */
+  private TraceCodec traceCodec;
+  /**
+   * Whether to compress vertex traces with a dictionary.
+   */
+  private boolean useTraceCodecDictionary;
+  /**
+   * Maximum number of neighbors a trace stores, or 0 for no limit.
+   */
+  private int maxCapturedNeighbors;
+  /**
+   * Maximum number of incoming messages a trace stores, or 0 for no limit.
+   */
+  private int maxCapturedInMessages;
+  /**
+   * Maximum number of messages sent to single vertices a trace stores, or 0
+   * for no limit.
+   */
+  private int maxCapturedOutMessages;
+  /**
+   * Number of threads checking integrity constraints, or 0 to check them in
+   * compute().
+   */
+  private int integrityCheckThreads;
+  /**
+   * Number of vertices handed to the integrity check threads at once.
+   */
+  private int integrityCheckBatchSize;
+  /**
+   * Number of batches that may wait for the integrity check threads.
+   */
+  private int integrityCheckQueueSize;
+  /**
+   * Fraction of vertex values to check.
+   */
+  private float vertexValueCheckRate;
+  /**
+   * Fraction of messages to check.
+   */
+  private float messageCheckRate;
+  /**
+   * How vertex values and messages to check are sampled.
+   */
+  private IntegrityCheckSampler.Method integrityCheckSamplingMethod;
+  /**
+   * Whether to capture only vertices whose value compute() changed.
+   */
+  private boolean captureChangedValuesOnly;
+  /**
+   * Largest difference between numeric values that is not a change.
+   */
+  private double valueChangeEpsilon;
+  /**
+   * Number of supersteps a value must have been stable for before a change
+   * is captured.
+   */
+  private int minStableSupersteps;
+  /**
+   * Number of vertices whose last value change each worker records.
+   */
+  private int valueChangeTableSlots;
+  /**
+   * Number of bytes of direct memory the scenarios of recent supersteps are
+   * kept in, or 0 to keep no history.
+   */
+  private int flightRecorderBytes;
+  /**
+   * Number of supersteps before an exception or violation whose scenarios
+   * are saved.
+   */
+  private int flightRecorderSupersteps;
+  /**
+   * Maximum fraction of the time spent in compute() that may be spent
+   * intercepting it, or 0 for no limit.
+   */
+  private float maxOverheadFraction;
+  /**
+   * Maximum number of bytes of traces a worker saves per superstep, or 0 for
+   * no limit.
+   */
+  private long maxTraceBytesPerSuperstep;
+  /**
+   * Whether to only count the traces that would be saved.
+   */
+  private boolean dryRun;
+  /**
+   * Whether to collect exact statistics of every superstep.
+   */
+  private boolean collectStatistics;
+  /**
+   * How exceptions are captured.
+   */
+  private ExceptionCaptureMode exceptionCaptureMode =
+    ExceptionCaptureMode.SNAPSHOT_PREVIOUS_VALUE;
 
   /**
    * Default public constructor. Configures not to debug any vertex in
@@ -214,6 +720,9 @@ public class DebugConfig<I extends WritableComparable, V extends Writable,
       this.numRandomVerticesToDebug = numberOfRandomVerticesToCapture();
     }
     this.shouldCatchExceptions = config.getBoolean(CATCH_EXCEPTIONS_FLAG, true);
+    this.exceptionCaptureMode = ExceptionCaptureMode.valueOf(config.get(
+      EXCEPTION_CAPTURE_MODE, ExceptionCaptureMode.SNAPSHOT_PREVIOUS_VALUE
+        .name()));
 
     String superstepsToDebugStr = config.get(SUPERSTEPS_TO_DEBUG_FLAG, null);
     if (superstepsToDebugStr == null) {
@@ -227,26 +736,90 @@ public class DebugConfig<I extends WritableComparable, V extends Writable,
       }
     }
 
+    vertexSamplingSeed = config.getLong(VERTEX_SAMPLING_SEED, 0);
+    globalVertexSampleSize = config.getInt(GLOBAL_VERTEX_SAMPLE_SIZE, 0);
+    writerNumThreads = config.getInt(WRITER_NUM_THREADS,
+      AsyncHDFSWriteService.DEFAULT_NUM_THREADS);
+    writerMaxQueuedBytes = config.getLong(WRITER_MAX_QUEUED_BYTES,
+      AsyncHDFSWriteService.DEFAULT_MAX_QUEUED_BYTES);
+    writerOverflowPolicy = OverflowPolicy.valueOf(config.get(
+      WRITER_OVERFLOW_POLICY, OverflowPolicy.BLOCK.name()));
+    writerFlushTimeoutMillis = config.getLong(WRITER_FLUSH_TIMEOUT_MILLIS, 0);
+    writerShutdownTimeoutMillis = config.getLong(
+      WRITER_SHUTDOWN_TIMEOUT_MILLIS,
+      AsyncHDFSWriteService.DEFAULT_SHUTDOWN_TIMEOUT_MILLIS);
+    writerOffHeapStagingBytes = config.getInt(WRITER_OFF_HEAP_STAGING_BYTES,
+      0);
+    traceCodec = TraceCodec.valueOf(config.get(TRACE_CODEC,
+      TraceCodec.NONE.name()));
+    useTraceCodecDictionary = config.getBoolean(TRACE_CODEC_DICTIONARY,
+      false);
+    maxCapturedNeighbors = config.getInt(MAX_CAPTURED_NEIGHBORS, 0);
+    maxCapturedInMessages = config.getInt(MAX_CAPTURED_IN_MESSAGES, 0);
+    maxCapturedOutMessages = config.getInt(MAX_CAPTURED_OUT_MESSAGES, 0);
+    integrityCheckThreads = config.getInt(INTEGRITY_CHECK_THREADS, 0);
+    integrityCheckBatchSize = config.getInt(INTEGRITY_CHECK_BATCH_SIZE, 256);
+    integrityCheckQueueSize = config.getInt(INTEGRITY_CHECK_QUEUE_SIZE,
+      4 * integrityCheckThreads);
+    vertexValueCheckRate = config.getFloat(VERTEX_VALUE_CHECK_RATE, 1);
+    messageCheckRate = config.getFloat(MESSAGE_CHECK_RATE, 1);
+    integrityCheckSamplingMethod = IntegrityCheckSampler.Method.valueOf(
+      config.get(INTEGRITY_CHECK_SAMPLING,
+        IntegrityCheckSampler.Method.HASH.name()));
+    captureChangedValuesOnly = config.getBoolean(CAPTURE_CHANGED_VALUES_ONLY,
+      false);
+    valueChangeEpsilon = Double.parseDouble(config.get(VALUE_CHANGE_EPSILON,
+      "0"));
+    minStableSupersteps = config.getInt(MIN_STABLE_SUPERSTEPS, 0);
+    valueChangeTableSlots = config.getInt(VALUE_CHANGE_TABLE_SLOTS, 1 << 20);
+    flightRecorderBytes = config.getInt(FLIGHT_RECORDER_BYTES, 0);
+    flightRecorderSupersteps = config.getInt(FLIGHT_RECORDER_SUPERSTEPS, 3);
+    maxOverheadFraction = config.getFloat(MAX_OVERHEAD_FRACTION, 0);
+    maxTraceBytesPerSuperstep = config.getLong(MAX_TRACE_BYTES_PER_SUPERSTEP,
+      0);
+    dryRun = isDryRun(config);
+    collectStatistics = shouldCollectStatistics(config);
     debugAllVertices = config.getBoolean(DEBUG_ALL_VERTICES_FLAG, false);
     if (!debugAllVertices) {
+      float vertexSamplingRate = config.getFloat(VERTEX_SAMPLING_RATE, 0);
+      if (vertexSamplingRate > 0) {
+        this.vertexSampler = new VertexSampler(vertexSamplingRate,
+          vertexSamplingSeed);
+      }
       String verticesToDebugStr = config.get(VERTICES_TO_DEBUG_FLAG, null);
       Class<? extends Computation> userComputationClass = config
         .getComputationClass();
       Class<?>[] typeArguments = ReflectionUtils.getTypeArguments(
         Computation.class, userComputationClass);
       Class<?> idType = typeArguments[0];
+      this.vertexIdClass = idType;
+      String verticesToDebugFile = config.get(VERTICES_TO_DEBUG_FILE_FLAG,
+        null);
+      List<I> verticesToCaptureByID = verticesToCaptureByID();
+      VertexIdSetBuilder<I> verticesToDebugBuilder = VertexIdSets.newBuilder(
+        idType, config.getInt(MAX_VERTICES_TO_DEBUG_ON_HEAP, 1000000));
       if (verticesToDebugStr != null) {
         String[] verticesToDebugArray = verticesToDebugStr
           .split(VERTEX_ID_DELIMITER);
-        this.verticesToDebugSet = new HashSet<>();
         for (String idString : verticesToDebugArray) {
-          insertIDIntoVerticesToDebugSetIfLongOrInt(idType, idString);
+          verticesToDebugBuilder.add(idString);
         }
       }
-      if (numberOfRandomVerticesToCapture() > 0) {
-        if (this.verticesToDebugSet == null) {
-          this.verticesToDebugSet = new HashSet<>();
+      if (verticesToDebugFile != null) {
+        try {
+          VertexIdSets.addFromFile(verticesToDebugBuilder,
+            new Path(verticesToDebugFile), config);
+        } catch (IOException e) {
+          throw new RuntimeException("readConfig: Could not read the " +
+            "vertices to debug from " + verticesToDebugFile, e);
         }
+      }
+      if (verticesToCaptureByID != null) {
+        for (I id : verticesToCaptureByID) {
+          verticesToDebugBuilder.add(id);
+        }
+      }
+      if (numberOfRandomVerticesToCapture() > 0) {
         // TODO(semih): Change back to new Random(jobId);
         Random random = new Random(5);
         for (int i = 0; i < numberOfRandomVerticesToCapture(); ++i) {
@@ -254,39 +827,29 @@ public class DebugConfig<I extends WritableComparable, V extends Writable,
           if (totalNumberOfVerticesInInt < 0) {
             totalNumberOfVerticesInInt = Integer.MAX_VALUE;
           }
-          insertIDIntoVerticesToDebugSetIfLongOrInt(idType,
+          verticesToDebugBuilder.add(
             "" + random.nextInt(totalNumberOfVerticesInInt));
         }
       }
+      if (verticesToDebugStr != null || verticesToDebugFile != null ||
+        verticesToCaptureByID != null ||
+        numberOfRandomVerticesToCapture() > 0) {
+        this.verticesToDebugSet = verticesToDebugBuilder.build();
+      }
     }
 
     numVerticesToLog = config.getInt(NUM_VERTICES_TO_LOG, 12);
     numViolationsToLog = config.getInt(NUM_VIOLATIONS_TO_LOG, 12);
 
-    // LOG.debug("DebugConfig" + this);
-  }
-
-  /**
-   * Add given string to the vertex set for debugging.
-   *
-   * @param idType type of vertex id
-   * @param idString string representation of the vertex to add
-   */
-  @SuppressWarnings("unchecked")
-  private void insertIDIntoVerticesToDebugSetIfLongOrInt(Class<?> idType,
-    String idString) {
-    if (LongWritable.class.isAssignableFrom(idType)) {
-      verticesToDebugSet
-        .add((I) new LongWritable(Long.valueOf(idString)));
-    } else if (IntWritable.class.isAssignableFrom(idType)) {
-      verticesToDebugSet.add((I) new IntWritable(Integer
-        .valueOf(idString)));
-    } else {
-      throw new IllegalArgumentException(
-        "When using the giraph.debugger.verticesToDebug argument, the " +
-          "vertex IDs of the computation class needs to be LongWritable" +
-          " or IntWritable.");
+    try {
+      isShouldDebugVertexOverridden = getClass().getMethod(
+        "shouldDebugVertex", Vertex.class, long.class).getDeclaringClass() !=
+        DebugConfig.class;
+    } catch (NoSuchMethodException e) {
+      throw new IllegalStateException(e);
     }
+
+    // LOG.debug("DebugConfig" + this);
   }
 
   /**
@@ -312,6 +875,7 @@ public class DebugConfig<I extends WritableComparable, V extends Writable,
    * @param superstepNo the superstep number.
    * @return whether the vertex should be debugged.
    */
+  @SuppressWarnings("unchecked")
   public boolean shouldDebugVertex(Vertex<I, V, E> vertex, long superstepNo) {
     if (vertex.isHalted()) {
       // If vertex has already halted before a superstep, we probably won't
@@ -321,19 +885,77 @@ public class DebugConfig<I extends WritableComparable, V extends Writable,
     if (debugAllVertices) {
       return true;
     }
+    if (vertexSampler != null && vertexSampler.isSampled(vertex.getId())) {
+      return true;
+    }
     // Should not debug all vertices. Check if any vertices were special cased.
     if (verticesToDebugSet == null) {
       return false;
+    } else if (verticesToDebugSet.contains(vertex.getId()) ||
+      discoveredNeighbors.contains(vertex.getId())) {
+      return true;
+    } else if (superstepNo == 0 && debugNeighborsOfVerticesToDebug &&
+      isNeighborOfVertexToDebug(vertex)) {
+      // If it's the first superstep and we should capture neighbors of
+      // vertices, then we remember the vertices that have an edge to one that
+      // is specified (or randomly picked) to avoid scanning all edges again.
+      discoveredNeighbors.add(DebuggerUtils.makeCloneOf(vertex.getId(),
+        (Class<I>) vertex.getId().getClass()));
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Compiles the vertex selection of this config for the given superstep into
+   * a {@link VertexFilter}, which answers the same as
+   * {@link #shouldDebugVertex(Vertex, long)} but without looking up boxed ids
+   * in a {@link HashSet} for every vertex. Vertex ids are kept in a set
+   * specialized for the id type, compiled once and rebuilt only after new
+   * neighbors have been discovered in superstep 0. If a subclass overrides
+   * {@link #shouldDebugVertex(Vertex, long)}, the filter simply calls it.
+   *
+   * @param superstepNo The superstep number.
+   * @return The vertex filter to use throughout the superstep.
+   */
+  public final synchronized VertexFilter<I, V, E> compileVertexFilter(
+    final long superstepNo) {
+    if (!shouldDebugSuperstep(superstepNo)) {
+      return VertexFilters.none();
+    } else if (isShouldDebugVertexOverridden) {
+      return new VertexFilter<I, V, E>() {
+        @Override
+        public boolean accept(Vertex<I, V, E> vertex) {
+          return shouldDebugVertex(vertex, superstepNo);
+        }
+      };
+    } else if (debugAllVertices) {
+      return VertexFilters.all();
+    }
+    VertexFilter<I, V, E> sampledFilter = vertexSampler == null ? null :
+      VertexFilters.<I, V, E>sampled(vertexSampler);
+    if (verticesToDebugSet == null) {
+      return sampledFilter == null ? VertexFilters.<I, V, E>none() :
+        sampledFilter;
+    }
+    if (compiledVerticesToDebug == null ||
+      numDiscoveredNeighborsCompiled != discoveredNeighbors.size()) {
+      // Neighbors are few, so keep them in a small set of their own rather
+      // than copying verticesToDebugSet, which may hold millions of ids.
+      compiledVerticesToDebug = discoveredNeighbors.isEmpty() ?
+        verticesToDebugSet : VertexIdSets.union(verticesToDebugSet,
+          VertexIdSets.<I>of(vertexIdClass, discoveredNeighbors));
+      numDiscoveredNeighborsCompiled = discoveredNeighbors.size();
+    }
+    VertexFilter<I, V, E> idFilter;
+    if (superstepNo == 0 && debugNeighborsOfVerticesToDebug) {
+      idFilter = VertexFilters.forIdsAndNeighbors(compiledVerticesToDebug,
+        discoveredNeighbors);
     } else {
-      if (superstepNo == 0 && debugNeighborsOfVerticesToDebug) {
-        // If it's the first superstep and we should capture neighbors
-        // of vertices, then we check if this vertex is a neighbor of a vertex
-        // that is already specified (or randomly picked). If so we add the
-        // vertex to the verticesToDebugSet.
-        addVertexToVerticesToDebugSetIfNeighbor(vertex);
-      }
-      return verticesToDebugSet.contains(vertex.getId());
+      idFilter = VertexFilters.forIds(compiledVerticesToDebug);
     }
+    return sampledFilter == null ? idFilter :
+      VertexFilters.anyOf(idFilter, sampledFilter);
   }
 
   /**
@@ -344,7 +966,8 @@ public class DebugConfig<I extends WritableComparable, V extends Writable,
   }
   
   /**
-   * @return list of vertices to capture, specified by ID.
+   * @return list of vertices to capture, specified by ID, which works for any
+   * vertex id type.
    */
   public List<I> verticesToCaptureByID() {
     return null;
@@ -355,14 +978,15 @@ public class DebugConfig<I extends WritableComparable, V extends Writable,
    * configured to be debugged. If so then the given vertex will also
    * be debugged.
    * @param vertex a vertex.
+   * @return whether the vertex has an edge to a vertex to debug.
    */
-  private void addVertexToVerticesToDebugSetIfNeighbor(Vertex<I, V, E> vertex) {
+  private boolean isNeighborOfVertexToDebug(Vertex<I, V, E> vertex) {
     for (Edge<I, E> edge : vertex.getEdges()) {
       if (verticesToDebugSet.contains(edge.getTargetVertexId())) {
-        // Add the vertex to the set to avoid scanning all edges multiple times.
-        verticesToDebugSet.add(vertex.getId());
+        return true;
       }
     }
+    return false;
   }
 
   /**
@@ -371,6 +995,13 @@ public class DebugConfig<I extends WritableComparable, V extends Writable,
   public boolean shouldCatchExceptions() {
     return shouldCatchExceptions;
   }
+
+  /**
+   * @return how exceptions are captured.
+   */
+  public ExceptionCaptureMode getExceptionCaptureMode() {
+    return exceptionCaptureMode;
+  }
   
   /**
    * @return whether message integrity constraints should be checked, i.e.,
@@ -394,6 +1025,50 @@ public class DebugConfig<I extends WritableComparable, V extends Writable,
     return true;
   }
 
+  /**
+   * Checks all messages a vertex sent in a call of compute() at once, after
+   * compute() returns. By default this calls {@link #isMessageCorrect(
+   * WritableComparable, WritableComparable, Writable, long)} on every message.
+   * Constraints that can check many messages faster than one at a time, e.g.,
+   * a message sent to all edges against all of its destinations, should
+   * override this, and stop as soon as
+   * {@link OutgoingMessageBatch#reportViolation(WritableComparable, Writable)}
+   * returns false. The number of messages returned is the denominator of the
+   * estimated violation rate, so it must count only the messages actually
+   * checked.
+   *
+   * @param messages the messages the vertex sent.
+   * @param superstepNo executing superstep number.
+   * @return the number of messages checked, counting a broadcast message once
+   * per destination.
+   */
+  public long checkMessages(OutgoingMessageBatch<I, M1> messages,
+    long superstepNo) {
+    I srcId = messages.getSrcId();
+    long numChecked = 0;
+    for (int i = 0; i < messages.getNumMessages(); i++) {
+      I dstId = messages.getDestination(i);
+      M1 message = messages.getMessage(i);
+      numChecked++;
+      if (!isMessageCorrect(srcId, dstId, message, superstepNo) &&
+        !messages.reportViolation(dstId, message)) {
+        return numChecked;
+      }
+    }
+    for (int i = 0; i < messages.getNumBroadcasts(); i++) {
+      M1 message = messages.getBroadcastMessage(i);
+      for (int j = 0; j < messages.getNumBroadcastDestinations(i); j++) {
+        I dstId = messages.getBroadcastDestination(i, j);
+        numChecked++;
+        if (!isMessageCorrect(srcId, dstId, message, superstepNo) &&
+          !messages.reportViolation(dstId, message)) {
+          return numChecked;
+        }
+      }
+    }
+    return numChecked;
+  }
+
   /**
    * @return whether a vertex value integrity constraints should be checked,
    * i.e., whether Graft should call the {@link #isVertexValueCorrect(
@@ -414,16 +1089,16 @@ public class DebugConfig<I extends WritableComparable, V extends Writable,
   }
 
   /**
-   * @return Maximum number of vertices to capture by each thread of every
-   *         worker
+   * @return Maximum number of vertices to capture by every worker per
+   *         superstep, shared by all of its compute threads
    */
   public int getNumberOfVerticesToLog() {
     return numVerticesToLog;
   }
 
   /**
-   * @return Maximum number of violations to capture by each thread of every
-   *         worker
+   * @return Maximum number of violations to capture by every worker per
+   *         superstep, shared by all of its compute threads
    */
   public int getNumberOfViolationsToLog() {
     return numViolationsToLog;
@@ -432,24 +1107,247 @@ public class DebugConfig<I extends WritableComparable, V extends Writable,
   /**
    * Warning: This function should not be called by classes outside of
    * org.apache.giraph.debugger package.
-   * @return verticesToDebugSet maintained by this DebugConfig.
+   * @return a read-only view of verticesToDebugSet maintained by this
+   *         DebugConfig, which supports only contains and size.
+   * @deprecated Use {@link #getVerticesToDebug()}.
    */
+  @Deprecated
   public Set<I> getVerticesToDebugSet() {
+    return verticesToDebugSet == null ? null :
+      VertexIdSets.asSet(verticesToDebugSet);
+  }
+
+  /**
+   * Warning: This function should not be called by classes outside of
+   * org.apache.giraph.debugger package.
+   * @return verticesToDebugSet maintained by this DebugConfig.
+   */
+  public VertexIdSet<I> getVerticesToDebug() {
     return verticesToDebugSet;
   }
 
+  /**
+   * @return the sampler choosing vertices to debug by hashing their ids, or
+   * null if vertices are not sampled.
+   */
+  public VertexSampler getVertexSampler() {
+    return vertexSampler;
+  }
+
+  /**
+   * @return the seed to hash vertex ids with when sampling them.
+   */
+  public long getVertexSamplingSeed() {
+    return vertexSamplingSeed;
+  }
+
+  /**
+   * @return Number of vertices to capture per superstep across all workers,
+   *         sampled uniformly among the vertices selected for debugging, or 0
+   *         if each worker captures the first
+   *         {@link #getNumberOfVerticesToLog()} selected vertices.
+   */
+  public int getGlobalVertexSampleSize() {
+    return globalVertexSampleSize;
+  }
+
+  /**
+   * @return Number of threads writing traces.
+   */
+  public int getWriterNumThreads() {
+    return writerNumThreads;
+  }
+
+  /**
+   * @return Maximum number of bytes of traces waiting to be written by a
+   *         worker.
+   */
+  public long getWriterMaxQueuedBytes() {
+    return writerMaxQueuedBytes;
+  }
+
+  /**
+   * @return What to do with traces that do not fit in the write queue.
+   */
+  public OverflowPolicy getWriterOverflowPolicy() {
+    return writerOverflowPolicy;
+  }
+
+  /**
+   * @return Number of milliseconds to wait for the traces of a superstep to
+   *         be written before starting the next one, or 0 not to wait.
+   */
+  public long getWriterFlushTimeoutMillis() {
+    return writerFlushTimeoutMillis;
+  }
+
+  /**
+   * @return Number of milliseconds to wait for all traces to be written at
+   *         shutdown.
+   */
+  public long getWriterShutdownTimeoutMillis() {
+    return writerShutdownTimeoutMillis;
+  }
+
+  /**
+   * @return Number of bytes of direct memory each compute thread keeps its
+   *         traces in until they are written, or 0 to keep them on the heap.
+   */
+  public int getWriterOffHeapStagingBytes() {
+    return writerOffHeapStagingBytes;
+  }
+
+  /**
+   * @return The codec traces are compressed with.
+   */
+  public TraceCodec getTraceCodec() {
+    return traceCodec;
+  }
+
+  /**
+   * @return Whether to compress vertex traces with a dictionary.
+   */
+  public boolean shouldUseTraceCodecDictionary() {
+    return useTraceCodecDictionary;
+  }
+
+  /**
+   * @return Maximum number of neighbors a trace stores, or 0 for no limit.
+   */
+  public int getMaxCapturedNeighbors() {
+    return maxCapturedNeighbors;
+  }
+
+  /**
+   * @return Maximum number of incoming messages a trace stores, or 0 for no
+   *         limit.
+   */
+  public int getMaxCapturedInMessages() {
+    return maxCapturedInMessages;
+  }
+
+  /**
+   * @return Maximum number of messages sent to single vertices a trace
+   *         stores, or 0 for no limit.
+   */
+  public int getMaxCapturedOutMessages() {
+    return maxCapturedOutMessages;
+  }
+
+  /**
+   * @return Number of threads checking integrity constraints off the compute
+   *         threads, or 0 to check them in compute().
+   */
+  public int getIntegrityCheckThreads() {
+    return integrityCheckThreads;
+  }
+
+  public int getIntegrityCheckBatchSize() {
+    return integrityCheckBatchSize;
+  }
+
+  public int getIntegrityCheckQueueSize() {
+    return integrityCheckQueueSize;
+  }
+
+  /**
+   * @return Fraction of vertex values to check against
+   *         {@link #isVertexValueCorrect(WritableComparable, Writable)}.
+   */
+  public float getVertexValueCheckRate() {
+    return vertexValueCheckRate;
+  }
+
+  /**
+   * @return Fraction of messages to check against the message constraint.
+   */
+  public float getMessageCheckRate() {
+    return messageCheckRate;
+  }
+
+  public IntegrityCheckSampler.Method getIntegrityCheckSamplingMethod() {
+    return integrityCheckSamplingMethod;
+  }
+
+  /**
+   * @return Whether to capture only vertices whose value compute() changed.
+   */
+  public boolean shouldCaptureChangedValuesOnly() {
+    return captureChangedValuesOnly;
+  }
+
+  public double getValueChangeEpsilon() {
+    return valueChangeEpsilon;
+  }
+
+  public int getMinStableSupersteps() {
+    return minStableSupersteps;
+  }
+
+  public int getValueChangeTableSlots() {
+    return valueChangeTableSlots;
+  }
+
+  public int getFlightRecorderBytes() {
+    return flightRecorderBytes;
+  }
+
+  public int getFlightRecorderSupersteps() {
+    return flightRecorderSupersteps;
+  }
+
+  public double getMaxOverheadFraction() {
+    return maxOverheadFraction;
+  }
+
+  public long getMaxTraceBytesPerSuperstep() {
+    return maxTraceBytesPerSuperstep;
+  }
+
+  public boolean isDryRun() {
+    return dryRun;
+  }
+
+  /**
+   * Tells whether a job is a dry run, for the master, which does not read
+   * the DebugConfig.
+   *
+   * @param config The configuration of the job.
+   * @return Whether to only count the traces that would be saved.
+   */
+  public static boolean isDryRun(GiraphConfiguration config) {
+    return config.getBoolean(DRY_RUN, false);
+  }
+
+  public boolean shouldCollectStatistics() {
+    return collectStatistics;
+  }
+
+  /**
+   * Tells whether to collect statistics, for the master, which does not read
+   * the DebugConfig.
+   *
+   * @param config The configuration of the job.
+   * @return Whether to collect exact statistics of every superstep.
+   */
+  public static boolean shouldCollectStatistics(GiraphConfiguration config) {
+    return config.getBoolean(COLLECT_STATISTICS, false);
+  }
+
   @Override
   public String toString() {
     StringBuilder stringBuilder = new StringBuilder();
     stringBuilder.append("superstepsToDebug: " +
       (superstepsToDebugSet == null ? "all supersteps" : Arrays
         .toString(superstepsToDebugSet.toArray())));
-    stringBuilder.append("verticesToDebug: " +
-      (verticesToDebugSet == null ? null : Arrays.toString(verticesToDebugSet
-        .toArray())));
+    stringBuilder.append("numVerticesToDebug: " +
+      (verticesToDebugSet == null ? null : verticesToDebugSet.size()));
+    stringBuilder.append("vertexSamplingRate: " +
+      (vertexSampler == null ? null : vertexSampler.getRate()));
     stringBuilder.append("debugNeighborsOfVerticesToDebug: " +
       debugNeighborsOfVerticesToDebug);
     stringBuilder.append("shouldCatchExceptions: " + shouldCatchExceptions());
+    stringBuilder.append("exceptionCaptureMode: " + exceptionCaptureMode);
     stringBuilder.append("shouldCheckMessageIntegrity: " +
       shouldCheckMessageIntegrity());
     stringBuilder.append("shouldCheckVertexValueIntegrity: " +
@@ -0,0 +1,493 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.giraph.debugger.utils.WritableCloner;
+import org.apache.giraph.edge.Edge;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * The messages a vertex sent in a single call of compute(), handed to
+ * {@link DebugConfig#checkMessages(OutgoingMessageBatch, long)} at once when
+ * compute() returns. Messages sent to single vertices are
+ * kept with their destinations, which are kept in a primitive array when
+ * vertex ids are {@link LongWritable}s. Messages sent to all edges are kept
+ * once together with the target ids of the edges when the message was sent,
+ * as Giraph resolves them, so edges the vertex adds or removes afterwards do
+ * not change the destinations of the message.
+ *
+ * Messages and destinations are copies, since Giraph lets computations reuse
+ * them once they are sent, and the copies are reused in the next batch, so
+ * constraints must not keep references to them. A batch can be serialized
+ * and read back into another batch, e.g., to be checked on another thread.
+ *
+ * @param <I> Vertex id type.
+ * @param <M> Message type.
+ */
+@SuppressWarnings("rawtypes")
+public class OutgoingMessageBatch<I extends WritableComparable,
+  M extends Writable> {
+  /**
+   * Initial capacity of the arrays holding messages sent to single vertices.
+   */
+  private static final int INITIAL_CAPACITY = 16;
+
+  /**
+   * Receives the violations found while checking a batch.
+   *
+   * @param <I> Vertex id type.
+   * @param <M> Message type.
+   */
+  public interface ViolationHandler<I, M> {
+    /**
+     * Records a message that violates a constraint.
+     *
+     * @param srcId Source id of the message.
+     * @param dstId Destination id of the message.
+     * @param message The message.
+     * @return whether further violations should be reported.
+     */
+    boolean handleViolation(I srcId, I dstId, M message);
+  }
+
+  /**
+   * Class of vertex ids.
+   */
+  private final Class<I> vertexIdClass;
+  /**
+   * Class of messages.
+   */
+  private final Class<M> messageClass;
+  /**
+   * Whether destinations of messages sent to single vertices are kept in
+   * {@link #longDestinations}, instead of {@link #destinations}.
+   */
+  private final boolean hasLongDestinations;
+  /**
+   * Receives the violations found while checking this batch.
+   */
+  private final ViolationHandler<I, M> violationHandler;
+  /**
+   * Id of the vertex that sent the messages.
+   */
+  private I srcId;
+  /**
+   * Number of messages sent to single vertices.
+   */
+  private int numMessages;
+  /**
+   * Destinations of messages sent to single vertices if vertex ids are
+   * longs.
+   */
+  private long[] longDestinations;
+  /**
+   * Destinations of messages sent to single vertices otherwise. Entries past
+   * {@link #numMessages} are copies kept for reuse.
+   */
+  private final List<I> destinations = new ArrayList<>();
+  /**
+   * Messages sent to single vertices. Entries past {@link #numMessages} are
+   * copies kept for reuse.
+   */
+  private final List<M> messages = new ArrayList<>();
+  /**
+   * Number of messages sent to all edges.
+   */
+  private int numBroadcasts;
+  /**
+   * Messages sent to all edges. Entries past {@link #numBroadcasts} are
+   * copies kept for reuse.
+   */
+  private final List<M> broadcastMessages = new ArrayList<>();
+  /**
+   * Number of destinations of all messages sent to all edges.
+   */
+  private int numBroadcastDestinations;
+  /**
+   * Index after the last destination of each message sent to all edges, in
+   * {@link #longBroadcastDestinations} or {@link #broadcastDestinations}.
+   */
+  private int[] broadcastDestinationEnds = new int[INITIAL_CAPACITY];
+  /**
+   * Destinations of messages sent to all edges if vertex ids are longs.
+   */
+  private long[] longBroadcastDestinations;
+  /**
+   * Destinations of messages sent to all edges otherwise. Entries past
+   * {@link #numBroadcastDestinations} are copies kept for reuse.
+   */
+  private final List<I> broadcastDestinations = new ArrayList<>();
+  /**
+   * Reusable id handed out as the destination of a message when vertex ids
+   * are longs.
+   */
+  private final LongWritable longDestination;
+  /**
+   * Whether the violation handler asked not to report further violations.
+   */
+  private boolean isDone;
+
+  /**
+   * Constructor.
+   *
+   * @param vertexIdClass Class of vertex ids.
+   * @param messageClass Class of messages.
+   * @param violationHandler Receives the violations found while checking.
+   */
+  public OutgoingMessageBatch(Class<I> vertexIdClass, Class<M> messageClass,
+    ViolationHandler<I, M> violationHandler) {
+    this.vertexIdClass = vertexIdClass;
+    this.messageClass = messageClass;
+    this.violationHandler = violationHandler;
+    this.hasLongDestinations = vertexIdClass == LongWritable.class;
+    if (hasLongDestinations) {
+      longDestinations = new long[INITIAL_CAPACITY];
+      longBroadcastDestinations = new long[INITIAL_CAPACITY];
+      longDestination = new LongWritable();
+    } else {
+      longDestination = null;
+    }
+  }
+
+  /**
+   * Empties this batch to collect the messages of another vertex.
+   *
+   * @param srcId Id of the vertex that will send the messages, which must not
+   *        change until the batch is checked.
+   */
+  public void reset(I srcId) {
+    this.srcId = srcId;
+    numMessages = 0;
+    numBroadcasts = 0;
+    numBroadcastDestinations = 0;
+    isDone = false;
+  }
+
+  /**
+   * Adds a message sent to a single vertex.
+   *
+   * @param dstId Destination id of the message.
+   * @param message The message.
+   */
+  public void add(I dstId, M message) {
+    if (hasLongDestinations) {
+      if (numMessages == longDestinations.length) {
+        longDestinations = Arrays.copyOf(longDestinations, numMessages * 2);
+      }
+      longDestinations[numMessages] = ((LongWritable) dstId).get();
+    } else {
+      set(destinations, numMessages, dstId, vertexIdClass);
+    }
+    set(messages, numMessages, message, messageClass);
+    numMessages++;
+  }
+
+  /**
+   * Adds a message sent to all edges of the vertex.
+   *
+   * @param message The message.
+   * @param edges The edges of the vertex when the message is sent.
+   */
+  public void addBroadcast(M message, Iterable<? extends Edge<I, ?>> edges) {
+    set(broadcastMessages, numBroadcasts, message, messageClass);
+    for (Edge<I, ?> edge : edges) {
+      addBroadcastDestination(edge.getTargetVertexId());
+    }
+    endBroadcast();
+  }
+
+  /**
+   * Adds a destination of the message sent to all edges being added.
+   *
+   * @param dstId The destination id.
+   */
+  private void addBroadcastDestination(I dstId) {
+    if (hasLongDestinations) {
+      if (numBroadcastDestinations == longBroadcastDestinations.length) {
+        longBroadcastDestinations = Arrays.copyOf(longBroadcastDestinations,
+          numBroadcastDestinations * 2);
+      }
+      longBroadcastDestinations[numBroadcastDestinations] =
+        ((LongWritable) dstId).get();
+    } else {
+      set(broadcastDestinations, numBroadcastDestinations, dstId,
+        vertexIdClass);
+    }
+    numBroadcastDestinations++;
+  }
+
+  /**
+   * Finishes adding a message sent to all edges and its destinations.
+   */
+  private void endBroadcast() {
+    if (numBroadcasts == broadcastDestinationEnds.length) {
+      broadcastDestinationEnds = Arrays.copyOf(broadcastDestinationEnds,
+        numBroadcasts * 2);
+    }
+    broadcastDestinationEnds[numBroadcasts] = numBroadcastDestinations;
+    numBroadcasts++;
+  }
+
+  /**
+   * Copies an object into the given position of a list, reusing the copy
+   * that is already there if any.
+   *
+   * @param <T> Type of the objects.
+   * @param list The list.
+   * @param index The position, at most the size of the list.
+   * @param object The object to copy.
+   * @param clazz Class of the object.
+   */
+  private static <T extends Writable> void set(List<T> list, int index,
+    T object, Class<T> clazz) {
+    if (index < list.size()) {
+      WritableCloner.copy(object, list.get(index), clazz);
+    } else {
+      list.add(WritableCloner.cloneOf(object, clazz));
+    }
+  }
+
+  /**
+   * @return Whether no messages were sent.
+   */
+  public boolean isEmpty() {
+    return numMessages == 0 && numBroadcasts == 0;
+  }
+
+  public I getSrcId() {
+    return srcId;
+  }
+
+  /**
+   * @return Number of messages sent to single vertices.
+   */
+  public int getNumMessages() {
+    return numMessages;
+  }
+
+  /**
+   * @return Whether destinations can be read with
+   *         {@link #getLongDestination(int)}.
+   */
+  public boolean hasLongDestinations() {
+    return hasLongDestinations;
+  }
+
+  /**
+   * @param index Index of a message sent to a single vertex.
+   * @return Destination of the message if vertex ids are longs.
+   */
+  public long getLongDestination(int index) {
+    return longDestinations[index];
+  }
+
+  /**
+   * @param index Index of a message sent to a single vertex.
+   * @return Destination of the message. If vertex ids are longs, the same
+   *         object is returned for every index.
+   */
+  @SuppressWarnings("unchecked")
+  public I getDestination(int index) {
+    if (hasLongDestinations) {
+      longDestination.set(longDestinations[index]);
+      return (I) longDestination;
+    }
+    return destinations.get(index);
+  }
+
+  /**
+   * @param index Index of a message sent to a single vertex.
+   * @return The message.
+   */
+  public M getMessage(int index) {
+    return messages.get(index);
+  }
+
+  /**
+   * @return Number of messages sent to all edges.
+   */
+  public int getNumBroadcasts() {
+    return numBroadcasts;
+  }
+
+  /**
+   * @param index Index of a message sent to all edges.
+   * @return The message.
+   */
+  public M getBroadcastMessage(int index) {
+    return broadcastMessages.get(index);
+  }
+
+  /**
+   * @param index Index of a message sent to all edges.
+   * @return Index of the first destination of the message.
+   */
+  private int getBroadcastDestinationsStart(int index) {
+    return index == 0 ? 0 : broadcastDestinationEnds[index - 1];
+  }
+
+  /**
+   * @param index Index of a message sent to all edges.
+   * @return Number of edges the message was sent to.
+   */
+  public int getNumBroadcastDestinations(int index) {
+    return broadcastDestinationEnds[index] -
+      getBroadcastDestinationsStart(index);
+  }
+
+  /**
+   * @param index Index of a message sent to all edges.
+   * @param destinationIndex Index of a destination of the message.
+   * @return The destination if vertex ids are longs.
+   */
+  public long getLongBroadcastDestination(int index, int destinationIndex) {
+    return longBroadcastDestinations[getBroadcastDestinationsStart(index) +
+      destinationIndex];
+  }
+
+  /**
+   * @param index Index of a message sent to all edges.
+   * @param destinationIndex Index of a destination of the message.
+   * @return The destination. If vertex ids are longs, the same object is
+   *         returned for every index.
+   */
+  @SuppressWarnings("unchecked")
+  public I getBroadcastDestination(int index, int destinationIndex) {
+    if (hasLongDestinations) {
+      longDestination.set(getLongBroadcastDestination(index,
+        destinationIndex));
+      return (I) longDestination;
+    }
+    return broadcastDestinations.get(getBroadcastDestinationsStart(index) +
+      destinationIndex);
+  }
+
+  /**
+   * Serializes the messages of this batch with their destinations, but not
+   * the source id.
+   *
+   * @param out Output to write to.
+   * @throws IOException
+   */
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(numMessages);
+    for (int i = 0; i < numMessages; i++) {
+      getDestination(i).write(out);
+      messages.get(i).write(out);
+    }
+    out.writeInt(numBroadcasts);
+    for (int i = 0; i < numBroadcasts; i++) {
+      broadcastMessages.get(i).write(out);
+      int numDestinations = getNumBroadcastDestinations(i);
+      out.writeInt(numDestinations);
+      for (int j = 0; j < numDestinations; j++) {
+        getBroadcastDestination(i, j).write(out);
+      }
+    }
+  }
+
+  /**
+   * Empties this batch and reads the messages of a batch serialized with
+   * {@link #write(DataOutput)} into it.
+   *
+   * @param srcId Id of the vertex that sent the messages, which must not
+   *        change until the batch is checked.
+   * @param in Input to read from.
+   * @throws IOException
+   */
+  public void readFields(I srcId, DataInput in) throws IOException {
+    reset(srcId);
+    numMessages = in.readInt();
+    if (hasLongDestinations && numMessages > longDestinations.length) {
+      longDestinations = Arrays.copyOf(longDestinations, numMessages);
+    }
+    for (int i = 0; i < numMessages; i++) {
+      if (hasLongDestinations) {
+        longDestinations[i] = in.readLong();
+      } else {
+        readInto(destinations, i, in, vertexIdClass);
+      }
+      readInto(messages, i, in, messageClass);
+    }
+    int numBroadcastsRead = in.readInt();
+    for (int i = 0; i < numBroadcastsRead; i++) {
+      readInto(broadcastMessages, i, in, messageClass);
+      int numDestinations = in.readInt();
+      if (hasLongDestinations && numBroadcastDestinations + numDestinations >
+        longBroadcastDestinations.length) {
+        longBroadcastDestinations = Arrays.copyOf(longBroadcastDestinations,
+          Math.max(numBroadcastDestinations + numDestinations,
+            longBroadcastDestinations.length * 2));
+      }
+      for (int j = 0; j < numDestinations; j++) {
+        if (hasLongDestinations) {
+          longBroadcastDestinations[numBroadcastDestinations] =
+            in.readLong();
+        } else {
+          readInto(broadcastDestinations, numBroadcastDestinations, in,
+            vertexIdClass);
+        }
+        numBroadcastDestinations++;
+      }
+      endBroadcast();
+    }
+  }
+
+  /**
+   * Reads an object into the given position of a list, reusing the object
+   * that is already there if any.
+   *
+   * @param <T> Type of the objects.
+   * @param list The list.
+   * @param index The position, at most the size of the list.
+   * @param in Input to read from.
+   * @param clazz Class of the object.
+   * @throws IOException
+   */
+  private static <T extends Writable> void readInto(List<T> list, int index,
+    DataInput in, Class<T> clazz) throws IOException {
+    if (index == list.size()) {
+      list.add(WritableCloner.newInstance(clazz));
+    }
+    list.get(index).readFields(in);
+  }
+
+  /**
+   * Reports a message that violates a constraint. Violations reported after
+   * this returns false are ignored, so constraints should stop checking then.
+   *
+   * @param dstId Destination id of the message.
+   * @param message The message.
+   * @return whether further violations should be reported.
+   */
+  public boolean reportViolation(I dstId, M message) {
+    if (!isDone && !violationHandler.handleViolation(srcId, dstId, message)) {
+      isDone = true;
+    }
+    return !isDone;
+  }
+}
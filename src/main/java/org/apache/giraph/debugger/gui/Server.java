@@ -379,15 +379,17 @@ public class Server {
    *
    * URL Params: jobId, superstepId, violiationType It is an optional parameter
    *            and is only used when violationType = V
+   *            offset It is an optional number of message violations to skip
+   *            in the trace of each task, and is only used when
+   *            violationType = M
    */
   static class GetIntegrity extends ServerHttpHandler {
     /**
      * The server returns only a limited number of msg or vertex value
-     * violations. For message violations, it may not put the limit at exactly
-     * this number because it reads each violation trace which may include
-     * multiple message violations and adds all the violations in the trace to
-     * the response. Once the total message violations is over this number it
-     * stops reading traces.
+     * violations. For message violations, it reads only as many as are
+     * missing from each trace saved in chunks, but it adds all the violations
+     * of a trace saved as a single protobuf to the response. Once the total
+     * message violations is over this number it stops reading traces.
      */
     private static final int NUM_VIOLATIONS_THRESHOLD = 50;
 
@@ -415,11 +417,17 @@ public class Server {
           List<String> taskIds = ServerUtils.getTasksWithIntegrityViolations(
             jobId, superstepNo, DebugTrace.INTEGRITY_MESSAGE_ALL);
 
+          String violationOffset = paramMap.get(
+            ServerUtils.VIOLATION_OFFSET_KEY);
+          int firstViolation = violationOffset == null ? 0 :
+            Integer.parseInt(violationOffset);
           int numViolations = 0;
           for (String taskId : taskIds) {
+            // Only the chunks holding the violations returned are read.
             MsgIntegrityViolationWrapper msgIntegrityViolationWrapper =
               ServerUtils.readMsgIntegrityViolationFromTrace(jobId, taskId,
-                superstepNo);
+                superstepNo, firstViolation,
+                NUM_VIOLATIONS_THRESHOLD - numViolations);
             integrityObj.put(taskId,
               ServerUtils.msgIntegrityToJson(msgIntegrityViolationWrapper));
             numViolations += msgIntegrityViolationWrapper.numMsgWrappers();
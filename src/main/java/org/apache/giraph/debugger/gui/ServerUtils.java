@@ -24,15 +24,25 @@ import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.net.URLDecoder;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.giraph.debugger.Integrity.MessageIntegrityViolation;
 import org.apache.giraph.debugger.utils.AggregatedValueWrapper;
 import org.apache.giraph.debugger.utils.DebuggerUtils;
 import org.apache.giraph.debugger.utils.DebuggerUtils.DebugTrace;
@@ -44,6 +54,7 @@ import org.apache.giraph.debugger.utils.GiraphVertexScenarioWrapper.VertexContex
 import org.apache.giraph.debugger.utils.GiraphVertexScenarioWrapper.VertexContextWrapper.OutgoingMessageWrapper;
 import org.apache.giraph.debugger.utils.MsgIntegrityViolationWrapper;
 import org.apache.giraph.debugger.utils.MsgIntegrityViolationWrapper.ExtendedOutgoingMessageWrapper;
+import org.apache.giraph.debugger.utils.TraceSegmentIndex;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileStatus;
@@ -91,6 +102,11 @@ public class ServerUtils {
    * String for specifying the adjacency list parameter.
    */
   public static final String ADJLIST_KEY = "adjList";
+  /**
+   * String for specifying the number of message integrity violations to skip
+   * in the trace of each task, to page through them.
+   */
+  public static final String VIOLATION_OFFSET_KEY = "offset";
 
   /**
    * Logger for this class.
@@ -102,6 +118,46 @@ public class ServerUtils {
    */
   private static FileSystem FILE_SYSTEM_CACHED;
 
+  /**
+   * Maximum number of trace segment indexes kept in memory.
+   */
+  private static final int MAX_CACHED_TRACE_SEGMENT_INDEXES = 1024;
+
+  /**
+   * Indexes of the trace segments read so far, keyed by path, along with
+   * their lookup of records by vertex. A segment never changes once its
+   * index is written, so the indexes never go stale.
+   */
+  private static final Map<String, TraceSegmentIndex>
+  TRACE_SEGMENT_INDEX_CACHE = Collections.synchronizedMap(
+    new LinkedHashMap<String, TraceSegmentIndex>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(
+        Map.Entry<String, TraceSegmentIndex> eldest) {
+        return size() > MAX_CACHED_TRACE_SEGMENT_INDEXES;
+      }
+    });
+
+  /**
+   * Number of threads decoding the chunks of message integrity violation
+   * traces.
+   */
+  private static final int NUM_CHUNK_DECODING_THREADS = 4;
+
+  /**
+   * Reads, decompresses and parses the chunks of message integrity violation
+   * traces in parallel.
+   */
+  private static final ExecutorService CHUNK_DECODING_SERVICE = Executors
+    .newFixedThreadPool(NUM_CHUNK_DECODING_THREADS, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "graft-chunk-decoder");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
   /**
    * Private constructor to disallow construction.
    */
@@ -255,12 +311,10 @@ public class ServerUtils {
     }
     // Loops through all possible debug traces and returns the first one found.
     for (DebugTrace enumValue : enumSet) {
-      String traceFilePath = ServerUtils.getVertexTraceFilePath(jobId,
-        superstepNo, vertexId, enumValue);
       try {
         // If scenario is found, return it.
-        giraphScenarioWrapper.loadFromHDFS(fs, traceFilePath,
-          getCachedJobJarPath(jobId));
+        loadVertexScenario(fs, jobId, superstepNo, vertexId, enumValue,
+          giraphScenarioWrapper, getCachedJobJarPath(jobId));
         return giraphScenarioWrapper;
       } catch (FileNotFoundException e) {
         // Ignore the exception since we will try reading another traceType
@@ -272,6 +326,106 @@ public class ServerUtils {
     throw new FileNotFoundException("Debug Trace not found.");
   }
 
+  /**
+   * Loads a vertex trace into the given wrapper. The trace is first looked up
+   * in the trace segments of the superstep, then in a trace file of its own,
+   * which is how traces used to be saved.
+   *
+   * @param fs the file system storing the traces.
+   * @param jobId id of the job.
+   * @param superstepNo superstep number.
+   * @param vertexId id of the vertex.
+   * @param debugTrace one of VERTEX_REGULAR, VERTEX_EXCEPTION or
+   *        INTEGRITY_* types.
+   * @param giraphScenarioWrapper the wrapper to load the trace into.
+   * @param classPaths class paths containing the classes of the job.
+   * @throws FileNotFoundException if there is no such trace.
+   */
+  private static void loadVertexScenario(FileSystem fs, String jobId,
+    long superstepNo, String vertexId, DebugTrace debugTrace,
+    GiraphVertexScenarioWrapper giraphScenarioWrapper, URL... classPaths)
+    throws IOException, ClassNotFoundException, InstantiationException,
+    IllegalAccessException {
+    for (Path segmentPath : getTraceSegmentPaths(fs, jobId, superstepNo)) {
+      TraceSegmentIndex segmentIndex = getTraceSegmentIndex(fs, segmentPath);
+      TraceSegmentIndex.Entry entry = segmentIndex == null ? null :
+        segmentIndex.find(debugTrace, vertexId);
+      if (entry != null) {
+        giraphScenarioWrapper.loadFromBytes(
+          segmentIndex.readRecord(fs, segmentPath, entry), classPaths);
+        giraphScenarioWrapper.getContextWrapper()
+          .getCommonVertexMasterContextWrapper()
+          .resolveSharedContext(fs, jobId);
+        return;
+      }
+    }
+    giraphScenarioWrapper.loadFromHDFS(fs, ServerUtils.getVertexTraceFilePath(
+      jobId, superstepNo, vertexId, debugTrace), classPaths);
+    giraphScenarioWrapper.getContextWrapper()
+      .getCommonVertexMasterContextWrapper().resolveSharedContext(fs, jobId);
+  }
+
+  /**
+   * @param fs the file system storing the traces.
+   * @param jobId id of the job.
+   * @param superstepNo superstep number.
+   * @return paths of the trace segments of the given superstep.
+   */
+  private static List<Path> getTraceSegmentPaths(FileSystem fs, String jobId,
+    long superstepNo) throws IOException {
+    List<Path> segmentPaths = new ArrayList<Path>();
+    Pattern p = Pattern.compile(String.format(
+      DebuggerUtils.getTraceSegmentFileFormat(), superstepNo, ".*?"));
+    FileStatus[] fileStatuses = fs.listStatus(new Path(DebuggerUtils
+      .getTraceFileRoot(jobId)));
+    if (fileStatuses == null) {
+      return segmentPaths;
+    }
+    for (FileStatus fileStatus : fileStatuses) {
+      if (p.matcher(fileStatus.getPath().getName()).matches()) {
+        segmentPaths.add(fileStatus.getPath());
+      }
+    }
+    return segmentPaths;
+  }
+
+  /**
+   * @param fs the file system storing the traces.
+   * @param segmentPath path of a trace segment.
+   * @return the index of the segment, or null if the segment is still being
+   *         written or is corrupt.
+   */
+  private static TraceSegmentIndex getTraceSegmentIndex(FileSystem fs,
+    Path segmentPath) {
+    String key = segmentPath.toString();
+    TraceSegmentIndex segmentIndex = TRACE_SEGMENT_INDEX_CACHE.get(key);
+    if (segmentIndex == null) {
+      try {
+        segmentIndex = TraceSegmentIndex.read(fs, segmentPath);
+        TRACE_SEGMENT_INDEX_CACHE.put(key, segmentIndex);
+      } catch (IOException e) {
+        LOG.warn("Skipping trace segment " + segmentPath + ": " +
+          e.getMessage());
+      }
+    }
+    return segmentIndex;
+  }
+
+  /**
+   * @param entryDebugTrace type of a trace in a trace segment.
+   * @param debugTrace type of traces being looked for, which may be
+   *        VERTEX_ALL.
+   * @return whether the trace is of the type being looked for.
+   */
+  private static boolean matchesDebugTrace(DebugTrace entryDebugTrace,
+    DebugTrace debugTrace) {
+    if (debugTrace == DebugTrace.VERTEX_ALL) {
+      return entryDebugTrace == DebugTrace.VERTEX_REGULAR ||
+        entryDebugTrace == DebugTrace.VERTEX_EXCEPTION;
+    }
+    return entryDebugTrace == debugTrace;
+  }
+
   /**
    * Reads the master protocol buffer trace corresponding to the given jobId and
    * superstepNo and returns the GiraphMasterScenarioWrapper object.
@@ -310,6 +464,8 @@ public class ServerUtils {
       try {
         giraphScenarioWrapper.loadFromHDFS(fs, traceFilePath,
           getCachedJobJarPath(jobId));
+        giraphScenarioWrapper.getCommonVertexMasterContextWrapper()
+          .resolveSharedContext(fs, jobId);
         // If scenario is found, return it.
         return giraphScenarioWrapper;
       } catch (FileNotFoundException e) {
@@ -330,6 +486,8 @@ public class ServerUtils {
       superstepNo, DebugTrace.MASTER_EXCEPTION);
     giraphScenarioWrapper.loadFromHDFS(fs, traceFilePath,
       getCachedJobJarPath(jobId));
+    giraphScenarioWrapper.getCommonVertexMasterContextWrapper()
+      .resolveSharedContext(fs, jobId);
     return giraphScenarioWrapper;
   }
 
@@ -342,16 +500,117 @@ public class ServerUtils {
   public static MsgIntegrityViolationWrapper readMsgIntegrityViolationFromTrace(
     String jobId, String taskId, long superstepNo) throws IOException,
     ClassNotFoundException, InstantiationException, IllegalAccessException {
-    FileSystem fs = ServerUtils.getFileSystem();
-    String traceFilePath = ServerUtils.getIntegrityTraceFilePath(jobId, taskId,
-      superstepNo, DebugTrace.INTEGRITY_MESSAGE_ALL);
+    return readMsgIntegrityViolationFromTrace(jobId, taskId, superstepNo, 0,
+      Integer.MAX_VALUE);
+  }
+
+  /**
+   * Reads a page of the message integrity violations in a trace file. Traces
+   * saved in chunks are paged through their index, and only the chunks
+   * holding the page are read, in parallel. Traces saved as a single
+   * protobuf are read whole.
+   *
+   * @param jobId id of the job.
+   * @param taskId id of the task.
+   * @param superstepNo superstep number.
+   * @param firstViolation number of violations to skip.
+   * @param maxViolations maximum number of violations to read.
+   * @return the {@link MsgIntegrityViolationWrapper} with the page.
+   */
+  public static MsgIntegrityViolationWrapper readMsgIntegrityViolationFromTrace(
+    String jobId, String taskId, long superstepNo, int firstViolation,
+    int maxViolations) throws IOException, ClassNotFoundException,
+    InstantiationException, IllegalAccessException {
+    final FileSystem fs = ServerUtils.getFileSystem();
+    final Path tracePath = new Path(ServerUtils.getIntegrityTraceFilePath(
+      jobId, taskId, superstepNo, DebugTrace.INTEGRITY_MESSAGE_ALL));
     MsgIntegrityViolationWrapper msgIntegrityViolationWrapper =
       new MsgIntegrityViolationWrapper();
-    msgIntegrityViolationWrapper.loadFromHDFS(fs, traceFilePath,
-      getCachedJobJarPath(jobId));
+    final TraceSegmentIndex segmentIndex = getMsgIntegrityViolationIndex(fs,
+      tracePath);
+    if (segmentIndex == null) {
+      msgIntegrityViolationWrapper.loadFromHDFS(fs, tracePath.toString(),
+        getCachedJobJarPath(jobId));
+      return msgIntegrityViolationWrapper;
+    }
+    // Each chunk is keyed by the number of violations saved before it, and
+    // chunks may have been written out of order.
+    List<TraceSegmentIndex.Entry> entries = new ArrayList<>(
+      segmentIndex.getEntries());
+    Collections.sort(entries, new Comparator<TraceSegmentIndex.Entry>() {
+      @Override
+      public int compare(TraceSegmentIndex.Entry e1,
+        TraceSegmentIndex.Entry e2) {
+        return Long.compare(Long.parseLong(e1.getVertexId()),
+          Long.parseLong(e2.getVertexId()));
+      }
+    });
+    long endViolation = (long) firstViolation + maxViolations;
+    List<Long> chunkStarts = new ArrayList<>();
+    List<Future<MessageIntegrityViolation>> chunks = new ArrayList<>();
+    for (int i = 0; i < entries.size(); i++) {
+      final TraceSegmentIndex.Entry entry = entries.get(i);
+      long chunkStart = Long.parseLong(entry.getVertexId());
+      long chunkEnd = i + 1 < entries.size() ? Long.parseLong(
+        entries.get(i + 1).getVertexId()) : Long.MAX_VALUE;
+      if (chunkStart >= endViolation || chunkEnd <= firstViolation) {
+        continue;
+      }
+      chunkStarts.add(chunkStart);
+      chunks.add(CHUNK_DECODING_SERVICE.submit(
+        new Callable<MessageIntegrityViolation>() {
+          @Override
+          public MessageIntegrityViolation call() throws IOException {
+            return MessageIntegrityViolation.parseFrom(
+              segmentIndex.readRecord(fs, tracePath, entry));
+          }
+        }));
+    }
+    URL[] jobJarPath = getCachedJobJarPath(jobId);
+    for (int i = 0; i < chunks.size(); i++) {
+      MessageIntegrityViolation chunk;
+      try {
+        chunk = chunks.get(i).get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while reading " + tracePath, e);
+      } catch (ExecutionException e) {
+        throw new IOException("Could not read a chunk of " + tracePath,
+          e.getCause());
+      }
+      // Keep only the violations of the page.
+      int from = (int) Math.max(0, firstViolation - chunkStarts.get(i));
+      int to = (int) Math.min(chunk.getMessageCount(), endViolation -
+        chunkStarts.get(i));
+      msgIntegrityViolationWrapper.loadFromProto(chunk.toBuilder()
+        .clearMessage().addAllMessage(chunk.getMessageList().subList(from,
+          to)).build(), jobJarPath);
+    }
     return msgIntegrityViolationWrapper;
   }
 
+  /**
+   * @param fs the file system storing the traces.
+   * @param tracePath path of a message integrity violation trace.
+   * @return the index of the chunks of the trace, or null if the trace was
+   *         saved as a single protobuf.
+   * @throws IOException if the trace cannot be read, or ends with the
+   *         trailer of a segment but its index is corrupt.
+   */
+  private static TraceSegmentIndex getMsgIntegrityViolationIndex(
+    FileSystem fs, Path tracePath) throws IOException {
+    String key = tracePath.toString();
+    TraceSegmentIndex segmentIndex = TRACE_SEGMENT_INDEX_CACHE.get(key);
+    if (segmentIndex == null) {
+      if (!TraceSegmentIndex.isSegment(fs, tracePath)) {
+        return null;
+      }
+      segmentIndex = TraceSegmentIndex.read(fs, tracePath);
+      TRACE_SEGMENT_INDEX_CACHE.put(key, segmentIndex);
+    }
+    return segmentIndex;
+  }
+
   /**
    * @param jobId id of the job.
    * @param superstepNo superstep number.
@@ -364,11 +623,10 @@ public class ServerUtils {
     String vertexId) throws IOException,
     ClassNotFoundException, InstantiationException, IllegalAccessException {
     FileSystem fs = ServerUtils.getFileSystem();
-    String traceFilePath = ServerUtils.getVertexTraceFilePath(jobId,
-      superstepNo, vertexId, DebugTrace.INTEGRITY_VERTEX);
     GiraphVertexScenarioWrapper giraphScenarioWrapper =
       new GiraphVertexScenarioWrapper();
-    giraphScenarioWrapper.loadFromHDFS(fs, traceFilePath);
+    loadVertexScenario(fs, jobId, superstepNo, vertexId,
+      DebugTrace.INTEGRITY_VERTEX, giraphScenarioWrapper);
     return giraphScenarioWrapper;
   }
 
@@ -395,6 +653,12 @@ public class ServerUtils {
       outgoingMessagesObj.put(outgoingMessageWrapper.getDestinationId().
         toString(), outgoingMessageWrapper.getMessage().toString());
     }
+    // Add messages sent to all neighbors, which the GUI expands.
+    ArrayList<String> broadcastMessagesList = new ArrayList<String>();
+    for (Object broadcastMessage :
+      contextWrapper.getBroadcastMessageWrappers()) {
+      broadcastMessagesList.add(broadcastMessage.toString());
+    }
     // Add incoming messages.
     ArrayList<String> incomingMessagesList = new ArrayList<String>();
     for (Object incomingMessage : contextWrapper.getIncomingMessageWrappers()) {
@@ -409,6 +673,7 @@ public class ServerUtils {
       neighborsList.put(neighborObject);
     }
     scenarioObj.put("outgoingMessages", outgoingMessagesObj);
+    scenarioObj.put("broadcastMessages", broadcastMessagesList);
     scenarioObj.put("incomingMessages", incomingMessagesList);
     scenarioObj.put("neighbors", neighborsList);
     // Add exception, if present.
@@ -485,8 +750,9 @@ public class ServerUtils {
    * @param superstepNo superstep number.
    * @param debugTrace type of vertex trace files.
    * @return a list of vertex Ids that were debugged in the given superstep by
-   * reading (the file names of) the debug traces on HDFS. File names follow the
-   * <prefix>_stp_<superstepNo>_vid_<vertexId>.tr naming convention.
+   * reading the indexes of the trace segments, as well as the file names of
+   * the debug traces saved in files of their own, on HDFS. Such file names
+   * follow the <prefix>_stp_<superstepNo>_vid_<vertexId>.tr naming convention.
    */
   public static List<String> getVerticesDebugged(String jobId,
     long superstepNo, DebugTrace debugTrace) throws IOException {
@@ -497,6 +763,8 @@ public class ServerUtils {
     String regex = String.format(DebuggerUtils.getTraceFileFormat(debugTrace),
       superstepNo, "(.*?)");
     Pattern p = Pattern.compile(regex);
+    Pattern segmentPattern = Pattern.compile(String.format(
+      DebuggerUtils.getTraceSegmentFileFormat(), superstepNo, ".*?"));
     Path pt = new Path(traceFileRoot);
     FileStatus[] fileStatuses = null;
     // Hadoop listStatus returns null when path is not found.
@@ -507,6 +775,18 @@ public class ServerUtils {
     // Iterate through each file in this diFilerectory and match the regex.
     for (FileStatus fileStatus : fileStatuses) {
       String fileName = fileStatus.getPath().getName();
+      if (segmentPattern.matcher(fileName).matches()) {
+        TraceSegmentIndex segmentIndex = getTraceSegmentIndex(fs,
+          fileStatus.getPath());
+        if (segmentIndex != null) {
+          for (TraceSegmentIndex.Entry entry : segmentIndex.getEntries()) {
+            if (matchesDebugTrace(entry.getDebugTrace(), debugTrace)) {
+              vertexIds.add(entry.getVertexId());
+            }
+          }
+        }
+        continue;
+      }
       Matcher m = p.matcher(fileName);
       // Add this vertex id if there is a match.
       if (m.find()) {
@@ -567,7 +847,8 @@ public class ServerUtils {
     FileSystem fs = ServerUtils.getFileSystem();
     String traceFileRoot = DebuggerUtils.getTraceFileRoot(jobId);
     // Use this regex to match the file name and capture the vertex id.
-    String regex = "(reg|err|msg_intgrty|vv_intgrty)_stp_(.*?)_vid_(.*?).tr$";
+    String regex =
+      "(reg|err|msg_intgrty|vv_intgrty|seg)_stp_(.*?)_(vid|task)_(.*?).trs?$";
     Pattern p = Pattern.compile(regex);
     Path pt = new Path(traceFileRoot);
     // Iterate through each file in this directory and match the regex.
@@ -20,18 +20,33 @@ package org.apache.giraph.debugger.instrumenter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.giraph.conf.StrConfOption;
 import org.apache.giraph.debugger.DebugConfig;
+import org.apache.giraph.debugger.DebugConfig.ExceptionCaptureMode;
+import org.apache.giraph.debugger.OutgoingMessageBatch;
+import org.apache.giraph.debugger.Scenario.CommonVertexMasterContext;
+import org.apache.giraph.debugger.selection.IntegrityCheckSampler;
+import org.apache.giraph.debugger.selection.ValueChangeDetector;
+import org.apache.giraph.debugger.selection.ValueChangeTable;
+import org.apache.giraph.debugger.selection.VertexFilter;
+import org.apache.giraph.debugger.selection.VertexSampler;
+import org.apache.giraph.debugger.utils.AsyncHDFSWriteService;
 import org.apache.giraph.debugger.utils.DebuggerUtils;
 import org.apache.giraph.debugger.utils.DebuggerUtils.DebugTrace;
 import org.apache.giraph.debugger.utils.ExceptionWrapper;
-import org.apache.giraph.debugger.utils.GiraphVertexScenarioWrapper;
-import org.apache.giraph.debugger.utils.GiraphVertexScenarioWrapper.VertexContextWrapper;
+import org.apache.giraph.debugger.utils.Fingerprints;
+import org.apache.giraph.debugger.utils.FlightRecorder;
 import org.apache.giraph.debugger.utils.MsgIntegrityViolationWrapper;
+import org.apache.giraph.debugger.utils.VertexScenarioEncoder;
+import org.apache.giraph.debugger.utils.VertexScenarioSizer;
+import org.apache.giraph.debugger.utils.WritableCloner;
 import org.apache.giraph.edge.Edge;
 import org.apache.giraph.graph.AbstractComputation;
 import org.apache.giraph.graph.Computation;
@@ -40,8 +55,10 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapreduce.Counter;
 import org.apache.log4j.Logger;
 
 /**
@@ -87,8 +104,10 @@ public abstract class AbstractInterceptingComputation<
 
   /**
    * A flag to indicate whether this Computation class was already initialized.
+   * Set only after all other static fields are, so that compute threads which
+   * see it set also see a fully initialized class.
    */
-  protected static boolean IS_INITIALIZED;
+  protected static volatile boolean IS_INITIALIZED;
   /**
    * Whether DEBUG_CONFIG tells to check message constraints.
    */
@@ -101,6 +120,23 @@ public abstract class AbstractInterceptingComputation<
    * Whether DEBUG_CONFIG tells to catch exceptions.
    */
   protected static boolean SHOULD_CATCH_EXCEPTIONS;
+  /**
+   * Whether DEBUG_CONFIG tells to include the value of a vertex before
+   * compute() in exception traces.
+   */
+  private static boolean SHOULD_KEEP_PREVIOUS_VALUE_FOR_EXCEPTIONS;
+  /**
+   * Whether DEBUG_CONFIG tells to check integrity constraints on threads of
+   * their own.
+   */
+  private static boolean SHOULD_CHECK_INTEGRITY_ASYNC;
+  /**
+   * Whether DEBUG_CONFIG tells to check either kind of constraint, in which
+   * case the checks run until the end of each superstep, and only their
+   * capture stops with the budget, so that the master estimates violation
+   * rates from the checks of all vertices.
+   */
+  private static boolean SHOULD_CHECK_INTEGRITY;
 
   /**
    * Configuration key for the path to the jar signature.
@@ -109,25 +145,55 @@ public abstract class AbstractInterceptingComputation<
     "giraph.debugger.jarSignature";
 
   /**
-   * A constant to limit the number of violations to log.
+   * Number of vertices and violations this worker may still capture in the
+   * current superstep, shared by all compute threads.
+   */
+  private static CaptureBudget CAPTURE_BUDGET;
+  /**
+   * Time and bytes of traces this worker may still spend on capture in the
+   * current superstep, or null if there is no limit.
+   */
+  private static OverheadBudget OVERHEAD_BUDGET;
+  /**
+   * Assigns priorities to vertices when capturing a global sample of vertices
+   * per superstep, null otherwise.
+   */
+  private static VertexSampler GLOBAL_VERTEX_SAMPLER;
+  /**
+   * This worker's share of the global sample of vertices of the latest
+   * superstep. Guarded by the class lock.
+   */
+  private static VertexReservoir VERTEX_RESERVOIR;
+  /**
+   * The superstep in which the value of each vertex considered for capture
+   * last changed, if only changes after stable values are captured.
    */
-  private static int NUM_VIOLATIONS_TO_LOG = 5;
+  private static ValueChangeTable VALUE_CHANGE_TABLE;
   /**
-   * A constant to limit the number of vertices to log.
+   * Keeps the scenarios of recent supersteps of the vertices selected for
+   * debugging, to save when they throw an exception or violate a constraint,
+   * or null if no history is kept.
    */
-  private static int NUM_VERTICES_TO_LOG = 1000;
+  private static FlightRecorder FLIGHT_RECORDER;
   /**
-   * A counter for number of vertices already logged.
+   * Whether traces are only counted instead of saved.
    */
-  private static int NUM_VERTICES_LOGGED = 0;
+  private static boolean IS_DRY_RUN;
   /**
-   * A counter for number of vertex violations already logged.
+   * Whether statistics are collected, in which case vertices keep being
+   * intercepted, only to be counted, after capture stops.
    */
-  private static int NUM_VERTEX_VIOLATIONS_LOGGED = -1;
+  private static boolean SHOULD_COLLECT_STATISTICS;
   /**
-   * A counter for number of message violations already logged.
+   * The latest superstep whose start has waited for the traces of the
+   * previous superstep to be written.
    */
-  private static int NUM_MESSAGE_VIOLATIONS_LOGGED = -1;
+  private static final AtomicLong FLUSHED_SUPERSTEP = new AtomicLong(
+    Long.MIN_VALUE);
+  /**
+   * Group of the counters exporting metrics of the trace writer.
+   */
+  private static final String WRITER_COUNTER_GROUP = "Giraph Debugger";
 
   /**
    * DebugConfig instance to be used for debugging.
@@ -162,28 +228,118 @@ public abstract class AbstractInterceptingComputation<
    * superstep.In Giraph, these aggregators are immutable. NOTE: We currently
    * only capture aggregators that are read by at least one vertex. If we want
    * to capture all aggregators we need to change Giraph code to be get access
-   * to them.
+   * to them. Giraph creates one Computation instance per compute thread, so
+   * keeping this per instance keeps the captured state thread confined.
+   */
+  private CommonVertexMasterInterceptionUtil commonVertexMasterInterceptionUtil;
+  /**
+   * The capture budget of the current superstep.
+   */
+  private CaptureBudget.SuperstepBudget superstepBudget;
+  /**
+   * The overhead of the current superstep, or null if there is no limit.
+   */
+  private OverheadBudget.SuperstepOverhead superstepOverhead;
+  /**
+   * Number of vertices whose compute() this thread intercepted.
+   */
+  private long numInterceptedVertices;
+  /**
+   * Number of vertices whose compute() this thread intercepted in the
+   * current superstep.
+   */
+  private long numSuperstepInterceptedVertices;
+  /**
+   * Whether the interception of the vertex under compute is timed.
+   */
+  private boolean isTimingVertex;
+  /**
+   * When interceptComputeBegin() started for the timed vertex.
+   */
+  private long timedVertexStartNanos;
+  /**
+   * Nanoseconds interceptComputeBegin() took for the timed vertex.
+   */
+  private long timedVertexBeginNanos;
+  /**
+   * DEBUG_CONFIG's vertex selection compiled for the current superstep.
+   */
+  private VertexFilter<I, V, E> vertexFilter;
+  /**
+   * The context of the traces captured in the current superstep.
+   */
+  private SuperstepContext superstepContext;
+  /**
+   * This worker's share of the global sample of vertices of the current
+   * superstep, or null if not sampling.
+   */
+  private VertexReservoir vertexReservoir;
+  /**
+   * Number of vertices offered to vertexReservoir by this thread.
+   */
+  private long numCandidateVertices;
+  /**
+   * Priority in vertexReservoir of the vertex under compute.
+   */
+  private long vertexPriority;
+  /**
+   * Whether the master has registered the aggregators in
+   * {@link DebuggerAggregators}.
+   */
+  private boolean areDebuggerAggregatorsRegistered;
+
+  /**
+   * Tells whether compute() changed the value of a vertex, if only such
+   * vertices are captured, null otherwise.
+   */
+  private ValueChangeDetector valueChangeDetector;
+  /**
+   * Whether {@link #valueChangeDetector} compares the value of the vertex
+   * under compute before and after compute().
    */
-  private static CommonVertexMasterInterceptionUtil
-  COMMON_VERTEX_MASTER_INTERCEPTING_UTIL;
+  private boolean isTrackingValueChange;
 
   /**
    * Whether or not this vertex was configured to be debugged. If so we will
    * intercept its outgoing messages.
    */
   private boolean shouldDebugVertex;
+  /**
+   * Whether the scenario of the vertex under compute is encoded to be kept
+   * by {@link #FLIGHT_RECORDER}.
+   */
+  private boolean isRecordingFlight;
   /**
    * Whether to stop intercepting compute() for the remaining vertices.
    */
   private boolean shouldStopInterceptingVertex;
 
   /**
-   * For vertices that are configured to be debugged, we construct a
-   * GiraphVertexScenarioWrapper in the beginning and use it to intercept
-   * outgoing messages
+   * For vertices that are configured to be debugged, we start encoding a
+   * scenario in the beginning and use it to intercept outgoing messages.
+   */
+  private VertexScenarioEncoder<I, V, E, M1, M2> regularTraceEncoder;
+  /**
+   * Encodes the scenarios of exception and integrity violation traces, which
+   * may be saved while a regular trace is being encoded.
+   */
+  private VertexScenarioEncoder<I, V, E, M1, M2> violationTraceEncoder;
+  /**
+   * During a dry run, estimates the sizes of the regular traces of the
+   * vertices that are debugged, which are not encoded because they would
+   * only be saved.
    */
-  private GiraphVertexScenarioWrapper<I, V, E, M1, M2>
-  giraphVertexScenarioWrapperForRegularTraces;
+  private VertexScenarioSizer<I, V, E, M1, M2> regularTraceSizer;
+  /**
+   * Whether the regular trace of the vertex under compute is sized by
+   * {@link #regularTraceSizer} instead of encoded.
+   */
+  private boolean isSizingVertex;
+  /**
+   * Numbers and sizes of the traces this thread saved in the current
+   * superstep, or would have saved in a dry run.
+   */
+  private final TraceCounts traceCounts = new TraceCounts();
 
   /**
    * If a vertex has violated a message value constraint when it was sending a
@@ -209,14 +365,74 @@ public abstract class AbstractInterceptingComputation<
   private DataInputBuffer previousVertexValueInputBuffer =
     new DataInputBuffer();
   /**
-   * We keep the vertex under compute in case some functions need it, e.g.,
-   * sendMessage().
+   * Whether the value of the vertex under compute was kept before compute().
    */
-  private Vertex<I, V, E> currentVertexUnderCompute;
+  private boolean isPreviousVertexValueKept;
+  /**
+   * Collects the messages the vertex under compute sends, which are checked
+   * against the message integrity constraint when compute() returns.
+   */
+  private OutgoingMessageBatch<I, M2> outgoingMessageBatch;
+  /**
+   * Whether the messages the vertex under compute sends are collected in
+   * {@link #outgoingMessageBatch}.
+   */
+  private boolean isCollectingOutgoingMessages;
   /**
    * The wrapped instance of message integrity violation.
    */
   private MsgIntegrityViolationWrapper<I, M2> msgIntegrityViolationWrapper;
+  /**
+   * Samples the vertex values to check, or null if all are checked.
+   */
+  private IntegrityCheckSampler vertexValueCheckSampler;
+  /**
+   * Samples the messages to check, or null if all are checked.
+   */
+  private IntegrityCheckSampler messageCheckSampler;
+  /**
+   * Whether to check the value of the vertex under compute.
+   */
+  private boolean shouldCheckVertexValue;
+  /**
+   * Numbers of values and messages this thread checked in the current
+   * superstep, and of violations among them.
+   */
+  private final IntegrityCheckCounts integrityCheckCounts =
+    new IntegrityCheckCounts();
+  /**
+   * Checks the integrity constraints off this thread, or null if they are
+   * checked in compute().
+   */
+  private AsyncIntegrityChecker<I, V, M2> asyncIntegrityChecker;
+  /**
+   * DataInputBuffer for reading the violations found by
+   * {@link #asyncIntegrityChecker}.
+   */
+  private DataInputBuffer asyncViolationInputBuffer;
+  /**
+   * Id of the vertex of a violation found by {@link #asyncIntegrityChecker}.
+   */
+  private I asyncViolationVertexId;
+  /**
+   * Value before compute() of the vertex of a violation found by
+   * {@link #asyncIntegrityChecker}.
+   */
+  private V asyncViolationValueBefore;
+  /**
+   * Value after compute() of the vertex of a violation found by
+   * {@link #asyncIntegrityChecker}.
+   */
+  private V asyncViolationValueAfter;
+  /**
+   * Destination of a message violation found by
+   * {@link #asyncIntegrityChecker}.
+   */
+  private I asyncViolationMessageDestination;
+  /**
+   * Message of a message violation found by {@link #asyncIntegrityChecker}.
+   */
+  private M2 asyncViolationMessage;
 
   /**
    * Provides a way to access the actual Computation class.
@@ -226,17 +442,105 @@ public abstract class AbstractInterceptingComputation<
     ? extends Writable>> getActualTestedClass();
 
   /**
-   * Initializes this class to start debugging.
+   * Initializes this instance to start debugging, and the class as well if
+   * this is the first instance to be initialized.
    */
-  protected final synchronized void
-  initializeAbstractInterceptingComputation() {
-    if (IS_INITIALIZED) {
-      return; // don't initialize twice
+  protected final void initializeAbstractInterceptingComputation() {
+    if (!IS_INITIALIZED) {
+      synchronized (AbstractInterceptingComputation.class) {
+        if (!IS_INITIALIZED) { // don't initialize twice
+          initializeAbstractInterceptingComputationClass();
+          IS_INITIALIZED = true;
+        }
+      }
+    }
+    if (commonVertexMasterInterceptionUtil == null) {
+      commonVertexMasterInterceptionUtil =
+        new CommonVertexMasterInterceptionUtil(
+          getContext().getJobID().toString());
+      if (IS_DRY_RUN || SHOULD_COLLECT_STATISTICS) {
+        commonVertexMasterInterceptionUtil.setTraceCounts(traceCounts);
+      }
     }
-    IS_INITIALIZED = true;
-    COMMON_VERTEX_MASTER_INTERCEPTING_UTIL =
-      new CommonVertexMasterInterceptionUtil(
-        getContext().getJobID().toString());
+    if (regularTraceEncoder == null) {
+      regularTraceEncoder = newVertexScenarioEncoder();
+      violationTraceEncoder = newVertexScenarioEncoder();
+    }
+    if (IS_DRY_RUN && regularTraceSizer == null) {
+      regularTraceSizer = new VertexScenarioSizer(getActualTestedClass(),
+        (Class<I>) VERTEX_ID_CLASS, (Class<V>) VERTEX_VALUE_CLASS,
+        (Class<E>) EDGE_VALUE_CLASS, (Class<M1>) INCOMING_MESSAGE_CLASS,
+        (Class<M2>) OUTGOING_MESSAGE_CLASS);
+      regularTraceSizer.setCaptureLimits(
+        DEBUG_CONFIG.getMaxCapturedNeighbors(),
+        DEBUG_CONFIG.getMaxCapturedInMessages(),
+        DEBUG_CONFIG.getMaxCapturedOutMessages());
+    }
+    if (DEBUG_CONFIG.shouldCaptureChangedValuesOnly() &&
+      valueChangeDetector == null) {
+      valueChangeDetector = new ValueChangeDetector(
+        DEBUG_CONFIG.getValueChangeEpsilon(),
+        DEBUG_CONFIG.getMinStableSupersteps(), VALUE_CHANGE_TABLE,
+        DEBUG_CONFIG.getVertexSamplingSeed());
+    }
+    if (SHOULD_CHECK_VERTEX_VALUE_INTEGRITY &&
+      vertexValueCheckSampler == null) {
+      vertexValueCheckSampler = newIntegrityCheckSampler(
+        DEBUG_CONFIG.getVertexValueCheckRate());
+    }
+    if (SHOULD_CHECK_MESSAGE_INTEGRITY && messageCheckSampler == null) {
+      messageCheckSampler = newIntegrityCheckSampler(
+        DEBUG_CONFIG.getMessageCheckRate());
+    }
+    if (SHOULD_CHECK_INTEGRITY_ASYNC && asyncIntegrityChecker == null) {
+      asyncIntegrityChecker = new AsyncIntegrityChecker<>(DEBUG_CONFIG,
+        (Class<I>) VERTEX_ID_CLASS, (Class<V>) VERTEX_VALUE_CLASS,
+        (Class<M2>) OUTGOING_MESSAGE_CLASS,
+        DEBUG_CONFIG.getIntegrityCheckBatchSize(),
+        DEBUG_CONFIG.getNumberOfViolationsToLog());
+      asyncViolationInputBuffer = new DataInputBuffer();
+      asyncViolationVertexId = WritableCloner.newInstance(
+        (Class<I>) VERTEX_ID_CLASS);
+      asyncViolationValueBefore = WritableCloner.newInstance(
+        (Class<V>) VERTEX_VALUE_CLASS);
+      asyncViolationValueAfter = WritableCloner.newInstance(
+        (Class<V>) VERTEX_VALUE_CLASS);
+      asyncViolationMessageDestination = WritableCloner.newInstance(
+        (Class<I>) VERTEX_ID_CLASS);
+      asyncViolationMessage = WritableCloner.newInstance(
+        (Class<M2>) OUTGOING_MESSAGE_CLASS);
+    }
+  }
+
+  /**
+   * @param rate Fraction of values or messages to check.
+   * @return A sampler of values or messages to check at the given rate, or
+   *         null if all are checked.
+   */
+  private static IntegrityCheckSampler newIntegrityCheckSampler(double rate) {
+    return rate >= 1 ? null : new IntegrityCheckSampler(
+      DEBUG_CONFIG.getIntegrityCheckSamplingMethod(), rate,
+      DEBUG_CONFIG.getVertexSamplingSeed());
+  }
+
+  /**
+   * @return A new encoder for the scenarios of this computation.
+   */
+  private VertexScenarioEncoder<I, V, E, M1, M2> newVertexScenarioEncoder() {
+    VertexScenarioEncoder<I, V, E, M1, M2> encoder = new VertexScenarioEncoder(
+      getActualTestedClass(), (Class<I>) VERTEX_ID_CLASS,
+      (Class<V>) VERTEX_VALUE_CLASS, (Class<E>) EDGE_VALUE_CLASS,
+      (Class<M1>) INCOMING_MESSAGE_CLASS, (Class<M2>) OUTGOING_MESSAGE_CLASS);
+    encoder.setCaptureLimits(DEBUG_CONFIG.getMaxCapturedNeighbors(),
+      DEBUG_CONFIG.getMaxCapturedInMessages(),
+      DEBUG_CONFIG.getMaxCapturedOutMessages());
+    return encoder;
+  }
+
+  /**
+   * Initializes the static state shared by all compute threads.
+   */
+  private void initializeAbstractInterceptingComputationClass() {
     String debugConfigClassName = DEBUG_CONFIG_CLASS.get(getConf());
     LOG.info("initializing debugConfigClass: " + debugConfigClassName);
     Class<?> clazz;
@@ -251,18 +555,59 @@ public abstract class AbstractInterceptingComputation<
       INCOMING_MESSAGE_CLASS = getConf().getIncomingMessageValueClass();
       OUTGOING_MESSAGE_CLASS = getConf().getOutgoingMessageValueClass();
       // Set limits from DebugConfig
-      NUM_VERTICES_TO_LOG = DEBUG_CONFIG.getNumberOfVerticesToLog();
-      NUM_VIOLATIONS_TO_LOG = DEBUG_CONFIG.getNumberOfViolationsToLog();
-      // Reset counters
-      NUM_MESSAGE_VIOLATIONS_LOGGED = 0;
-      NUM_VERTEX_VIOLATIONS_LOGGED = 0;
-      NUM_VERTICES_LOGGED = 0;
+      CAPTURE_BUDGET = new CaptureBudget(
+        DEBUG_CONFIG.getNumberOfVerticesToLog(),
+        DEBUG_CONFIG.getNumberOfViolationsToLog());
+      if (DEBUG_CONFIG.getMaxOverheadFraction() > 0 ||
+        DEBUG_CONFIG.getMaxTraceBytesPerSuperstep() > 0) {
+        OVERHEAD_BUDGET = new OverheadBudget(
+          DEBUG_CONFIG.getMaxOverheadFraction(),
+          DEBUG_CONFIG.getMaxTraceBytesPerSuperstep());
+      }
+      AsyncHDFSWriteService.configure(DEBUG_CONFIG.getWriterNumThreads(),
+        DEBUG_CONFIG.getWriterMaxQueuedBytes(),
+        DEBUG_CONFIG.getWriterOverflowPolicy(),
+        DEBUG_CONFIG.getWriterShutdownTimeoutMillis());
+      CommonVertexMasterInterceptionUtil.configureTraceCodec(
+        DEBUG_CONFIG.getTraceCodec(),
+        DEBUG_CONFIG.shouldUseTraceCodecDictionary());
+      CommonVertexMasterInterceptionUtil.configureOffHeapStaging(
+        DEBUG_CONFIG.getWriterOffHeapStagingBytes());
+      IS_DRY_RUN = DEBUG_CONFIG.isDryRun();
+      CommonVertexMasterInterceptionUtil.configureDryRun(IS_DRY_RUN);
+      SHOULD_COLLECT_STATISTICS = DEBUG_CONFIG.shouldCollectStatistics();
+      if (DEBUG_CONFIG.getGlobalVertexSampleSize() > 0) {
+        GLOBAL_VERTEX_SAMPLER = new VertexSampler(1,
+          DEBUG_CONFIG.getVertexSamplingSeed());
+      }
+      if (DEBUG_CONFIG.shouldCaptureChangedValuesOnly() &&
+        DEBUG_CONFIG.getMinStableSupersteps() > 0) {
+        VALUE_CHANGE_TABLE = new ValueChangeTable(
+          DEBUG_CONFIG.getValueChangeTableSlots());
+      }
+      if (DEBUG_CONFIG.getFlightRecorderBytes() > 0) {
+        FLIGHT_RECORDER = new FlightRecorder(
+          DEBUG_CONFIG.getFlightRecorderBytes(),
+          DEBUG_CONFIG.getFlightRecorderSupersteps());
+      }
       // Cache DebugConfig flags
       SHOULD_CATCH_EXCEPTIONS = DEBUG_CONFIG.shouldCatchExceptions();
+      SHOULD_KEEP_PREVIOUS_VALUE_FOR_EXCEPTIONS = SHOULD_CATCH_EXCEPTIONS &&
+        DEBUG_CONFIG.getExceptionCaptureMode() ==
+        ExceptionCaptureMode.SNAPSHOT_PREVIOUS_VALUE;
       SHOULD_CHECK_VERTEX_VALUE_INTEGRITY =
         DEBUG_CONFIG.shouldCheckVertexValueIntegrity();
       SHOULD_CHECK_MESSAGE_INTEGRITY =
         DEBUG_CONFIG.shouldCheckMessageIntegrity();
+      SHOULD_CHECK_INTEGRITY = SHOULD_CHECK_VERTEX_VALUE_INTEGRITY ||
+        SHOULD_CHECK_MESSAGE_INTEGRITY;
+      SHOULD_CHECK_INTEGRITY_ASYNC = DEBUG_CONFIG.getIntegrityCheckThreads() >
+        0 && SHOULD_CHECK_INTEGRITY;
+      if (SHOULD_CHECK_INTEGRITY_ASYNC) {
+        AsyncIntegrityChecker.configure(
+          DEBUG_CONFIG.getIntegrityCheckThreads(),
+          DEBUG_CONFIG.getIntegrityCheckQueueSize());
+      }
     } catch (InstantiationException | ClassNotFoundException |
       IllegalAccessException e) {
       LOG.error("Could not create a new DebugConfig instance of " +
@@ -270,17 +615,20 @@ public abstract class AbstractInterceptingComputation<
       e.printStackTrace();
       throw new RuntimeException(e);
     }
-    if (getWorkerContext().getMyWorkerIndex() == getWorkerContext()
-      .getWorkerCount() - 1) {
+    if (!IS_DRY_RUN && getWorkerContext().getMyWorkerIndex() ==
+      getWorkerContext().getWorkerCount() - 1) {
       // last worker records jar signature if necessary
       String jarSignature = getConf().get(JAR_SIGNATURE_KEY);
       if (jarSignature != null) {
+        CommonVertexMasterInterceptionUtil interceptionUtil =
+          new CommonVertexMasterInterceptionUtil(
+            getContext().getJobID().toString());
         Path jarSignaturePath = new Path(
-          DebuggerUtils.getTraceFileRoot(COMMON_VERTEX_MASTER_INTERCEPTING_UTIL
-            .getJobId()) + "/" + "jar.signature");
+          DebuggerUtils.getTraceFileRoot(interceptionUtil.getJobId()) + "/" +
+          "jar.signature");
         LOG.info("Recording jar signature (" + jarSignature + ") at " +
           jarSignaturePath);
-        FileSystem fs = COMMON_VERTEX_MASTER_INTERCEPTING_UTIL.getFileSystem();
+        FileSystem fs = interceptionUtil.getFileSystem();
         try {
           if (!fs.exists(jarSignaturePath)) {
             OutputStream f = fs.create(jarSignaturePath,
@@ -329,15 +677,6 @@ public abstract class AbstractInterceptingComputation<
     return previousVertexValue;
   }
 
-  /**
-   * @return whether captured enough number of info for debugging.
-   */
-  private boolean hasInterceptedEnough() {
-    return NUM_VERTICES_LOGGED >= NUM_VERTICES_TO_LOG ||
-      NUM_VERTEX_VIOLATIONS_LOGGED >= NUM_VIOLATIONS_TO_LOG ||
-      NUM_MESSAGE_VIOLATIONS_LOGGED >= NUM_VIOLATIONS_TO_LOG;
-  }
-
   /**
    * Called before {@link Computation#preSuperstep()} to prepare a message
    * integrity violation wrapper.
@@ -346,11 +685,27 @@ public abstract class AbstractInterceptingComputation<
    */
   protected final boolean interceptPreSuperstepBegin() {
     // LOG.info("before preSuperstep");
-    NUM_VERTICES_LOGGED = 0;
-    NUM_VERTEX_VIOLATIONS_LOGGED = 0;
-    NUM_MESSAGE_VIOLATIONS_LOGGED = 0;
+    flushPreviousSuperstepTraces();
+    // The first thread to get here starts the superstep's budget; the others
+    // share it instead of resetting it.
+    superstepBudget = CAPTURE_BUDGET.forSuperstep(getSuperstep());
+    superstepOverhead = OVERHEAD_BUDGET == null ? null :
+      OVERHEAD_BUDGET.forSuperstep(getSuperstep());
+    vertexReservoir = null;
+    numSuperstepInterceptedVertices = 0;
+    integrityCheckCounts.clear();
+    if (msgIntegrityViolationWrapper != null) {
+      // The violations of the previous superstep have been saved already, so
+      // their clones can be reused.
+      msgIntegrityViolationWrapper.clear();
+    }
+    // The flight recorder keeps recording, statistics keep being collected,
+    // integrity keeps being checked and value changes keep being recorded
+    // after the budget is exhausted.
     if (!DEBUG_CONFIG.shouldDebugSuperstep(getSuperstep()) ||
-      hasInterceptedEnough()) {
+      superstepBudget.isExhausted() && FLIGHT_RECORDER == null &&
+      !SHOULD_COLLECT_STATISTICS && !SHOULD_CHECK_INTEGRITY &&
+      VALUE_CHANGE_TABLE == null) {
       shouldStopInterceptingVertex = true;
       return true;
     }
@@ -362,16 +717,155 @@ public abstract class AbstractInterceptingComputation<
     if (SHOULD_CHECK_MESSAGE_INTEGRITY) {
       LOG.info("creating a msgIntegrityViolationWrapper. superstepNo: " +
         getSuperstep());
-      msgIntegrityViolationWrapper = new MsgIntegrityViolationWrapper<>(
-        (Class<I>) VERTEX_ID_CLASS, (Class<M2>) OUTGOING_MESSAGE_CLASS);
+      if (msgIntegrityViolationWrapper == null) {
+        msgIntegrityViolationWrapper = new MsgIntegrityViolationWrapper<>(
+          (Class<I>) VERTEX_ID_CLASS, (Class<M2>) OUTGOING_MESSAGE_CLASS);
+        outgoingMessageBatch = newOutgoingMessageBatch();
+      }
       msgIntegrityViolationWrapper.setSuperstepNo(getSuperstep());
     }
 
+    vertexFilter = DEBUG_CONFIG.compileVertexFilter(getSuperstep());
+    superstepContext = commonVertexMasterInterceptionUtil.newSuperstepContext(
+      getConf(), getSuperstep(), getTotalNumVertices(), getTotalNumEdges());
+    if (asyncIntegrityChecker != null) {
+      asyncIntegrityChecker.beginSuperstep(getSuperstep(), superstepBudget);
+    }
+    if (vertexValueCheckSampler != null) {
+      vertexValueCheckSampler.beginSuperstep(getSuperstep());
+    }
+    if (messageCheckSampler != null) {
+      messageCheckSampler.beginSuperstep(getSuperstep());
+    }
+    areDebuggerAggregatorsRegistered = super.getAggregatedValue(
+      DebuggerAggregators.NUM_CANDIDATE_VERTICES) != null;
+    if (GLOBAL_VERTEX_SAMPLER != null) {
+      vertexReservoir = getVertexReservoir(getSuperstep());
+      vertexReservoir.threadStarted();
+      numCandidateVertices = 0;
+    }
+
     // LOG.info("before preSuperstep done");
     shouldStopInterceptingVertex = false;
     return false;
   }
 
+  /**
+   * Waits for the traces of the previous superstep to be written, so that the
+   * memory they hold is freed before this superstep captures more. The first
+   * thread of the worker to get here also saves the summary of the traces
+   * dropped meanwhile and exports the metrics of the writer as counters. The
+   * traces dropped in the last superstep are summarized at shutdown.
+   */
+  private void flushPreviousSuperstepTraces() {
+    long flushTimeoutMillis = DEBUG_CONFIG.getWriterFlushTimeoutMillis();
+    if (flushTimeoutMillis > 0) {
+      try {
+        if (!AsyncHDFSWriteService.flush(flushTimeoutMillis)) {
+          LOG.warn("Traces of superstep " + (getSuperstep() - 1) +
+            " not written after " + flushTimeoutMillis + "ms, moving on");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    long flushedSuperstep = FLUSHED_SUPERSTEP.get();
+    if (flushedSuperstep >= getSuperstep() ||
+      !FLUSHED_SUPERSTEP.compareAndSet(flushedSuperstep, getSuperstep())) {
+      return;
+    }
+    FileSystem fs = commonVertexMasterInterceptionUtil.getFileSystem();
+    String jobId = commonVertexMasterInterceptionUtil.getJobId();
+    AsyncHDFSWriteService.writeDroppedTracesSummary(fs, DebuggerUtils
+      .getFullDroppedTracesFileName(jobId, getSuperstep() - 1, UUID
+        .randomUUID().toString()));
+    AsyncHDFSWriteService.setShutdownSummaryFile(fs, DebuggerUtils
+      .getFullDroppedTracesFileName(jobId, getSuperstep(), UUID.randomUUID()
+        .toString()));
+    exportWriterMetrics();
+  }
+
+  /**
+   * Exports the metrics of the trace writer as counters.
+   */
+  private void exportWriterMetrics() {
+    setWriterCounter("Trace writes", AsyncHDFSWriteService.getNumWrites());
+    setWriterCounter("Failed trace writes",
+      AsyncHDFSWriteService.getNumFailedWrites());
+    setWriterCounter("Dropped traces",
+      AsyncHDFSWriteService.getNumDroppedTraces());
+    setWriterCounter("Queued trace writes",
+      AsyncHDFSWriteService.getQueueDepth());
+    setWriterCounter("Peak queued trace bytes",
+      AsyncHDFSWriteService.getPeakQueuedBytes());
+    setWriterCounter("Trace write time (ms)",
+      AsyncHDFSWriteService.getTotalWriteMillis());
+    setWriterCounter("Max trace write time (ms)",
+      AsyncHDFSWriteService.getMaxWriteMillis());
+  }
+
+  /**
+   * Sets a counter exporting a metric of the trace writer.
+   *
+   * @param name Name of the counter.
+   * @param value Value of the metric.
+   */
+  private void setWriterCounter(String name, long value) {
+    Counter counter = getContext().getCounter(WRITER_COUNTER_GROUP, name);
+    if (counter != null) {
+      counter.setValue(value);
+    }
+  }
+
+  /**
+   * Returns this worker's share of the global sample of vertices for the given
+   * superstep, creating it if this is the first thread to ask for it. The
+   * global sample size is split among workers in proportion to the number of
+   * candidates each had in the previous superstep, as counted through the
+   * {@link DebuggerAggregators#NUM_CANDIDATE_VERTICES} aggregator, or evenly
+   * when that is unknown.
+   *
+   * @param superstepNo The superstep number.
+   * @return The sample shared by all compute threads of this worker.
+   */
+  private VertexReservoir getVertexReservoir(long superstepNo) {
+    synchronized (AbstractInterceptingComputation.class) {
+      VertexReservoir previous = VERTEX_RESERVOIR;
+      if (previous != null && previous.getSuperstepNo() >= superstepNo) {
+        return previous;
+      }
+      int sampleSize = DEBUG_CONFIG.getGlobalVertexSampleSize();
+      LongWritable numGlobalCandidates = areDebuggerAggregatorsRegistered ?
+        super.<LongWritable>getAggregatedValue(
+          DebuggerAggregators.NUM_CANDIDATE_VERTICES) : null;
+      long capacity;
+      if (previous != null && previous.getSuperstepNo() == superstepNo - 1 &&
+        numGlobalCandidates != null && numGlobalCandidates.get() > 0) {
+        capacity = (long) Math.ceil((double) sampleSize *
+          previous.getNumCandidates() / numGlobalCandidates.get());
+      } else {
+        int numWorkers = Math.max(1, getWorkerContext().getWorkerCount());
+        capacity = (sampleSize + numWorkers - 1) / numWorkers;
+      }
+      VERTEX_RESERVOIR = new VertexReservoir(superstepNo,
+        (int) Math.min(capacity, sampleSize));
+      return VERTEX_RESERVOIR;
+    }
+  }
+
+  /**
+   * Counts the given vertex as a candidate for the global sample and tells
+   * whether it should be captured.
+   *
+   * @param vertexId Id of the vertex under compute.
+   * @return Whether the vertex would currently enter the sample.
+   */
+  private boolean isVertexReservoirCandidate(I vertexId) {
+    numCandidateVertices++;
+    vertexPriority = GLOBAL_VERTEX_SAMPLER.priority(vertexId);
+    return vertexReservoir.couldAdmit(vertexPriority);
+  }
+
   /**
    * Called immediately when the compute() method is entered. Initializes data
    * that will be required for debugging throughout the rest of the compute
@@ -392,34 +886,99 @@ public abstract class AbstractInterceptingComputation<
       LOG.warn("interceptComputeBegin is called but debugConfig is null." +
         " Initializing AbstractInterceptingComputation again...");
       initializeAbstractInterceptingComputation();
-    } else {
-      COMMON_VERTEX_MASTER_INTERCEPTING_UTIL.getPreviousAggregatedValueWrappers().clear();
     }
+    isTimingVertex = superstepOverhead != null &&
+      OverheadBudget.isTimedVertex(numInterceptedVertices);
+    if (isTimingVertex) {
+      timedVertexStartNanos = System.nanoTime();
+    }
+    // When capture is throttled, only the admitted vertices are captured.
+    boolean isAdmitted = superstepOverhead == null ||
+      superstepOverhead.admits(numInterceptedVertices);
+    numInterceptedVertices++;
+    numSuperstepInterceptedVertices++;
+    superstepContext.beginVertex();
     // A vertex should be debugged if:
     // 1) the user configures the superstep to be debugged;
     // 2) the user configures the vertex to be debugged; and
     // 3) we have already debugged less than a threshold of vertices in this
-    // superstep.
-    shouldDebugVertex = NUM_VERTICES_LOGGED < NUM_VERTICES_TO_LOG &&
-      DEBUG_CONFIG.shouldDebugVertex(vertex, getSuperstep());
-    if (shouldDebugVertex) {
-      giraphVertexScenarioWrapperForRegularTraces = getGiraphVertexScenario(
-        vertex, vertex.getValue(), messages);
-    }
-    // Keep a reference to the current vertex only when necessary.
-    if (SHOULD_CHECK_MESSAGE_INTEGRITY &&
-      NUM_MESSAGE_VIOLATIONS_LOGGED < NUM_VIOLATIONS_TO_LOG) {
-      currentVertexUnderCompute = vertex;
+    // superstep, in which case we reserve one of the remaining slots, or,
+    // when sampling globally, the vertex would currently enter the sample.
+    // The flight recorder records the vertices the user configures whether
+    // they are debugged or not.
+    isRecordingFlight = isAdmitted && FLIGHT_RECORDER != null &&
+      vertexFilter.accept(vertex);
+    if (vertexReservoir != null) {
+      shouldDebugVertex = isAdmitted && acceptVertex(vertex) &&
+        isVertexReservoirCandidate(vertex.getId());
+    } else if (valueChangeDetector != null) {
+      // The slot is reserved once compute() turns out to change the value.
+      shouldDebugVertex = isAdmitted && superstepBudget.hasVertexBudget() &&
+        acceptVertex(vertex);
+    } else {
+      shouldDebugVertex = isAdmitted && superstepBudget.hasVertexBudget() &&
+        acceptVertex(vertex) && superstepBudget.tryReserveVertex();
+    }
+    // During a dry run, traces that would only be saved are sized instead
+    // of encoded.
+    isSizingVertex = shouldDebugVertex && regularTraceSizer != null &&
+      !isRecordingFlight && vertexReservoir == null;
+    if (isSizingVertex) {
+      regularTraceSizer.begin(vertex.getId(), vertex.getValue(),
+        vertex.getEdges(), messages);
+    } else if (shouldDebugVertex || isRecordingFlight) {
+      // Serialize the state compute() starts from before it changes.
+      regularTraceEncoder.begin(vertex.getId(), vertex.getValue(),
+        vertex.getEdges(), messages);
+    }
+    // When only the first change after a stable period is captured, the
+    // changes of every vertex DEBUG_CONFIG selects are recorded, whether
+    // there is budget to capture it or not, so that a vertex is not taken
+    // for stable because its earlier changes went unseen.
+    isTrackingValueChange = valueChangeDetector != null &&
+      (shouldDebugVertex || VALUE_CHANGE_TABLE != null &&
+      vertexFilter.accept(vertex));
+    if (isTrackingValueChange) {
+      valueChangeDetector.begin(vertex.getValue());
+    }
+    // Collect the outgoing messages only when necessary. Violations are
+    // counted without being captured once the budget is exhausted.
+    isCollectingOutgoingMessages = SHOULD_CHECK_MESSAGE_INTEGRITY;
+    if (isCollectingOutgoingMessages) {
+      outgoingMessageBatch.reset(vertex.getId());
       hasViolatedMsgValueConstraint = false;
+      if (messageCheckSampler != null) {
+        messageCheckSampler.beginVertex(vertex.getId());
+      }
+    }
+    shouldCheckVertexValue = SHOULD_CHECK_VERTEX_VALUE_INTEGRITY;
+    if (shouldCheckVertexValue && vertexValueCheckSampler != null) {
+      vertexValueCheckSampler.beginVertex(vertex.getId());
+      shouldCheckVertexValue = vertexValueCheckSampler.sampleVertexValue();
     }
-    // Keep the previous value only when necessary.
-    if (SHOULD_CATCH_EXCEPTIONS ||
-      SHOULD_CHECK_VERTEX_VALUE_INTEGRITY &&
-      NUM_VERTEX_VIOLATIONS_LOGGED < NUM_VIOLATIONS_TO_LOG ||
-      SHOULD_CHECK_MESSAGE_INTEGRITY &&
-      NUM_MESSAGE_VIOLATIONS_LOGGED < NUM_VIOLATIONS_TO_LOG) {
+    // Keep the previous value only when necessary. Integrity traces can
+    // only be saved while there is budget for them, which never comes back
+    // within a superstep, so they always find the previous value kept.
+    isPreviousVertexValueKept = SHOULD_KEEP_PREVIOUS_VALUE_FOR_EXCEPTIONS ||
+      shouldCheckVertexValue && superstepBudget.hasVertexViolationBudget() ||
+      isCollectingOutgoingMessages &&
+      superstepBudget.hasMessageViolationBudget();
+    if (isPreviousVertexValueKept) {
       keepPreviousVertexValue(vertex);
     }
+    if (isTimingVertex) {
+      timedVertexBeginNanos = System.nanoTime() - timedVertexStartNanos;
+    }
+  }
+
+  /**
+   * @param vertex The vertex about to be computed.
+   * @return Whether DEBUG_CONFIG selects the vertex for debugging, reusing
+   *         the decision made for {@link #FLIGHT_RECORDER}, if any.
+   */
+  private boolean acceptVertex(Vertex<I, V, E> vertex) {
+    return FLIGHT_RECORDER != null ? isRecordingFlight :
+      vertexFilter.accept(vertex);
   }
 
   /**
@@ -434,18 +993,19 @@ public abstract class AbstractInterceptingComputation<
     Iterable<M1> messages, Throwable e) throws IOException {
     LOG.info("Caught an exception. message: " + e.getMessage() +
       ". Saving a trace in HDFS.");
-    GiraphVertexScenarioWrapper<I, V, E, M1, M2>
-    giraphVertexScenarioWrapperForExceptionTrace = getGiraphVertexScenario(
-      vertex, getPreviousVertexValue(), messages);
     ExceptionWrapper exceptionWrapper = new ExceptionWrapper(e.getMessage(),
       ExceptionUtils.getStackTrace(e));
-    giraphVertexScenarioWrapperForExceptionTrace
-      .setExceptionWrapper(exceptionWrapper);
-    COMMON_VERTEX_MASTER_INTERCEPTING_UTIL.saveScenarioWrapper(
-      giraphVertexScenarioWrapperForExceptionTrace, DebuggerUtils
-        .getFullTraceFileName(DebugTrace.VERTEX_EXCEPTION,
-          COMMON_VERTEX_MASTER_INTERCEPTING_UTIL.getJobId(), getSuperstep(),
-          vertex.getId().toString()));
+    commonVertexMasterInterceptionUtil.saveVertexScenario(
+      encodeGiraphVertexScenario(vertex, messages, exceptionWrapper),
+      DebugTrace.VERTEX_EXCEPTION, getSuperstep(), vertex.getId().toString());
+    saveFlightHistory(vertex.getId());
+    // The exception will most likely fail the task before postSuperstep(), so
+    // close the segments now to make the traces in them readable.
+    if (msgIntegrityViolationWrapper != null) {
+      commonVertexMasterInterceptionUtil.saveMsgIntegrityViolations(
+        msgIntegrityViolationWrapper);
+    }
+    commonVertexMasterInterceptionUtil.closeTraceSegment();
   }
 
   /**
@@ -459,52 +1019,311 @@ public abstract class AbstractInterceptingComputation<
    */
   protected final boolean interceptComputeEnd(Vertex<I, V, E> vertex,
     Iterable<M1> messages) throws IOException {
-    if (shouldDebugVertex) {
-      // Reflect changes made by compute to scenario.
-      giraphVertexScenarioWrapperForRegularTraces.getContextWrapper()
-        .setVertexValueAfterWrapper(vertex.getValue());
-      // Save vertex scenario.
-      COMMON_VERTEX_MASTER_INTERCEPTING_UTIL.saveScenarioWrapper(
-        giraphVertexScenarioWrapperForRegularTraces, DebuggerUtils
-          .getFullTraceFileName(DebugTrace.VERTEX_REGULAR,
-            COMMON_VERTEX_MASTER_INTERCEPTING_UTIL.getJobId(), getSuperstep(),
-            vertex.getId().toString()));
-      NUM_VERTICES_LOGGED++;
+    long endStartNanos = isTimingVertex ? System.nanoTime() : 0;
+    if (isTrackingValueChange) {
+      // Drop the scenario unless compute() changed the value.
+      boolean isChangeCaptured = valueChangeDetector.shouldCapture(
+        vertex.getId(), vertex.getValue(), getSuperstep());
+      shouldDebugVertex = shouldDebugVertex && isChangeCaptured &&
+        (vertexReservoir != null || superstepBudget.tryReserveVertex());
     }
-    if (SHOULD_CHECK_VERTEX_VALUE_INTEGRITY &&
-      NUM_VERTEX_VIOLATIONS_LOGGED < NUM_VIOLATIONS_TO_LOG &&
-      !DEBUG_CONFIG.isVertexValueCorrect(vertex.getId(), vertex.getValue())) {
-      initAndSaveGiraphVertexScenarioWrapper(vertex, messages,
-        DebugTrace.INTEGRITY_VERTEX);
-      NUM_VERTEX_VIOLATIONS_LOGGED++;
+    if (isSizingVertex) {
+      if (shouldDebugVertex) {
+        commonVertexMasterInterceptionUtil.countTrace(
+          DebugTrace.VERTEX_REGULAR, regularTraceSizer.finish(
+            getCommonContext(), vertex.getValue()));
+      }
+    } else if (shouldDebugVertex || isRecordingFlight) {
+      // Reflect changes made by compute to scenario.
+      byte[] scenario = regularTraceEncoder.finish(getCommonContext(),
+        vertex.getValue(), null);
+      if (shouldDebugVertex && vertexReservoir != null) {
+        vertexReservoir.add(vertexPriority, scenario,
+          vertex.getId().toString());
+      } else if (shouldDebugVertex) {
+        // Save vertex scenario.
+        commonVertexMasterInterceptionUtil.saveVertexScenario(scenario,
+          DebugTrace.VERTEX_REGULAR, getSuperstep(),
+          vertex.getId().toString());
+      }
+      // Keep the scenarios that are not certain to be saved, in case the
+      // vertex throws an exception or violates a constraint later.
+      if (isRecordingFlight && (!shouldDebugVertex ||
+        vertexReservoir != null)) {
+        FLIGHT_RECORDER.record(Fingerprints.of(vertex.getId()),
+          getSuperstep(), scenario);
+      }
     }
-    if (hasViolatedMsgValueConstraint) {
-      initAndSaveGiraphVertexScenarioWrapper(vertex, messages,
-        DebugTrace.INTEGRITY_MESSAGE_SINGLE_VERTEX);
-      NUM_MESSAGE_VIOLATIONS_LOGGED++;
+    if (asyncIntegrityChecker != null) {
+      checkIntegrityAsync(vertex);
+    } else {
+      if (shouldCheckVertexValue) {
+        boolean isCorrect = DEBUG_CONFIG.isVertexValueCorrect(vertex.getId(),
+          vertex.getValue());
+        integrityCheckCounts.vertexValueChecked(!isCorrect);
+        if (!isCorrect && superstepBudget.tryReserveVertexViolation()) {
+          initAndSaveGiraphVertexScenarioWrapper(vertex, messages,
+            DebugTrace.INTEGRITY_VERTEX);
+        }
+      }
+      if (isCollectingOutgoingMessages && !outgoingMessageBatch.isEmpty()) {
+        // Violations are reserved and recorded by the batch's handler.
+        integrityCheckCounts.messagesChecked(DEBUG_CONFIG.checkMessages(
+          outgoingMessageBatch, getSuperstep()));
+      }
+      if (hasViolatedMsgValueConstraint) {
+        initAndSaveGiraphVertexScenarioWrapper(vertex, messages,
+          DebugTrace.INTEGRITY_MESSAGE_SINGLE_VERTEX);
+      }
     }
 
-    shouldStopInterceptingVertex = hasInterceptedEnough();
+    shouldStopInterceptingVertex = superstepBudget.isExhausted() &&
+      FLIGHT_RECORDER == null && !SHOULD_COLLECT_STATISTICS &&
+      !SHOULD_CHECK_INTEGRITY && VALUE_CHANGE_TABLE == null;
+    if (superstepOverhead != null) {
+      updateOverhead(endStartNanos);
+      // Vertices are no longer admitted for capture, but statistics and
+      // violation rates would not be exact without the checks of the
+      // remaining vertices.
+      shouldStopInterceptingVertex |= superstepOverhead.isStopped() &&
+        VALUE_CHANGE_TABLE == null && !SHOULD_COLLECT_STATISTICS &&
+        !SHOULD_CHECK_INTEGRITY;
+    }
     return shouldStopInterceptingVertex;
   }
 
+  /**
+   * Adds the bytes of traces saved and, if the vertex was timed, the time
+   * spent intercepting it to the overhead of the superstep.
+   *
+   * @param endStartNanos When interceptComputeEnd() started for the vertex.
+   */
+  private void updateOverhead(long endStartNanos) {
+    long numSavedBytes = commonVertexMasterInterceptionUtil
+      .takeNumSavedBytes();
+    if (numSavedBytes > 0) {
+      superstepOverhead.traceBytesSaved(numSavedBytes);
+    }
+    if (isTimingVertex) {
+      long endNanos = System.nanoTime();
+      superstepOverhead.vertexTimed(timedVertexBeginNanos + endNanos -
+        endStartNanos, endNanos - timedVertexStartNanos);
+    }
+  }
+
+  /**
+   * Hands the value and messages of the computed vertex to
+   * {@link #asyncIntegrityChecker}, and records the violations found in the
+   * vertices handed to it earlier.
+   *
+   * @param vertex The vertex that was computed.
+   * @throws IOException
+   */
+  private void checkIntegrityAsync(Vertex<I, V, E> vertex) throws
+  IOException {
+    boolean shouldCheckMessages = isCollectingOutgoingMessages &&
+      !outgoingMessageBatch.isEmpty();
+    if (shouldCheckVertexValue || shouldCheckMessages) {
+      asyncIntegrityChecker.add(vertex.getId(), isPreviousVertexValueKept ?
+        previousVertexValueOutputBuffer : null, vertex.getValue(),
+        shouldCheckVertexValue, shouldCheckMessages ? outgoingMessageBatch :
+        null, superstepContext.getReadByVertex());
+    }
+    recordAsyncViolations(false);
+  }
+
+  /**
+   * Records the violations {@link #asyncIntegrityChecker} found, while there
+   * is budget for them. Their traces include the value of the vertex before
+   * and after compute() and the violating messages, but neither the edges
+   * nor the incoming messages, which are gone by the time the violation is
+   * found.
+   *
+   * @param shouldWait Whether to wait for all vertices handed to
+   *        {@link #asyncIntegrityChecker} to be checked.
+   * @throws IOException
+   */
+  private void recordAsyncViolations(boolean shouldWait) throws IOException {
+    for (AsyncIntegrityChecker.Violation violation : asyncIntegrityChecker
+      .collectViolations(shouldWait, integrityCheckCounts)) {
+      readAsyncViolation(violation.getVertexId(), asyncViolationVertexId);
+      readAsyncViolation(violation.getValueAfter(), asyncViolationValueAfter);
+      if (violation.getValueBefore() != null) {
+        readAsyncViolation(violation.getValueBefore(),
+          asyncViolationValueBefore);
+      }
+      String vertexId = asyncViolationVertexId.toString();
+      if (violation.isVertexValueViolation() &&
+        superstepBudget.tryReserveVertexViolation()) {
+        commonVertexMasterInterceptionUtil.saveVertexScenario(
+          encodeAsyncViolationScenario(violation, 0),
+          DebugTrace.INTEGRITY_VERTEX, getSuperstep(), vertexId);
+      }
+      int numMessageViolations = 0;
+      while (numMessageViolations < violation.getNumMessageViolations() &&
+        superstepBudget.tryReserveMessageViolation()) {
+        readAsyncMessageViolation(violation, numMessageViolations);
+        msgIntegrityViolationWrapper.addMsgWrapper(asyncViolationVertexId,
+          asyncViolationMessageDestination, asyncViolationMessage);
+        saveFullMsgIntegrityViolationChunk();
+        numMessageViolations++;
+      }
+      if (numMessageViolations > 0) {
+        commonVertexMasterInterceptionUtil.saveVertexScenario(
+          encodeAsyncViolationScenario(violation, numMessageViolations),
+          DebugTrace.INTEGRITY_MESSAGE_SINGLE_VERTEX, getSuperstep(),
+          vertexId);
+      }
+      saveFlightHistory(asyncViolationVertexId);
+    }
+  }
+
+  /**
+   * Encodes a scenario of a violation found by
+   * {@link #asyncIntegrityChecker}, whose vertex id and values have been
+   * read already.
+   *
+   * @param violation The violation.
+   * @param numMessageViolations Number of violating messages to include.
+   * @return The serialized scenario.
+   * @throws IOException
+   */
+  private byte[] encodeAsyncViolationScenario(
+    AsyncIntegrityChecker.Violation violation, int numMessageViolations)
+    throws IOException {
+    violationTraceEncoder.begin(asyncViolationVertexId,
+      violation.getValueBefore() != null ? asyncViolationValueBefore : null,
+      Collections.<Edge<I, E>>emptyList(), Collections.<M1>emptyList());
+    for (int i = 0; i < numMessageViolations; i++) {
+      readAsyncMessageViolation(violation, i);
+      violationTraceEncoder.addOutgoingMessage(
+        asyncViolationMessageDestination, asyncViolationMessage);
+    }
+    return violationTraceEncoder.finish(superstepContext.buildProtoObject(
+      violation.getAggregatedValues()), asyncViolationValueAfter, null);
+  }
+
+  /**
+   * Reads a violating message found by {@link #asyncIntegrityChecker}.
+   *
+   * @param violation The violation.
+   * @param index Index of the violating message.
+   * @throws IOException
+   */
+  private void readAsyncMessageViolation(
+    AsyncIntegrityChecker.Violation violation, int index) throws IOException {
+    readAsyncViolation(violation.getMessageDestination(index),
+      asyncViolationMessageDestination);
+    readAsyncViolation(violation.getMessage(index), asyncViolationMessage);
+  }
+
+  /**
+   * Reads a serialized part of a violation found by
+   * {@link #asyncIntegrityChecker}.
+   *
+   * @param data The serialized part.
+   * @param target The object to read it into.
+   * @throws IOException
+   */
+  private void readAsyncViolation(byte[] data, Writable target)
+    throws IOException {
+    asyncViolationInputBuffer.reset(data, data.length);
+    target.readFields(asyncViolationInputBuffer);
+  }
+
   /**
    * Called after {@link Computation#postSuperstep()} to save the captured
    * scenario.
    */
   protected final void interceptPostSuperstepEnd() {
     // LOG.info("after postSuperstep");
-    if (SHOULD_CHECK_MESSAGE_INTEGRITY &&
-      msgIntegrityViolationWrapper.numMsgWrappers() > 0) {
-      COMMON_VERTEX_MASTER_INTERCEPTING_UTIL.saveScenarioWrapper(
-        msgIntegrityViolationWrapper, DebuggerUtils
-          .getMessageIntegrityAllTraceFullFileName(getSuperstep(),
-            COMMON_VERTEX_MASTER_INTERCEPTING_UTIL.getJobId(), UUID.randomUUID()
-              .toString()));
+    if (asyncIntegrityChecker != null) {
+      try {
+        recordAsyncViolations(true);
+      } catch (IOException e) {
+        throw new IllegalStateException("interceptPostSuperstepEnd: " +
+          "Could not record integrity violations", e);
+      }
+    }
+    if (vertexReservoir != null) {
+      vertexReservoir.addCandidates(numCandidateVertices);
+      if (areDebuggerAggregatorsRegistered) {
+        aggregate(DebuggerAggregators.NUM_CANDIDATE_VERTICES,
+          new LongWritable(numCandidateVertices));
+      }
+      // The last thread to finish saves the sample of the whole worker.
+      for (VertexReservoir.Entry entry : vertexReservoir.threadFinished()) {
+        commonVertexMasterInterceptionUtil.saveVertexScenario(
+          entry.getScenario(), DebugTrace.VERTEX_REGULAR, getSuperstep(),
+          entry.getVertexId());
+      }
+      vertexReservoir = null;
+    }
+    if (areDebuggerAggregatorsRegistered && !integrityCheckCounts.isEmpty()) {
+      aggregateIntegrityCheckCounts();
     }
+    if (msgIntegrityViolationWrapper != null) {
+      // Save the last, partial chunk before the segments are closed.
+      commonVertexMasterInterceptionUtil.saveMsgIntegrityViolations(
+        msgIntegrityViolationWrapper);
+    }
+    commonVertexMasterInterceptionUtil.closeTraceSegment();
+    if (IS_DRY_RUN || SHOULD_COLLECT_STATISTICS) {
+      if (areDebuggerAggregatorsRegistered) {
+        aggregateStatistics();
+      }
+      traceCounts.clear();
+    }
+    // Counters are reported with the task's final status, which comes
+    // before the next superstep would export them, so also export them
+    // after every superstep.
+    exportWriterMetrics();
     // LOG.info("after postSuperstep done");
   }
 
+  /**
+   * Adds the number of vertices this thread intercepted in the current
+   * superstep, and the numbers and sizes of the traces it saved, or would
+   * have saved in a dry run, to the aggregators the master saves statistics
+   * and summarizes dry runs from.
+   */
+  private void aggregateStatistics() {
+    if (numSuperstepInterceptedVertices > 0) {
+      aggregate(DebuggerAggregators.NUM_INTERCEPTED_VERTICES,
+        new LongWritable(numSuperstepInterceptedVertices));
+    }
+    for (DebugTrace debugTrace : DebugTrace.values()) {
+      if (traceCounts.getNumTraces(debugTrace) > 0) {
+        aggregate(DebuggerAggregators.getNumTracesName(debugTrace),
+          new LongWritable(traceCounts.getNumTraces(debugTrace)));
+        aggregate(DebuggerAggregators.getNumTraceBytesName(debugTrace),
+          new LongWritable(traceCounts.getNumBytes(debugTrace)));
+      }
+    }
+    for (int i = 0; i < TraceCounts.NUM_SIZE_BUCKETS; i++) {
+      if (traceCounts.getNumTracesOfSize(i) > 0) {
+        aggregate(DebuggerAggregators.getNumTracesOfSizeName(i),
+          new LongWritable(traceCounts.getNumTracesOfSize(i)));
+      }
+    }
+  }
+
+  /**
+   * Adds the numbers of checks and violations of this thread in the current
+   * superstep to the aggregators the master estimates violation rates from.
+   */
+  private void aggregateIntegrityCheckCounts() {
+    aggregate(DebuggerAggregators.NUM_CHECKED_VERTEX_VALUES,
+      new LongWritable(integrityCheckCounts.getNumCheckedVertexValues()));
+    aggregate(DebuggerAggregators.NUM_VERTEX_VALUE_VIOLATIONS,
+      new LongWritable(integrityCheckCounts.getNumVertexValueViolations()));
+    aggregate(DebuggerAggregators.NUM_CHECKED_MESSAGES,
+      new LongWritable(integrityCheckCounts.getNumCheckedMessages()));
+    aggregate(DebuggerAggregators.NUM_MESSAGE_VIOLATIONS,
+      new LongWritable(integrityCheckCounts.getNumMessageViolations()));
+    integrityCheckCounts.clear();
+  }
+
   /**
    * Saves the captured scenario for the given vertex.
    *
@@ -515,60 +1334,97 @@ public abstract class AbstractInterceptingComputation<
    */
   private void initAndSaveGiraphVertexScenarioWrapper(Vertex<I, V, E> vertex,
     Iterable<M1> messages, DebugTrace debugTrace) throws IOException {
-    GiraphVertexScenarioWrapper<I, V, E, M1, M2>
-    giraphVertexScenarioWrapper = getGiraphVertexScenario(
-      vertex, getPreviousVertexValue(), messages);
-    COMMON_VERTEX_MASTER_INTERCEPTING_UTIL.saveScenarioWrapper(
-      giraphVertexScenarioWrapper, DebuggerUtils.getFullTraceFileName(
-        debugTrace, COMMON_VERTEX_MASTER_INTERCEPTING_UTIL.getJobId(),
-        getSuperstep(), vertex.getId().toString()));
+    commonVertexMasterInterceptionUtil.saveVertexScenario(
+      encodeGiraphVertexScenario(vertex, messages, null), debugTrace,
+      getSuperstep(), vertex.getId().toString());
+    saveFlightHistory(vertex.getId());
+  }
+
+  /**
+   * Saves the scenarios {@link #FLIGHT_RECORDER} kept of the given vertex in
+   * the supersteps before the current one, after the vertex has thrown an
+   * exception or violated a constraint.
+   *
+   * @param vertexId Id of the vertex.
+   */
+  private void saveFlightHistory(I vertexId) {
+    if (FLIGHT_RECORDER == null) {
+      return;
+    }
+    List<FlightRecorder.Entry> history = FLIGHT_RECORDER.takeHistory(
+      Fingerprints.of(vertexId), getSuperstep());
+    if (!history.isEmpty()) {
+      commonVertexMasterInterceptionUtil.saveVertexHistory(history,
+        vertexId.toString());
+    }
   }
 
   /**
-   * We pass the previous vertex value to assign as an argument because for some
-   * traces we capture the context lazily and store the previous value
-   * temporarily in an object. In those cases the previous value is not equal to
-   * the current value of the vertex. And sometimes it is equal to the current
-   * value.
+   * Encodes a scenario of the given vertex in a single pass, with the value
+   * kept by keepPreviousVertexValue() as the value before compute(), since
+   * the vertex has already been computed when a violation is detected. The
+   * scenario has no value before compute() if none was kept.
    *
    * @param vertex The vertex the scenario will capture.
-   * @param previousVertexValueToAssign The previous vertex value.
    * @param messages The incoming messages for this superstep.
-   * @return A scenario for the given vertex.
+   * @param exceptionWrapper The exception thrown by compute(), or null.
+   * @return The serialized scenario of the given vertex.
    * @throws IOException
    */
-  private GiraphVertexScenarioWrapper<I, V, E, M1, M2> getGiraphVertexScenario(
-    Vertex<I, V, E> vertex, V previousVertexValueToAssign,
-    Iterable<M1> messages) throws IOException {
-    GiraphVertexScenarioWrapper<I, V, E, M1, M2> giraphVertexScenarioWrapper =
-      new GiraphVertexScenarioWrapper(
-        getActualTestedClass(), (Class<I>) VERTEX_ID_CLASS,
-        (Class<V>) VERTEX_VALUE_CLASS, (Class<E>) EDGE_VALUE_CLASS,
-        (Class<M1>) INCOMING_MESSAGE_CLASS, (Class<M2>) OUTGOING_MESSAGE_CLASS);
-    VertexContextWrapper contextWrapper =
-      giraphVertexScenarioWrapper.getContextWrapper();
-    contextWrapper
-      .setVertexValueBeforeWrapper(previousVertexValueToAssign);
-    COMMON_VERTEX_MASTER_INTERCEPTING_UTIL.initCommonVertexMasterContextWrapper(
-      getConf(), getSuperstep(), getTotalNumVertices(), getTotalNumEdges());
-    contextWrapper
-      .setCommonVertexMasterContextWrapper(
-        COMMON_VERTEX_MASTER_INTERCEPTING_UTIL
-        .getCommonVertexMasterContextWrapper());
-    giraphVertexScenarioWrapper.getContextWrapper().setVertexIdWrapper(
-      vertex.getId());
-    Iterable<Edge<I, E>> returnVal = vertex.getEdges();
-    for (Edge<I, E> edge : returnVal) {
-      giraphVertexScenarioWrapper.getContextWrapper().addNeighborWrapper(
-        edge.getTargetVertexId(), edge.getValue());
+  private byte[] encodeGiraphVertexScenario(Vertex<I, V, E> vertex,
+    Iterable<M1> messages, ExceptionWrapper exceptionWrapper)
+    throws IOException {
+    violationTraceEncoder.begin(vertex.getId(), isPreviousVertexValueKept ?
+      getPreviousVertexValue() : null, vertex.getEdges(), messages);
+    return violationTraceEncoder.finish(getCommonContext(), vertex.getValue(),
+      exceptionWrapper);
+  }
+
+  /**
+   * @return A batch whose violations are reserved in the budget of the
+   *         superstep and recorded in the message integrity violation
+   *         wrapper, until there is no budget left.
+   */
+  private OutgoingMessageBatch<I, M2> newOutgoingMessageBatch() {
+    return new OutgoingMessageBatch<>((Class<I>) VERTEX_ID_CLASS,
+      (Class<M2>) OUTGOING_MESSAGE_CLASS,
+      new OutgoingMessageBatch.ViolationHandler<I, M2>() {
+        @Override
+        public boolean handleViolation(I srcId, I dstId, M2 message) {
+          integrityCheckCounts.messageViolationFound();
+          if (superstepBudget.tryReserveMessageViolation()) {
+            msgIntegrityViolationWrapper.addMsgWrapper(srcId, dstId,
+              message);
+            saveFullMsgIntegrityViolationChunk();
+            hasViolatedMsgValueConstraint = true;
+          }
+          // Keep checking the batch, only to count violations.
+          return true;
+        }
+      });
+  }
+
+  /**
+   * Saves the captured message integrity violations as a chunk of the
+   * message integrity trace once there are enough of them, so that they do
+   * not pile up on the heap until the end of the superstep.
+   */
+  private void saveFullMsgIntegrityViolationChunk() {
+    if (msgIntegrityViolationWrapper.isChunkFull()) {
+      commonVertexMasterInterceptionUtil.saveMsgIntegrityViolations(
+        msgIntegrityViolationWrapper);
     }
-    for (M1 message : messages) {
-      giraphVertexScenarioWrapper.getContextWrapper()
-        .addIncomingMessageWrapper(message);
+  }
+
+  /**
+   * @return The context common to vertices and the master, with the
+   *         aggregated values the current vertex has read.
+   */
+  private CommonVertexMasterContext getCommonContext() {
+    if (superstepOverhead != null) {
+      superstepContext.setCaptureRate(superstepOverhead.getCaptureRate());
     }
-    giraphVertexScenarioWrapper.getContextWrapper().setVertexValueAfterWrapper(
-      vertex.getValue());
-    return giraphVertexScenarioWrapper;
+    return superstepContext.buildProtoObject();
   }
 
   /**
@@ -583,20 +1439,14 @@ public abstract class AbstractInterceptingComputation<
   @Override
   public void sendMessage(I id, M2 message) {
     if (!shouldStopInterceptingVertex) {
-      if (shouldDebugVertex) {
-        giraphVertexScenarioWrapperForRegularTraces.getContextWrapper()
-          .addOutgoingMessageWrapper(id, message);
-      }
-      if (SHOULD_CHECK_MESSAGE_INTEGRITY &&
-        NUM_MESSAGE_VIOLATIONS_LOGGED < NUM_VIOLATIONS_TO_LOG) {
-        I senderId = currentVertexUnderCompute.getId();
-        if (!DEBUG_CONFIG.isMessageCorrect(senderId, id, message,
-          getSuperstep())) {
-          msgIntegrityViolationWrapper.addMsgWrapper(
-            currentVertexUnderCompute.getId(), id, message);
-          NUM_MESSAGE_VIOLATIONS_LOGGED++;
-          hasViolatedMsgValueConstraint = true;
-        }
+      if (isSizingVertex) {
+        regularTraceSizer.addOutgoingMessage(id, message);
+      } else if (shouldDebugVertex || isRecordingFlight) {
+        regularTraceEncoder.addOutgoingMessage(id, message);
+      }
+      if (isCollectingOutgoingMessages && (messageCheckSampler == null ||
+        messageCheckSampler.sampleMessage(id))) {
+        outgoingMessageBatch.add(id, message);
       }
     }
     super.sendMessage(id, message);
@@ -614,27 +1464,15 @@ public abstract class AbstractInterceptingComputation<
   @Override
   public void sendMessageToAllEdges(Vertex<I, V, E> vertex, M2 message) {
     if (!shouldStopInterceptingVertex) {
-      if (shouldDebugVertex) {
-        for (Edge<I, E> edge : vertex.getEdges()) {
-          giraphVertexScenarioWrapperForRegularTraces.getContextWrapper()
-            .addOutgoingMessageWrapper(edge.getTargetVertexId(), message);
-        }
+      if (isSizingVertex) {
+        regularTraceSizer.addBroadcastMessage(message);
+      } else if (shouldDebugVertex || isRecordingFlight) {
+        regularTraceEncoder.addBroadcastMessage(vertex.getEdges(),
+          vertex.getNumEdges(), message);
       }
-      if (SHOULD_CHECK_MESSAGE_INTEGRITY) {
-        I senderId = vertex.getId();
-        for (Edge<I, E> edge : vertex.getEdges()) {
-          if (NUM_MESSAGE_VIOLATIONS_LOGGED >= NUM_VIOLATIONS_TO_LOG) {
-            break;
-          }
-          I id = edge.getTargetVertexId();
-          if (DEBUG_CONFIG.isMessageCorrect(senderId, id, message,
-            getSuperstep())) {
-            continue;
-          }
-          msgIntegrityViolationWrapper.addMsgWrapper(senderId, id, message);
-          hasViolatedMsgValueConstraint = true;
-          NUM_MESSAGE_VIOLATIONS_LOGGED++;
-        }
+      if (isCollectingOutgoingMessages && (messageCheckSampler == null ||
+        messageCheckSampler.sampleBroadcast())) {
+        outgoingMessageBatch.addBroadcast(message, vertex.getEdges());
       }
     }
     super.sendMessageToAllEdges(vertex, message);
@@ -644,8 +1482,7 @@ public abstract class AbstractInterceptingComputation<
   public <A extends Writable> A getAggregatedValue(String name) {
     A retVal = super.<A>getAggregatedValue(name);
     if (!shouldStopInterceptingVertex) {
-      COMMON_VERTEX_MASTER_INTERCEPTING_UTIL.addAggregatedValueIfNotExists(name,
-        retVal);
+      superstepContext.aggregatedValueRead(name, retVal);
     }
     return retVal;
   }
@@ -22,6 +22,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.giraph.debugger.DebugConfig;
 import org.apache.giraph.debugger.utils.DebuggerUtils;
 import org.apache.giraph.debugger.utils.DebuggerUtils.DebugTrace;
 import org.apache.giraph.debugger.utils.ExceptionWrapper;
@@ -59,6 +60,8 @@ public abstract class AbstractInterceptingMasterCompute extends MasterCompute {
     giraphMasterScenarioWrapper = new GiraphMasterScenarioWrapper(this
       .getClass().getName());
     if (commonVertexMasterInterceptionUtil == null) {
+      CommonVertexMasterInterceptionUtil.configureDryRun(
+        DebugConfig.isDryRun(getConf()));
       commonVertexMasterInterceptionUtil = new
         CommonVertexMasterInterceptionUtil(getContext().getJobID().toString());
     }
@@ -83,8 +86,11 @@ public abstract class AbstractInterceptingMasterCompute extends MasterCompute {
   @Intercept(renameTo = "getAggregatedValue")
   public <A extends Writable> A getAggregatedValueIntercept(String name) {
     A retVal = super.<A>getAggregatedValue(name);
-    commonVertexMasterInterceptionUtil.addAggregatedValueIfNotExists(name,
-      retVal);
+    // Graft's own aggregators are not part of the user's computation.
+    if (!name.startsWith(DebuggerAggregators.PREFIX)) {
+      commonVertexMasterInterceptionUtil.addAggregatedValueIfNotExists(name,
+        retVal);
+    }
     return retVal;
   }
 
@@ -0,0 +1,556 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.instrumenter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.giraph.debugger.DebugConfig;
+import org.apache.giraph.debugger.GiraphAggregator.AggregatedValue;
+import org.apache.giraph.debugger.OutgoingMessageBatch;
+import org.apache.giraph.debugger.utils.WritableCloner;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * Checks the vertex value and message integrity constraints of a compute
+ * thread on a pool of checker threads shared by all compute threads of a
+ * worker, so that expensive constraints overlap with compute() instead of
+ * stretching the superstep.
+ *
+ * The compute thread serializes the id, the value before and after compute()
+ * and the outgoing messages of each vertex into a batch, and hands the batch
+ * to the pool when it is full. Checker threads deserialize the batch and
+ * evaluate the constraints, and the violations they find are handed back to
+ * the compute thread, which records them, so that traces are still written
+ * by the thread that owns them. When as many batches as the pool queues are
+ * already waiting, the compute thread checks its batch itself, which bounds
+ * the memory held by batches.
+ *
+ * @param <I> Vertex id type.
+ * @param <V> Vertex value type.
+ * @param <M> Outgoing message type.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class AsyncIntegrityChecker<I extends WritableComparable,
+  V extends Writable, M extends Writable> {
+  /**
+   * Threads checking the batches of all compute threads of the worker.
+   */
+  private static ThreadPoolExecutor CHECKER_SERVICE;
+
+  /**
+   * The constraints to check.
+   */
+  private final DebugConfig debugConfig;
+  /**
+   * Class of vertex ids.
+   */
+  private final Class<I> vertexIdClass;
+  /**
+   * Class of vertex values.
+   */
+  private final Class<V> vertexValueClass;
+  /**
+   * Class of outgoing messages.
+   */
+  private final Class<M> messageClass;
+  /**
+   * Number of vertices per batch.
+   */
+  private final int batchSize;
+  /**
+   * Maximum number of vertex value and of message violations a batch
+   * reports, since no more can be captured in a superstep.
+   */
+  private final int maxViolations;
+  /**
+   * Receives the batches checked by the pool.
+   */
+  private final CompletionService<CheckResult> completionService;
+  /**
+   * Number of batches handed to the pool whose violations were not collected
+   * yet.
+   */
+  private int numPendingBatches;
+  /**
+   * The serialized vertices of the batch being filled.
+   */
+  private DataOutputBuffer batch = new DataOutputBuffer();
+  /**
+   * The aggregated values read by each vertex of the batch being filled, or
+   * null for vertices that read none.
+   */
+  private List<List<AggregatedValue>> batchAggregatedValues =
+    new ArrayList<>();
+  /**
+   * The superstep of the batch being filled.
+   */
+  private long superstepNo;
+  /**
+   * The capture budget of the batch being filled.
+   */
+  private CaptureBudget.SuperstepBudget superstepBudget;
+
+  /**
+   * Constructor.
+   *
+   * @param debugConfig The constraints to check.
+   * @param vertexIdClass Class of vertex ids.
+   * @param vertexValueClass Class of vertex values.
+   * @param messageClass Class of outgoing messages.
+   * @param batchSize Number of vertices per batch.
+   * @param maxViolations Maximum number of violations of each kind captured
+   *        per superstep.
+   */
+  public AsyncIntegrityChecker(DebugConfig debugConfig,
+    Class<I> vertexIdClass, Class<V> vertexValueClass, Class<M> messageClass,
+    int batchSize, int maxViolations) {
+    this.debugConfig = debugConfig;
+    this.vertexIdClass = vertexIdClass;
+    this.vertexValueClass = vertexValueClass;
+    this.messageClass = messageClass;
+    this.batchSize = Math.max(1, batchSize);
+    this.maxViolations = maxViolations;
+    this.completionService = new ExecutorCompletionService<>(
+      CHECKER_SERVICE);
+  }
+
+  /**
+   * Starts the checker threads of the worker, unless they are started
+   * already.
+   *
+   * @param numThreads Number of checker threads.
+   * @param queueSize Number of batches that may wait for a checker thread.
+   */
+  public static synchronized void configure(int numThreads, int queueSize) {
+    if (CHECKER_SERVICE != null) {
+      return;
+    }
+    CHECKER_SERVICE = new ThreadPoolExecutor(numThreads, numThreads, 0,
+      TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+        Math.max(1, queueSize)), new ThreadFactory() {
+          /**
+           * Number of threads created so far.
+           */
+          private final AtomicInteger numCreatedThreads =
+            new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "graft-integrity-checker-" +
+              numCreatedThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+  /**
+   * Starts batching the vertices of another superstep.
+   *
+   * @param superstepNo The superstep number.
+   * @param superstepBudget The capture budget of the superstep, which tells
+   *        checker threads when to stop looking for message violations.
+   */
+  public void beginSuperstep(long superstepNo,
+    CaptureBudget.SuperstepBudget superstepBudget) {
+    this.superstepNo = superstepNo;
+    this.superstepBudget = superstepBudget;
+  }
+
+  /**
+   * Adds a computed vertex to the batch, and hands the batch to the checker
+   * threads if it is full.
+   *
+   * @param vertexId Id of the vertex.
+   * @param valueBefore The serialized value of the vertex before compute(),
+   *        or null.
+   * @param valueAfter The value of the vertex after compute().
+   * @param shouldCheckValue Whether to check the vertex value constraint.
+   * @param messages The messages the vertex sent to check, or null.
+   * @param aggregatedValues The aggregated values the vertex read.
+   * @throws IOException
+   */
+  public void add(I vertexId, DataOutputBuffer valueBefore, V valueAfter,
+    boolean shouldCheckValue, OutgoingMessageBatch<I, M> messages,
+    List<AggregatedValue> aggregatedValues) throws IOException {
+    vertexId.write(batch);
+    if (valueBefore != null) {
+      batch.writeInt(valueBefore.getLength());
+      batch.write(valueBefore.getData(), 0, valueBefore.getLength());
+    } else {
+      batch.writeInt(-1);
+    }
+    valueAfter.write(batch);
+    batch.writeBoolean(shouldCheckValue);
+    batch.writeBoolean(messages != null);
+    if (messages != null) {
+      messages.write(batch);
+    }
+    batchAggregatedValues.add(aggregatedValues.isEmpty() ? null :
+      new ArrayList<>(aggregatedValues));
+    if (batchAggregatedValues.size() >= batchSize) {
+      submitBatch();
+    }
+  }
+
+  /**
+   * Hands the batch being filled to the checker threads.
+   */
+  private void submitBatch() {
+    if (batchAggregatedValues.isEmpty()) {
+      return;
+    }
+    completionService.submit(new CheckTask(batch, batchAggregatedValues,
+      superstepNo, superstepBudget));
+    numPendingBatches++;
+    batch = new DataOutputBuffer();
+    batchAggregatedValues = new ArrayList<>();
+  }
+
+  /**
+   * Collects the violations found in batches that have been checked.
+   *
+   * @param shouldWait Whether to hand the batch being filled to the checker
+   *        threads and wait for all batches to be checked.
+   * @param counts Counts to add the checks of the batches to.
+   * @return The violations found, in no particular order.
+   */
+  public List<Violation> collectViolations(boolean shouldWait,
+    IntegrityCheckCounts counts) {
+    if (shouldWait) {
+      submitBatch();
+    }
+    List<Violation> violations = Collections.emptyList();
+    while (numPendingBatches > 0) {
+      Future<CheckResult> future;
+      try {
+        future = shouldWait ? completionService.take() :
+          completionService.poll();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("collectViolations: Interrupted " +
+          "while waiting for integrity checks", e);
+      }
+      if (future == null) {
+        break;
+      }
+      numPendingBatches--;
+      CheckResult result;
+      try {
+        result = future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("collectViolations: Interrupted " +
+          "while waiting for integrity checks", e);
+      } catch (ExecutionException e) {
+        // A constraint failed, as it would have failed compute().
+        throw new IllegalStateException("collectViolations: Integrity " +
+          "check failed", e.getCause());
+      }
+      counts.add(result.counts);
+      if (!result.violations.isEmpty()) {
+        if (violations.isEmpty()) {
+          violations = new ArrayList<>();
+        }
+        violations.addAll(result.violations);
+      }
+    }
+    return violations;
+  }
+
+  /**
+   * The outcome of checking a batch.
+   */
+  private static class CheckResult {
+    /**
+     * The violations found.
+     */
+    private final List<Violation> violations = new ArrayList<>();
+    /**
+     * Number of values and messages checked and of violations found.
+     */
+    private final IntegrityCheckCounts counts = new IntegrityCheckCounts();
+  }
+
+  /**
+   * Checks the constraints for the vertices of a batch.
+   */
+  private class CheckTask implements Callable<CheckResult> {
+    /**
+     * The serialized vertices.
+     */
+    private final DataOutputBuffer batch;
+    /**
+     * The aggregated values read by each vertex.
+     */
+    private final List<List<AggregatedValue>> aggregatedValues;
+    /**
+     * The superstep of the vertices.
+     */
+    private final long superstepNo;
+    /**
+     * The capture budget of the superstep.
+     */
+    private final CaptureBudget.SuperstepBudget superstepBudget;
+    /**
+     * The violations found so far, and the counts of checks.
+     */
+    private final CheckResult result = new CheckResult();
+    /**
+     * Serializes violating messages.
+     */
+    private final DataOutputBuffer messageBuffer = new DataOutputBuffer();
+    /**
+     * Violations of the vertex being checked, or null if none was found.
+     */
+    private Violation violation;
+    /**
+     * Number of vertex value violations found so far.
+     */
+    private int numVertexValueViolations;
+    /**
+     * Number of message violations found so far.
+     */
+    private int numMessageViolations;
+
+    /**
+     * Constructor.
+     *
+     * @param batch The serialized vertices.
+     * @param aggregatedValues The aggregated values read by each vertex.
+     * @param superstepNo The superstep of the vertices.
+     * @param superstepBudget The capture budget of the superstep.
+     */
+    CheckTask(DataOutputBuffer batch,
+      List<List<AggregatedValue>> aggregatedValues, long superstepNo,
+      CaptureBudget.SuperstepBudget superstepBudget) {
+      this.batch = batch;
+      this.aggregatedValues = aggregatedValues;
+      this.superstepNo = superstepNo;
+      this.superstepBudget = superstepBudget;
+    }
+
+    @Override
+    public CheckResult call() throws IOException {
+      byte[] data = batch.getData();
+      DataInputBuffer in = new DataInputBuffer();
+      in.reset(data, batch.getLength());
+      I vertexId = WritableCloner.newInstance(vertexIdClass);
+      V value = WritableCloner.newInstance(vertexValueClass);
+      OutgoingMessageBatch<I, M> messages = new OutgoingMessageBatch<>(
+        vertexIdClass, messageClass,
+        new OutgoingMessageBatch.ViolationHandler<I, M>() {
+          @Override
+          public boolean handleViolation(I srcId, I dstId, M message) {
+            if (!hasMessageViolationBudget()) {
+              // Only counted, to estimate the violation rate.
+              result.counts.messageViolationFound();
+              return true;
+            }
+            try {
+              messageViolationFound(dstId, message);
+            } catch (IOException e) {
+              throw new IllegalStateException(e);
+            }
+            return true;
+          }
+        });
+      for (List<AggregatedValue> vertexAggregatedValues : aggregatedValues) {
+        violation = null;
+        int idStart = in.getPosition();
+        vertexId.readFields(in);
+        int idEnd = in.getPosition();
+        int valueBeforeLength = in.readInt();
+        int valueBeforeStart = in.getPosition();
+        in.skipBytes(Math.max(0, valueBeforeLength));
+        int valueAfterStart = in.getPosition();
+        value.readFields(in);
+        int valueAfterEnd = in.getPosition();
+        boolean shouldCheckValue = in.readBoolean();
+        if (in.readBoolean()) {
+          messages.readFields(vertexId, in);
+          result.counts.messagesChecked(
+            debugConfig.checkMessages(messages, superstepNo));
+        }
+        boolean hasVertexViolationBudget = numVertexValueViolations <
+          maxViolations && superstepBudget.hasVertexViolationBudget();
+        if (shouldCheckValue) {
+          boolean isCorrect = debugConfig.isVertexValueCorrect(vertexId,
+            value);
+          result.counts.vertexValueChecked(!isCorrect);
+          if (!isCorrect && hasVertexViolationBudget) {
+            getViolation().isVertexValueViolation = true;
+            numVertexValueViolations++;
+          }
+        }
+        if (violation != null) {
+          violation.vertexId = Arrays.copyOfRange(data, idStart, idEnd);
+          if (valueBeforeLength >= 0) {
+            violation.valueBefore = Arrays.copyOfRange(data,
+              valueBeforeStart, valueBeforeStart + valueBeforeLength);
+          }
+          violation.valueAfter = Arrays.copyOfRange(data, valueAfterStart,
+            valueAfterEnd);
+          violation.aggregatedValues = vertexAggregatedValues;
+        }
+      }
+      return result;
+    }
+
+    /**
+     * @return Whether more message violations may be captured.
+     */
+    private boolean hasMessageViolationBudget() {
+      return numMessageViolations < maxViolations &&
+        superstepBudget.hasMessageViolationBudget();
+    }
+
+    /**
+     * @return The violations of the vertex being checked.
+     */
+    private Violation getViolation() {
+      if (violation == null) {
+        violation = new Violation();
+        result.violations.add(violation);
+      }
+      return violation;
+    }
+
+    /**
+     * Records a message of the vertex being checked that violates the
+     * message constraint.
+     *
+     * @param dstId Destination id of the message.
+     * @param message The message.
+     * @throws IOException
+     */
+    private void messageViolationFound(I dstId, M message)
+      throws IOException {
+      result.counts.messageViolationFound();
+      Violation vertexViolation = getViolation();
+      messageBuffer.reset();
+      dstId.write(messageBuffer);
+      vertexViolation.messageDestinations.add(Arrays.copyOf(
+        messageBuffer.getData(), messageBuffer.getLength()));
+      messageBuffer.reset();
+      message.write(messageBuffer);
+      vertexViolation.messages.add(Arrays.copyOf(messageBuffer.getData(),
+        messageBuffer.getLength()));
+      numMessageViolations++;
+    }
+  }
+
+  /**
+   * The violations of a single vertex, with the vertex id, values and
+   * messages serialized.
+   */
+  public static class Violation {
+    /**
+     * Id of the vertex.
+     */
+    private byte[] vertexId;
+    /**
+     * Value of the vertex before compute(), or null if it was not kept.
+     */
+    private byte[] valueBefore;
+    /**
+     * Value of the vertex after compute().
+     */
+    private byte[] valueAfter;
+    /**
+     * The aggregated values the vertex read, or null if none.
+     */
+    private List<AggregatedValue> aggregatedValues;
+    /**
+     * Whether the vertex value violates the vertex value constraint.
+     */
+    private boolean isVertexValueViolation;
+    /**
+     * Destinations of the messages that violate the message constraint.
+     */
+    private final List<byte[]> messageDestinations = new ArrayList<>();
+    /**
+     * The messages that violate the message constraint.
+     */
+    private final List<byte[]> messages = new ArrayList<>();
+
+    public byte[] getVertexId() {
+      return vertexId;
+    }
+
+    public byte[] getValueBefore() {
+      return valueBefore;
+    }
+
+    public byte[] getValueAfter() {
+      return valueAfter;
+    }
+
+    /**
+     * @return The aggregated values the vertex read.
+     */
+    public List<AggregatedValue> getAggregatedValues() {
+      return aggregatedValues != null ? aggregatedValues :
+        Collections.<AggregatedValue>emptyList();
+    }
+
+    public boolean isVertexValueViolation() {
+      return isVertexValueViolation;
+    }
+
+    /**
+     * @return Number of messages that violate the message constraint.
+     */
+    public int getNumMessageViolations() {
+      return messages.size();
+    }
+
+    /**
+     * @param index Index of a message that violates the message constraint.
+     * @return Destination of the message.
+     */
+    public byte[] getMessageDestination(int index) {
+      return messageDestinations.get(index);
+    }
+
+    /**
+     * @param index Index of a message that violates the message constraint.
+     * @return The message.
+     */
+    public byte[] getMessage(int index) {
+      return messages.get(index);
+    }
+  }
+}
@@ -60,9 +60,9 @@ public class BottomInterceptingComputation<I extends WritableComparable,
       super.initialize(graphState, workerClientRequestProcessor,
         graphTaskManager, workerGlobalCommUsage, workerContext);
     } finally {
-      if (!AbstractInterceptingComputation.IS_INITIALIZED) { // short circuit
-        initializeAbstractInterceptingComputation();
-      }
+      // Each compute thread has its own instance, which needs its own
+      // capture state even when the class has already been initialized.
+      initializeAbstractInterceptingComputation();
     }
   }
 
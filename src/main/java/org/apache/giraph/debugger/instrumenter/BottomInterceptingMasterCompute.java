@@ -27,10 +27,21 @@ import java.io.IOException;
  */
 public class BottomInterceptingMasterCompute extends UserMasterCompute {
 
+  @Intercept
+  @Override
+  public void initialize() throws InstantiationException,
+    IllegalAccessException {
+    super.initialize();
+    DebuggerAggregators.register(this);
+  }
+
   @Intercept
   @Override
   public void compute() {
     interceptComputeBegin();
+    DebuggerAggregators.estimateViolationRates(this);
+    DebuggerAggregators.summarizeDryRun(this);
+    DebuggerAggregators.saveSuperstepStatistics(this);
     // CHECKSTYLE: stop IllegalCatch
     try {
       super.compute();
@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.instrumenter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Limits the number of traces a worker captures in each superstep. A single
+ * instance is shared by all compute threads of a worker, and each superstep
+ * gets a fresh {@link SuperstepBudget} the first time any thread asks for it,
+ * so threads that enter a superstep late never reset the counters of threads
+ * that are already capturing.
+ *
+ * Capturing is rare compared to checking whether there is budget left, so the
+ * counters are plain atomics: the common path is a single volatile read and
+ * only an actual capture pays for an atomic increment.
+ */
+public class CaptureBudget {
+  /**
+   * Maximum number of regular vertex traces per superstep.
+   */
+  private final int numVerticesToLog;
+  /**
+   * Maximum number of vertex value or message violations per superstep.
+   */
+  private final int numViolationsToLog;
+  /**
+   * The budget of the most recent superstep any thread has entered.
+   */
+  private final AtomicReference<SuperstepBudget> currentSuperstepBudget;
+
+  /**
+   * Constructs a budget with the given per-superstep limits.
+   *
+   * @param numVerticesToLog Maximum number of vertices to capture.
+   * @param numViolationsToLog Maximum number of violations to capture.
+   */
+  public CaptureBudget(int numVerticesToLog, int numViolationsToLog) {
+    this.numVerticesToLog = numVerticesToLog;
+    this.numViolationsToLog = numViolationsToLog;
+    this.currentSuperstepBudget = new AtomicReference<>(
+      new SuperstepBudget(Long.MIN_VALUE));
+  }
+
+  /**
+   * Returns the budget of the given superstep, creating it if this is the
+   * first thread of the worker to ask for it.
+   *
+   * @param superstepNo The superstep number.
+   * @return The budget shared by all threads for the superstep.
+   */
+  public SuperstepBudget forSuperstep(long superstepNo) {
+    while (true) {
+      SuperstepBudget budget = currentSuperstepBudget.get();
+      if (budget.superstepNo >= superstepNo) {
+        return budget;
+      }
+      SuperstepBudget newBudget = new SuperstepBudget(superstepNo);
+      if (currentSuperstepBudget.compareAndSet(budget, newBudget)) {
+        return newBudget;
+      }
+    }
+  }
+
+  public int getNumVerticesToLog() {
+    return numVerticesToLog;
+  }
+
+  public int getNumViolationsToLog() {
+    return numViolationsToLog;
+  }
+
+  /**
+   * Reserves one unit of the given counter unless its limit is reached.
+   *
+   * @param counter The counter to increment.
+   * @param limit The limit of the counter.
+   * @return Whether the reservation succeeded.
+   */
+  private static boolean tryReserve(AtomicInteger counter, int limit) {
+    // Check first so that exhausted counters stop being written to.
+    return counter.get() < limit && counter.incrementAndGet() <= limit;
+  }
+
+  /**
+   * Capture counters of a single superstep.
+   */
+  public class SuperstepBudget {
+    /**
+     * The superstep these counters belong to.
+     */
+    private final long superstepNo;
+    /**
+     * Number of regular vertex traces reserved so far.
+     */
+    private final AtomicInteger numVerticesLogged = new AtomicInteger();
+    /**
+     * Number of vertex value violations reserved so far.
+     */
+    private final AtomicInteger numVertexViolationsLogged =
+      new AtomicInteger();
+    /**
+     * Number of message violations reserved so far.
+     */
+    private final AtomicInteger numMessageViolationsLogged =
+      new AtomicInteger();
+
+    /**
+     * Constructs empty counters for the given superstep.
+     *
+     * @param superstepNo The superstep number.
+     */
+    private SuperstepBudget(long superstepNo) {
+      this.superstepNo = superstepNo;
+    }
+
+    public long getSuperstepNo() {
+      return superstepNo;
+    }
+
+    /**
+     * @return Whether another regular vertex trace may be captured.
+     */
+    public boolean hasVertexBudget() {
+      return numVerticesLogged.get() < numVerticesToLog;
+    }
+
+    /**
+     * @return Whether another vertex value violation may be captured.
+     */
+    public boolean hasVertexViolationBudget() {
+      return numVertexViolationsLogged.get() < numViolationsToLog;
+    }
+
+    /**
+     * @return Whether another message violation may be captured.
+     */
+    public boolean hasMessageViolationBudget() {
+      return numMessageViolationsLogged.get() < numViolationsToLog;
+    }
+
+    /**
+     * @return Whether a regular vertex trace was reserved.
+     */
+    public boolean tryReserveVertex() {
+      return tryReserve(numVerticesLogged, numVerticesToLog);
+    }
+
+    /**
+     * @return Whether a vertex value violation trace was reserved.
+     */
+    public boolean tryReserveVertexViolation() {
+      return tryReserve(numVertexViolationsLogged, numViolationsToLog);
+    }
+
+    /**
+     * @return Whether a message violation was reserved.
+     */
+    public boolean tryReserveMessageViolation() {
+      return tryReserve(numMessageViolationsLogged, numViolationsToLog);
+    }
+
+    /**
+     * @return Whether any of the limits has been reached, in which case
+     *         compute() no longer needs to be intercepted in this superstep.
+     */
+    public boolean isExhausted() {
+      return !hasVertexBudget() || !hasVertexViolationBudget() ||
+        !hasMessageViolationBudget();
+    }
+  }
+}
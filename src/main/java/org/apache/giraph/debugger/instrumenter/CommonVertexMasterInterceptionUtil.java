@@ -19,12 +19,29 @@ package org.apache.giraph.debugger.instrumenter;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.debugger.Scenario.CommonVertexMasterContext;
 import org.apache.giraph.debugger.utils.AggregatedValueWrapper;
+import org.apache.giraph.debugger.utils.AsyncHDFSWriteService;
 import org.apache.giraph.debugger.utils.BaseWrapper;
 import org.apache.giraph.debugger.utils.CommonVertexMasterContextWrapper;
+import org.apache.giraph.debugger.utils.DebuggerUtils;
+import org.apache.giraph.debugger.utils.DebuggerUtils.DebugTrace;
+import org.apache.giraph.debugger.utils.Fingerprints;
+import org.apache.giraph.debugger.utils.FlightRecorder;
+import org.apache.giraph.debugger.utils.MsgIntegrityViolationWrapper;
+import org.apache.giraph.debugger.utils.OffHeapStagingBuffer;
+import org.apache.giraph.debugger.utils.TraceCodec;
+import org.apache.giraph.debugger.utils.TraceDictionary;
+import org.apache.giraph.debugger.utils.TraceSegmentWriter;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.io.Writable;
@@ -38,9 +55,9 @@ import org.apache.log4j.Logger;
  * common information captured by both the Master and the Vertex class, such as
  * aggregators that the user accesses, superstepNo, totalNumberOfVertices and
  * edges.
- * <li>Contains helper methods to save a master or vertex trace file to HDFS and
- * maintains a {@link FileSystem} object that can be used to write other traces
- * to HDFS.
+ * <li>Contains helper methods to save a master trace file or append a vertex
+ * trace to a trace segment in HDFS, and maintains a {@link FileSystem} object
+ * that can be used to write other traces to HDFS.
  * <li>Contains a helper method to return the trace directory for a particular
  * job.
  * </ul>
@@ -61,6 +78,36 @@ public class CommonVertexMasterInterceptionUtil {
    * The HDFS file system instance to load and save data for debugging.
    */
   private static FileSystem FILE_SYSTEM = null;
+  /**
+   * Shared context files this JVM has already written or is writing, as job
+   * id and content hash pairs. A pair is removed if its write fails, so that
+   * the file is written again.
+   */
+  private static final Set<String> SAVED_SHARED_CONTEXTS =
+    Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  /**
+   * Collects the first vertex traces of this JVM into a dictionary to
+   * compress the traces of later segments with, or null if dictionaries are
+   * disabled.
+   */
+  private static volatile TraceDictionary.Sampler DICTIONARY_SAMPLER;
+  /**
+   * Trace dictionaries this JVM has already written or is writing, as job id
+   * and content hash pairs, removed if the write fails like
+   * {@link #SAVED_SHARED_CONTEXTS}.
+   */
+  private static final Set<String> SAVED_DICTIONARIES =
+    Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  /**
+   * Number of bytes of the off-heap buffer each compute thread keeps its
+   * vertex traces in until they are written, or 0 to keep them on the heap.
+   */
+  private static volatile int OFF_HEAP_STAGING_BYTES;
+  /**
+   * Whether traces and their shared contexts are only counted instead of
+   * saved.
+   */
+  private static volatile boolean IS_DRY_RUN;
   /**
    * The Giraph job id of the job being debugged.
    */
@@ -73,6 +120,51 @@ public class CommonVertexMasterInterceptionUtil {
    * The master context being captured.
    */
   private CommonVertexMasterContextWrapper commonVertexMasterContextWrapper;
+  /**
+   * The segment the vertex traces are appended to, created by the first
+   * vertex trace saved.
+   */
+  private TraceSegmentWriter traceSegmentWriter;
+  /**
+   * The superstep of the traces in traceSegmentWriter.
+   */
+  private long traceSegmentSuperstepNo;
+  /**
+   * The off-heap buffer the traces of traceSegmentWriter are kept in until
+   * they are written, or null if they are kept on the heap.
+   */
+  private OffHeapStagingBuffer stagingBuffer;
+  /**
+   * The segment chunks of message integrity violations are appended to, or
+   * null if none was saved since the last call to closeTraceSegment().
+   */
+  private TraceSegmentWriter msgViolationSegmentWriter;
+  /**
+   * Number of message integrity violations appended to
+   * msgViolationSegmentWriter so far.
+   */
+  private long numSavedMsgViolations;
+  /**
+   * The segments the vertex traces of earlier supersteps kept by a
+   * {@link FlightRecorder} are appended to, by superstep.
+   */
+  private final Map<Long, TraceSegmentWriter> historySegmentWriters =
+    new HashMap<>();
+  /**
+   * Number of bytes of vertex traces saved, or that would have been saved
+   * during a dry run, since the last call to {@link #takeNumSavedBytes()}.
+   */
+  private long numSavedBytes;
+  /**
+   * Counts the vertex traces saved, or that would have been saved during a
+   * dry run, or null if they are not counted.
+   */
+  private TraceCounts traceCounts;
+  /**
+   * The shared context of the traces of this instance, or null until the
+   * first context wrapper is initialized.
+   */
+  private CommonVertexMasterContextWrapper sharedContextWrapper;
 
   /**
    * Constructs a new instance for the given job.
@@ -84,6 +176,14 @@ public class CommonVertexMasterInterceptionUtil {
   public CommonVertexMasterInterceptionUtil(String jobId) {
     this.jobId = jobId;
     previousAggregatedValueWrappers = new ArrayList<>();
+    initFileSystem();
+  }
+
+  /**
+   * Initializes the shared {@link FileSystem}. Synchronized because instances
+   * are created concurrently by the compute threads of a worker.
+   */
+  private static synchronized void initFileSystem() {
     if (FILE_SYSTEM == null) {
       try {
         FILE_SYSTEM = FileSystem.get(new Configuration());
@@ -93,6 +193,54 @@ public class CommonVertexMasterInterceptionUtil {
     }
   }
 
+  /**
+   * Configures how traces are compressed. Vertex traces of the segments
+   * created after the first segment is closed are compressed with a
+   * dictionary sampled from the first traces, if enabled.
+   *
+   * @param traceCodec The codec to compress traces with.
+   * @param useDictionary Whether to compress vertex traces with a dictionary.
+   */
+  public static synchronized void configureTraceCodec(TraceCodec traceCodec,
+    boolean useDictionary) {
+    AsyncHDFSWriteService.configureTraceCodec(traceCodec);
+    if (!useDictionary || traceCodec == TraceCodec.NONE) {
+      DICTIONARY_SAMPLER = null;
+    } else if (DICTIONARY_SAMPLER == null) {
+      DICTIONARY_SAMPLER = new TraceDictionary.Sampler();
+    }
+  }
+
+  /**
+   * Configures how many bytes of direct memory each compute thread keeps its
+   * vertex traces in until they are written.
+   *
+   * @param offHeapStagingBytes Number of bytes, or 0 to keep traces on the
+   *        heap.
+   */
+  public static void configureOffHeapStaging(int offHeapStagingBytes) {
+    OFF_HEAP_STAGING_BYTES = offHeapStagingBytes;
+  }
+
+  /**
+   * Configures whether traces are only counted instead of saved.
+   *
+   * @param isDryRun Whether this is a dry run.
+   */
+  public static void configureDryRun(boolean isDryRun) {
+    IS_DRY_RUN = isDryRun;
+  }
+
+  /**
+   * Sets what counts the vertex traces this instance saves, or would have
+   * saved during a dry run.
+   *
+   * @param traceCounts The counts, or null not to count them.
+   */
+  public void setTraceCounts(TraceCounts traceCounts) {
+    this.traceCounts = traceCounts;
+  }
+
   /**
    * Initializes this instance.
    *
@@ -109,6 +257,79 @@ public class CommonVertexMasterInterceptionUtil {
       immutableClassesConfig, superstepNo, totalNumVertices, totalNumEdges);
     commonVertexMasterContextWrapper
       .setPreviousAggregatedValues(previousAggregatedValueWrappers);
+    commonVertexMasterContextWrapper.setSharedContextHash(
+      getSharedContextHash(immutableClassesConfig, superstepNo,
+        totalNumVertices, totalNumEdges));
+  }
+
+  /**
+   * Creates the context of the vertex traces captured in a superstep.
+   *
+   * @param immutableClassesConfig The Giraph configuration.
+   * @param superstepNo The superstep number.
+   * @param totalNumVertices Total number of vertices at this superstep.
+   * @param totalNumEdges  Total number of edges at this superstep.
+   * @return The context of the superstep.
+   */
+  public SuperstepContext newSuperstepContext(
+    ImmutableClassesGiraphConfiguration immutableClassesConfig,
+    long superstepNo, long totalNumVertices, long totalNumEdges) {
+    return new SuperstepContext(getSharedContextHash(immutableClassesConfig,
+      superstepNo, totalNumVertices, totalNumEdges));
+  }
+
+  /**
+   * Returns the hash of the shared context with the given contents, saving
+   * it first unless it is the one this instance used last.
+   *
+   * @param immutableClassesConfig The Giraph configuration.
+   * @param superstepNo The superstep number.
+   * @param totalNumVertices Total number of vertices at this superstep.
+   * @param totalNumEdges  Total number of edges at this superstep.
+   * @return The content hash of the shared context.
+   */
+  private String getSharedContextHash(
+    ImmutableClassesGiraphConfiguration immutableClassesConfig,
+    long superstepNo, long totalNumVertices, long totalNumEdges) {
+    if (sharedContextWrapper == null ||
+      sharedContextWrapper.getConfig() != immutableClassesConfig ||
+      sharedContextWrapper.getSuperstepNoWrapper() != superstepNo ||
+      sharedContextWrapper.getTotalNumVerticesWrapper() != totalNumVertices ||
+      sharedContextWrapper.getTotalNumEdgesWrapper() != totalNumEdges) {
+      sharedContextWrapper = new CommonVertexMasterContextWrapper(
+        immutableClassesConfig, superstepNo, totalNumVertices, totalNumEdges);
+      saveSharedContext(sharedContextWrapper);
+    } else if (!IS_DRY_RUN && !SAVED_SHARED_CONTEXTS.contains(jobId + "/" +
+      sharedContextWrapper.getSharedContextHash())) {
+      // The write of the shared context failed.
+      saveSharedContext(sharedContextWrapper);
+    }
+    return sharedContextWrapper.getSharedContextHash();
+  }
+
+  /**
+   * Saves the part of the given context that is common to all traces of a
+   * superstep in a file named after its content hash, so that the traces only
+   * need to store the hash. The file is written once per job and content,
+   * or again if the write fails.
+   *
+   * @param contextWrapper The context to save, whose shared context hash is
+   *        set.
+   */
+  private void saveSharedContext(
+    CommonVertexMasterContextWrapper contextWrapper) {
+    CommonVertexMasterContext sharedContext =
+      contextWrapper.buildSharedContextProtoObject();
+    byte[] bytes = sharedContext.toByteArray();
+    String sharedContextHash = String.format("%016x",
+      Fingerprints.of(bytes, 0, bytes.length));
+    contextWrapper.setSharedContextHash(sharedContextHash);
+    String key = jobId + "/" + sharedContextHash;
+    if (!IS_DRY_RUN && SAVED_SHARED_CONTEXTS.add(key)) {
+      AsyncHDFSWriteService.writeToHDFSIfAbsent(sharedContext, FILE_SYSTEM,
+        DebuggerUtils.getFullSharedContextFileName(jobId, sharedContextHash),
+        removeOnFailure(SAVED_SHARED_CONTEXTS, key));
+    }
   }
 
   /**
@@ -151,6 +372,9 @@ public class CommonVertexMasterInterceptionUtil {
    */
   public void saveScenarioWrapper(BaseWrapper masterOrVertexScenarioWrapper,
     String fullFileName) {
+    if (IS_DRY_RUN) {
+      return;
+    }
     try {
       masterOrVertexScenarioWrapper.saveToHDFS(FILE_SYSTEM, fullFileName);
     } catch (IOException e) {
@@ -162,6 +386,224 @@ public class CommonVertexMasterInterceptionUtil {
     }
   }
 
+  /**
+   * Saves a captured vertex scenario by appending it to the trace segment of
+   * this instance.
+   *
+   * @param record The serialized scenario to save.
+   * @param debugTrace The type of the vertex trace.
+   * @param superstepNo The superstep number.
+   * @param vertexId The id of the vertex as a string.
+   */
+  public void saveVertexScenario(byte[] record, DebugTrace debugTrace,
+    long superstepNo, String vertexId) {
+    countTrace(debugTrace, record.length);
+    if (IS_DRY_RUN) {
+      return;
+    }
+    if (traceSegmentWriter != null && traceSegmentSuperstepNo != superstepNo) {
+      closeTraceSegment();
+    }
+    if (traceSegmentWriter == null) {
+      traceSegmentWriter = new TraceSegmentWriter(FILE_SYSTEM, DebuggerUtils
+        .getFullTraceSegmentFileName(jobId, superstepNo, UUID.randomUUID()
+          .toString()), AsyncHDFSWriteService.getTraceCodec(),
+        getTraceDictionary());
+      traceSegmentSuperstepNo = superstepNo;
+      int offHeapStagingBytes = OFF_HEAP_STAGING_BYTES;
+      if (offHeapStagingBytes > 0) {
+        stagingBuffer = OffHeapStagingBuffer.acquire(offHeapStagingBytes);
+      }
+    }
+    TraceDictionary.Sampler dictionarySampler = DICTIONARY_SAMPLER;
+    if (dictionarySampler != null) {
+      dictionarySampler.offer(record);
+    }
+    try {
+      AsyncHDFSWriteService.appendToSegment(traceSegmentWriter, debugTrace,
+        vertexId, record, stagingBuffer);
+    } catch (IOException e) {
+      LOG.error("Could not append the " + debugTrace +
+        " trace of vertex " + vertexId + " to " +
+        traceSegmentWriter.getPath() + ". IOException was thrown. " +
+        "exceptionMessage: " + e.getMessage());
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Saves the scenarios of earlier supersteps a {@link FlightRecorder} kept
+   * for a vertex, as regular traces of these supersteps.
+   *
+   * @param history The scenarios, oldest first.
+   * @param vertexId The id of the vertex as a string.
+   */
+  public void saveVertexHistory(List<FlightRecorder.Entry> history,
+    String vertexId) {
+    for (FlightRecorder.Entry entry : history) {
+      countTrace(DebugTrace.VERTEX_REGULAR, entry.getScenario().length);
+      if (IS_DRY_RUN) {
+        continue;
+      }
+      TraceSegmentWriter segmentWriter = historySegmentWriters.get(
+        entry.getSuperstepNo());
+      if (segmentWriter == null) {
+        segmentWriter = new TraceSegmentWriter(FILE_SYSTEM, DebuggerUtils
+          .getFullTraceSegmentFileName(jobId, entry.getSuperstepNo(), UUID
+            .randomUUID().toString()), AsyncHDFSWriteService.getTraceCodec(),
+          getTraceDictionary());
+        historySegmentWriters.put(entry.getSuperstepNo(), segmentWriter);
+      }
+      try {
+        AsyncHDFSWriteService.appendToSegment(segmentWriter,
+          DebugTrace.VERTEX_REGULAR, vertexId, entry.getScenario());
+      } catch (IOException e) {
+        LOG.error("Could not append the history of vertex " + vertexId +
+          " to " + segmentWriter.getPath() + ". IOException was thrown. " +
+          "exceptionMessage: " + e.getMessage());
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Saves the message integrity violations captured so far as a chunk of the
+   * message integrity trace of this instance, and clears them. Each chunk is
+   * indexed by the number of violations saved before it, so that readers
+   * can page through the trace without decoding all of it.
+   *
+   * @param msgIntegrityViolationWrapper The captured violations.
+   */
+  public void saveMsgIntegrityViolations(
+    MsgIntegrityViolationWrapper msgIntegrityViolationWrapper) {
+    int numViolations = msgIntegrityViolationWrapper.numMsgWrappers();
+    if (numViolations == 0) {
+      return;
+    }
+    byte[] record = msgIntegrityViolationWrapper.buildProtoObject()
+      .toByteArray();
+    // The record holds copies, so the captured messages can be reused.
+    msgIntegrityViolationWrapper.clear();
+    countTrace(DebugTrace.INTEGRITY_MESSAGE_ALL, record.length);
+    if (IS_DRY_RUN) {
+      return;
+    }
+    if (msgViolationSegmentWriter == null) {
+      msgViolationSegmentWriter = new TraceSegmentWriter(FILE_SYSTEM,
+        DebuggerUtils.getMessageIntegrityAllTraceFullFileName(
+          msgIntegrityViolationWrapper.getSuperstepNo(), jobId, UUID
+            .randomUUID().toString()), AsyncHDFSWriteService.getTraceCodec(),
+        getTraceDictionary());
+      numSavedMsgViolations = 0;
+    }
+    try {
+      AsyncHDFSWriteService.appendToSegment(msgViolationSegmentWriter,
+        DebugTrace.INTEGRITY_MESSAGE_ALL, Long.toString(
+          numSavedMsgViolations), record);
+    } catch (IOException e) {
+      LOG.error("Could not append message integrity violations to " +
+        msgViolationSegmentWriter.getPath() + ". IOException was thrown. " +
+        "exceptionMessage: " + e.getMessage());
+      e.printStackTrace();
+    }
+    numSavedMsgViolations += numViolations;
+  }
+
+  /**
+   * Counts a trace that is saved, or would have been saved during a dry run,
+   * if traces are counted, and adds its bytes to those returned by
+   * {@link #takeNumSavedBytes()}, so that a dry run stops capturing where
+   * the trace byte budget would have stopped it.
+   *
+   * @param debugTrace The type of the trace.
+   * @param numBytes The number of bytes of the trace.
+   */
+  public void countTrace(DebugTrace debugTrace, long numBytes) {
+    numSavedBytes += numBytes;
+    if (traceCounts != null) {
+      traceCounts.traceCaptured(debugTrace, numBytes);
+    }
+  }
+
+  /**
+   * @return Number of bytes of vertex traces saved, or that would have been
+   *         saved during a dry run, since the last call.
+   */
+  public long takeNumSavedBytes() {
+    long numBytes = numSavedBytes;
+    numSavedBytes = 0;
+    return numBytes;
+  }
+
+  /**
+   * Returns the dictionary to compress the traces of a new segment with,
+   * saving it first if this JVM has not saved it yet.
+   *
+   * @return The dictionary, or null if there is none yet.
+   */
+  private TraceDictionary getTraceDictionary() {
+    TraceDictionary.Sampler dictionarySampler = DICTIONARY_SAMPLER;
+    TraceDictionary dictionary = dictionarySampler == null ? null :
+      dictionarySampler.getDictionary();
+    if (dictionary == null) {
+      return null;
+    }
+    String key = jobId + "/" + dictionary.getHash();
+    if (SAVED_DICTIONARIES.add(key)) {
+      AsyncHDFSWriteService.writeToHDFSIfAbsent(dictionary.getBytes(),
+        FILE_SYSTEM, DebuggerUtils.getFullTraceDictionaryFileName(jobId,
+          dictionary.getHash()), removeOnFailure(SAVED_DICTIONARIES, key));
+    }
+    return dictionary;
+  }
+
+  /**
+   * @param savedKeys The keys of the files written or being written.
+   * @param key The key of a file being written.
+   * @return Removes the key of the file if its write fails, so that it is
+   *         written again.
+   */
+  private static Runnable removeOnFailure(final Set<String> savedKeys,
+    final String key) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        LOG.warn("Failed to write " + key + ", will write it again");
+        savedKeys.remove(key);
+      }
+    };
+  }
+
+  /**
+   * Closes the trace segments of this instance, if any, after which the
+   * traces in them become readable. The traces sampled so far become the
+   * dictionary of later segments.
+   */
+  public void closeTraceSegment() {
+    for (TraceSegmentWriter segmentWriter : historySegmentWriters.values()) {
+      AsyncHDFSWriteService.closeInBackground(segmentWriter);
+    }
+    historySegmentWriters.clear();
+    if (msgViolationSegmentWriter != null) {
+      AsyncHDFSWriteService.closeInBackground(msgViolationSegmentWriter);
+      msgViolationSegmentWriter = null;
+    }
+    if (traceSegmentWriter != null) {
+      AsyncHDFSWriteService.closeInBackground(traceSegmentWriter);
+      traceSegmentWriter = null;
+      if (stagingBuffer != null) {
+        // Traces still staged are unstaged by the writer threads, so
+        // another compute thread may already stage after them.
+        OffHeapStagingBuffer.release(stagingBuffer);
+        stagingBuffer = null;
+      }
+      TraceDictionary.Sampler dictionarySampler = DICTIONARY_SAMPLER;
+      if (dictionarySampler != null) {
+        dictionarySampler.build();
+      }
+    }
+  }
+
   public List<AggregatedValueWrapper> getPreviousAggregatedValueWrappers() {
     return previousAggregatedValueWrappers;
   }
@@ -0,0 +1,372 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.instrumenter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.giraph.aggregators.DoubleOverwriteAggregator;
+import org.apache.giraph.aggregators.LongSumAggregator;
+import org.apache.giraph.debugger.DebugConfig;
+import org.apache.giraph.debugger.Statistics.SuperstepStatistics;
+import org.apache.giraph.debugger.Statistics.SuperstepStatistics.TraceStatistics;
+import org.apache.giraph.debugger.utils.AsyncHDFSWriteService;
+import org.apache.giraph.debugger.utils.DebuggerUtils;
+import org.apache.giraph.debugger.utils.DebuggerUtils.DebugTrace;
+import org.apache.giraph.master.MasterCompute;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.log4j.Logger;
+
+/**
+ * Names and registration of the Giraph aggregators Graft uses to coordinate
+ * capturing across workers. They are registered by the instrumented
+ * MasterCompute, or by {@link DebuggerMasterCompute} for jobs without one.
+ * Workers must tolerate them being absent, e.g., when a job is instrumented
+ * without its MasterCompute.
+ */
+public final class DebuggerAggregators {
+  /**
+   * Prefix of the names of all aggregators registered by Graft.
+   */
+  public static final String PREFIX = "giraph.debugger.";
+  /**
+   * Number of vertices selected for capture in a superstep by all workers,
+   * which sizes the per-worker samples of the next superstep.
+   */
+  public static final String NUM_CANDIDATE_VERTICES =
+    PREFIX + "numCandidateVertices";
+  /**
+   * Number of vertex values checked against the vertex value constraint in a
+   * superstep by all workers.
+   */
+  public static final String NUM_CHECKED_VERTEX_VALUES =
+    PREFIX + "numCheckedVertexValues";
+  /**
+   * Number of checked vertex values that violate the constraint.
+   */
+  public static final String NUM_VERTEX_VALUE_VIOLATIONS =
+    PREFIX + "numVertexValueViolations";
+  /**
+   * Number of messages checked against the message constraint in a superstep
+   * by all workers.
+   */
+  public static final String NUM_CHECKED_MESSAGES =
+    PREFIX + "numCheckedMessages";
+  /**
+   * Number of checked messages that violate the constraint.
+   */
+  public static final String NUM_MESSAGE_VIOLATIONS =
+    PREFIX + "numMessageViolations";
+  /**
+   * Lower bound of the 95% confidence interval of the fraction of vertex
+   * values violating the constraint in the previous superstep.
+   */
+  public static final String VERTEX_VALUE_VIOLATION_RATE_LOWER =
+    PREFIX + "vertexValueViolationRateLower";
+  /**
+   * Upper bound of the 95% confidence interval of the fraction of vertex
+   * values violating the constraint in the previous superstep.
+   */
+  public static final String VERTEX_VALUE_VIOLATION_RATE_UPPER =
+    PREFIX + "vertexValueViolationRateUpper";
+  /**
+   * Lower bound of the 95% confidence interval of the fraction of messages
+   * violating the constraint in the previous superstep.
+   */
+  public static final String MESSAGE_VIOLATION_RATE_LOWER =
+    PREFIX + "messageViolationRateLower";
+  /**
+   * Upper bound of the 95% confidence interval of the fraction of messages
+   * violating the constraint in the previous superstep.
+   */
+  public static final String MESSAGE_VIOLATION_RATE_UPPER =
+    PREFIX + "messageViolationRateUpper";
+  /**
+   * Number of vertices whose compute() was intercepted in a superstep by all
+   * workers, when statistics are collected.
+   */
+  public static final String NUM_INTERCEPTED_VERTICES =
+    PREFIX + "numInterceptedVertices";
+
+  /**
+   * Types of the traces whose numbers and bytes workers count when
+   * statistics are collected or during a dry run.
+   */
+  private static final DebugTrace[] COUNTED_TRACES = {
+    DebugTrace.VERTEX_REGULAR, DebugTrace.VERTEX_EXCEPTION,
+    DebugTrace.INTEGRITY_VERTEX, DebugTrace.INTEGRITY_MESSAGE_SINGLE_VERTEX,
+    DebugTrace.INTEGRITY_MESSAGE_ALL };
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger LOG = Logger.getLogger(
+    DebuggerAggregators.class);
+
+  /**
+   * Should not instantiate.
+   */
+  private DebuggerAggregators() {
+  }
+
+  /**
+   * Registers the aggregators used by Graft.
+   *
+   * @param masterCompute The MasterCompute of the job.
+   * @throws InstantiationException
+   * @throws IllegalAccessException
+   */
+  public static void register(MasterCompute masterCompute)
+    throws InstantiationException, IllegalAccessException {
+    masterCompute.registerAggregator(NUM_CANDIDATE_VERTICES,
+      LongSumAggregator.class);
+    masterCompute.registerAggregator(NUM_CHECKED_VERTEX_VALUES,
+      LongSumAggregator.class);
+    masterCompute.registerAggregator(NUM_VERTEX_VALUE_VIOLATIONS,
+      LongSumAggregator.class);
+    masterCompute.registerAggregator(NUM_CHECKED_MESSAGES,
+      LongSumAggregator.class);
+    masterCompute.registerAggregator(NUM_MESSAGE_VIOLATIONS,
+      LongSumAggregator.class);
+    masterCompute.registerAggregator(VERTEX_VALUE_VIOLATION_RATE_LOWER,
+      DoubleOverwriteAggregator.class);
+    masterCompute.registerAggregator(VERTEX_VALUE_VIOLATION_RATE_UPPER,
+      DoubleOverwriteAggregator.class);
+    masterCompute.registerAggregator(MESSAGE_VIOLATION_RATE_LOWER,
+      DoubleOverwriteAggregator.class);
+    masterCompute.registerAggregator(MESSAGE_VIOLATION_RATE_UPPER,
+      DoubleOverwriteAggregator.class);
+    masterCompute.registerAggregator(NUM_INTERCEPTED_VERTICES,
+      LongSumAggregator.class);
+    for (DebugTrace debugTrace : COUNTED_TRACES) {
+      masterCompute.registerAggregator(getNumTracesName(debugTrace),
+        LongSumAggregator.class);
+      masterCompute.registerAggregator(getNumTraceBytesName(debugTrace),
+        LongSumAggregator.class);
+    }
+    // Only registered when used, since every registered aggregator is
+    // reduced in every superstep.
+    if (DebugConfig.shouldCollectStatistics(masterCompute.getConf()) ||
+      DebugConfig.isDryRun(masterCompute.getConf())) {
+      for (int i = 0; i < TraceCounts.NUM_SIZE_BUCKETS; i++) {
+        masterCompute.registerAggregator(getNumTracesOfSizeName(i),
+          LongSumAggregator.class);
+      }
+    }
+  }
+
+  /**
+   * @param debugTrace A type of traces.
+   * @return Name of the aggregator of the number of traces of the type the
+   *         workers saved in a superstep, or would have saved in a dry run.
+   */
+  public static String getNumTracesName(DebugTrace debugTrace) {
+    return PREFIX + "traces." + debugTrace.name() + ".numTraces";
+  }
+
+  /**
+   * @param debugTrace A type of traces.
+   * @return Name of the aggregator of the number of bytes of the traces of
+   *         the type the workers saved in a superstep, or would have saved in
+   *         a dry run, where the bytes of regular traces are estimated.
+   */
+  public static String getNumTraceBytesName(DebugTrace debugTrace) {
+    return PREFIX + "traces." + debugTrace.name() + ".numBytes";
+  }
+
+  /**
+   * @param sizeBucket A bucket of the histogram of trace sizes, as defined
+   *        by {@link TraceCounts#getSizeBucket(long)}.
+   * @return Name of the aggregator of the number of traces of all types in
+   *         the bucket the workers saved in a superstep, or would have saved
+   *         in a dry run, registered when statistics are collected or during
+   *         a dry run.
+   */
+  public static String getNumTracesOfSizeName(int sizeBucket) {
+    return PREFIX + "traces.size." + sizeBucket;
+  }
+
+  /**
+   * @param masterCompute The MasterCompute of the job.
+   * @param name Name of a {@link LongSumAggregator}.
+   * @return The value it aggregated in the previous superstep, or 0 if it
+   *         is not registered.
+   */
+  private static long getAggregatedLong(MasterCompute masterCompute,
+    String name) {
+    LongWritable value = masterCompute.getAggregatedValue(name);
+    return value != null ? value.get() : 0;
+  }
+
+  /**
+   * Logs the numbers and bytes of traces the workers would have saved in the
+   * previous superstep of a dry run, and writes them to a summary file.
+   * Called by the master at the beginning of each superstep.
+   *
+   * @param masterCompute The MasterCompute of the job.
+   */
+  public static void summarizeDryRun(MasterCompute masterCompute) {
+    long superstepNo = masterCompute.getSuperstep() - 1;
+    if (superstepNo < 0 || !DebugConfig.isDryRun(masterCompute.getConf())) {
+      return;
+    }
+    StringBuilder summary = new StringBuilder();
+    summary.append("# Traces a full run would have saved in superstep ")
+      .append(superstepNo).append(": type, number, estimated bytes\n");
+    for (DebugTrace debugTrace : COUNTED_TRACES) {
+      summary.append(debugTrace.name()).append('\t')
+        .append(getAggregatedLong(masterCompute, getNumTracesName(
+          debugTrace))).append('\t')
+        .append(getAggregatedLong(masterCompute, getNumTraceBytesName(
+          debugTrace))).append('\n');
+    }
+    LOG.info(summary);
+    try {
+      AsyncHDFSWriteService.writeToHDFSIfAbsent(summary.toString().getBytes(
+        StandardCharsets.UTF_8), FileSystem.get(masterCompute.getConf()),
+        DebuggerUtils.getFullDryRunSummaryFileName(masterCompute.getContext()
+          .getJobID().toString(), superstepNo));
+    } catch (IOException e) {
+      LOG.error("Could not write the dry run summary of superstep " +
+        superstepNo + ". exceptionMessage: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Writes the statistics the workers collected in the previous superstep
+   * to a record, which holds the exact numbers of checks and violations
+   * however many of the violations were captured. Called by the master at
+   * the beginning of each superstep.
+   *
+   * @param masterCompute The MasterCompute of the job.
+   */
+  public static void saveSuperstepStatistics(MasterCompute masterCompute) {
+    long superstepNo = masterCompute.getSuperstep() - 1;
+    if (superstepNo < 0 ||
+      !DebugConfig.shouldCollectStatistics(masterCompute.getConf())) {
+      return;
+    }
+    SuperstepStatistics.Builder statistics = SuperstepStatistics.newBuilder()
+      .setSuperstepNo(superstepNo)
+      .setNumInterceptedVertices(getAggregatedLong(masterCompute,
+        NUM_INTERCEPTED_VERTICES))
+      .setNumCheckedVertexValues(getAggregatedLong(masterCompute,
+        NUM_CHECKED_VERTEX_VALUES))
+      .setNumVertexValueViolations(getAggregatedLong(masterCompute,
+        NUM_VERTEX_VALUE_VIOLATIONS))
+      .setNumCheckedMessages(getAggregatedLong(masterCompute,
+        NUM_CHECKED_MESSAGES))
+      .setNumMessageViolations(getAggregatedLong(masterCompute,
+        NUM_MESSAGE_VIOLATIONS));
+    if (DebugConfig.isDryRun(masterCompute.getConf())) {
+      statistics.setDryRun(true);
+    }
+    for (DebugTrace debugTrace : COUNTED_TRACES) {
+      long numTraces = getAggregatedLong(masterCompute,
+        getNumTracesName(debugTrace));
+      if (numTraces > 0) {
+        statistics.addTraceStatistics(TraceStatistics.newBuilder()
+          .setDebugTrace(debugTrace.name()).setNumTraces(numTraces)
+          .setNumBytes(getAggregatedLong(masterCompute,
+            getNumTraceBytesName(debugTrace))));
+      }
+    }
+    long[] numTracesBySize = new long[TraceCounts.NUM_SIZE_BUCKETS];
+    int numSizeBuckets = 0;
+    for (int i = 0; i < numTracesBySize.length; i++) {
+      numTracesBySize[i] = getAggregatedLong(masterCompute,
+        getNumTracesOfSizeName(i));
+      if (numTracesBySize[i] > 0) {
+        numSizeBuckets = i + 1;
+      }
+    }
+    for (int i = 0; i < numSizeBuckets; i++) {
+      statistics.addTraceSizeHistogram(numTracesBySize[i]);
+    }
+    SuperstepStatistics superstepStatistics = statistics.build();
+    LOG.info("Statistics of superstep " + superstepNo + ": " +
+      superstepStatistics);
+    try {
+      AsyncHDFSWriteService.writeToHDFSIfAbsent(
+        superstepStatistics.toByteArray(), FileSystem.get(
+          masterCompute.getConf()), DebuggerUtils.getFullStatisticsFileName(
+          masterCompute.getContext().getJobID().toString(), superstepNo));
+    } catch (IOException e) {
+      LOG.error("Could not write the statistics of superstep " +
+        superstepNo + ". exceptionMessage: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Estimates the violation rates of the previous superstep from the checks
+   * the workers counted, logs them, and publishes their confidence intervals
+   * to the workers. Called by the master at the beginning of each superstep.
+   *
+   * @param masterCompute The MasterCompute of the job.
+   */
+  public static void estimateViolationRates(MasterCompute masterCompute) {
+    ViolationRateEstimate vertexValueEstimate = estimate(masterCompute,
+      NUM_CHECKED_VERTEX_VALUES, NUM_VERTEX_VALUE_VIOLATIONS,
+      VERTEX_VALUE_VIOLATION_RATE_LOWER, VERTEX_VALUE_VIOLATION_RATE_UPPER);
+    ViolationRateEstimate messageEstimate = estimate(masterCompute,
+      NUM_CHECKED_MESSAGES, NUM_MESSAGE_VIOLATIONS,
+      MESSAGE_VIOLATION_RATE_LOWER, MESSAGE_VIOLATION_RATE_UPPER);
+    long superstepNo = masterCompute.getSuperstep() - 1;
+    if (vertexValueEstimate != null) {
+      LOG.info("Vertex value violation rate in superstep " + superstepNo +
+        ": " + vertexValueEstimate);
+    }
+    if (messageEstimate != null) {
+      LOG.info("Message violation rate in superstep " + superstepNo + ": " +
+        messageEstimate);
+    }
+  }
+
+  /**
+   * Estimates a violation rate from the counts of the previous superstep and
+   * publishes its confidence interval.
+   *
+   * @param masterCompute The MasterCompute of the job.
+   * @param numCheckedName Name of the aggregator counting checks.
+   * @param numViolationsName Name of the aggregator counting violations.
+   * @param lowerName Name of the aggregator of the lower bound.
+   * @param upperName Name of the aggregator of the upper bound.
+   * @return The estimate, or null if nothing was checked.
+   */
+  private static ViolationRateEstimate estimate(MasterCompute masterCompute,
+    String numCheckedName, String numViolationsName, String lowerName,
+    String upperName) {
+    LongWritable numChecked = masterCompute.getAggregatedValue(
+      numCheckedName);
+    LongWritable numViolations = masterCompute.getAggregatedValue(
+      numViolationsName);
+    if (numChecked == null || numChecked.get() == 0 ||
+      numViolations == null) {
+      return null;
+    }
+    ViolationRateEstimate estimate = new ViolationRateEstimate(
+      numChecked.get(), numViolations.get());
+    masterCompute.setAggregatedValue(lowerName,
+      new DoubleWritable(estimate.getLowerBound()));
+    masterCompute.setAggregatedValue(upperName,
+      new DoubleWritable(estimate.getUpperBound()));
+    return estimate;
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.instrumenter;
+
+/**
+ * Numbers of vertex values and messages checked against the integrity
+ * constraints in a superstep, and of violations found among them, from which
+ * the master estimates violation rates when only a sample is checked.
+ */
+public class IntegrityCheckCounts {
+  /**
+   * Number of vertex values checked.
+   */
+  private long numCheckedVertexValues;
+  /**
+   * Number of vertex values that violate the constraint.
+   */
+  private long numVertexValueViolations;
+  /**
+   * Number of messages checked.
+   */
+  private long numCheckedMessages;
+  /**
+   * Number of messages that violate the constraint.
+   */
+  private long numMessageViolations;
+
+  /**
+   * Counts a checked vertex value.
+   *
+   * @param isViolation Whether the value violates the constraint.
+   */
+  public void vertexValueChecked(boolean isViolation) {
+    numCheckedVertexValues++;
+    if (isViolation) {
+      numVertexValueViolations++;
+    }
+  }
+
+  /**
+   * Counts checked messages.
+   *
+   * @param numMessages Number of messages.
+   */
+  public void messagesChecked(long numMessages) {
+    numCheckedMessages += numMessages;
+  }
+
+  /**
+   * Counts a message that violates the constraint.
+   */
+  public void messageViolationFound() {
+    numMessageViolations++;
+  }
+
+  /**
+   * Adds the counts of another instance to this one.
+   *
+   * @param other The counts to add.
+   */
+  public void add(IntegrityCheckCounts other) {
+    numCheckedVertexValues += other.numCheckedVertexValues;
+    numVertexValueViolations += other.numVertexValueViolations;
+    numCheckedMessages += other.numCheckedMessages;
+    numMessageViolations += other.numMessageViolations;
+  }
+
+  /**
+   * @return Whether nothing was checked.
+   */
+  public boolean isEmpty() {
+    return numCheckedVertexValues == 0 && numCheckedMessages == 0;
+  }
+
+  /**
+   * Resets all counts to zero.
+   */
+  public void clear() {
+    numCheckedVertexValues = 0;
+    numVertexValueViolations = 0;
+    numCheckedMessages = 0;
+    numMessageViolations = 0;
+  }
+
+  public long getNumCheckedVertexValues() {
+    return numCheckedVertexValues;
+  }
+
+  public long getNumVertexValueViolations() {
+    return numVertexValueViolations;
+  }
+
+  public long getNumCheckedMessages() {
+    return numCheckedMessages;
+  }
+
+  public long getNumMessageViolations() {
+    return numMessageViolations;
+  }
+}
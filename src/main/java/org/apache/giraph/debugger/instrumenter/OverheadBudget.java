@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.instrumenter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Limits the time and trace bytes the debugger costs a worker in each
+ * superstep. A single instance is shared by all compute threads of a worker,
+ * and each superstep gets a fresh {@link SuperstepOverhead} the first time any
+ * thread asks for it, like {@link CaptureBudget}.
+ *
+ * Compute threads time the interception of one in {@link #TIMING_INTERVAL}
+ * vertices. The interval is odd, so the timed vertices fall on every position
+ * of the power-of-two pattern in which {@link SuperstepOverhead#admits(long)}
+ * admits vertices, and the timed vertices include captured and skipped
+ * vertices in the same proportion as all vertices do. The overhead is
+ * compared with the budget only after whole periods of that pattern. When the
+ * time spent intercepting exceeds the allowed fraction of the time spent in
+ * compute(), capture is throttled to every other vertex,
+ * then every fourth vertex, and so on, until it stops for the rest of the
+ * superstep. Capture also stops once the traces saved in the superstep
+ * exceed the allowed number of bytes. Each superstep starts one level less
+ * throttled than the previous one ended, so capture recovers gradually when
+ * the overhead drops.
+ */
+public class OverheadBudget {
+  /**
+   * Number of vertices a compute thread intercepts per timed vertex. Must be
+   * odd, so it shares no factor with the admission pattern.
+   */
+  public static final int TIMING_INTERVAL = 63;
+  /**
+   * Logger for this class.
+   */
+  private static final Logger LOG = Logger.getLogger(OverheadBudget.class);
+  /**
+   * Minimum number of timed vertices after which the overhead is compared
+   * with the budget.
+   */
+  private static final int MIN_TIMED_VERTICES = 16;
+  /**
+   * The throttle level after which capture stops, capturing one in 2^level
+   * vertices until then.
+   */
+  private static final int MAX_THROTTLE_LEVEL = 10;
+
+  /**
+   * Maximum fraction of the time spent in compute() that may be spent
+   * intercepting it, or 0 for no limit.
+   */
+  private final double maxOverheadFraction;
+  /**
+   * Maximum number of bytes of traces per superstep, or 0 for no limit.
+   */
+  private final long maxTraceBytes;
+  /**
+   * The overhead of the most recent superstep any thread has entered.
+   */
+  private final AtomicReference<SuperstepOverhead> currentSuperstepOverhead;
+
+  /**
+   * Constructs a budget with the given per-superstep limits.
+   *
+   * @param maxOverheadFraction Maximum fraction of the time spent in
+   *        compute() that may be spent intercepting it, or 0 for no limit.
+   * @param maxTraceBytes Maximum number of bytes of traces per superstep, or
+   *        0 for no limit.
+   */
+  public OverheadBudget(double maxOverheadFraction, long maxTraceBytes) {
+    this.maxOverheadFraction = maxOverheadFraction;
+    this.maxTraceBytes = maxTraceBytes;
+    this.currentSuperstepOverhead = new AtomicReference<>(
+      new SuperstepOverhead(Long.MIN_VALUE, 0));
+  }
+
+  /**
+   * @param vertexSeq Sequence number of a vertex in its compute thread.
+   * @return Whether the interception of the vertex should be timed.
+   */
+  public static boolean isTimedVertex(long vertexSeq) {
+    return vertexSeq % TIMING_INTERVAL == 0;
+  }
+
+  /**
+   * Returns the overhead of the given superstep, creating it if this is the
+   * first thread of the worker to ask for it.
+   *
+   * @param superstepNo The superstep number.
+   * @return The overhead shared by all threads for the superstep.
+   */
+  public SuperstepOverhead forSuperstep(long superstepNo) {
+    while (true) {
+      SuperstepOverhead overhead = currentSuperstepOverhead.get();
+      if (overhead.superstepNo >= superstepNo) {
+        return overhead;
+      }
+      SuperstepOverhead newOverhead = new SuperstepOverhead(superstepNo,
+        Math.max(0, Math.min(overhead.throttleLevel, MAX_THROTTLE_LEVEL) - 1));
+      if (currentSuperstepOverhead.compareAndSet(overhead, newOverhead)) {
+        return newOverhead;
+      }
+    }
+  }
+
+  /**
+   * Overhead counters and throttle of a single superstep.
+   */
+  public class SuperstepOverhead {
+    /**
+     * The superstep these counters belong to.
+     */
+    private final long superstepNo;
+    /**
+     * Nanoseconds the timed vertices spent being intercepted since the
+     * throttle level last changed.
+     */
+    private final AtomicLong interceptNanos = new AtomicLong();
+    /**
+     * Nanoseconds the timed vertices spent in compute(), interception
+     * included, since the throttle level last changed.
+     */
+    private final AtomicLong totalNanos = new AtomicLong();
+    /**
+     * Number of vertices timed since the throttle level last changed.
+     */
+    private final AtomicLong numTimedVertices = new AtomicLong();
+    /**
+     * Number of bytes of traces saved in the superstep.
+     */
+    private final AtomicLong numTraceBytes = new AtomicLong();
+    /**
+     * One in 2^throttleLevel vertices is captured, and none beyond
+     * {@link #MAX_THROTTLE_LEVEL}.
+     */
+    private volatile int throttleLevel;
+    /**
+     * Whether the traces saved in the superstep exceed the budget.
+     */
+    private volatile boolean isOutOfBytes;
+
+    /**
+     * Constructs empty counters for the given superstep.
+     *
+     * @param superstepNo The superstep number.
+     * @param throttleLevel The initial throttle level.
+     */
+    private SuperstepOverhead(long superstepNo, int throttleLevel) {
+      this.superstepNo = superstepNo;
+      this.throttleLevel = throttleLevel;
+    }
+
+    /**
+     * @param vertexSeq Sequence number of a vertex in its compute thread.
+     * @return Whether the vertex may be captured at the current throttle
+     *         level.
+     */
+    public boolean admits(long vertexSeq) {
+      int level = throttleLevel;
+      return !isOutOfBytes && level <= MAX_THROTTLE_LEVEL &&
+        (vertexSeq & ((1L << level) - 1)) == 0;
+    }
+
+    /**
+     * @return Whether capture stopped for the rest of the superstep.
+     */
+    public boolean isStopped() {
+      return isOutOfBytes || throttleLevel > MAX_THROTTLE_LEVEL;
+    }
+
+    /**
+     * @return The current throttle level.
+     */
+    public int getThrottleLevel() {
+      return throttleLevel;
+    }
+
+    /**
+     * @return The fraction of vertices captured at the current throttle
+     *         level.
+     */
+    public double getCaptureRate() {
+      return isStopped() ? 0 : 1.0 / (1L << throttleLevel);
+    }
+
+    /**
+     * Records the time a timed vertex took, and throttles capture if the
+     * overhead exceeds the budget.
+     *
+     * @param vertexInterceptNanos Nanoseconds spent intercepting the vertex.
+     * @param vertexTotalNanos Nanoseconds spent in compute(), interception
+     *        included.
+     */
+    public void vertexTimed(long vertexInterceptNanos, long vertexTotalNanos) {
+      if (maxOverheadFraction <= 0) {
+        return;
+      }
+      long intercept = interceptNanos.addAndGet(vertexInterceptNanos);
+      long total = totalNanos.addAndGet(vertexTotalNanos);
+      long numTimed = numTimedVertices.incrementAndGet();
+      if (numTimed % getTimingPeriod() == 0 &&
+        intercept > maxOverheadFraction * total) {
+        throttle(String.format("intercepting took %.1f%% of compute()",
+          100.0 * intercept / total));
+      }
+    }
+
+    /**
+     * Records bytes of traces saved, and stops capture if they exceed the
+     * budget.
+     *
+     * @param numBytes Number of bytes.
+     */
+    public void traceBytesSaved(long numBytes) {
+      long total = numTraceBytes.addAndGet(numBytes);
+      if (maxTraceBytes > 0 && total > maxTraceBytes && !isOutOfBytes) {
+        synchronized (this) {
+          if (!isOutOfBytes) {
+            // Unlike the throttle level, this does not carry over to the
+            // next superstep.
+            isOutOfBytes = true;
+            LOG.info("Stopping capture in superstep " + superstepNo +
+              " after " + total + " bytes of traces");
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns the number of timed vertices after which the overhead is
+     * compared with the budget: at least {@link #MIN_TIMED_VERTICES}, and a
+     * whole number of periods of the admission pattern, so that the timed
+     * vertices include exactly as many admitted ones as the capture rate
+     * implies.
+     *
+     * @return The number of timed vertices.
+     */
+    private long getTimingPeriod() {
+      return Math.max(MIN_TIMED_VERTICES, 1L << throttleLevel);
+    }
+
+    /**
+     * Raises the throttle level and restarts measuring the overhead at the
+     * new level.
+     *
+     * @param reason Why capture is throttled.
+     */
+    private synchronized void throttle(String reason) {
+      // Another thread may have throttled already.
+      if (numTimedVertices.get() < getTimingPeriod() || isStopped()) {
+        return;
+      }
+      throttleLevel++;
+      interceptNanos.set(0);
+      totalNanos.set(0);
+      numTimedVertices.set(0);
+      LOG.info((isStopped() ? "Stopping capture" : "Capturing one in " +
+        (1L << throttleLevel) + " vertices") + " in superstep " +
+        superstepNo + " since " + reason);
+    }
+  }
+}
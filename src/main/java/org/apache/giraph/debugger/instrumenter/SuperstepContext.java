@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.instrumenter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.giraph.debugger.GiraphAggregator.AggregatedValue;
+import org.apache.giraph.debugger.Scenario.CommonVertexMasterContext;
+import org.apache.giraph.debugger.utils.AggregatedValueWrapper;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * The context of the vertex traces a compute thread captures in a single
+ * superstep. It is built once per superstep and refers to the configuration,
+ * superstep number and totals saved in the shared context file. Aggregated
+ * values cannot change within a superstep, so each one is serialized once,
+ * when a vertex first reads it, and the snapshot is shared by every trace of
+ * the superstep that includes it. Traces include the aggregated values read
+ * by their own vertex.
+ */
+public class SuperstepContext {
+  /**
+   * Content hash of the shared context file of the superstep.
+   */
+  private final String sharedContextHash;
+  /**
+   * Snapshots of the aggregated values read so far, by name.
+   */
+  private final Map<String, Snapshot> snapshots = new HashMap<>();
+  /**
+   * Snapshots of the aggregated values read by the vertex under compute.
+   */
+  private final List<AggregatedValue> readByVertex = new ArrayList<>();
+  /**
+   * Sequence number of the vertex under compute.
+   */
+  private long vertexSeq;
+  /**
+   * The fraction of the vertices selected for debugging that are currently
+   * captured.
+   */
+  private double captureRate = 1;
+
+  /**
+   * Constructor.
+   *
+   * @param sharedContextHash Content hash of the shared context file of the
+   *        superstep.
+   */
+  public SuperstepContext(String sharedContextHash) {
+    this.sharedContextHash = sharedContextHash;
+  }
+
+  public String getSharedContextHash() {
+    return sharedContextHash;
+  }
+
+  /**
+   * Sets the fraction of the vertices selected for debugging that are
+   * captured, which is recorded in the traces built from now on.
+   *
+   * @param captureRate The fraction, or 1 if capture is not throttled.
+   */
+  public void setCaptureRate(double captureRate) {
+    this.captureRate = captureRate;
+  }
+
+  /**
+   * Starts recording the aggregated values read by another vertex.
+   */
+  public void beginVertex() {
+    vertexSeq++;
+    readByVertex.clear();
+  }
+
+  /**
+   * Records that the vertex under compute read an aggregated value.
+   *
+   * @param name The aggregator name.
+   * @param value The aggregated value, or null if there is no such
+   *        aggregator.
+   */
+  public void aggregatedValueRead(String name, Writable value) {
+    if (value == null) {
+      return;
+    }
+    Snapshot snapshot = snapshots.get(name);
+    if (snapshot == null) {
+      snapshot = new Snapshot((AggregatedValue) new AggregatedValueWrapper(
+        name, value).buildProtoObject());
+      snapshots.put(name, snapshot);
+    }
+    if (snapshot.lastReaderSeq != vertexSeq) {
+      snapshot.lastReaderSeq = vertexSeq;
+      readByVertex.add(snapshot.aggregatedValue);
+    }
+  }
+
+  /**
+   * @return The aggregated values read by the vertex under compute, which
+   *         change when the next vertex begins.
+   */
+  public List<AggregatedValue> getReadByVertex() {
+    return readByVertex;
+  }
+
+  /**
+   * @return The context of a trace of the vertex under compute.
+   */
+  public CommonVertexMasterContext buildProtoObject() {
+    return buildProtoObject(readByVertex);
+  }
+
+  /**
+   * @param aggregatedValues The aggregated values a vertex read.
+   * @return The context of a trace of the vertex.
+   */
+  public CommonVertexMasterContext buildProtoObject(
+    List<AggregatedValue> aggregatedValues) {
+    CommonVertexMasterContext.Builder builder = CommonVertexMasterContext
+      .newBuilder().setSharedContextHash(sharedContextHash)
+      .addAllPreviousAggregatedValue(aggregatedValues);
+    if (captureRate < 1) {
+      builder.setCaptureRate(captureRate);
+    }
+    return builder.build();
+  }
+
+  /**
+   * The serialized value of an aggregator.
+   */
+  private static class Snapshot {
+    /**
+     * The aggregator name and value.
+     */
+    private final AggregatedValue aggregatedValue;
+    /**
+     * Sequence number of the last vertex that read the value.
+     */
+    private long lastReaderSeq;
+
+    /**
+     * Constructor.
+     *
+     * @param aggregatedValue The aggregator name and value.
+     */
+    Snapshot(AggregatedValue aggregatedValue) {
+      this.aggregatedValue = aggregatedValue;
+    }
+  }
+}
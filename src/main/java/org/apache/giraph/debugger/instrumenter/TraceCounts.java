@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.instrumenter;
+
+import org.apache.giraph.debugger.utils.DebuggerUtils.DebugTrace;
+
+/**
+ * Numbers of traces of each type a compute thread saved in a superstep, or
+ * would have saved during a dry run, their numbers of bytes, and a histogram
+ * of their sizes in powers of two, which the master sums over all workers.
+ */
+public class TraceCounts {
+  /**
+   * Number of buckets of the histogram of trace sizes. Bucket 0 counts empty
+   * traces, bucket i those of at least 2^(i-1) and less than 2^i bytes, and
+   * the last bucket all larger ones, i.e., those of 8 MB or more.
+   */
+  public static final int NUM_SIZE_BUCKETS = 25;
+  /**
+   * Number of traces by {@link DebugTrace#ordinal()}.
+   */
+  private final long[] numTraces = new long[DebugTrace.values().length];
+  /**
+   * Number of bytes of traces by {@link DebugTrace#ordinal()}.
+   */
+  private final long[] numBytes = new long[DebugTrace.values().length];
+  /**
+   * Number of traces of all types by size bucket.
+   */
+  private final long[] numTracesBySize = new long[NUM_SIZE_BUCKETS];
+
+  /**
+   * Counts a trace that was saved, or would have been.
+   *
+   * @param debugTrace The type of the trace.
+   * @param traceBytes The number of bytes of the trace, estimated during a
+   *        dry run.
+   */
+  public void traceCaptured(DebugTrace debugTrace, long traceBytes) {
+    numTraces[debugTrace.ordinal()]++;
+    numBytes[debugTrace.ordinal()] += traceBytes;
+    numTracesBySize[getSizeBucket(traceBytes)]++;
+  }
+
+  /**
+   * @param traceBytes The number of bytes of a trace.
+   * @return The bucket of the histogram of trace sizes the trace falls in.
+   */
+  public static int getSizeBucket(long traceBytes) {
+    return Math.min(NUM_SIZE_BUCKETS - 1,
+      64 - Long.numberOfLeadingZeros(traceBytes));
+  }
+
+  /**
+   * @return Whether no trace was counted.
+   */
+  public boolean isEmpty() {
+    for (long n : numTraces) {
+      if (n > 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Resets all counts to zero.
+   */
+  public void clear() {
+    for (int i = 0; i < numTraces.length; i++) {
+      numTraces[i] = 0;
+      numBytes[i] = 0;
+    }
+    for (int i = 0; i < NUM_SIZE_BUCKETS; i++) {
+      numTracesBySize[i] = 0;
+    }
+  }
+
+  /**
+   * @param debugTrace A type of traces.
+   * @return The number of traces of the type.
+   */
+  public long getNumTraces(DebugTrace debugTrace) {
+    return numTraces[debugTrace.ordinal()];
+  }
+
+  /**
+   * @param debugTrace A type of traces.
+   * @return The estimated number of bytes of the traces of the type.
+   */
+  public long getNumBytes(DebugTrace debugTrace) {
+    return numBytes[debugTrace.ordinal()];
+  }
+
+  /**
+   * @param sizeBucket A bucket of the histogram of trace sizes.
+   * @return The number of traces of all types in the bucket.
+   */
+  public long getNumTracesOfSize(int sizeBucket) {
+    return numTracesBySize[sizeBucket];
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.instrumenter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sample of the vertex scenarios a worker captures in one superstep, shared
+ * by all of its compute threads. Every candidate vertex has a pseudo-random
+ * priority derived from its id, and only the scenarios of the vertices with
+ * the lowest priorities are kept (bottom-k sampling). Since all workers use
+ * the same priorities, the union of their samples is a uniform sample of all
+ * candidates, and the same vertices keep being sampled across supersteps as
+ * long as they remain candidates.
+ *
+ * The scenarios are held until the last compute thread of the superstep
+ * finishes, and then handed back to be saved. If a thread finishes before
+ * another one starts, the scenarios sampled so far are handed back early and
+ * the remaining capacity is used for the rest of the superstep, so the number
+ * of saved scenarios never exceeds the capacity.
+ */
+public class VertexReservoir {
+  /**
+   * Orders entries by decreasing priority, so that the head of the queue is
+   * the first entry to evict.
+   */
+  private static final Comparator<Entry> DECREASING_PRIORITY =
+    new Comparator<Entry>() {
+      @Override
+      public int compare(Entry e1, Entry e2) {
+        return Long.compare(e2.priority, e1.priority);
+      }
+    };
+
+  /**
+   * The superstep this sample is taken in.
+   */
+  private final long superstepNo;
+  /**
+   * Number of scenarios that may still be kept.
+   */
+  private int capacity;
+  /**
+   * The sampled scenarios.
+   */
+  private final PriorityQueue<Entry> entries;
+  /**
+   * Only candidates with a priority lower than this can enter the sample. Read
+   * without locking so that rejected candidates are not captured at all.
+   */
+  private volatile long admissionThreshold;
+  /**
+   * Number of compute threads working on this superstep.
+   */
+  private int numActiveThreads;
+  /**
+   * Number of candidates offered to this sample by all threads.
+   */
+  private final AtomicLong numCandidates = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param superstepNo The superstep this sample is taken in.
+   * @param capacity Maximum number of scenarios to keep.
+   */
+  public VertexReservoir(long superstepNo, int capacity) {
+    this.superstepNo = superstepNo;
+    this.capacity = capacity;
+    this.entries = new PriorityQueue<>(Math.max(1, capacity),
+      DECREASING_PRIORITY);
+    this.admissionThreshold = capacity > 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+  }
+
+  public long getSuperstepNo() {
+    return superstepNo;
+  }
+
+  /**
+   * @param priority Priority of a candidate.
+   * @return Whether a candidate with the given priority would currently be
+   *         sampled, i.e., whether it is worth capturing.
+   */
+  public boolean couldAdmit(long priority) {
+    return priority < admissionThreshold;
+  }
+
+  /**
+   * Offers a captured scenario to the sample, which may evict a scenario with
+   * a higher priority.
+   *
+   * @param priority Priority of the vertex.
+   * @param scenario The serialized scenario.
+   * @param vertexId Id of the vertex as a string.
+   */
+  public synchronized void add(long priority, byte[] scenario,
+    String vertexId) {
+    if (priority >= admissionThreshold) {
+      return;
+    }
+    entries.add(new Entry(priority, scenario, vertexId));
+    if (entries.size() > capacity) {
+      entries.poll();
+    }
+    if (entries.size() == capacity) {
+      admissionThreshold = entries.peek().priority;
+    }
+  }
+
+  /**
+   * Called by each compute thread when it starts working on the superstep.
+   */
+  public synchronized void threadStarted() {
+    numActiveThreads++;
+  }
+
+  /**
+   * Called by each compute thread when it has finished the superstep.
+   *
+   * @return The sampled scenarios to save if this was the last active thread,
+   *         an empty list otherwise.
+   */
+  public synchronized List<Entry> threadFinished() {
+    if (--numActiveThreads > 0 || entries.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<Entry> sampled = new ArrayList<>(entries);
+    entries.clear();
+    capacity -= sampled.size();
+    admissionThreshold = capacity > 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+    return sampled;
+  }
+
+  /**
+   * Records candidates offered by a thread.
+   *
+   * @param numThreadCandidates Number of candidates.
+   */
+  public void addCandidates(long numThreadCandidates) {
+    numCandidates.addAndGet(numThreadCandidates);
+  }
+
+  public long getNumCandidates() {
+    return numCandidates.get();
+  }
+
+  /**
+   * A sampled scenario.
+   */
+  public static class Entry {
+    /**
+     * Priority of the vertex.
+     */
+    private final long priority;
+    /**
+     * The serialized scenario.
+     */
+    private final byte[] scenario;
+    /**
+     * Id of the vertex as a string.
+     */
+    private final String vertexId;
+
+    /**
+     * Constructor.
+     *
+     * @param priority Priority of the vertex.
+     * @param scenario The serialized scenario.
+     * @param vertexId Id of the vertex as a string.
+     */
+    public Entry(long priority, byte[] scenario, String vertexId) {
+      this.priority = priority;
+      this.scenario = scenario;
+      this.vertexId = vertexId;
+    }
+
+    public byte[] getScenario() {
+      return scenario;
+    }
+
+    public String getVertexId() {
+      return vertexId;
+    }
+  }
+}
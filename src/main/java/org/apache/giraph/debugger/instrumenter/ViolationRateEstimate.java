@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.instrumenter;
+
+/**
+ * Estimate of the fraction of vertex values or messages that violate an
+ * integrity constraint, from a uniform sample of them, with the Wilson score
+ * interval at 95% confidence. Unlike the normal approximation, the Wilson
+ * interval stays within [0, 1] and is meaningful when few or no violations
+ * were found, which is the common case.
+ */
+public class ViolationRateEstimate {
+  /**
+   * The 97.5th percentile of the standard normal distribution.
+   */
+  private static final double Z = 1.959963984540054;
+
+  /**
+   * Number of values or messages checked.
+   */
+  private final long numChecked;
+  /**
+   * Number of violations found.
+   */
+  private final long numViolations;
+  /**
+   * Lower bound of the interval.
+   */
+  private final double lowerBound;
+  /**
+   * Upper bound of the interval.
+   */
+  private final double upperBound;
+
+  /**
+   * Constructor.
+   *
+   * @param numChecked Number of values or messages checked.
+   * @param numViolations Number of violations found.
+   */
+  public ViolationRateEstimate(long numChecked, long numViolations) {
+    this.numChecked = numChecked;
+    this.numViolations = numViolations;
+    if (numChecked <= 0) {
+      lowerBound = 0;
+      upperBound = 1;
+      return;
+    }
+    double n = numChecked;
+    double p = Math.min(1, (double) numViolations / n);
+    double z2 = Z * Z;
+    double denominator = 1 + z2 / n;
+    double center = (p + z2 / (2 * n)) / denominator;
+    double halfWidth = Z * Math.sqrt(p * (1 - p) / n + z2 / (4 * n * n)) /
+      denominator;
+    lowerBound = Math.max(0, center - halfWidth);
+    upperBound = Math.min(1, center + halfWidth);
+  }
+
+  public long getNumChecked() {
+    return numChecked;
+  }
+
+  public long getNumViolations() {
+    return numViolations;
+  }
+
+  /**
+   * @return The fraction of checked values or messages that violate the
+   *         constraint, or 0 if nothing was checked.
+   */
+  public double getRate() {
+    return numChecked > 0 ? (double) numViolations / numChecked : 0;
+  }
+
+  public double getLowerBound() {
+    return lowerBound;
+  }
+
+  public double getUpperBound() {
+    return upperBound;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d/%d = %.3g (95%% CI [%.3g, %.3g])",
+      numViolations, numChecked, getRate(), lowerBound, upperBound);
+  }
+}
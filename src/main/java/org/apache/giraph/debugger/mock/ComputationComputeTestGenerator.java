@@ -273,6 +273,11 @@ public class ComputationComputeTestGenerator extends TestGenerator {
         vertexContextWrapper.getVertexValueAfterWrapper());
       context.put("inMsgs", vertexContextWrapper.getIncomingMessageWrappers());
       context.put("neighbors", vertexContextWrapper.getNeighborWrappers());
+      // Present if only a sample of the neighbors or messages was captured.
+      context.put("neighborSummary",
+        vertexContextWrapper.getNeighborSummaryWrapper());
+      context.put("inMsgSummary",
+        vertexContextWrapper.getIncomingMessageSummaryWrapper());
 
       HashMap<OutgoingMessageWrapper, OutMsg> outMsgMap = new HashMap<>();
       for (OutgoingMessageWrapper msg :
@@ -285,6 +290,10 @@ public class ComputationComputeTestGenerator extends TestGenerator {
         }
       }
       context.put("outMsgs", outMsgMap.values());
+      // Messages sent to all neighbors are kept once each rather than once
+      // per neighbor.
+      context.put("broadcastMsgs",
+        vertexContextWrapper.getBroadcastMessageWrappers());
     }
   }
 
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.selection;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts long vertex ids on local disk, keeping at most one bounded chunk of
+ * them on the heap. Full chunks are sorted and written to a temporary file as
+ * runs, and the runs are merged into a {@link MappedLongVertexIdSet}.
+ */
+class ExternalLongIdSorter {
+  /**
+   * Default number of ids sorted on the heap at a time.
+   */
+  static final int DEFAULT_CHUNK_LENGTH = 1 << 20;
+
+  /**
+   * The ids added since the last run was written.
+   */
+  private final long[] chunk;
+  /**
+   * Number of ids in the chunk.
+   */
+  private int chunkSize;
+  /**
+   * Temporary file holding the sorted runs one after another.
+   */
+  private File runFile;
+  /**
+   * Output to the run file.
+   */
+  private DataOutputStream runOutput;
+  /**
+   * Number of ids in each run written so far.
+   */
+  private int[] runLengths = new int[16];
+  /**
+   * Number of runs written so far.
+   */
+  private int numRuns;
+
+  /**
+   * Constructor.
+   *
+   * @param chunkLength Number of ids sorted on the heap at a time.
+   */
+  ExternalLongIdSorter(int chunkLength) {
+    chunk = new long[chunkLength];
+  }
+
+  /**
+   * Adds an id.
+   *
+   * @param id The id.
+   * @throws IOException if a run could not be written.
+   */
+  void add(long id) throws IOException {
+    if (chunkSize == chunk.length) {
+      writeRun();
+    }
+    chunk[chunkSize++] = id;
+  }
+
+  /**
+   * Sorts the chunk and writes its distinct ids as a run.
+   *
+   * @throws IOException if the run could not be written.
+   */
+  private void writeRun() throws IOException {
+    if (chunkSize == 0) {
+      return;
+    }
+    if (runOutput == null) {
+      openRunFile();
+    }
+    Arrays.sort(chunk, 0, chunkSize);
+    int runLength = 0;
+    for (int i = 0; i < chunkSize; ++i) {
+      if (i == 0 || chunk[i - 1] != chunk[i]) {
+        runOutput.writeLong(chunk[i]);
+        ++runLength;
+      }
+    }
+    if (numRuns == runLengths.length) {
+      runLengths = Arrays.copyOf(runLengths, runLengths.length * 2);
+    }
+    runLengths[numRuns++] = runLength;
+    chunkSize = 0;
+  }
+
+  /**
+   * Creates the run file.
+   *
+   * @throws IOException if the file could not be created.
+   */
+  private void openRunFile() throws IOException {
+    runFile = File.createTempFile("graft-vertex-id-runs", ".bin");
+    runFile.deleteOnExit();
+    runOutput = new DataOutputStream(new BufferedOutputStream(
+      new FileOutputStream(runFile)));
+  }
+
+  /**
+   * Merges the runs into a sorted file of the distinct ids and maps it. The
+   * run file is deleted afterwards.
+   *
+   * @return A set of the ids added.
+   * @throws IOException if the ids could not be written or mapped.
+   */
+  MappedLongVertexIdSet sort() throws IOException {
+    writeRun();
+    if (runOutput == null) {
+      openRunFile();
+    }
+    runOutput.close();
+    try (RandomAccessFile runs = new RandomAccessFile(runFile, "r")) {
+      PriorityQueue<LongBuffer> heads = new PriorityQueue<>(
+        Math.max(numRuns, 1), new Comparator<LongBuffer>() {
+          @Override
+          public int compare(LongBuffer run1, LongBuffer run2) {
+            return Long.compare(run1.get(run1.position()),
+              run2.get(run2.position()));
+          }
+        });
+      long offset = 0;
+      for (int i = 0; i < numRuns; ++i) {
+        // Runs are mapped one by one, since a mapping holds at most 2 GB.
+        heads.add(runs.getChannel().map(FileChannel.MapMode.READ_ONLY,
+          offset, 8L * runLengths[i]).asLongBuffer());
+        offset += 8L * runLengths[i];
+      }
+      File file = File.createTempFile("graft-vertex-ids", ".bin");
+      file.deleteOnExit();
+      long size = 0;
+      try (DataOutputStream output = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file)))) {
+        long lastId = 0;
+        while (!heads.isEmpty()) {
+          LongBuffer run = heads.poll();
+          long id = run.get();
+          if (size == 0 || id != lastId) {
+            output.writeLong(id);
+            lastId = id;
+            ++size;
+          }
+          if (run.hasRemaining()) {
+            heads.add(run);
+          }
+        }
+      }
+      return MappedLongVertexIdSet.map(file, size);
+    } finally {
+      if (!runFile.delete()) {
+        runFile.deleteOnExit();
+      }
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.selection;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import org.apache.giraph.debugger.utils.Fingerprints;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * {@link VertexIdSet} for id types without a primitive specialization, e.g.
+ * {@link org.apache.hadoop.io.Text}, which keeps only a 64-bit fingerprint of
+ * every id. Lookups may rarely report false positives but never false
+ * negatives, which is acceptable for choosing vertices to capture.
+ *
+ * @param <I> Vertex id
+ */
+@SuppressWarnings("rawtypes")
+public class HashedVertexIdSet<I extends WritableComparable>
+  implements VertexIdSet<I> {
+  /**
+   * Fingerprints of the ids in this set.
+   */
+  private final LongOpenHashSet fingerprints;
+
+  /**
+   * Constructs a set with the given fingerprints, computed by
+   * {@link Fingerprints#of(org.apache.hadoop.io.Writable)}. The set must not
+   * be modified afterwards.
+   *
+   * @param fingerprints Fingerprints of the ids in this set.
+   */
+  public HashedVertexIdSet(LongOpenHashSet fingerprints) {
+    this.fingerprints = fingerprints;
+    this.fingerprints.trim();
+  }
+
+  @Override
+  public boolean contains(I id) {
+    return fingerprints.contains(Fingerprints.of(id));
+  }
+
+  @Override
+  public long size() {
+    return fingerprints.size();
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.selection;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.giraph.debugger.utils.Fingerprints;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * Decides which vertex values or messages a compute thread checks against an
+ * integrity constraint, so that only a fraction of them pays for the check.
+ * Each compute thread needs its own instance.
+ */
+@SuppressWarnings("rawtypes")
+public class IntegrityCheckSampler {
+  /**
+   * Number of hash bits compared against the threshold, as in
+   * {@link VertexSampler}.
+   */
+  private static final int NUM_HASH_BITS = 53;
+
+  /**
+   * How values and messages are sampled.
+   */
+  public enum Method {
+    /**
+     * Sample by hashing the vertex id, and the destination id of messages,
+     * with the seed and the superstep number. Gives the same sample on every
+     * run with the same seed.
+     */
+    HASH,
+    /**
+     * Sample each value or message independently at random.
+     */
+    BERNOULLI,
+    /**
+     * Sample exactly one out of every 1/rate consecutive values or messages
+     * of a thread, at a random offset, which spreads the checks evenly over
+     * the superstep.
+     */
+    STRATIFIED
+  }
+
+  /**
+   * How values and messages are sampled.
+   */
+  private final Method method;
+  /**
+   * Fraction of values or messages to check.
+   */
+  private final double rate;
+  /**
+   * Seed of the hash.
+   */
+  private final long seed;
+  /**
+   * Hashes falling below this are sampled.
+   */
+  private final long threshold;
+  /**
+   * Seed of the hash in the current superstep.
+   */
+  private long superstepSeed;
+  /**
+   * Hash of the id of the vertex under compute.
+   */
+  private long vertexHash;
+  /**
+   * Number of messages to all edges the vertex under compute sent so far.
+   */
+  private long numBroadcasts;
+  /**
+   * Fraction of a check accumulated since the last stratified check.
+   */
+  private double credit;
+
+  /**
+   * Constructor.
+   *
+   * @param method How values and messages are sampled.
+   * @param rate Fraction of values or messages to check, between 0 and 1.
+   * @param seed Seed of the hash.
+   */
+  public IntegrityCheckSampler(Method method, double rate, long seed) {
+    if (rate < 0 || rate > 1) {
+      throw new IllegalArgumentException("IntegrityCheckSampler: Check " +
+        "rate " + rate + " is not between 0 and 1");
+    }
+    this.method = method;
+    this.rate = rate;
+    this.seed = seed;
+    this.threshold = (long) Math.ceil(rate * (1L << NUM_HASH_BITS));
+  }
+
+  /**
+   * Starts sampling the values or messages of another superstep.
+   *
+   * @param superstepNo The superstep number.
+   */
+  public void beginSuperstep(long superstepNo) {
+    superstepSeed = Fingerprints.ofLong(superstepNo, seed);
+    credit = ThreadLocalRandom.current().nextDouble();
+  }
+
+  /**
+   * Starts sampling the value or messages of another vertex.
+   *
+   * @param id Id of the vertex.
+   */
+  public void beginVertex(WritableComparable id) {
+    if (method == Method.HASH) {
+      vertexHash = VertexSampler.hash(id, superstepSeed);
+      numBroadcasts = 0;
+    }
+  }
+
+  /**
+   * @return Whether to check the value of the vertex under compute.
+   */
+  public boolean sampleVertexValue() {
+    return method == Method.HASH ? isSampled(vertexHash) : sampleNext();
+  }
+
+  /**
+   * @param dstId Destination id of a message the vertex under compute sent.
+   * @return Whether to check the message.
+   */
+  public boolean sampleMessage(WritableComparable dstId) {
+    return method == Method.HASH ? isSampled(Fingerprints.ofLong(
+      VertexSampler.hash(dstId, seed), vertexHash)) : sampleNext();
+  }
+
+  /**
+   * @return Whether to check a message the vertex under compute sent to all
+   *         of its edges, on every edge.
+   */
+  public boolean sampleBroadcast() {
+    return method == Method.HASH ? isSampled(Fingerprints.ofLong(
+      ~numBroadcasts++, vertexHash)) : sampleNext();
+  }
+
+  /**
+   * @param hash A hash.
+   * @return Whether the hash falls in the sample.
+   */
+  private boolean isSampled(long hash) {
+    return hash >>> (64 - NUM_HASH_BITS) < threshold;
+  }
+
+  /**
+   * @return Whether to check the next value or message when not hashing.
+   */
+  private boolean sampleNext() {
+    if (method == Method.BERNOULLI) {
+      return ThreadLocalRandom.current().nextDouble() < rate;
+    }
+    credit += rate;
+    if (credit >= 1) {
+      credit -= 1;
+      return true;
+    }
+    return false;
+  }
+
+  public Method getMethod() {
+    return method;
+  }
+
+  public double getRate() {
+    return rate;
+  }
+}
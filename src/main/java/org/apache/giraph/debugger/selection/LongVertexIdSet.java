@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.selection;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * {@link VertexIdSet} of {@link LongWritable} ids backed by an open addressing
+ * hash set of primitive longs.
+ */
+public class LongVertexIdSet implements VertexIdSet<LongWritable> {
+  /**
+   * The ids in this set.
+   */
+  private final LongOpenHashSet ids;
+
+  /**
+   * Constructs a set with the given ids. The set must not be modified
+   * afterwards.
+   *
+   * @param ids The ids in this set.
+   */
+  public LongVertexIdSet(LongOpenHashSet ids) {
+    this.ids = ids;
+    this.ids.trim();
+  }
+
+  @Override
+  public boolean contains(LongWritable id) {
+    return ids.contains(id.get());
+  }
+
+  @Override
+  public long size() {
+    return ids.size();
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.selection;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * {@link VertexIdSet} of {@link LongWritable} ids kept sorted in a memory
+ * mapped local file, for sets too large for the worker heap. Lookups are
+ * binary searches over the mapped file and are served from the page cache.
+ */
+public class MappedLongVertexIdSet implements VertexIdSet<LongWritable> {
+  /**
+   * Maximum number of ids a single mapping can hold.
+   */
+  public static final int MAX_SIZE = Integer.MAX_VALUE / 8;
+
+  /**
+   * The sorted ids, read only with absolute gets so that threads can share it.
+   */
+  private final LongBuffer ids;
+
+  /**
+   * Constructor.
+   *
+   * @param ids The sorted ids.
+   */
+  private MappedLongVertexIdSet(LongBuffer ids) {
+    this.ids = ids;
+  }
+
+  /**
+   * Maps a local file of ids.
+   *
+   * @param file The file, holding the ids sorted in ascending order without
+   *        duplicates.
+   * @param size Number of ids in the file.
+   * @return A set of the ids in the file.
+   * @throws IOException if the file could not be mapped.
+   */
+  public static MappedLongVertexIdSet map(File file, long size)
+    throws IOException {
+    if (size > MAX_SIZE) {
+      throw new IllegalArgumentException("map: Cannot map " + size +
+        " vertex ids, at most " + MAX_SIZE + " are supported");
+    }
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      MappedByteBuffer buffer = randomAccessFile.getChannel().map(
+        FileChannel.MapMode.READ_ONLY, 0, 8L * size);
+      // The mapping stays valid after the file is closed.
+      return new MappedLongVertexIdSet(buffer.asLongBuffer());
+    }
+  }
+
+  @Override
+  public boolean contains(LongWritable id) {
+    long key = id.get();
+    int low = 0;
+    int high = ids.limit() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midId = ids.get(mid);
+      if (midId < key) {
+        low = mid + 1;
+      } else if (midId > key) {
+        high = mid - 1;
+      } else {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public long size() {
+    return ids.limit();
+  }
+}
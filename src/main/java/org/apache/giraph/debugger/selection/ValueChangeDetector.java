@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.selection;
+
+import org.apache.giraph.debugger.utils.Fingerprints;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * Tells whether compute() changed the value of a vertex, so that only
+ * vertices whose value changed are captured. Values are compared by a 64-bit
+ * fingerprint of their serialized form taken before and after compute(), or,
+ * for numeric values and a positive epsilon, by whether they differ by more
+ * than epsilon. Optionally, only the first change after the value was stable
+ * for a number of supersteps is captured. Each compute thread needs its own
+ * instance.
+ */
+@SuppressWarnings("rawtypes")
+public class ValueChangeDetector {
+  /**
+   * Largest difference between numeric values considered no change, or 0 to
+   * compare fingerprints.
+   */
+  private final double epsilon;
+  /**
+   * Number of supersteps the value must have been stable for before a change
+   * is captured.
+   */
+  private final int minStableSupersteps;
+  /**
+   * The superstep of the last change of each vertex, or null if every change
+   * is captured.
+   */
+  private final ValueChangeTable valueChangeTable;
+  /**
+   * Seed of the fingerprints of vertex ids.
+   */
+  private final long seed;
+  /**
+   * Fingerprint of the value before compute().
+   */
+  private long fingerprintBefore;
+  /**
+   * The value before compute() if compared numerically.
+   */
+  private double numberBefore;
+
+  /**
+   * Constructor.
+   *
+   * @param epsilon Largest difference between numeric values considered no
+   *        change, or 0 to compare fingerprints.
+   * @param minStableSupersteps Number of supersteps the value must have been
+   *        stable for before a change is captured, or 0 to capture every
+   *        change.
+   * @param valueChangeTable The superstep of the last change of each vertex,
+   *        shared by all compute threads, or null if minStableSupersteps is
+   *        0.
+   * @param seed Seed of the fingerprints of vertex ids.
+   */
+  public ValueChangeDetector(double epsilon, int minStableSupersteps,
+    ValueChangeTable valueChangeTable, long seed) {
+    this.epsilon = epsilon;
+    this.minStableSupersteps = minStableSupersteps;
+    this.valueChangeTable = minStableSupersteps > 0 ? valueChangeTable : null;
+    this.seed = seed;
+  }
+
+  /**
+   * Remembers the value of a vertex before compute().
+   *
+   * @param value The value before compute().
+   */
+  public void begin(Writable value) {
+    if (epsilon > 0 && isNumber(value)) {
+      numberBefore = toDouble(value);
+    } else {
+      fingerprintBefore = Fingerprints.of(value);
+    }
+  }
+
+  /**
+   * @param value The value after compute() of the vertex given to
+   *        {@link #begin(Writable)}.
+   * @return Whether compute() changed the value.
+   */
+  public boolean isChanged(Writable value) {
+    if (epsilon > 0 && isNumber(value)) {
+      return !(Math.abs(toDouble(value) - numberBefore) <= epsilon);
+    }
+    return Fingerprints.of(value) != fingerprintBefore;
+  }
+
+  /**
+   * Tells whether to capture a vertex, recording when its value changed.
+   *
+   * @param id Id of the vertex given to {@link #begin(Writable)}.
+   * @param value The value after compute().
+   * @param superstepNo The superstep number.
+   * @return Whether compute() changed the value and, if required, the value
+   *         had been stable for long enough before.
+   */
+  public boolean shouldCapture(WritableComparable id, Writable value,
+    long superstepNo) {
+    if (!isChanged(value)) {
+      return false;
+    }
+    if (valueChangeTable == null) {
+      return true;
+    }
+    long lastChange = valueChangeTable.recordChange(
+      VertexSampler.hash(id, seed), superstepNo);
+    return superstepNo - lastChange - 1 >= minStableSupersteps;
+  }
+
+  /**
+   * @param value A value.
+   * @return Whether the value can be compared numerically.
+   */
+  private static boolean isNumber(Writable value) {
+    return value instanceof DoubleWritable ||
+      value instanceof FloatWritable || value instanceof LongWritable ||
+      value instanceof IntWritable;
+  }
+
+  /**
+   * @param value A value for which {@link #isNumber(Writable)} holds.
+   * @return The value as a double.
+   */
+  private static double toDouble(Writable value) {
+    if (value instanceof DoubleWritable) {
+      return ((DoubleWritable) value).get();
+    } else if (value instanceof FloatWritable) {
+      return ((FloatWritable) value).get();
+    } else if (value instanceof LongWritable) {
+      return ((LongWritable) value).get();
+    } else {
+      return ((IntWritable) value).get();
+    }
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.selection;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The superstep in which the value of each vertex last changed, shared by
+ * all compute threads of a worker, since a vertex may be computed by a
+ * different thread in every superstep. The table has a fixed number of
+ * slots, picked by the low bits of a 64-bit fingerprint of the vertex id,
+ * and each slot packs the high 32 bits of the fingerprint with the superstep
+ * into a single long that is swapped atomically. A vertex whose slot was
+ * taken over by another one is reported as never having changed, so
+ * collisions can only make a change look stable for longer, never hide it.
+ */
+public class ValueChangeTable {
+  /**
+   * The slots, each holding the high 32 bits of a fingerprint and the
+   * superstep plus one, or 0 if empty.
+   */
+  private final AtomicLongArray slots;
+  /**
+   * Mask picking a slot from a fingerprint.
+   */
+  private final int mask;
+
+  /**
+   * Constructor.
+   *
+   * @param numSlots Number of vertices the table holds, rounded up to a power
+   *        of two. The table takes 8 bytes per slot.
+   */
+  public ValueChangeTable(int numSlots) {
+    int size = Integer.highestOneBit(
+      Math.max(Math.min(numSlots, 1 << 30) - 1, 1)) << 1;
+    slots = new AtomicLongArray(size);
+    mask = size - 1;
+  }
+
+  /**
+   * Records that the value of a vertex changed in a superstep.
+   *
+   * @param idFingerprint Fingerprint of the vertex id.
+   * @param superstepNo The superstep number.
+   * @return The superstep in which the value last changed before, or -1 if
+   *         it never changed before or its slot was taken over since.
+   */
+  public long recordChange(long idFingerprint, long superstepNo) {
+    long tag = idFingerprint & 0xFFFFFFFF00000000L;
+    long previous = slots.getAndSet((int) idFingerprint & mask,
+      tag | (superstepNo + 1));
+    if (previous == 0 || (previous & 0xFFFFFFFF00000000L) != tag) {
+      return -1;
+    }
+    return (previous & 0xFFFFFFFFL) - 1;
+  }
+}
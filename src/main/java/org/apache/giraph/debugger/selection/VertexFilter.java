@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.selection;
+
+import org.apache.giraph.graph.Vertex;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * Decides whether a vertex should be captured in a superstep. Instances are
+ * compiled once per superstep by
+ * {@link org.apache.giraph.debugger.DebugConfig#compileVertexFilter(long)} and
+ * consulted for every vertex computed, so implementations must be cheap,
+ * allocation-free and safe to call from multiple compute threads.
+ *
+ * @param <I> Vertex id
+ * @param <V> Vertex data
+ * @param <E> Edge data
+ */
+@SuppressWarnings("rawtypes")
+public interface VertexFilter<I extends WritableComparable,
+  V extends Writable, E extends Writable> {
+  /**
+   * @param vertex The vertex about to be computed.
+   * @return Whether the vertex should be captured.
+   */
+  boolean accept(Vertex<I, V, E> vertex);
+}
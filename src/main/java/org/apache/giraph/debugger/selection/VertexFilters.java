@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.selection;
+
+import java.util.Collection;
+
+import org.apache.giraph.debugger.utils.DebuggerUtils;
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.graph.Vertex;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * Factory methods for the {@link VertexFilter}s Graft compiles from a
+ * {@link org.apache.giraph.debugger.DebugConfig}. All of them reject halted
+ * vertices, as {@link org.apache.giraph.debugger.DebugConfig} always has.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public final class VertexFilters {
+  /**
+   * Filter that rejects every vertex.
+   */
+  private static final VertexFilter NONE = new VertexFilter() {
+    @Override
+    public boolean accept(Vertex vertex) {
+      return false;
+    }
+  };
+  /**
+   * Filter that accepts every active vertex.
+   */
+  private static final VertexFilter ALL = new VertexFilter() {
+    @Override
+    public boolean accept(Vertex vertex) {
+      return !vertex.isHalted();
+    }
+  };
+
+  /**
+   * Should not instantiate.
+   */
+  private VertexFilters() {
+  }
+
+  /**
+   * @param <I> Vertex id
+   * @param <V> Vertex data
+   * @param <E> Edge data
+   * @return A filter that rejects every vertex.
+   */
+  public static <I extends WritableComparable, V extends Writable,
+  E extends Writable> VertexFilter<I, V, E> none() {
+    return NONE;
+  }
+
+  /**
+   * @param <I> Vertex id
+   * @param <V> Vertex data
+   * @param <E> Edge data
+   * @return A filter that accepts every active vertex.
+   */
+  public static <I extends WritableComparable, V extends Writable,
+  E extends Writable> VertexFilter<I, V, E> all() {
+    return ALL;
+  }
+
+  /**
+   * @param <I> Vertex id
+   * @param <V> Vertex data
+   * @param <E> Edge data
+   * @param ids The ids of the vertices to accept.
+   * @return A filter that accepts the active vertices with the given ids.
+   */
+  public static <I extends WritableComparable, V extends Writable,
+  E extends Writable> VertexFilter<I, V, E> forIds(VertexIdSet<I> ids) {
+    return new IdSetVertexFilter<>(ids);
+  }
+
+  /**
+   * Returns a filter that also accepts the vertices with an edge to one of the
+   * given ids, and records their ids so that later supersteps can select them
+   * directly without scanning edges.
+   *
+   * @param <I> Vertex id
+   * @param <V> Vertex data
+   * @param <E> Edge data
+   * @param ids The ids of the vertices to accept.
+   * @param discoveredNeighbors Thread-safe collection to which the ids of
+   *        accepted neighbors are added.
+   * @return A filter that accepts the active vertices with the given ids and
+   *         their neighbors.
+   */
+  public static <I extends WritableComparable, V extends Writable,
+  E extends Writable> VertexFilter<I, V, E> forIdsAndNeighbors(
+    VertexIdSet<I> ids, Collection<I> discoveredNeighbors) {
+    return new NeighborExpandingVertexFilter<>(ids, discoveredNeighbors);
+  }
+
+  /**
+   * @param <I> Vertex id
+   * @param <V> Vertex data
+   * @param <E> Edge data
+   * @param sampler Sampler deciding which vertices to accept.
+   * @return A filter that accepts the active vertices sampled by the given
+   *         sampler.
+   */
+  public static <I extends WritableComparable, V extends Writable,
+  E extends Writable> VertexFilter<I, V, E> sampled(
+    final VertexSampler sampler) {
+    return new VertexFilter<I, V, E>() {
+      @Override
+      public boolean accept(Vertex<I, V, E> vertex) {
+        return !vertex.isHalted() && sampler.isSampled(vertex.getId());
+      }
+    };
+  }
+
+  /**
+   * @param <I> Vertex id
+   * @param <V> Vertex data
+   * @param <E> Edge data
+   * @param first A filter, consulted first.
+   * @param second Another filter.
+   * @return A filter that accepts the vertices either filter accepts.
+   */
+  public static <I extends WritableComparable, V extends Writable,
+  E extends Writable> VertexFilter<I, V, E> anyOf(
+    final VertexFilter<I, V, E> first, final VertexFilter<I, V, E> second) {
+    return new VertexFilter<I, V, E>() {
+      @Override
+      public boolean accept(Vertex<I, V, E> vertex) {
+        return first.accept(vertex) || second.accept(vertex);
+      }
+    };
+  }
+
+  /**
+   * Accepts the active vertices whose ids are in a {@link VertexIdSet}.
+   *
+   * @param <I> Vertex id
+   * @param <V> Vertex data
+   * @param <E> Edge data
+   */
+  private static class IdSetVertexFilter<I extends WritableComparable,
+    V extends Writable, E extends Writable> implements VertexFilter<I, V, E> {
+    /**
+     * The ids of the vertices to accept.
+     */
+    private final VertexIdSet<I> ids;
+
+    /**
+     * Constructor.
+     *
+     * @param ids The ids of the vertices to accept.
+     */
+    public IdSetVertexFilter(VertexIdSet<I> ids) {
+      this.ids = ids;
+    }
+
+    @Override
+    public boolean accept(Vertex<I, V, E> vertex) {
+      return !vertex.isHalted() && ids.contains(vertex.getId());
+    }
+  }
+
+  /**
+   * Accepts the active vertices whose ids are in a {@link VertexIdSet} and
+   * those that have an edge to one of them.
+   *
+   * @param <I> Vertex id
+   * @param <V> Vertex data
+   * @param <E> Edge data
+   */
+  private static class NeighborExpandingVertexFilter<
+    I extends WritableComparable, V extends Writable, E extends Writable>
+    implements VertexFilter<I, V, E> {
+    /**
+     * The ids of the vertices to accept.
+     */
+    private final VertexIdSet<I> ids;
+    /**
+     * Where the ids of accepted neighbors are recorded.
+     */
+    private final Collection<I> discoveredNeighbors;
+
+    /**
+     * Constructor.
+     *
+     * @param ids The ids of the vertices to accept.
+     * @param discoveredNeighbors Where accepted neighbors are recorded.
+     */
+    public NeighborExpandingVertexFilter(VertexIdSet<I> ids,
+      Collection<I> discoveredNeighbors) {
+      this.ids = ids;
+      this.discoveredNeighbors = discoveredNeighbors;
+    }
+
+    @Override
+    public boolean accept(Vertex<I, V, E> vertex) {
+      if (vertex.isHalted()) {
+        return false;
+      }
+      if (ids.contains(vertex.getId())) {
+        return true;
+      }
+      for (Edge<I, E> edge : vertex.getEdges()) {
+        if (ids.contains(edge.getTargetVertexId())) {
+          // Giraph may reuse id objects, so keep a copy.
+          discoveredNeighbors.add(DebuggerUtils.makeCloneOf(vertex.getId(),
+            (Class<I>) vertex.getId().getClass()));
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.selection;
+
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * An immutable set of vertex ids to capture. Implementations specialized for
+ * primitive ids look them up without boxing or allocating.
+ *
+ * @param <I> Vertex id
+ */
+@SuppressWarnings("rawtypes")
+public interface VertexIdSet<I extends WritableComparable> {
+  /**
+   * @param id A vertex id.
+   * @return Whether the id is in this set.
+   */
+  boolean contains(I id);
+
+  /**
+   * @return Number of ids in this set.
+   */
+  long size();
+}
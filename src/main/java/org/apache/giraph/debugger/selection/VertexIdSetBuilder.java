@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.selection;
+
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * Accumulates vertex ids into the representation that suits their type and
+ * number best, and builds an immutable {@link VertexIdSet} from them. Obtain
+ * one from {@link VertexIdSets#newBuilder(Class, int)}.
+ *
+ * @param <I> Vertex id
+ */
+@SuppressWarnings("rawtypes")
+public abstract class VertexIdSetBuilder<I extends WritableComparable> {
+  /**
+   * Adds a vertex id.
+   *
+   * @param id The vertex id.
+   */
+  public abstract void add(I id);
+
+  /**
+   * Adds a vertex id given as a string.
+   *
+   * @param idString The string representation of the vertex id.
+   * @throws IllegalArgumentException if ids of this type cannot be parsed.
+   */
+  public abstract void add(String idString);
+
+  /**
+   * @return A set of the ids added so far.
+   */
+  public abstract VertexIdSet<I> build();
+}
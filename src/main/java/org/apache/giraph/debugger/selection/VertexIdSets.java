@@ -0,0 +1,328 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.selection;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.apache.giraph.debugger.utils.Fingerprints;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * Factory methods for {@link VertexIdSet}.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public final class VertexIdSets {
+  /**
+   * Lines of an id file starting with this are ignored.
+   */
+  private static final String COMMENT_PREFIX = "#";
+
+  /**
+   * Should not instantiate.
+   */
+  private VertexIdSets() {
+  }
+
+  /**
+   * Returns a builder for the most compact {@link VertexIdSet} for the given
+   * id type: primitive hash sets for {@link LongWritable} and
+   * {@link IntWritable} ids, a memory mapped sorted file for more than
+   * maxIdsOnHeap {@link LongWritable} ids, and a set of fingerprints for any
+   * other type.
+   *
+   * @param <I> Vertex id
+   * @param idClass The vertex id class of the computation.
+   * @param maxIdsOnHeap Number of long ids above which they are kept off heap.
+   * @return A new builder.
+   */
+  public static <I extends WritableComparable> VertexIdSetBuilder<I>
+  newBuilder(Class<?> idClass, int maxIdsOnHeap) {
+    if (idClass != null && LongWritable.class.isAssignableFrom(idClass)) {
+      return (VertexIdSetBuilder<I>) new LongBuilder(maxIdsOnHeap);
+    } else if (idClass != null &&
+      IntWritable.class.isAssignableFrom(idClass)) {
+      return (VertexIdSetBuilder<I>) new IntBuilder();
+    } else {
+      return new HashedBuilder<>(idClass);
+    }
+  }
+
+  /**
+   * Builds an on-heap {@link VertexIdSet} of the given ids.
+   *
+   * @param <I> Vertex id
+   * @param idClass The vertex id class of the computation.
+   * @param ids The ids to put in the set.
+   * @return An immutable set of the given ids.
+   */
+  public static <I extends WritableComparable> VertexIdSet<I> of(
+    Class<?> idClass, Collection<? extends I> ids) {
+    VertexIdSetBuilder<I> builder = newBuilder(idClass, Integer.MAX_VALUE);
+    for (I id : ids) {
+      builder.add(id);
+    }
+    return builder.build();
+  }
+
+  /**
+   * @param <I> Vertex id
+   * @param first A set of ids.
+   * @param second Another set of ids.
+   * @return A view of the union of both sets.
+   */
+  public static <I extends WritableComparable> VertexIdSet<I> union(
+    final VertexIdSet<I> first, final VertexIdSet<I> second) {
+    return new VertexIdSet<I>() {
+      @Override
+      public boolean contains(I id) {
+        return first.contains(id) || second.contains(id);
+      }
+
+      @Override
+      public long size() {
+        return first.size() + second.size();
+      }
+    };
+  }
+
+  /**
+   * Returns a read-only {@link Set} view of a set of ids, for code written
+   * against the {@link Set} that used to hold the ids to capture. Only
+   * lookups and the size are supported, since the ids themselves may be kept
+   * as fingerprints or off heap.
+   *
+   * @param <I> Vertex id
+   * @param ids A set of ids.
+   * @return A view of the given set.
+   */
+  public static <I extends WritableComparable> Set<I> asSet(
+    final VertexIdSet<I> ids) {
+    return new AbstractSet<I>() {
+      @Override
+      public boolean contains(Object id) {
+        try {
+          return id != null && ids.contains((I) id);
+        } catch (ClassCastException e) {
+          return false;
+        }
+      }
+
+      @Override
+      public int size() {
+        return (int) Math.min(ids.size(), Integer.MAX_VALUE);
+      }
+
+      @Override
+      public Iterator<I> iterator() {
+        throw new UnsupportedOperationException("iterator: The ids of a " +
+          "VertexIdSet cannot be enumerated");
+      }
+    };
+  }
+
+  /**
+   * Adds the ids listed in a file, one per line, to a builder. Blank lines
+   * and lines starting with # are skipped.
+   *
+   * @param builder The builder to add the ids to.
+   * @param path Path of the file, e.g., on HDFS.
+   * @param conf Configuration to access the file system with.
+   * @throws IOException if the file could not be read.
+   */
+  public static void addFromFile(VertexIdSetBuilder<?> builder, Path path,
+    Configuration conf) throws IOException {
+    FileSystem fs = path.getFileSystem(conf);
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+      fs.open(path), "UTF-8"))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (!line.isEmpty() && !line.startsWith(COMMENT_PREFIX)) {
+          builder.add(line);
+        }
+      }
+    }
+  }
+
+  /**
+   * Builder for {@link LongWritable} ids, which keeps them in a primitive hash
+   * set until there are more than maxIdsOnHeap, and then sorts them on local
+   * disk so that large sets are mapped without ever being held on the heap.
+   */
+  private static class LongBuilder extends VertexIdSetBuilder<LongWritable> {
+    /**
+     * Number of ids above which they are kept off heap.
+     */
+    private final int maxIdsOnHeap;
+    /**
+     * The ids added so far, or null once they are sorted on disk.
+     */
+    private LongOpenHashSet ids = new LongOpenHashSet();
+    /**
+     * Sorts the ids on disk once there are more than maxIdsOnHeap, or null.
+     */
+    private ExternalLongIdSorter sorter;
+
+    /**
+     * Constructor.
+     *
+     * @param maxIdsOnHeap Number of ids above which they are kept off heap.
+     */
+    public LongBuilder(int maxIdsOnHeap) {
+      this.maxIdsOnHeap = maxIdsOnHeap;
+    }
+
+    /**
+     * Adds an id.
+     *
+     * @param id The id.
+     */
+    private void add(long id) {
+      try {
+        if (sorter != null) {
+          sorter.add(id);
+          return;
+        }
+        ids.add(id);
+        if (ids.size() > maxIdsOnHeap) {
+          sorter = new ExternalLongIdSorter(
+            ExternalLongIdSorter.DEFAULT_CHUNK_LENGTH);
+          LongIterator it = ids.iterator();
+          while (it.hasNext()) {
+            sorter.add(it.nextLong());
+          }
+          ids = null;
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException("add: Could not write vertex ids" +
+          " to local disk", e);
+      }
+    }
+
+    @Override
+    public void add(LongWritable id) {
+      add(id.get());
+    }
+
+    @Override
+    public void add(String idString) {
+      add(Long.parseLong(idString));
+    }
+
+    @Override
+    public VertexIdSet<LongWritable> build() {
+      if (sorter == null) {
+        return new LongVertexIdSet(ids);
+      }
+      try {
+        return sorter.sort();
+      } catch (IOException e) {
+        throw new IllegalStateException("build: Could not map vertex ids",
+          e);
+      }
+    }
+  }
+
+  /**
+   * Builder for {@link IntWritable} ids.
+   */
+  private static class IntBuilder extends VertexIdSetBuilder<IntWritable> {
+    /**
+     * The ids added so far.
+     */
+    private final IntOpenHashSet ids = new IntOpenHashSet();
+
+    @Override
+    public void add(IntWritable id) {
+      ids.add(id.get());
+    }
+
+    @Override
+    public void add(String idString) {
+      ids.add(Integer.parseInt(idString));
+    }
+
+    @Override
+    public VertexIdSet<IntWritable> build() {
+      return new IntVertexIdSet(ids);
+    }
+  }
+
+  /**
+   * Builder for ids of any other type, which keeps their fingerprints.
+   *
+   * @param <I> Vertex id
+   */
+  private static class HashedBuilder<I extends WritableComparable>
+    extends VertexIdSetBuilder<I> {
+    /**
+     * The vertex id class.
+     */
+    private final Class<?> idClass;
+    /**
+     * Fingerprints of the ids added so far.
+     */
+    private final LongOpenHashSet fingerprints = new LongOpenHashSet();
+
+    /**
+     * Constructor.
+     *
+     * @param idClass The vertex id class.
+     */
+    public HashedBuilder(Class<?> idClass) {
+      this.idClass = idClass;
+    }
+
+    @Override
+    public void add(I id) {
+      fingerprints.add(Fingerprints.of(id));
+    }
+
+    @Override
+    public void add(String idString) {
+      if (idClass == null || !Text.class.isAssignableFrom(idClass)) {
+        throw new IllegalArgumentException("add: Vertex ids of " + idClass +
+          " cannot be given as strings. Only LongWritable, IntWritable and" +
+          " Text ids can; override DebugConfig.verticesToCaptureByID()" +
+          " for other types.");
+      }
+      fingerprints.add(Fingerprints.of(new Text(idString)));
+    }
+
+    @Override
+    public VertexIdSet<I> build() {
+      return new HashedVertexIdSet<>(fingerprints);
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.selection;
+
+import org.apache.giraph.debugger.utils.Fingerprints;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * Samples vertices by hashing their ids with a seed and comparing the hash
+ * against the sampling rate. Needs no set of sampled ids, so its memory does
+ * not grow with the graph, and gives the same decision for an id on every
+ * worker, in every superstep and in every run with the same seed.
+ */
+@SuppressWarnings("rawtypes")
+public class VertexSampler {
+  /**
+   * Number of hash bits compared against the threshold, chosen so that the
+   * threshold can be computed exactly from a double rate.
+   */
+  private static final int NUM_HASH_BITS = 53;
+
+  /**
+   * Fraction of vertices to sample.
+   */
+  private final double rate;
+  /**
+   * Seed of the hash.
+   */
+  private final long seed;
+  /**
+   * Vertices whose hash falls below this are sampled.
+   */
+  private final long threshold;
+
+  /**
+   * Constructor.
+   *
+   * @param rate Fraction of vertices to sample, between 0 and 1.
+   * @param seed Seed of the hash, which determines the sample.
+   */
+  public VertexSampler(double rate, long seed) {
+    if (rate < 0 || rate > 1) {
+      throw new IllegalArgumentException("VertexSampler: Sampling rate " +
+        rate + " is not between 0 and 1");
+    }
+    this.rate = rate;
+    this.seed = seed;
+    this.threshold = (long) Math.ceil(rate * (1L << NUM_HASH_BITS));
+  }
+
+  /**
+   * @param id A vertex id.
+   * @return Whether the vertex with the id is in the sample.
+   */
+  public boolean isSampled(WritableComparable id) {
+    return priority(id) < threshold;
+  }
+
+  /**
+   * Returns a pseudo-random priority of the given id, uniformly distributed
+   * over [0, 2^53). Keeping the ids with the lowest priorities samples ids
+   * uniformly, and consistently with {@link #isSampled(WritableComparable)}.
+   *
+   * @param id A vertex id.
+   * @return The priority of the id.
+   */
+  public long priority(WritableComparable id) {
+    return hash(id, seed) >>> (64 - NUM_HASH_BITS);
+  }
+
+  /**
+   * Hashes an id without allocating for the common primitive id types.
+   *
+   * @param id A vertex id.
+   * @param seed Seed of the hash.
+   * @return The hash of the id.
+   */
+  static long hash(WritableComparable id, long seed) {
+    if (id instanceof LongWritable) {
+      return Fingerprints.ofLong(((LongWritable) id).get(), seed);
+    } else if (id instanceof IntWritable) {
+      return Fingerprints.ofLong(((IntWritable) id).get(), seed);
+    } else {
+      return Fingerprints.of(id, seed);
+    }
+  }
+
+  public double getRate() {
+    return rate;
+  }
+
+  public long getSeed() {
+    return seed;
+  }
+}
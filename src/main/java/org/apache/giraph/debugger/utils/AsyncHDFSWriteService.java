@@ -19,10 +19,20 @@ package org.apache.giraph.debugger.utils;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.giraph.debugger.utils.DebuggerUtils.DebugTrace;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.log4j.Logger;
@@ -31,37 +41,177 @@ import com.google.protobuf.GeneratedMessage;
 
 /**
  * A utility class for writing to HDFS asynchronously.
+ *
+ * Writes are queued for a pool of writer threads. The bytes of the queued
+ * writes are bounded: when a new trace would exceed the bound, the configured
+ * {@link OverflowPolicy} decides whether the caller waits or the trace is
+ * dropped, so that heavy capturing slows down or thins out the traces instead
+ * of running the worker out of memory. Writes that other traces depend on,
+ * such as closing a trace segment, are never dropped. Trace files are
+ * compressed with the configured {@link TraceCodec} by the writer threads.
  */
 public class AsyncHDFSWriteService {
 
+  /**
+   * What to do with a trace when the queue of writes is full.
+   */
+  public enum OverflowPolicy {
+    /**
+     * Wait until enough queued writes complete.
+     */
+    BLOCK,
+    /**
+     * Drop the trace, only counting it.
+     */
+    DROP_NEWEST,
+    /**
+     * Drop the trace, but list it in a summary file written when the next
+     * superstep starts, or at shutdown after the last one.
+     */
+    DROP_TO_SUMMARY
+  }
+
+  /**
+   * Default number of writer threads.
+   */
+  public static final int DEFAULT_NUM_THREADS = 2;
+  /**
+   * Default maximum number of bytes of queued writes.
+   */
+  public static final long DEFAULT_MAX_QUEUED_BYTES = 64L * 1024 * 1024;
+  /**
+   * Default number of milliseconds to wait for queued writes at shutdown.
+   */
+  public static final long DEFAULT_SHUTDOWN_TIMEOUT_MILLIS = 60 * 1000;
+
   /**
    * Logger for this class.
    */
   protected static final Logger LOG = Logger
     .getLogger(AsyncHDFSWriteService.class);
 
+  /**
+   * Maximum number of dropped traces listed in a summary.
+   */
+  private static final int MAX_DROPPED_TRACES_IN_SUMMARY = 1000;
+
+  /**
+   * Guards the state below and is notified whenever a write completes.
+   */
+  private static final Object LOCK = new Object();
   /**
    * The thread pool that will handle the synchronous writing, and hide the
-   * latency from the callers.
+   * latency from the callers. Created by the first write.
+   */
+  private static ThreadPoolExecutor HDFS_ASYNC_WRITE_SERVICE;
+  /**
+   * Number of writer threads.
+   */
+  private static int NUM_THREADS = DEFAULT_NUM_THREADS;
+  /**
+   * Maximum number of bytes of queued writes.
+   */
+  private static long MAX_QUEUED_BYTES = DEFAULT_MAX_QUEUED_BYTES;
+  /**
+   * What to do with traces that do not fit in the queue.
+   */
+  private static OverflowPolicy OVERFLOW_POLICY = OverflowPolicy.BLOCK;
+  /**
+   * Number of milliseconds to wait for queued writes at shutdown.
+   */
+  private static long SHUTDOWN_TIMEOUT_MILLIS =
+    DEFAULT_SHUTDOWN_TIMEOUT_MILLIS;
+  /**
+   * The codec trace files are compressed with.
+   */
+  private static TraceCodec TRACE_CODEC = TraceCodec.NONE;
+  /**
+   * Sequence number of the next write.
+   */
+  private static long NEXT_SEQUENCE_NO;
+  /**
+   * Sequence numbers of the writes that are queued or running.
+   */
+  private static final TreeSet<Long> PENDING_WRITES = new TreeSet<>();
+  /**
+   * Number of bytes of the writes that are queued or running.
+   */
+  private static long QUEUED_BYTES;
+  /**
+   * Largest value QUEUED_BYTES has reached.
+   */
+  private static long PEAK_QUEUED_BYTES;
+  /**
+   * Number of completed writes.
    */
-  private static ExecutorService HDFS_ASYNC_WRITE_SERVICE = Executors
-    .newFixedThreadPool(2);
+  private static long NUM_WRITES;
+  /**
+   * Number of failed writes.
+   */
+  private static long NUM_FAILED_WRITES;
+  /**
+   * Number of traces dropped because the queue was full.
+   */
+  private static long NUM_DROPPED_TRACES;
+  /**
+   * Total time spent writing, in nanoseconds.
+   */
+  private static long TOTAL_WRITE_NANOS;
+  /**
+   * Longest time spent on a single write, in nanoseconds.
+   */
+  private static long MAX_WRITE_NANOS;
+  /**
+   * Traces dropped since the last summary, when the overflow policy is
+   * DROP_TO_SUMMARY.
+   */
+  private static List<String> DROPPED_TRACES = new ArrayList<>();
+  /**
+   * Number of traces dropped since the last summary, including those not
+   * listed in DROPPED_TRACES.
+   */
+  private static long NUM_DROPPED_TRACES_SINCE_SUMMARY;
+  /**
+   * The filesystem to write the summary of the traces dropped since the last
+   * summary to at shutdown, or null if none was set.
+   */
+  private static FileSystem SHUTDOWN_SUMMARY_FILE_SYSTEM;
+  /**
+   * The HDFS path to write the summary of the traces dropped since the last
+   * summary to at shutdown.
+   */
+  private static String SHUTDOWN_SUMMARY_FILE_NAME;
+
   static {
     // Make sure we finish writing everything before shuting down the VM.
     Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
       @Override
       public void run() {
+        ThreadPoolExecutor executor;
+        long timeoutMillis;
+        synchronized (LOCK) {
+          executor = HDFS_ASYNC_WRITE_SERVICE;
+          timeoutMillis = SHUTDOWN_TIMEOUT_MILLIS;
+        }
+        if (executor == null) {
+          return;
+        }
         LOG.info("Shutting down writer");
-        HDFS_ASYNC_WRITE_SERVICE.shutdown();
+        executor.shutdown();
         LOG.info("Waiting until finishes all writes");
         try {
-          HDFS_ASYNC_WRITE_SERVICE.awaitTermination(Long.MAX_VALUE,
-            TimeUnit.NANOSECONDS);
-          LOG.info("Finished all writes");
+          if (executor.awaitTermination(timeoutMillis,
+            TimeUnit.MILLISECONDS)) {
+            LOG.info("Finished all writes");
+          } else {
+            LOG.error("Gave up on " + getQueueDepth() +
+              " writes after waiting " + timeoutMillis + "ms");
+          }
         } catch (InterruptedException e) {
           LOG.error("Could not finish all writes");
           e.printStackTrace();
         }
+        writeShutdownSummary();
       }
     }));
   }
@@ -72,6 +222,61 @@ public class AsyncHDFSWriteService {
   private AsyncHDFSWriteService() {
   }
 
+  /**
+   * Configures the writer. May be called again, e.g., by every task in the
+   * same JVM, in which case the latest values are used.
+   *
+   * @param numThreads
+   *          Number of writer threads.
+   * @param maxQueuedBytes
+   *          Maximum number of bytes of queued writes.
+   * @param overflowPolicy
+   *          What to do with traces that do not fit in the queue.
+   * @param shutdownTimeoutMillis
+   *          Number of milliseconds to wait for queued writes at shutdown.
+   */
+  public static void configure(int numThreads, long maxQueuedBytes,
+    OverflowPolicy overflowPolicy, long shutdownTimeoutMillis) {
+    synchronized (LOCK) {
+      NUM_THREADS = Math.max(1, numThreads);
+      MAX_QUEUED_BYTES = maxQueuedBytes;
+      OVERFLOW_POLICY = overflowPolicy;
+      SHUTDOWN_TIMEOUT_MILLIS = shutdownTimeoutMillis;
+      if (HDFS_ASYNC_WRITE_SERVICE != null) {
+        if (NUM_THREADS > HDFS_ASYNC_WRITE_SERVICE.getMaximumPoolSize()) {
+          HDFS_ASYNC_WRITE_SERVICE.setMaximumPoolSize(NUM_THREADS);
+          HDFS_ASYNC_WRITE_SERVICE.setCorePoolSize(NUM_THREADS);
+        } else {
+          HDFS_ASYNC_WRITE_SERVICE.setCorePoolSize(NUM_THREADS);
+          HDFS_ASYNC_WRITE_SERVICE.setMaximumPoolSize(NUM_THREADS);
+        }
+      }
+      // Waiting callers may fit in a larger queue.
+      LOCK.notifyAll();
+    }
+  }
+
+  /**
+   * Sets the codec trace files are compressed with.
+   *
+   * @param traceCodec
+   *          The codec to compress trace files with.
+   */
+  public static void configureTraceCodec(TraceCodec traceCodec) {
+    synchronized (LOCK) {
+      TRACE_CODEC = traceCodec;
+    }
+  }
+
+  /**
+   * @return The codec trace files are compressed with.
+   */
+  public static TraceCodec getTraceCodec() {
+    synchronized (LOCK) {
+      return TRACE_CODEC;
+    }
+  }
+
   /**
    * Writes given protobuf message to the given filesystem path in the
    * background.
@@ -85,21 +290,685 @@ public class AsyncHDFSWriteService {
    */
   public static void writeToHDFS(final GeneratedMessage message,
     final FileSystem fs, final String fileName) {
-    HDFS_ASYNC_WRITE_SERVICE.submit(new Runnable() {
+    int numBytes = message.getSerializedSize();
+    if (!reserve(numBytes, fileName, true)) {
+      return;
+    }
+    final TraceCodec traceCodec = getTraceCodec();
+    submit(numBytes, new Write() {
       @Override
-      public void run() {
+      public void run() throws IOException {
         Path pt = new Path(fileName);
-        try {
-          LOG.info("Writing " + fileName + " at " + fs.getUri());
-          OutputStream wrappedStream = fs.create(pt, true).getWrappedStream();
+        LOG.info("Writing " + fileName + " at " + fs.getUri());
+        OutputStream wrappedStream = fs.create(pt, true).getWrappedStream();
+        if (traceCodec == TraceCodec.NONE) {
           message.writeTo(wrappedStream);
-          wrappedStream.close();
-          LOG.info("Done writing " + fileName);
-        } catch (IOException e) {
-          e.printStackTrace();
+        } else {
+          wrappedStream.write(traceCodec.encodeFile(message.toByteArray()));
         }
+        wrappedStream.close();
+        LOG.info("Done writing " + fileName);
       }
     });
   }
 
+  /**
+   * Writes given protobuf message to the given filesystem path in the
+   * background, unless the path already exists. Meant for content-addressed
+   * files that several tasks may write at the same time: the message is
+   * written to a temporary file that is then renamed, so readers never see a
+   * partially written file. Never dropped, since traces refer to these files.
+   *
+   * @param message
+   *          The proto message to write.
+   * @param fs
+   *          The HDFS filesystem to write to.
+   * @param fileName
+   *          The HDFS path to write the message to.
+   */
+  public static void writeToHDFSIfAbsent(final GeneratedMessage message,
+    final FileSystem fs, final String fileName) {
+    writeToHDFSIfAbsent(message, fs, fileName, null);
+  }
+
+  /**
+   * Writes given protobuf message to the given filesystem path in the
+   * background unless the path already exists, like
+   * {@link #writeToHDFSIfAbsent(GeneratedMessage, FileSystem, String)}, and
+   * notifies the caller if the write fails.
+   *
+   * @param message
+   *          The proto message to write.
+   * @param fs
+   *          The HDFS filesystem to write to.
+   * @param fileName
+   *          The HDFS path to write the message to.
+   * @param onFailure
+   *          Run if the write fails or is discarded, e.g., so that the
+   *          caller writes the message again later, or null.
+   */
+  public static void writeToHDFSIfAbsent(final GeneratedMessage message,
+    final FileSystem fs, final String fileName, Runnable onFailure) {
+    final TraceCodec traceCodec = getTraceCodec();
+    writeToHDFSIfAbsent(new Contents() {
+      @Override
+      public byte[] get() {
+        return traceCodec.encodeFile(message.toByteArray());
+      }
+    }, message.getSerializedSize(), fs, fileName, onFailure);
+  }
+
+  /**
+   * Writes the given bytes to the given filesystem path in the background,
+   * unless the path already exists, like
+   * {@link #writeToHDFSIfAbsent(GeneratedMessage, FileSystem, String)}.
+   *
+   * @param bytes
+   *          The bytes to write.
+   * @param fs
+   *          The HDFS filesystem to write to.
+   * @param fileName
+   *          The HDFS path to write the bytes to.
+   */
+  public static void writeToHDFSIfAbsent(final byte[] bytes,
+    final FileSystem fs, final String fileName) {
+    writeToHDFSIfAbsent(bytes, fs, fileName, null);
+  }
+
+  /**
+   * Writes the given bytes to the given filesystem path in the background
+   * unless the path already exists, like
+   * {@link #writeToHDFSIfAbsent(GeneratedMessage, FileSystem, String)}, and
+   * notifies the caller if the write fails.
+   *
+   * @param bytes
+   *          The bytes to write.
+   * @param fs
+   *          The HDFS filesystem to write to.
+   * @param fileName
+   *          The HDFS path to write the bytes to.
+   * @param onFailure
+   *          Run if the write fails or is discarded, or null.
+   */
+  public static void writeToHDFSIfAbsent(final byte[] bytes,
+    final FileSystem fs, final String fileName, Runnable onFailure) {
+    writeToHDFSIfAbsent(new Contents() {
+      @Override
+      public byte[] get() {
+        return bytes;
+      }
+    }, bytes.length, fs, fileName, onFailure);
+  }
+
+  /**
+   * Writes contents produced by the writer threads to the given filesystem
+   * path in the background, unless the path already exists.
+   *
+   * @param contents
+   *          Produces the bytes to write.
+   * @param numBytes
+   *          Number of bytes to reserve in the queue.
+   * @param fs
+   *          The HDFS filesystem to write to.
+   * @param fileName
+   *          The HDFS path to write to.
+   * @param onFailure
+   *          Run if the write fails or is discarded, or null.
+   */
+  private static void writeToHDFSIfAbsent(final Contents contents,
+    long numBytes, final FileSystem fs, final String fileName,
+    Runnable onFailure) {
+    reserve(numBytes, fileName, false);
+    submit(numBytes, new Write() {
+      @Override
+      public void run() throws IOException {
+        Path pt = new Path(fileName);
+        Path tmpPt = new Path(fileName + "." + UUID.randomUUID() + ".tmp");
+        if (fs.exists(pt)) {
+          return;
+        }
+        LOG.info("Writing " + fileName + " at " + fs.getUri());
+        OutputStream wrappedStream = fs.create(tmpPt, true)
+          .getWrappedStream();
+        wrappedStream.write(contents.get());
+        wrappedStream.close();
+        if (!fs.rename(tmpPt, pt)) {
+          // Another task has written the same content in the meantime.
+          fs.delete(tmpPt, false);
+        }
+        LOG.info("Done writing " + fileName);
+      }
+    }, onFailure);
+  }
+
+  /**
+   * Appends a serialized vertex trace to a trace segment in the background.
+   *
+   * @param segmentWriter
+   *          The trace segment to append to.
+   * @param debugTrace
+   *          The trace type.
+   * @param vertexId
+   *          The id of the vertex as a string.
+   * @param record
+   *          The serialized scenario.
+   * @throws IOException
+   *           if the segment is already closed.
+   */
+  public static void appendToSegment(final TraceSegmentWriter segmentWriter,
+    final DebugTrace debugTrace, final String vertexId, final byte[] record)
+    throws IOException {
+    appendToSegment(segmentWriter, debugTrace, vertexId, record, null);
+  }
+
+  /**
+   * Appends a vertex trace to the given segment in the background, keeping
+   * the trace in the given off-heap buffer until it is written if it fits.
+   *
+   * @param segmentWriter
+   *          The trace segment of the calling compute thread.
+   * @param debugTrace
+   *          The type of the vertex trace.
+   * @param vertexId
+   *          The id of the vertex as a string.
+   * @param record
+   *          The serialized scenario.
+   * @param stagingBuffer
+   *          The off-heap buffer of the calling compute thread, or null to
+   *          keep the trace on the heap.
+   * @throws IOException
+   *           if the segment could not be created.
+   */
+  public static void appendToSegment(final TraceSegmentWriter segmentWriter,
+    final DebugTrace debugTrace, final String vertexId, byte[] record,
+    final OffHeapStagingBuffer stagingBuffer) throws IOException {
+    int length = record.length;
+    if (!reserve(length, debugTrace + " trace of vertex " + vertexId, true)) {
+      return;
+    }
+    try {
+      segmentWriter.beginAppend();
+    } catch (IOException e) {
+      release(length);
+      throw e;
+    }
+    final OffHeapStagingBuffer.Slot slot = stagingBuffer == null ? null :
+      stagingBuffer.stage(record);
+    // Only keep a reference to the trace if it could not be staged.
+    final byte[] heapRecord = slot == null ? record : null;
+    boolean isSubmitted = submit(length, new Write() {
+      @Override
+      public void run() throws IOException {
+        if (heapRecord != null) {
+          segmentWriter.write(debugTrace, vertexId,
+            ByteBuffer.wrap(heapRecord));
+          return;
+        }
+        try {
+          // Written straight from direct memory, without a heap copy.
+          segmentWriter.write(debugTrace, vertexId, stagingBuffer.read(slot));
+        } finally {
+          stagingBuffer.unstage(slot);
+        }
+      }
+    });
+    if (!isSubmitted) {
+      if (slot != null) {
+        stagingBuffer.unstage(slot);
+      }
+      segmentWriter.cancelAppend();
+    }
+  }
+
+  /**
+   * Closes the given trace segment in the background, so the caller does not
+   * wait for its index to be written.
+   *
+   * @param segmentWriter
+   *          The trace segment to close.
+   */
+  public static void closeInBackground(
+    final TraceSegmentWriter segmentWriter) {
+    submit(0, new Write() {
+      @Override
+      public void run() throws IOException {
+        segmentWriter.close();
+        LOG.info("Done writing " + segmentWriter.getPath());
+      }
+    });
+  }
+
+  /**
+   * Waits until all writes requested before this call have completed, e.g.,
+   * at the end of a superstep.
+   *
+   * @param timeoutMillis
+   *          Maximum number of milliseconds to wait.
+   * @return whether all writes completed in time.
+   * @throws InterruptedException
+   *           if interrupted while waiting.
+   */
+  public static boolean flush(long timeoutMillis)
+    throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    synchronized (LOCK) {
+      long lastSequenceNo = NEXT_SEQUENCE_NO - 1;
+      while (!PENDING_WRITES.isEmpty() &&
+        PENDING_WRITES.first() <= lastSequenceNo) {
+        long remainingMillis = deadline - System.currentTimeMillis();
+        if (remainingMillis <= 0) {
+          return false;
+        }
+        LOCK.wait(remainingMillis);
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Writes a summary of the traces dropped since the last summary, if any,
+   * listing as many of them as were recorded.
+   *
+   * @param fs
+   *          The HDFS filesystem to write to.
+   * @param fileName
+   *          The HDFS path to write the summary to.
+   */
+  public static void writeDroppedTracesSummary(final FileSystem fs,
+    final String fileName) {
+    final String summary = takeDroppedTracesSummary();
+    if (summary == null) {
+      return;
+    }
+    submit(0, new Write() {
+      @Override
+      public void run() throws IOException {
+        writeSummary(fs, fileName, summary);
+      }
+    });
+  }
+
+  /**
+   * Sets where to write the summary of the traces dropped after the last
+   * call of {@link #writeDroppedTracesSummary(FileSystem, String)} at
+   * shutdown, once the queued writes are done, since no later superstep
+   * will write it.
+   *
+   * @param fs
+   *          The HDFS filesystem to write to.
+   * @param fileName
+   *          The HDFS path to write the summary to.
+   */
+  public static void setShutdownSummaryFile(FileSystem fs, String fileName) {
+    synchronized (LOCK) {
+      SHUTDOWN_SUMMARY_FILE_SYSTEM = fs;
+      SHUTDOWN_SUMMARY_FILE_NAME = fileName;
+    }
+  }
+
+  /**
+   * Writes the summary of the traces dropped since the last summary, if any,
+   * to the file set with {@link #setShutdownSummaryFile(FileSystem, String)},
+   * without going through the writer threads, which are shut down.
+   */
+  private static void writeShutdownSummary() {
+    FileSystem fs;
+    String fileName;
+    synchronized (LOCK) {
+      fs = SHUTDOWN_SUMMARY_FILE_SYSTEM;
+      fileName = SHUTDOWN_SUMMARY_FILE_NAME;
+    }
+    if (fs == null) {
+      return;
+    }
+    String summary = takeDroppedTracesSummary();
+    if (summary == null) {
+      return;
+    }
+    try {
+      writeSummary(fs, fileName, summary);
+    } catch (IOException e) {
+      LOG.error("Could not write the summary of dropped traces to " +
+        fileName + ". IOException was thrown. exceptionMessage: " +
+        e.getMessage());
+    }
+  }
+
+  /**
+   * Takes the summary of the traces dropped since the last summary, so that
+   * they are not listed again.
+   *
+   * @return The summary, or null if no traces were dropped.
+   */
+  private static String takeDroppedTracesSummary() {
+    StringBuilder summary = new StringBuilder();
+    synchronized (LOCK) {
+      if (NUM_DROPPED_TRACES_SINCE_SUMMARY == 0) {
+        return null;
+      }
+      summary.append("# ").append(NUM_DROPPED_TRACES_SINCE_SUMMARY)
+        .append(" traces dropped because the write queue was full\n");
+      for (String droppedTrace : DROPPED_TRACES) {
+        summary.append(droppedTrace).append('\n');
+      }
+      DROPPED_TRACES = new ArrayList<>();
+      NUM_DROPPED_TRACES_SINCE_SUMMARY = 0;
+    }
+    return summary.toString();
+  }
+
+  /**
+   * Writes a summary of dropped traces to a file.
+   *
+   * @param fs
+   *          The HDFS filesystem to write to.
+   * @param fileName
+   *          The HDFS path to write the summary to.
+   * @param summary
+   *          The summary.
+   * @throws IOException
+   *           if the file could not be written.
+   */
+  private static void writeSummary(FileSystem fs, String fileName,
+    String summary) throws IOException {
+    OutputStream wrappedStream = fs.create(new Path(fileName), true)
+      .getWrappedStream();
+    wrappedStream.write(summary.getBytes(StandardCharsets.UTF_8));
+    wrappedStream.close();
+  }
+
+  /**
+   * @return Number of writes that are queued or running.
+   */
+  public static int getQueueDepth() {
+    synchronized (LOCK) {
+      return PENDING_WRITES.size();
+    }
+  }
+
+  /**
+   * @return Number of bytes of the writes that are queued or running.
+   */
+  public static long getQueuedBytes() {
+    synchronized (LOCK) {
+      return QUEUED_BYTES;
+    }
+  }
+
+  /**
+   * @return Largest number of bytes of writes that were queued or running at
+   *         the same time.
+   */
+  public static long getPeakQueuedBytes() {
+    synchronized (LOCK) {
+      return PEAK_QUEUED_BYTES;
+    }
+  }
+
+  /**
+   * @return Number of completed writes.
+   */
+  public static long getNumWrites() {
+    synchronized (LOCK) {
+      return NUM_WRITES;
+    }
+  }
+
+  /**
+   * @return Number of writes that failed with an exception.
+   */
+  public static long getNumFailedWrites() {
+    synchronized (LOCK) {
+      return NUM_FAILED_WRITES;
+    }
+  }
+
+  /**
+   * @return Number of traces dropped because the queue was full.
+   */
+  public static long getNumDroppedTraces() {
+    synchronized (LOCK) {
+      return NUM_DROPPED_TRACES;
+    }
+  }
+
+  /**
+   * @return Total time spent writing, in milliseconds.
+   */
+  public static long getTotalWriteMillis() {
+    synchronized (LOCK) {
+      return TimeUnit.NANOSECONDS.toMillis(TOTAL_WRITE_NANOS);
+    }
+  }
+
+  /**
+   * @return Longest time spent on a single write, in milliseconds.
+   */
+  public static long getMaxWriteMillis() {
+    synchronized (LOCK) {
+      return TimeUnit.NANOSECONDS.toMillis(MAX_WRITE_NANOS);
+    }
+  }
+
+  /**
+   * Reserves room in the queue for a write, applying the overflow policy if
+   * the queue is full. A write larger than the whole queue is let through
+   * once the queue is empty.
+   *
+   * @param numBytes
+   *          Number of bytes of the write.
+   * @param description
+   *          What is being written, for the summary of dropped traces.
+   * @param isDroppable
+   *          Whether the write may be dropped.
+   * @return whether the room was reserved, or the write was dropped.
+   */
+  private static boolean reserve(long numBytes, String description,
+    boolean isDroppable) {
+    synchronized (LOCK) {
+      boolean isInterrupted = false;
+      while (QUEUED_BYTES > 0 && QUEUED_BYTES + numBytes > MAX_QUEUED_BYTES) {
+        if (isDroppable && (OVERFLOW_POLICY != OverflowPolicy.BLOCK ||
+          isInterrupted)) {
+          recordDroppedTrace(description);
+          if (isInterrupted) {
+            Thread.currentThread().interrupt();
+          }
+          return false;
+        }
+        try {
+          LOCK.wait();
+        } catch (InterruptedException e) {
+          isInterrupted = true;
+        }
+      }
+      if (isInterrupted) {
+        Thread.currentThread().interrupt();
+      }
+      QUEUED_BYTES += numBytes;
+      PEAK_QUEUED_BYTES = Math.max(PEAK_QUEUED_BYTES, QUEUED_BYTES);
+      return true;
+    }
+  }
+
+  /**
+   * Records a trace dropped because the queue was full. Must be called with
+   * LOCK held.
+   *
+   * @param description
+   *          What was being written.
+   */
+  private static void recordDroppedTrace(String description) {
+    if (NUM_DROPPED_TRACES == 0) {
+      LOG.warn("Write queue is full with " + QUEUED_BYTES + " bytes, " +
+        "dropping traces: " + OVERFLOW_POLICY);
+    }
+    NUM_DROPPED_TRACES++;
+    if (OVERFLOW_POLICY == OverflowPolicy.DROP_TO_SUMMARY) {
+      NUM_DROPPED_TRACES_SINCE_SUMMARY++;
+      if (DROPPED_TRACES.size() < MAX_DROPPED_TRACES_IN_SUMMARY) {
+        DROPPED_TRACES.add(description);
+      }
+    }
+  }
+
+  /**
+   * Releases room reserved in the queue.
+   *
+   * @param numBytes
+   *          Number of bytes to release.
+   */
+  private static void release(long numBytes) {
+    synchronized (LOCK) {
+      QUEUED_BYTES -= numBytes;
+      LOCK.notifyAll();
+    }
+  }
+
+  /**
+   * Runs a write on the writer threads. The room for it must be reserved
+   * already and is released when the write completes.
+   *
+   * @param numBytes
+   *          Number of bytes reserved for the write.
+   * @param write
+   *          The write to run.
+   * @return whether the write was submitted, i.e., the service is not shut
+   *         down.
+   */
+  private static boolean submit(long numBytes, Write write) {
+    return submit(numBytes, write, null);
+  }
+
+  /**
+   * Runs a write on the writer threads, like {@link #submit(long, Write)},
+   * and runs the given callback if the write fails or is discarded.
+   *
+   * @param numBytes
+   *          Number of bytes reserved for the write.
+   * @param write
+   *          The write to run.
+   * @param onFailure
+   *          Run before the completion of the write is recorded if it
+   *          fails, or null.
+   * @return whether the write was submitted.
+   */
+  private static boolean submit(final long numBytes, final Write write,
+    final Runnable onFailure) {
+    final long sequenceNo;
+    ThreadPoolExecutor executor;
+    synchronized (LOCK) {
+      sequenceNo = NEXT_SEQUENCE_NO++;
+      PENDING_WRITES.add(sequenceNo);
+      executor = getExecutor();
+    }
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          long startNanos = System.nanoTime();
+          boolean isWritten = false;
+          try {
+            write.run();
+            isWritten = true;
+          } catch (IOException e) {
+            e.printStackTrace();
+          } finally {
+            if (!isWritten && onFailure != null) {
+              onFailure.run();
+            }
+            complete(sequenceNo, numBytes, isWritten,
+              System.nanoTime() - startNanos);
+          }
+        }
+      });
+      return true;
+    } catch (RejectedExecutionException e) {
+      LOG.error("Writer is shut down, discarding a write");
+      if (onFailure != null) {
+        onFailure.run();
+      }
+      complete(sequenceNo, numBytes, false, 0);
+      return false;
+    }
+  }
+
+  /**
+   * Records the completion of a write.
+   *
+   * @param sequenceNo
+   *          Sequence number of the write.
+   * @param numBytes
+   *          Number of bytes reserved for the write.
+   * @param isWritten
+   *          Whether the write succeeded.
+   * @param writeNanos
+   *          Time spent on the write, in nanoseconds.
+   */
+  private static void complete(long sequenceNo, long numBytes,
+    boolean isWritten, long writeNanos) {
+    synchronized (LOCK) {
+      PENDING_WRITES.remove(sequenceNo);
+      QUEUED_BYTES -= numBytes;
+      if (isWritten) {
+        NUM_WRITES++;
+      } else {
+        NUM_FAILED_WRITES++;
+      }
+      TOTAL_WRITE_NANOS += writeNanos;
+      MAX_WRITE_NANOS = Math.max(MAX_WRITE_NANOS, writeNanos);
+      LOCK.notifyAll();
+    }
+  }
+
+  /**
+   * Returns the thread pool, creating it if necessary. Must be called with
+   * LOCK held.
+   *
+   * @return The thread pool running the writes.
+   */
+  private static ThreadPoolExecutor getExecutor() {
+    if (HDFS_ASYNC_WRITE_SERVICE == null) {
+      HDFS_ASYNC_WRITE_SERVICE = new ThreadPoolExecutor(NUM_THREADS,
+        NUM_THREADS, 0, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          /**
+           * Number of threads created so far.
+           */
+          private final AtomicInteger numThreads = new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "graft-hdfs-writer-" +
+              numThreads.incrementAndGet());
+            // The shutdown hook waits for the queued writes instead.
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    }
+    return HDFS_ASYNC_WRITE_SERVICE;
+  }
+
+  /**
+   * A write to run on the writer threads.
+   */
+  private interface Write {
+    /**
+     * Performs the write.
+     *
+     * @throws IOException
+     */
+    void run() throws IOException;
+  }
+
+  /**
+   * Contents of a file, produced by the writer thread writing it.
+   */
+  private interface Contents {
+    /**
+     * @return The bytes to write.
+     */
+    byte[] get();
+  }
 }
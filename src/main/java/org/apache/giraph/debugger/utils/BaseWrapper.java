@@ -17,6 +17,7 @@
  */
 package org.apache.giraph.debugger.utils;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -121,6 +122,7 @@ public abstract class BaseWrapper {
 
   /**
    * Loads a protocol buffer stored in a file in HDFS into this wrapper object.
+   * The file may be compressed with any {@link TraceCodec}.
    * @param fs {@link FileSystem} to use for reading from HDFS.
    * @param fileName the full path of the file where the protocol buffer is
    * stored.
@@ -129,7 +131,8 @@ public abstract class BaseWrapper {
     throws ClassNotFoundException, IOException, InstantiationException,
     IllegalAccessException {
     try (FSDataInputStream inputStream = fs.open(new Path(fileName))) {
-      loadFromProto(parseProtoFromInputStream(inputStream));
+      loadFromProto(parseProtoFromInputStream(TraceCodec.decodeFile(
+        inputStream)));
     }
   }
 
@@ -151,6 +154,37 @@ public abstract class BaseWrapper {
     throws ClassNotFoundException, IOException, InstantiationException,
     IllegalAccessException;
 
+  /**
+   * Loads a protocol buffer read from a record of a trace segment into this
+   * wrapper object.
+   * @param record the serialized protocol buffer.
+   * @param classPaths a possible list of class paths that may contain the
+   *        classes referenced by the protocol buffer.
+   */
+  public void loadFromBytes(byte[] record, URL... classPaths)
+    throws ClassNotFoundException, InstantiationException,
+    IllegalAccessException, IOException {
+    for (URL url : classPaths) {
+      addPath(url);
+    }
+    loadFromProto(parseProtoFromInputStream(new ByteArrayInputStream(record)));
+  }
+
+  /**
+   * Add given URLs to the CLASSPATH before loading from a protobuf that has
+   * been parsed already.
+   * @param protoObject protobuf to read when constructing this wrapper object.
+   * @param classPaths list of additional classpaths to find classes.
+   */
+  public void loadFromProto(GeneratedMessage protoObject, URL... classPaths)
+    throws ClassNotFoundException, InstantiationException,
+    IllegalAccessException, IOException {
+    for (URL url : classPaths) {
+      addPath(url);
+    }
+    loadFromProto(protoObject);
+  }
+
   /**
    * Add given URLs to the CLASSPATH before loading from HDFS. To do so, we hack
    * the system class loader, assuming it is an URLClassLoader.
@@ -27,6 +27,9 @@ import org.apache.giraph.conf.GiraphConfiguration;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.debugger.GiraphAggregator.AggregatedValue;
 import org.apache.giraph.debugger.Scenario.CommonVertexMasterContext;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 
 import com.google.protobuf.GeneratedMessage;
 
@@ -67,6 +70,16 @@ public class CommonVertexMasterContextWrapper extends BaseWrapper {
    * exposes.
    */
   private List<AggregatedValueWrapper> previousAggregatedValueWrappers;
+  /**
+   * Content hash of the shared context file holding the configuration,
+   * superstep number and totals, or null if these are stored inline.
+   */
+  private String sharedContextHash;
+  /**
+   * The fraction of the vertices selected for debugging that were captured
+   * along with this trace.
+   */
+  private double captureRate = 1;
 
   /**
    * Default constructor. Initializes superstepNo, totalNumVertices, and
@@ -140,6 +153,18 @@ public class CommonVertexMasterContextWrapper extends BaseWrapper {
     return previousAggregatedValueWrappers;
   }
 
+  public String getSharedContextHash() {
+    return sharedContextHash;
+  }
+
+  public void setSharedContextHash(String sharedContextHash) {
+    this.sharedContextHash = sharedContextHash;
+  }
+
+  public double getCaptureRate() {
+    return captureRate;
+  }
+
   public ImmutableClassesGiraphConfiguration getConfig() {
     return immutableClassesConfig;
   }
@@ -149,14 +174,32 @@ public class CommonVertexMasterContextWrapper extends BaseWrapper {
     this.immutableClassesConfig = immutableClassesConfig;
   }
 
-  @Override
-  public GeneratedMessage buildProtoObject() {
-    CommonVertexMasterContext.Builder commonContextBuilder =
-      CommonVertexMasterContext.newBuilder();
-    commonContextBuilder.setConf(toByteString(immutableClassesConfig))
+  /**
+   * Builds the part of the protobuf that is common to all traces of a
+   * superstep, i.e., everything except the aggregated values.
+   *
+   * @return the protobuf to save in a shared context file.
+   */
+  public CommonVertexMasterContext buildSharedContextProtoObject() {
+    return CommonVertexMasterContext.newBuilder()
+      .setConf(toByteString(immutableClassesConfig))
       .setSuperstepNo(getSuperstepNoWrapper())
       .setTotalNumVertices(getTotalNumVerticesWrapper())
-      .setTotalNumEdges(getTotalNumEdgesWrapper());
+      .setTotalNumEdges(getTotalNumEdgesWrapper()).build();
+  }
+
+  @Override
+  public GeneratedMessage buildProtoObject() {
+    CommonVertexMasterContext.Builder commonContextBuilder;
+    if (sharedContextHash != null) {
+      commonContextBuilder = CommonVertexMasterContext.newBuilder()
+        .setSharedContextHash(sharedContextHash);
+    } else {
+      commonContextBuilder = buildSharedContextProtoObject().toBuilder();
+    }
+    if (captureRate < 1) {
+      commonContextBuilder.setCaptureRate(captureRate);
+    }
 
     for (AggregatedValueWrapper aggregatedValueWrapper :
       getPreviousAggregatedValues()) {
@@ -173,6 +216,32 @@ public class CommonVertexMasterContextWrapper extends BaseWrapper {
     IllegalAccessException {
     CommonVertexMasterContext commonContext = (CommonVertexMasterContext)
       generatedMessage;
+    if (commonContext.hasSharedContextHash()) {
+      // Loaded later by resolveSharedContext().
+      setSharedContextHash(commonContext.getSharedContextHash());
+    } else {
+      loadSharedContextFromProto(commonContext);
+    }
+    if (commonContext.hasCaptureRate()) {
+      captureRate = commonContext.getCaptureRate();
+    }
+
+    for (AggregatedValue previousAggregatedValueProto : commonContext
+      .getPreviousAggregatedValueList()) {
+      AggregatedValueWrapper aggregatedValueWrapper =
+        new AggregatedValueWrapper();
+      aggregatedValueWrapper.loadFromProto(previousAggregatedValueProto);
+      addPreviousAggregatedValue(aggregatedValueWrapper);
+    }
+  }
+
+  /**
+   * Loads the configuration, superstep number and totals from a protobuf.
+   *
+   * @param commonContext a protobuf storing these inline.
+   */
+  private void loadSharedContextFromProto(
+    CommonVertexMasterContext commonContext) {
     GiraphConfiguration config = new GiraphConfiguration();
     fromByteString(commonContext.getConf(), config);
     ImmutableClassesGiraphConfiguration immutableClassesGiraphConfiguration =
@@ -182,13 +251,26 @@ public class CommonVertexMasterContextWrapper extends BaseWrapper {
     setSuperstepNoWrapper(commonContext.getSuperstepNo());
     setTotalNumVerticesWrapper(commonContext.getTotalNumVertices());
     setTotalNumEdgesWrapper(commonContext.getTotalNumEdges());
+  }
 
-    for (AggregatedValue previousAggregatedValueProto : commonContext
-      .getPreviousAggregatedValueList()) {
-      AggregatedValueWrapper aggregatedValueWrapper =
-        new AggregatedValueWrapper();
-      aggregatedValueWrapper.loadFromProto(previousAggregatedValueProto);
-      addPreviousAggregatedValue(aggregatedValueWrapper);
+  /**
+   * Loads the configuration, superstep number and totals from the shared
+   * context file this was saved with, if any. Must be called after loading a
+   * trace from HDFS.
+   *
+   * @param fs {@link FileSystem} to use for reading from HDFS.
+   * @param jobId the id of the job the trace belongs to.
+   * @throws IOException thrown when the shared context cannot be read.
+   */
+  public void resolveSharedContext(FileSystem fs, String jobId)
+    throws IOException {
+    if (sharedContextHash == null || immutableClassesConfig != null) {
+      return;
+    }
+    try (FSDataInputStream inputStream = fs.open(new Path(DebuggerUtils
+      .getFullSharedContextFileName(jobId, sharedContextHash)))) {
+      loadSharedContextFromProto(CommonVertexMasterContext.parseFrom(
+        TraceCodec.decodeFile(inputStream)));
     }
   }
 
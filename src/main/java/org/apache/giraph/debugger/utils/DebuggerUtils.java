@@ -17,12 +17,6 @@
  */
 package org.apache.giraph.debugger.utils;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
-
-import org.apache.giraph.utils.ReflectionUtils;
-import org.apache.giraph.utils.WritableUtils;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Writable;
 
@@ -158,7 +152,9 @@ public class DebuggerUtils {
    * the bytes inside {@link Writable} objects. For example, when reading the
    * incoming messages inside a {@link Computation} class through the iterator
    * Giraph supplies, Giraph uses only one object. Therefore in order to keep a
-   * pointer to particular object, we need to clone it.
+   * pointer to particular object, we need to clone it. See
+   * {@link WritableCloner}, which clones without allocating anything but the
+   * clone.
    *
    * @param <T>
    *          Type of the clazz.
@@ -170,32 +166,10 @@ public class DebuggerUtils {
    */
   public static <T extends Writable> T makeCloneOf(T writableToClone,
     Class<T> clazz) {
-    T idCopy = newInstance(clazz);
-    // Return value is null if clazz is assignable to NullWritable.
-    if (idCopy == null) {
+    if (NullWritable.class.isAssignableFrom(clazz)) {
       return writableToClone;
     }
-    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-    DataOutputStream dataOutputStream = new DataOutputStream(
-      byteArrayOutputStream);
-    try {
-      writableToClone.write(dataOutputStream);
-    } catch (IOException e) {
-      // Throwing a runtime exception because the methods that call other
-      // methods
-      // such as addNeighborWrapper or addOutgoingMessageWrapper, implement
-      // abstract classes
-      // or interfaces of Giraph that we can't edit to include a throws
-      // statement.
-      throw new RuntimeException(e);
-    }
-    //
-    if (byteArrayOutputStream.toByteArray() != null) {
-      WritableUtils.readFieldsFromByteArray(
-        byteArrayOutputStream.toByteArray(), idCopy);
-      byteArrayOutputStream.reset();
-    }
-    return idCopy;
+    return WritableCloner.cloneOf(writableToClone, clazz);
   }
 
   /**
@@ -207,7 +181,7 @@ public class DebuggerUtils {
    */
   public static <T> T newInstance(Class<T> theClass) {
     return NullWritable.class.isAssignableFrom(theClass) ? null :
-      ReflectionUtils.newInstance(theClass);
+      WritableCloner.newInstance(theClass);
   }
 
   /**
@@ -363,6 +337,113 @@ public class DebuggerUtils {
     }
   }
 
+  /**
+   * Returns the file name format of trace segments, which hold the vertex
+   * traces of one compute thread in one superstep. To be used with
+   * {@link String#format(String, Object...)} with the superstep number and a
+   * task id.
+   *
+   * @return The file name format for trace segments.
+   */
+  public static String getTraceSegmentFileFormat() {
+    return "seg_stp_%s_task_%s.trs";
+  }
+
+  /**
+   * Returns the full file name of a trace segment.
+   *
+   * @param jobId The job id of the job the segment belongs to.
+   * @param superstepNo The superstep number of the traces in the segment.
+   * @param taskId The id of the task writing the segment.
+   * @return The full trace segment file name.
+   */
+  public static String getFullTraceSegmentFileName(String jobId,
+    long superstepNo, String taskId) {
+    return getTraceFileRoot(jobId) + "/" +
+      String.format(getTraceSegmentFileFormat(), superstepNo, taskId);
+  }
+
+  /**
+   * Returns the full file name of a summary of the traces a task dropped
+   * because its write queue was full.
+   *
+   * @param jobId The job id of the job the traces belong to.
+   * @param superstepNo The superstep the traces were dropped in.
+   * @param taskId The id of the task that dropped the traces.
+   * @return The full dropped traces summary file name.
+   */
+  public static String getFullDroppedTracesFileName(String jobId,
+    long superstepNo, String taskId) {
+    return getTraceFileRoot(jobId) + "/" +
+      String.format("dropped_stp_%s_task_%s.txt", superstepNo, taskId);
+  }
+
+  /**
+   * Returns the full file name of the summary of the traces the workers would
+   * have saved in a superstep of a dry run.
+   *
+   * @param jobId The job id of the dry run.
+   * @param superstepNo The superstep the summary is of.
+   * @return The full dry run summary file name.
+   */
+  public static String getFullDryRunSummaryFileName(String jobId,
+    long superstepNo) {
+    return getTraceFileRoot(jobId) + "/" +
+      String.format("dry_run_stp_%s.txt", superstepNo);
+  }
+
+  /**
+   * Returns the full file name of the statistics the workers collected in a
+   * superstep.
+   *
+   * @param jobId The job id of the job.
+   * @param superstepNo The superstep the statistics are of.
+   * @return The full statistics file name.
+   */
+  public static String getFullStatisticsFileName(String jobId,
+    long superstepNo) {
+    return getTraceFileRoot(jobId) + "/" +
+      String.format("stats_stp_%s.pb", superstepNo);
+  }
+
+  /**
+   * Returns the full file name of a shared context, which holds the part of
+   * the context common to all traces of a superstep.
+   *
+   * @param jobId The job id of the job the context belongs to.
+   * @param sharedContextHash The content hash of the context.
+   * @return The full shared context file name.
+   */
+  public static String getFullSharedContextFileName(String jobId,
+    String sharedContextHash) {
+    return getTraceFileRoot(jobId) + "/ctx_" + sharedContextHash + ".ctx";
+  }
+
+  /**
+   * Returns the name of a dictionary the records of trace segments are
+   * compressed with, relative to the trace directory of its job.
+   *
+   * @param dictionaryHash The content hash of the dictionary.
+   * @return The trace dictionary file name.
+   */
+  public static String getTraceDictionaryFileName(String dictionaryHash) {
+    return "dict_" + dictionaryHash + ".dict";
+  }
+
+  /**
+   * Returns the full file name of a dictionary the records of trace segments
+   * are compressed with.
+   *
+   * @param jobId The job id of the job the dictionary belongs to.
+   * @param dictionaryHash The content hash of the dictionary.
+   * @return The full trace dictionary file name.
+   */
+  public static String getFullTraceDictionaryFileName(String jobId,
+    String dictionaryHash) {
+    return getTraceFileRoot(jobId) + "/" +
+      getTraceDictionaryFileName(dictionaryHash);
+  }
+
   /**
    * Returns the root directory of the trace files for the given job.
    *
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.utils;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * 64-bit non-cryptographic hashes (MurmurHash64A) used to identify vertex ids
+ * and values compactly. Collisions are possible but, at 64 bits, rare enough
+ * for selecting which vertices to capture.
+ */
+public final class Fingerprints {
+  /**
+   * Multiplication constant of MurmurHash64A.
+   */
+  private static final long M = 0xc6a4a7935bd1e995L;
+  /**
+   * Shift constant of MurmurHash64A.
+   */
+  private static final int R = 47;
+  /**
+   * Default seed.
+   */
+  private static final long DEFAULT_SEED = 0x9747b28cL;
+
+  /**
+   * Buffers for serializing writables to fingerprint, one per thread.
+   */
+  private static final ThreadLocal<DataOutputBuffer> BUFFER =
+    new ThreadLocal<DataOutputBuffer>() {
+      @Override
+      protected DataOutputBuffer initialValue() {
+        return new DataOutputBuffer();
+      }
+    };
+
+  /**
+   * Should not instantiate.
+   */
+  private Fingerprints() {
+  }
+
+  /**
+   * @param bytes The data to hash.
+   * @param offset Offset of the data.
+   * @param length Length of the data.
+   * @return The fingerprint of the data.
+   */
+  public static long of(byte[] bytes, int offset, int length) {
+    return of(bytes, offset, length, DEFAULT_SEED);
+  }
+
+  /**
+   * @param bytes The data to hash.
+   * @param offset Offset of the data.
+   * @param length Length of the data.
+   * @param seed Seed of the hash.
+   * @return The fingerprint of the data.
+   */
+  public static long of(byte[] bytes, int offset, int length, long seed) {
+    long h = seed ^ (length * M);
+    int end = offset + (length & ~7);
+    for (int i = offset; i < end; i += 8) {
+      long k = (bytes[i] & 0xffL) | (bytes[i + 1] & 0xffL) << 8 |
+        (bytes[i + 2] & 0xffL) << 16 | (bytes[i + 3] & 0xffL) << 24 |
+        (bytes[i + 4] & 0xffL) << 32 | (bytes[i + 5] & 0xffL) << 40 |
+        (bytes[i + 6] & 0xffL) << 48 | (bytes[i + 7] & 0xffL) << 56;
+      k *= M;
+      k ^= k >>> R;
+      k *= M;
+      h ^= k;
+      h *= M;
+    }
+    int remaining = length & 7;
+    if (remaining > 0) {
+      for (int i = remaining - 1; i >= 0; i--) {
+        h ^= (bytes[end + i] & 0xffL) << (8 * i);
+      }
+      h *= M;
+    }
+    h ^= h >>> R;
+    h *= M;
+    h ^= h >>> R;
+    return h;
+  }
+
+  /**
+   * @param value The value to hash.
+   * @param seed Seed of the hash.
+   * @return The fingerprint of the value, well distributed over all 64 bits
+   *         even for consecutive values.
+   */
+  public static long ofLong(long value, long seed) {
+    long h = value ^ seed;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * Fingerprints a {@link Writable} by its serialized form, except for
+   * {@link Text} whose contents are hashed directly, so that ids given as
+   * strings hash the same as the ids of the graph.
+   *
+   * @param writable The writable to hash.
+   * @param seed Seed of the hash.
+   * @return The fingerprint of the writable.
+   */
+  public static long of(Writable writable, long seed) {
+    if (writable instanceof Text) {
+      Text text = (Text) writable;
+      return of(text.getBytes(), 0, text.getLength(), seed);
+    }
+    DataOutputBuffer buffer = BUFFER.get();
+    buffer.reset();
+    try {
+      writable.write(buffer);
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not serialize " + writable, e);
+    }
+    return of(buffer.getData(), 0, buffer.getLength(), seed);
+  }
+
+  /**
+   * @param writable The writable to hash.
+   * @return The fingerprint of the writable with the default seed.
+   */
+  public static long of(Writable writable) {
+    return of(writable, DEFAULT_SEED);
+  }
+}
@@ -0,0 +1,317 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.utils;
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps the scenarios of the last supersteps of vertices in a fixed amount of
+ * direct memory, so that the history leading to an exception or integrity
+ * violation can be saved once it happens, without saving the scenarios of
+ * all vertices in all supersteps. Shared by all compute threads of a worker,
+ * since a vertex may be computed by a different thread in every superstep.
+ *
+ * Scenarios are appended to ring buffers, overwriting the oldest ones when
+ * full, and each scenario links to the previous one of the same vertex.
+ * Vertices are keyed by a 64-bit fingerprint of their id, which picks one of
+ * several separately locked rings so that threads rarely wait for each other.
+ */
+public class FlightRecorder {
+  /**
+   * Number of separately locked rings, a power of two.
+   */
+  private static final int NUM_STRIPES = 16;
+  /**
+   * Offset of the id fingerprint in the header of a scenario.
+   */
+  private static final int KEY_OFFSET = 0;
+  /**
+   * Offset of the superstep number in the header of a scenario.
+   */
+  private static final int SUPERSTEP_OFFSET = 8;
+  /**
+   * Offset of the position of the previous scenario of the same vertex in the
+   * header of a scenario.
+   */
+  private static final int PREVIOUS_OFFSET = 16;
+  /**
+   * Offset of the length of the scenario in its header, which is negative for
+   * the unused end of a ring.
+   */
+  private static final int LENGTH_OFFSET = 24;
+  /**
+   * Number of bytes of the header of a scenario.
+   */
+  private static final int HEADER_BYTES = 28;
+
+  /**
+   * Maximum number of supersteps before an anomaly to keep.
+   */
+  private final int numSupersteps;
+  /**
+   * The rings.
+   */
+  private final Stripe[] stripes = new Stripe[NUM_STRIPES];
+
+  /**
+   * Constructor.
+   *
+   * @param numBytes Number of bytes of direct memory to keep scenarios in.
+   * @param numSupersteps Maximum number of supersteps before an anomaly to
+   *        keep.
+   */
+  public FlightRecorder(int numBytes, int numSupersteps) {
+    this.numSupersteps = numSupersteps;
+    for (int i = 0; i < NUM_STRIPES; i++) {
+      stripes[i] = new Stripe(numBytes / NUM_STRIPES);
+    }
+  }
+
+  public int getNumSupersteps() {
+    return numSupersteps;
+  }
+
+  /**
+   * @param idFingerprint Fingerprint of a vertex id.
+   * @return The ring of the vertex.
+   */
+  private Stripe getStripe(long idFingerprint) {
+    return stripes[(int) (idFingerprint >>> 60)];
+  }
+
+  /**
+   * Keeps the scenario of a vertex in a superstep, unless it is larger than
+   * a ring.
+   *
+   * @param idFingerprint Fingerprint of the vertex id.
+   * @param superstepNo The superstep number.
+   * @param scenario The serialized scenario.
+   */
+  public void record(long idFingerprint, long superstepNo, byte[] scenario) {
+    getStripe(idFingerprint).record(idFingerprint, superstepNo, scenario);
+  }
+
+  /**
+   * Takes the kept scenarios of a vertex in the supersteps before the given
+   * one, so that they are not returned again for a later anomaly.
+   *
+   * @param idFingerprint Fingerprint of the vertex id.
+   * @param superstepNo The superstep of the anomaly.
+   * @return The scenarios, oldest first.
+   */
+  public List<Entry> takeHistory(long idFingerprint, long superstepNo) {
+    return getStripe(idFingerprint).takeHistory(idFingerprint,
+      superstepNo - numSupersteps, superstepNo);
+  }
+
+  /**
+   * A kept scenario.
+   */
+  public static final class Entry {
+    /**
+     * The superstep of the scenario.
+     */
+    private final long superstepNo;
+    /**
+     * The serialized scenario.
+     */
+    private final byte[] scenario;
+
+    /**
+     * Constructor.
+     *
+     * @param superstepNo The superstep of the scenario.
+     * @param scenario The serialized scenario.
+     */
+    private Entry(long superstepNo, byte[] scenario) {
+      this.superstepNo = superstepNo;
+      this.scenario = scenario;
+    }
+
+    public long getSuperstepNo() {
+      return superstepNo;
+    }
+
+    public byte[] getScenario() {
+      return scenario;
+    }
+  }
+
+  /**
+   * A ring of scenarios, each preceded by a header. A scenario is never split
+   * at the end of the ring; the rest of the ring is left unused instead.
+   * Positions count bytes from the creation of the ring, so that a position
+   * is still in the ring if and only if it is not before the head.
+   */
+  private static final class Stripe {
+    /**
+     * The direct memory.
+     */
+    private final ByteBuffer buffer;
+    /**
+     * Number of bytes of the ring.
+     */
+    private final int capacity;
+    /**
+     * Position of the latest scenario by id fingerprint, for the vertices
+     * with a scenario in the ring.
+     */
+    private final Long2LongOpenHashMap latestPositions =
+      new Long2LongOpenHashMap();
+    /**
+     * Position of the oldest scenario.
+     */
+    private long head;
+    /**
+     * Position after the latest scenario.
+     */
+    private long tail;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity Number of bytes of the ring.
+     */
+    private Stripe(int capacity) {
+      this.capacity = capacity;
+      this.buffer = ByteBuffer.allocateDirect(capacity);
+      latestPositions.defaultReturnValue(-1);
+    }
+
+    /**
+     * @param position A position.
+     * @return The offset of the position in the ring.
+     */
+    private int offset(long position) {
+      return (int) (position % capacity);
+    }
+
+    /**
+     * Keeps the scenario of a vertex in a superstep.
+     *
+     * @param key Fingerprint of the vertex id.
+     * @param superstepNo The superstep number.
+     * @param scenario The serialized scenario.
+     */
+    private synchronized void record(long key, long superstepNo,
+      byte[] scenario) {
+      int size = HEADER_BYTES + scenario.length;
+      if (size > capacity) {
+        return;
+      }
+      long start = tail;
+      int offset = offset(start);
+      int remaining = capacity - offset;
+      if (remaining < size) {
+        start += remaining;
+        evict(start + size - capacity, start);
+        if (remaining >= HEADER_BYTES) {
+          buffer.putInt(offset + LENGTH_OFFSET, -1);
+        }
+        offset = 0;
+      } else {
+        evict(start + size - capacity, start);
+      }
+      buffer.putLong(offset + KEY_OFFSET, key);
+      buffer.putLong(offset + SUPERSTEP_OFFSET, superstepNo);
+      buffer.putLong(offset + PREVIOUS_OFFSET, latestPositions.get(key));
+      buffer.putInt(offset + LENGTH_OFFSET, scenario.length);
+      ByteBuffer target = buffer.duplicate();
+      target.position(offset + HEADER_BYTES);
+      target.put(scenario);
+      latestPositions.put(key, start);
+      tail = start + size;
+    }
+
+    /**
+     * Drops the oldest scenarios until the head is at or after the given
+     * position.
+     *
+     * @param minHead The position.
+     * @param start Position of the scenario about to be kept, which becomes
+     *        the head if all others are dropped.
+     */
+    private void evict(long minHead, long start) {
+      while (head < minHead) {
+        if (head >= tail) {
+          // Moving the head to minHead could leave it within the unused end
+          // of the ring, where there is no header to skip it by.
+          head = start;
+          return;
+        }
+        int offset = offset(head);
+        int remaining = capacity - offset;
+        if (remaining < HEADER_BYTES ||
+          buffer.getInt(offset + LENGTH_OFFSET) < 0) {
+          head += remaining;
+          continue;
+        }
+        long key = buffer.getLong(offset + KEY_OFFSET);
+        if (latestPositions.get(key) == head) {
+          latestPositions.remove(key);
+        }
+        head += HEADER_BYTES + buffer.getInt(offset + LENGTH_OFFSET);
+      }
+    }
+
+    /**
+     * Takes the kept scenarios of a vertex in the given supersteps.
+     *
+     * @param key Fingerprint of the vertex id.
+     * @param fromSuperstepNo The first superstep, inclusive.
+     * @param toSuperstepNo The last superstep, exclusive.
+     * @return The scenarios, oldest first.
+     */
+    private synchronized List<Entry> takeHistory(long key,
+      long fromSuperstepNo, long toSuperstepNo) {
+      List<Entry> entries = new ArrayList<>();
+      long position = latestPositions.get(key);
+      long newestKept = -1;
+      while (position >= 0 && position >= head) {
+        int offset = offset(position);
+        long superstepNo = buffer.getLong(offset + SUPERSTEP_OFFSET);
+        if (superstepNo < fromSuperstepNo) {
+          break;
+        }
+        if (superstepNo >= toSuperstepNo) {
+          newestKept = position;
+        } else {
+          byte[] scenario = new byte[buffer.getInt(offset + LENGTH_OFFSET)];
+          ByteBuffer source = buffer.duplicate();
+          source.position(offset + HEADER_BYTES);
+          source.get(scenario);
+          entries.add(new Entry(superstepNo, scenario));
+        }
+        position = buffer.getLong(offset + PREVIOUS_OFFSET);
+      }
+      // Unlink what was taken, keeping the scenarios of later supersteps.
+      if (newestKept >= 0) {
+        buffer.putLong(offset(newestKept) + PREVIOUS_OFFSET, -1);
+      } else {
+        latestPositions.remove(key);
+      }
+      Collections.reverse(entries);
+      return entries;
+    }
+  }
+}
@@ -26,6 +26,7 @@ import org.apache.giraph.debugger.Scenario.CommonVertexMasterContext;
 import org.apache.giraph.debugger.Scenario.Exception;
 import org.apache.giraph.debugger.Scenario.GiraphVertexScenario;
 import org.apache.giraph.debugger.Scenario.GiraphVertexScenario.VertexContext;
+import org.apache.giraph.debugger.Scenario.GiraphVertexScenario.VertexContext.ListSummary;
 import org.apache.giraph.debugger.Scenario.GiraphVertexScenario.VertexContext.Neighbor;
 import org.apache.giraph.debugger.Scenario.GiraphVertexScenario.VertexContext.OutgoingMessage;
 import org.apache.giraph.debugger.Scenario.GiraphVertexScenario.VertexScenarioClasses;
@@ -33,6 +34,7 @@ import org.apache.giraph.graph.Computation;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 
+import com.google.protobuf.ByteString;
 import com.google.protobuf.GeneratedMessage;
 
 /**
@@ -173,6 +175,25 @@ public class GiraphVertexScenarioWrapper<I extends WritableComparable, V extends
      * List of outgoing messages.
      */
     private ArrayList<OutgoingMessageWrapper> outMsgsWrapper;
+    /**
+     * List of messages sent to all neighbors.
+     */
+    private ArrayList<M2> broadcastMsgsWrapper;
+    /**
+     * Summary of the neighbors if only a sample of them was captured, or
+     * null.
+     */
+    private ListSummaryWrapper<E> neighborSummaryWrapper;
+    /**
+     * Summary of the incoming messages if only a sample of them was
+     * captured, or null.
+     */
+    private ListSummaryWrapper<M1> inMsgSummaryWrapper;
+    /**
+     * Summary of the outgoing messages sent to single vertices if only a
+     * sample of them was captured, or null.
+     */
+    private ListSummaryWrapper<M2> outMsgSummaryWrapper;
 
     /**
      * Default constructor.
@@ -193,6 +214,10 @@ public class GiraphVertexScenarioWrapper<I extends WritableComparable, V extends
       this.inMsgsWrapper = new ArrayList<M1>();
       this.neighborsWrapper = new ArrayList<NeighborWrapper>();
       this.outMsgsWrapper = new ArrayList<OutgoingMessageWrapper>();
+      this.broadcastMsgsWrapper = new ArrayList<M2>();
+      this.neighborSummaryWrapper = null;
+      this.inMsgSummaryWrapper = null;
+      this.outMsgSummaryWrapper = null;
     }
 
     public CommonVertexMasterContextWrapper
@@ -274,6 +299,38 @@ public class GiraphVertexScenarioWrapper<I extends WritableComparable, V extends
       return outMsgsWrapper;
     }
 
+    /**
+     * Captures a message sent to all neighbors by keeping a clone.
+     *
+     * @param message The message being sent to be captured.
+     */
+    public void addBroadcastMessageWrapper(M2 message) {
+      // See the explanation for making a clone inside
+      // setVertexValueBeforeWrapper
+      broadcastMsgsWrapper.add(DebuggerUtils.makeCloneOf(message,
+        getVertexScenarioClassesWrapper().outgoingMessageClass));
+    }
+
+    /**
+     * @return The messages sent to all neighbors, which are not included in
+     *         {@link #getOutgoingMessageWrappers()}.
+     */
+    public Collection<M2> getBroadcastMessageWrappers() {
+      return broadcastMsgsWrapper;
+    }
+
+    public ListSummaryWrapper<E> getNeighborSummaryWrapper() {
+      return neighborSummaryWrapper;
+    }
+
+    public ListSummaryWrapper<M1> getIncomingMessageSummaryWrapper() {
+      return inMsgSummaryWrapper;
+    }
+
+    public ListSummaryWrapper<M2> getOutgoingMessageSummaryWrapper() {
+      return outMsgSummaryWrapper;
+    }
+
     /**
      * Adds a neighbor vertex.
      *
@@ -303,6 +360,17 @@ public class GiraphVertexScenarioWrapper<I extends WritableComparable, V extends
       stringBuilder.append("\nvertexValueAfter: " +
         getVertexValueAfterWrapper());
       stringBuilder.append("\nnumNeighbors: " + getNeighborWrappers().size());
+      if (neighborSummaryWrapper != null) {
+        stringBuilder.append("\nneighborSummary: " + neighborSummaryWrapper);
+      }
+      if (inMsgSummaryWrapper != null) {
+        stringBuilder.append("\nincomingMessageSummary: " +
+          inMsgSummaryWrapper);
+      }
+      if (outMsgSummaryWrapper != null) {
+        stringBuilder.append("\noutgoingMessageSummary: " +
+          outMsgSummaryWrapper);
+      }
 
       for (NeighborWrapper neighborWrapper : getNeighborWrappers()) {
         stringBuilder.append("\n" + neighborWrapper.toString());
@@ -318,6 +386,10 @@ public class GiraphVertexScenarioWrapper<I extends WritableComparable, V extends
         getOutgoingMessageWrappers()) {
         stringBuilder.append("\n" + outgoingMessageWrapper);
       }
+      for (M2 broadcastMessage : getBroadcastMessageWrappers()) {
+        stringBuilder.append("\nmessage to all neighbors: " +
+          broadcastMessage);
+      }
       return stringBuilder.toString();
     }
 
@@ -404,6 +476,96 @@ public class GiraphVertexScenarioWrapper<I extends WritableComparable, V extends
       }
     }
 
+    /**
+     * Summary of a list of which only a sample was captured.
+     *
+     * @param <T> Type of the edge values or messages of the list.
+     */
+    public class ListSummaryWrapper<T extends Writable> extends BaseWrapper {
+      /**
+       * Class of the edge values or messages of the list.
+       */
+      private final Class<T> valueClass;
+      /**
+       * Number of elements of the whole list.
+       */
+      private long count;
+      /**
+       * Hash of the serialized elements of the whole list.
+       */
+      private long hash;
+      /**
+       * Smallest value of the list, or null if values are not comparable.
+       */
+      private T min;
+      /**
+       * Largest value of the list, or null if values are not comparable.
+       */
+      private T max;
+
+      /**
+       * Constructor.
+       *
+       * @param valueClass Class of the edge values or messages of the list.
+       */
+      public ListSummaryWrapper(Class<T> valueClass) {
+        this.valueClass = valueClass;
+      }
+
+      public long getCount() {
+        return count;
+      }
+
+      public long getHash() {
+        return hash;
+      }
+
+      public T getMin() {
+        return min;
+      }
+
+      public T getMax() {
+        return max;
+      }
+
+      @Override
+      public String toString() {
+        return "count: " + count + " hash: " + Long.toHexString(hash) +
+          (min == null ? "" : " min: " + min + " max: " + max);
+      }
+
+      @Override
+      public GeneratedMessage buildProtoObject() {
+        ListSummary.Builder summaryBuilder = ListSummary.newBuilder()
+          .setCount(count).setHash(hash);
+        if (min != null) {
+          summaryBuilder.setMin(toByteString(min)).setMax(toByteString(max));
+        }
+        return summaryBuilder.build();
+      }
+
+      @Override
+      public GeneratedMessage parseProtoFromInputStream(InputStream inputStream)
+        throws IOException {
+        return ListSummary.parseFrom(inputStream);
+      }
+
+      @Override
+      public void loadFromProto(GeneratedMessage generatedMessage)
+        throws ClassNotFoundException, IOException, InstantiationException,
+        IllegalAccessException {
+        ListSummary summary = (ListSummary) generatedMessage;
+        count = summary.getCount();
+        hash = summary.getHash();
+        if (summary.hasMin()) {
+          min = DebuggerUtils.newInstance(valueClass);
+          fromByteString(summary.getMin(), min);
+          max = DebuggerUtils.newInstance(valueClass);
+          fromByteString(summary.getMax(), max);
+        }
+      }
+    }
+
     /**
      * Class for capturing outgoing message.
      */
@@ -495,7 +657,7 @@ public class GiraphVertexScenarioWrapper<I extends WritableComparable, V extends
           .newBuilder();
         outgoingMessageBuilder.setMsgData(toByteString(this.getMessage()));
         outgoingMessageBuilder
-          .setDestinationId(toByteString(this.getDestinationId()));
+          .addDestinationId(toByteString(this.getDestinationId()));
         return outgoingMessageBuilder.build();
       }
 
@@ -509,11 +671,13 @@ public class GiraphVertexScenarioWrapper<I extends WritableComparable, V extends
       public void loadFromProto(GeneratedMessage generatedMessage)
         throws ClassNotFoundException, IOException, InstantiationException,
         IllegalAccessException {
+        // Only the first destination of a run is loaded, see
+        // VertexContextWrapper#loadFromProto for loading all of them.
         OutgoingMessage outgoingMessageProto = (OutgoingMessage)
           generatedMessage;
         this.setDestinationId(DebuggerUtils
           .newInstance(getVertexScenarioClassesWrapper().vertexIdClass));
-        fromByteString(outgoingMessageProto.getDestinationId(),
+        fromByteString(outgoingMessageProto.getDestinationId(0),
           getDestinationId());
         this.setMessage(DebuggerUtils
           .newInstance(getVertexScenarioClassesWrapper().outgoingMessageClass));
@@ -561,9 +725,41 @@ public class GiraphVertexScenarioWrapper<I extends WritableComparable, V extends
         contextBuilder.addInMessage(toByteString(msg));
       }
 
+      // Store runs of the same message once. Messages are compared in their
+      // serialized form, since not all writables implement equals().
+      OutgoingMessage.Builder runBuilder = null;
       for (OutgoingMessageWrapper outgoingMessageWrapper : outMsgsWrapper) {
-        contextBuilder.addOutMessage((OutgoingMessage) outgoingMessageWrapper
-          .buildProtoObject());
+        if (runBuilder != null && runBuilder.getMsgData().equals(
+          toByteString(outgoingMessageWrapper.getMessage()))) {
+          runBuilder.addDestinationId(toByteString(outgoingMessageWrapper
+            .getDestinationId()));
+          continue;
+        }
+        if (runBuilder != null) {
+          contextBuilder.addOutMessage(runBuilder.build());
+        }
+        runBuilder = ((OutgoingMessage) outgoingMessageWrapper
+          .buildProtoObject()).toBuilder();
+      }
+      if (runBuilder != null) {
+        contextBuilder.addOutMessage(runBuilder.build());
+      }
+
+      for (M2 msg : broadcastMsgsWrapper) {
+        contextBuilder.addBroadcastMessage(toByteString(msg));
+      }
+
+      if (neighborSummaryWrapper != null) {
+        contextBuilder.setNeighborSummary((ListSummary)
+          neighborSummaryWrapper.buildProtoObject());
+      }
+      if (inMsgSummaryWrapper != null) {
+        contextBuilder.setInMessageSummary((ListSummary)
+          inMsgSummaryWrapper.buildProtoObject());
+      }
+      if (outMsgSummaryWrapper != null) {
+        contextBuilder.setOutMessageSummary((ListSummary)
+          outMsgSummaryWrapper.buildProtoObject());
       }
 
       return contextBuilder.build();
@@ -592,10 +788,12 @@ public class GiraphVertexScenarioWrapper<I extends WritableComparable, V extends
       fromByteString(context.getVertexId(), vertexId);
       this.vertexIdWrapper = vertexId;
 
-      V vertexValueBefore = DebuggerUtils
-        .newInstance(getVertexScenarioClassesWrapper().vertexValueClass);
-      fromByteString(context.getVertexValueBefore(), vertexValueBefore);
-      this.vertexValueBeforeWrapper = vertexValueBefore;
+      if (context.hasVertexValueBefore()) {
+        V vertexValueBefore = DebuggerUtils
+          .newInstance(getVertexScenarioClassesWrapper().vertexValueClass);
+        fromByteString(context.getVertexValueBefore(), vertexValueBefore);
+        this.vertexValueBeforeWrapper = vertexValueBefore;
+      }
       if (context.hasVertexValueAfter()) {
         V vertexValueAfter = DebuggerUtils
           .newInstance(getVertexScenarioClassesWrapper().vertexValueClass);
@@ -616,10 +814,40 @@ public class GiraphVertexScenarioWrapper<I extends WritableComparable, V extends
       }
 
       for (OutgoingMessage outgoingMessageProto : context.getOutMessageList()) {
-        OutgoingMessageWrapper outgoingMessageWrapper = new
-          OutgoingMessageWrapper();
-        outgoingMessageWrapper.loadFromProto(outgoingMessageProto);
-        this.outMsgsWrapper.add(outgoingMessageWrapper);
+        // The destinations of a run share a single message object.
+        M2 msg = DebuggerUtils
+          .newInstance(getVertexScenarioClassesWrapper().outgoingMessageClass);
+        fromByteString(outgoingMessageProto.getMsgData(), msg);
+        for (ByteString destinationIdBytes :
+          outgoingMessageProto.getDestinationIdList()) {
+          I destinationId = DebuggerUtils
+            .newInstance(getVertexScenarioClassesWrapper().vertexIdClass);
+          fromByteString(destinationIdBytes, destinationId);
+          this.outMsgsWrapper.add(new OutgoingMessageWrapper(destinationId,
+            msg));
+        }
+      }
+      for (ByteString msgBytes : context.getBroadcastMessageList()) {
+        M2 msg = DebuggerUtils
+          .newInstance(getVertexScenarioClassesWrapper().outgoingMessageClass);
+        fromByteString(msgBytes, msg);
+        this.broadcastMsgsWrapper.add(msg);
+      }
+
+      if (context.hasNeighborSummary()) {
+        neighborSummaryWrapper = new ListSummaryWrapper<>(
+          getVertexScenarioClassesWrapper().edgeValueClass);
+        neighborSummaryWrapper.loadFromProto(context.getNeighborSummary());
+      }
+      if (context.hasInMessageSummary()) {
+        inMsgSummaryWrapper = new ListSummaryWrapper<>(
+          getVertexScenarioClassesWrapper().incomingMessageClass);
+        inMsgSummaryWrapper.loadFromProto(context.getInMessageSummary());
+      }
+      if (context.hasOutMessageSummary()) {
+        outMsgSummaryWrapper = new ListSummaryWrapper<>(
+          getVertexScenarioClassesWrapper().outgoingMessageClass);
+        outMsgSummaryWrapper.loadFromProto(context.getOutMessageSummary());
       }
     }
   }
@@ -0,0 +1,398 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.giraph.debugger.Scenario.GiraphVertexScenario.VertexContext.ListSummary;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Keeps a uniform sample of at most a given number of the elements of a list
+ * that is streamed once, e.g., the neighbors or the messages of a vertex, and
+ * summarizes the whole list. Elements are kept serialized in a single buffer,
+ * each as one or two parts such as a destination id and a message, and in
+ * the order they were added as long as the list fits. Used by
+ * {@link VertexScenarioEncoder} to bound the size of the traces of vertices
+ * with millions of edges or messages. Buffers grown by such a vertex are
+ * released when the sampler is reset, so that a thread does not hold on to
+ * them for the rest of the job. Not thread-safe.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class ListSampler {
+  /**
+   * Initial number of elements the arrays have room for.
+   */
+  private static final int INITIAL_CAPACITY = 16;
+  /**
+   * Number of elements the arrays may keep room for after a reset.
+   */
+  private static final int MAX_RETAINED_CAPACITY = 1 << 14;
+  /**
+   * Number of bytes a buffer may keep room for after a reset.
+   */
+  static final int MAX_RETAINED_BYTES = 1 << 20;
+
+  /**
+   * Class of the values whose minimum and maximum are tracked, or null if
+   * they are not comparable.
+   */
+  private final Class<? extends Writable> valueClass;
+  /**
+   * Maximum number of elements to keep.
+   */
+  private int maxSize = Integer.MAX_VALUE;
+  /**
+   * Picks the elements replaced once the list no longer fits.
+   */
+  private final Random random = new Random();
+  /**
+   * The serialized elements, including replaced ones until compacted.
+   */
+  private DataOutputBuffer data = new DataOutputBuffer();
+  /**
+   * Buffer the kept elements are compacted into.
+   */
+  private DataOutputBuffer spareData = new DataOutputBuffer();
+  /**
+   * Offsets of the kept elements in {@link #data}.
+   */
+  private int[] offsets = new int[INITIAL_CAPACITY];
+  /**
+   * Lengths of the first parts of the kept elements.
+   */
+  private int[] firstLengths = new int[INITIAL_CAPACITY];
+  /**
+   * Lengths of the second parts of the kept elements, or -1 if they have
+   * none.
+   */
+  private int[] secondLengths = new int[INITIAL_CAPACITY];
+  /**
+   * Number of elements kept.
+   */
+  private int size;
+  /**
+   * Number of elements added.
+   */
+  private long count;
+  /**
+   * Number of bytes of {@link #data} held by replaced elements.
+   */
+  private int garbageLength;
+  /**
+   * Hash of all elements added, in order.
+   */
+  private long hash;
+  /**
+   * The smallest value added, or null if none.
+   */
+  private Writable min;
+  /**
+   * The largest value added, or null if none.
+   */
+  private Writable max;
+  /**
+   * Holds the minimum until a value has been added.
+   */
+  private Writable spareMin;
+  /**
+   * Holds the maximum until a value has been added.
+   */
+  private Writable spareMax;
+
+  /**
+   * Constructor.
+   *
+   * @param valueClass Class of the values added with the elements, whose
+   *        minimum and maximum are tracked if it is {@link Comparable}.
+   */
+  public ListSampler(Class<? extends Writable> valueClass) {
+    this.valueClass = valueClass != null &&
+      Comparable.class.isAssignableFrom(valueClass) ? valueClass : null;
+  }
+
+  /**
+   * @param maxSize Maximum number of elements to keep, or 0 to keep all.
+   */
+  public void setMaxSize(int maxSize) {
+    this.maxSize = maxSize > 0 ? maxSize : Integer.MAX_VALUE;
+  }
+
+  /**
+   * @return Whether elements are kept only up to a maximum number, in which
+   *         case the whole list is summarized.
+   */
+  public boolean isBounded() {
+    return maxSize != Integer.MAX_VALUE;
+  }
+
+  /**
+   * Empties this sampler to sample another list.
+   */
+  public void reset() {
+    data = reset(data);
+    spareData = reset(spareData);
+    if (offsets.length > MAX_RETAINED_CAPACITY) {
+      offsets = new int[INITIAL_CAPACITY];
+      firstLengths = new int[INITIAL_CAPACITY];
+      secondLengths = new int[INITIAL_CAPACITY];
+    }
+    size = 0;
+    count = 0;
+    garbageLength = 0;
+    hash = 0;
+    if (min != null) {
+      spareMin = min;
+      spareMax = max;
+      min = null;
+      max = null;
+    }
+  }
+
+  /**
+   * Empties a buffer to reuse it, unless it grew too large to keep.
+   *
+   * @param buffer The buffer.
+   * @return The emptied buffer, or a new one.
+   */
+  static DataOutputBuffer reset(DataOutputBuffer buffer) {
+    if (buffer.getData().length > MAX_RETAINED_BYTES) {
+      return new DataOutputBuffer();
+    }
+    return buffer.reset();
+  }
+
+  /**
+   * @return Number of elements the arrays have room for.
+   */
+  int getCapacity() {
+    return offsets.length;
+  }
+
+  /**
+   * Adds an element.
+   *
+   * @param first The first part of the serialized element.
+   * @param second The second part of the serialized element, or null.
+   * @param value The value of the element to track the minimum and maximum
+   *        of, or null.
+   * @throws IOException
+   */
+  public void add(DataOutputBuffer first, DataOutputBuffer second,
+    Writable value) throws IOException {
+    count++;
+    if (isBounded()) {
+      summarize(first, second, value);
+    }
+    int index;
+    if (size < maxSize) {
+      if (size == offsets.length) {
+        int capacity = size * 2;
+        offsets = Arrays.copyOf(offsets, capacity);
+        firstLengths = Arrays.copyOf(firstLengths, capacity);
+        secondLengths = Arrays.copyOf(secondLengths, capacity);
+      }
+      index = size++;
+    } else {
+      // Algorithm R: the element replaces a random one with probability
+      // maxSize / count.
+      long position = (long) (random.nextDouble() * count);
+      if (position >= maxSize) {
+        return;
+      }
+      index = (int) position;
+      garbageLength += firstLengths[index] + Math.max(secondLengths[index], 0);
+    }
+    offsets[index] = data.getLength();
+    firstLengths[index] = first.getLength();
+    data.write(first.getData(), 0, first.getLength());
+    if (second == null) {
+      secondLengths[index] = -1;
+    } else {
+      secondLengths[index] = second.getLength();
+      data.write(second.getData(), 0, second.getLength());
+    }
+    if (garbageLength > data.getLength() / 2) {
+      compact();
+    }
+  }
+
+  /**
+   * Updates the summary of the list with an element.
+   *
+   * @param first The first part of the serialized element.
+   * @param second The second part of the serialized element, or null.
+   * @param value The value of the element, or null.
+   */
+  private void summarize(DataOutputBuffer first, DataOutputBuffer second,
+    Writable value) {
+    hash = Fingerprints.of(first.getData(), 0, first.getLength(), hash);
+    if (second != null) {
+      hash = Fingerprints.of(second.getData(), 0, second.getLength(), hash);
+    }
+    if (valueClass == null || value == null) {
+      return;
+    }
+    if (min == null) {
+      min = spareMin != null ? spareMin : WritableCloner.newInstance(
+        valueClass);
+      max = spareMax != null ? spareMax : WritableCloner.newInstance(
+        valueClass);
+      WritableCloner.copy(value, min, (Class) valueClass);
+      WritableCloner.copy(value, max, (Class) valueClass);
+    } else if (((Comparable) value).compareTo(min) < 0) {
+      WritableCloner.copy(value, min, (Class) valueClass);
+    } else if (((Comparable) value).compareTo(max) > 0) {
+      WritableCloner.copy(value, max, (Class) valueClass);
+    }
+  }
+
+  /**
+   * Drops the bytes of replaced elements.
+   *
+   * @throws IOException
+   */
+  private void compact() throws IOException {
+    spareData.reset();
+    byte[] bytes = data.getData();
+    for (int i = 0; i < size; i++) {
+      int offset = offsets[i];
+      offsets[i] = spareData.getLength();
+      spareData.write(bytes, offset, firstLengths[i] +
+        Math.max(secondLengths[i], 0));
+    }
+    DataOutputBuffer compacted = spareData;
+    spareData = data;
+    data = compacted;
+    garbageLength = 0;
+  }
+
+  /**
+   * @return Number of elements kept.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return Number of elements added.
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * @return Whether some of the elements added were not kept.
+   */
+  public boolean isTruncated() {
+    return count > size;
+  }
+
+  /**
+   * @return The buffer holding the kept elements.
+   */
+  public byte[] getData() {
+    return data.getData();
+  }
+
+  /**
+   * @param index Index of a kept element.
+   * @return Offset of the first part of the element in {@link #getData()}.
+   */
+  public int getFirstOffset(int index) {
+    return offsets[index];
+  }
+
+  /**
+   * @param index Index of a kept element.
+   * @return Length of the first part of the element.
+   */
+  public int getFirstLength(int index) {
+    return firstLengths[index];
+  }
+
+  /**
+   * @param index Index of a kept element.
+   * @return Offset of the second part of the element in {@link #getData()}.
+   */
+  public int getSecondOffset(int index) {
+    return offsets[index] + firstLengths[index];
+  }
+
+  /**
+   * @param index Index of a kept element.
+   * @return Length of the second part of the element, or -1 if it has none.
+   */
+  public int getSecondLength(int index) {
+    return secondLengths[index];
+  }
+
+  /**
+   * @param first Index of a kept element.
+   * @param second Index of another kept element.
+   * @return Whether the second parts of the elements are equal.
+   */
+  public boolean hasEqualSecondParts(int first, int second) {
+    int length = secondLengths[first];
+    if (length != secondLengths[second]) {
+      return false;
+    }
+    byte[] bytes = data.getData();
+    int firstOffset = getSecondOffset(first);
+    int secondOffset = getSecondOffset(second);
+    for (int i = 0; i < length; i++) {
+      if (bytes[firstOffset + i] != bytes[secondOffset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Summarizes the whole list, which is only done if this sampler is
+   * bounded.
+   *
+   * @return The number of elements, their hash and the minimum and maximum
+   *         value.
+   * @throws IOException
+   */
+  public ListSummary buildSummary() throws IOException {
+    ListSummary.Builder summaryBuilder = ListSummary.newBuilder()
+      .setCount(count).setHash(hash);
+    if (min != null) {
+      summaryBuilder.setMin(serialize(min)).setMax(serialize(max));
+    }
+    return summaryBuilder.build();
+  }
+
+  /**
+   * @param writable A writable.
+   * @return The writable serialized.
+   * @throws IOException
+   */
+  private ByteString serialize(Writable writable) throws IOException {
+    spareData.reset();
+    writable.write(spareData);
+    return ByteString.copyFrom(spareData.getData(), 0, spareData.getLength());
+  }
+}
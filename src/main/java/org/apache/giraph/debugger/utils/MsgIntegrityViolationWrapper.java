@@ -36,6 +36,11 @@ import com.google.protobuf.GeneratedMessage;
  * arrays and this class gives them access through the java classes that those
  * byte arrays serialize.
  *
+ * Workers save the captured messages in chunks of {@link #CHUNK_SIZE}, each
+ * a MessageIntegrityViolation of its own appended to a trace segment as soon
+ * as it is full, so neither the memory the messages hold nor the size of a
+ * single protobuf grows with the number of violations captured.
+ *
  * @param <I>
  *          vertex ID class.
  * @param <M2>
@@ -48,6 +53,15 @@ public class MsgIntegrityViolationWrapper<I extends WritableComparable,
   M2 extends Writable>
   extends BaseScenarioAndIntegrityWrapper<I> {
 
+  /**
+   * Maximum number of objects of each kind kept for reuse by
+   * {@link #clear()}.
+   */
+  private static final int MAX_POOLED_OBJECTS = 1024;
+  /**
+   * Number of captured messages saved together as a chunk.
+   */
+  public static final int CHUNK_SIZE = 1024;
   /**
    * Outgoing message class.
    */
@@ -61,6 +75,16 @@ public class MsgIntegrityViolationWrapper<I extends WritableComparable,
    * The superstep number at which these message violations were found.
    */
   private long superstepNo;
+  /**
+   * Vertex ids of cleared messages, reused for the next captured messages.
+   */
+  private final WritableCloner.Pool<I> vertexIdPool =
+    new WritableCloner.Pool<>(MAX_POOLED_OBJECTS);
+  /**
+   * Cleared messages, reused for the next captured messages.
+   */
+  private final WritableCloner.Pool<M2> messagePool =
+    new WritableCloner.Pool<>(MAX_POOLED_OBJECTS);
 
   /**
    * Empty constructor to be used for loading from HDFS.
@@ -105,9 +129,23 @@ public class MsgIntegrityViolationWrapper<I extends WritableComparable,
    */
   public void addMsgWrapper(I srcId, I destinationId, M2 message) {
     extendedOutgoingMessageWrappers.add(new ExtendedOutgoingMessageWrapper(
-      DebuggerUtils.makeCloneOf(srcId, vertexIdClass), DebuggerUtils
-        .makeCloneOf(destinationId, vertexIdClass), DebuggerUtils.makeCloneOf(
-          message, outgoingMessageClass)));
+      WritableCloner.cloneOf(srcId, vertexIdClass, vertexIdPool),
+      WritableCloner.cloneOf(destinationId, vertexIdClass, vertexIdPool),
+      WritableCloner.cloneOf(message, outgoingMessageClass, messagePool)));
+  }
+
+  /**
+   * Removes the captured messages, e.g., once they are saved, keeping their
+   * ids and messages for reuse by the next captured messages.
+   */
+  public void clear() {
+    for (ExtendedOutgoingMessageWrapper extendedOutgoingMessageWrapper :
+      extendedOutgoingMessageWrappers) {
+      vertexIdPool.release(extendedOutgoingMessageWrapper.getSrcId());
+      vertexIdPool.release(extendedOutgoingMessageWrapper.getDestinationId());
+      messagePool.release(extendedOutgoingMessageWrapper.getMessage());
+    }
+    extendedOutgoingMessageWrappers.clear();
   }
 
   /**
@@ -117,6 +155,13 @@ public class MsgIntegrityViolationWrapper<I extends WritableComparable,
     return extendedOutgoingMessageWrappers.size();
   }
 
+  /**
+   * @return Whether enough messages were captured to be saved as a chunk.
+   */
+  public boolean isChunkFull() {
+    return extendedOutgoingMessageWrappers.size() >= CHUNK_SIZE;
+  }
+
   public Class<M2> getOutgoingMessageClass() {
     return outgoingMessageClass;
   }
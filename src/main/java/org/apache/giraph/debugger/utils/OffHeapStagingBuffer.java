@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A ring buffer outside the Java heap in which traces wait to be written, so
+ * that traces queued for {@link AsyncHDFSWriteService} neither take heap
+ * space from Giraph's partition and message stores nor get promoted and
+ * collected by the garbage collector. A compute thread stages each trace it
+ * saves with {@link #stage(byte[])}, after which the heap array of the trace
+ * can be collected. The writer thread writing the trace reads it straight
+ * from the buffer through {@link #read(Slot)} and then frees its space with
+ * {@link #unstage(Slot)}, so a queued trace has no copy on the heap.
+ *
+ * Traces are staged in order and may be unstaged in any order, since several
+ * writer threads drain the buffer. Space is reclaimed in order, once every
+ * trace staged before has been unstaged as well. Staging fails instead of
+ * waiting when the buffer is full, in which case the trace stays on the heap.
+ *
+ * Buffers are allocated once and reused through {@link #acquire(int)} and
+ * {@link #release(OffHeapStagingBuffer)}, since direct memory is only freed
+ * when the garbage collector finds the buffer unreachable.
+ */
+public class OffHeapStagingBuffer {
+  /**
+   * Buffers not used by any compute thread.
+   */
+  private static final ConcurrentLinkedQueue<OffHeapStagingBuffer> POOL =
+    new ConcurrentLinkedQueue<>();
+
+  /**
+   * The direct memory.
+   */
+  private final ByteBuffer buffer;
+  /**
+   * Number of bytes of the buffer.
+   */
+  private final int capacity;
+  /**
+   * Traces staged and not unstaged yet, or unstaged after a trace staged
+   * before them, in the order they were staged. Guarded by this.
+   */
+  private final ArrayDeque<Slot> slots = new ArrayDeque<>();
+  /**
+   * Position of the first byte in use, counting from the creation of the
+   * buffer. Guarded by this.
+   */
+  private long head;
+  /**
+   * Position of the first byte after those in use, counting from the
+   * creation of the buffer. Guarded by this.
+   */
+  private long tail;
+
+  /**
+   * Constructor.
+   *
+   * @param capacity Number of bytes of the buffer.
+   */
+  private OffHeapStagingBuffer(int capacity) {
+    this.capacity = capacity;
+    this.buffer = ByteBuffer.allocateDirect(capacity);
+  }
+
+  /**
+   * Returns an unused buffer of the given capacity, allocating one if there
+   * is none.
+   *
+   * @param capacity Number of bytes of the buffer.
+   * @return A buffer for the exclusive use of the caller until released.
+   */
+  public static OffHeapStagingBuffer acquire(int capacity) {
+    OffHeapStagingBuffer stagingBuffer;
+    while ((stagingBuffer = POOL.poll()) != null) {
+      if (stagingBuffer.capacity == capacity) {
+        return stagingBuffer;
+      }
+    }
+    return new OffHeapStagingBuffer(capacity);
+  }
+
+  /**
+   * Makes a buffer available to other compute threads. Traces staged in it
+   * may still be unstaged afterwards.
+   *
+   * @param stagingBuffer The buffer acquired with {@link #acquire(int)}.
+   */
+  public static void release(OffHeapStagingBuffer stagingBuffer) {
+    POOL.add(stagingBuffer);
+  }
+
+  /**
+   * Copies a trace into the buffer.
+   *
+   * @param record The serialized trace.
+   * @return The staged trace, or null if the buffer is full.
+   */
+  public Slot stage(byte[] record) {
+    Slot slot;
+    synchronized (this) {
+      long start = tail;
+      int offset = (int) (start % capacity);
+      if (offset + record.length > capacity) {
+        // Traces are kept contiguous, so skip to the beginning.
+        start += capacity - offset;
+        offset = 0;
+      }
+      if (start + record.length - head > capacity) {
+        return null;
+      }
+      tail = start + record.length;
+      slot = new Slot(start, offset, record.length);
+      slots.add(slot);
+    }
+    // The bytes are not in use by anyone else, so copy outside the lock.
+    ByteBuffer target = buffer.duplicate();
+    target.position(slot.offset);
+    target.put(record);
+    return slot;
+  }
+
+  /**
+   * Returns a view of a staged trace, valid until the trace is unstaged.
+   *
+   * @param slot The staged trace.
+   * @return A read-only buffer whose remaining bytes are the serialized
+   *         trace.
+   */
+  public ByteBuffer read(Slot slot) {
+    ByteBuffer view;
+    synchronized (this) {
+      // Taking the view under the lock makes the bytes staged by another
+      // thread visible.
+      view = buffer.asReadOnlyBuffer();
+    }
+    view.limit(slot.offset + slot.length);
+    view.position(slot.offset);
+    return view;
+  }
+
+  /**
+   * Frees the space of a staged trace, after which views of it returned by
+   * {@link #read(Slot)} must no longer be used.
+   *
+   * @param slot The staged trace.
+   */
+  public void unstage(Slot slot) {
+    synchronized (this) {
+      slot.isUnstaged = true;
+      while (!slots.isEmpty() && slots.peekFirst().isUnstaged) {
+        slots.pollFirst();
+      }
+      head = slots.isEmpty() ? tail : slots.peekFirst().start;
+    }
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * A trace staged in the buffer.
+   */
+  public static final class Slot {
+    /**
+     * Position of the trace, counting from the creation of the buffer.
+     */
+    private final long start;
+    /**
+     * Offset of the trace in the buffer.
+     */
+    private final int offset;
+    /**
+     * Number of bytes of the trace.
+     */
+    private final int length;
+    /**
+     * Whether the trace was unstaged. Guarded by the buffer.
+     */
+    private boolean isUnstaged;
+
+    /**
+     * Constructor.
+     *
+     * @param start Position of the trace, counting from the creation of the
+     *        buffer.
+     * @param offset Offset of the trace in the buffer.
+     * @param length Number of bytes of the trace.
+     */
+    private Slot(long start, int offset, int length) {
+      this.start = start;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+}
@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Compression codecs for trace payloads. Records of trace segments are
+ * compressed one by one, so that a single record can still be read without
+ * the others, optionally with a {@link TraceDictionary} shared by the records
+ * of a job, which makes small records compress well. Traces saved in files of
+ * their own start with a header naming their codec, unless they are not
+ * compressed, in which case they are plain protobufs as before.
+ *
+ * A compressed payload is the length of the uncompressed payload as a 4-byte
+ * big-endian integer followed by a zlib stream.
+ */
+public enum TraceCodec {
+  /**
+   * No compression.
+   */
+  NONE((byte) 0, 0),
+  /**
+   * Deflate with the default compression level.
+   */
+  DEFLATE((byte) 1, Deflater.DEFAULT_COMPRESSION),
+  /**
+   * Deflate with the fastest compression level, trading compression ratio
+   * for less CPU time spent by the writer.
+   */
+  DEFLATE_FAST((byte) 2, Deflater.BEST_SPEED);
+
+  /**
+   * Marks the start of a compressed trace file. A protobuf never starts with
+   * a zero byte, so plain protobuf traces are told apart from the first byte.
+   */
+  private static final byte[] FILE_MAGIC = { 0, 'G', 'T', 'C' };
+
+  /**
+   * The id of the codec stored in headers.
+   */
+  private final byte id;
+  /**
+   * The deflate compression level.
+   */
+  private final int level;
+  /**
+   * A reusable deflater per writer thread.
+   */
+  private final ThreadLocal<Deflater> deflater = new ThreadLocal<Deflater>() {
+    @Override
+    protected Deflater initialValue() {
+      return new Deflater(level);
+    }
+  };
+
+  /**
+   * Constructor.
+   *
+   * @param id The id of the codec stored in headers.
+   * @param level The deflate compression level.
+   */
+  private TraceCodec(byte id, int level) {
+    this.id = id;
+    this.level = level;
+  }
+
+  public byte getId() {
+    return id;
+  }
+
+  /**
+   * @param id The id of a codec stored in a header.
+   * @return The codec with the given id.
+   * @throws IOException if there is no such codec.
+   */
+  public static TraceCodec forId(byte id) throws IOException {
+    for (TraceCodec codec : values()) {
+      if (codec.id == id) {
+        return codec;
+      }
+    }
+    throw new IOException("Unknown trace codec: " + id);
+  }
+
+  /**
+   * Compresses a payload.
+   *
+   * @param payload The payload to compress.
+   * @param dictionary The dictionary to compress with, or null.
+   * @return The compressed payload, or payload itself for {@link #NONE}.
+   */
+  public byte[] compress(byte[] payload, byte[] dictionary) {
+    if (this == NONE) {
+      return payload;
+    }
+    return compress(ByteBuffer.wrap(payload), dictionary);
+  }
+
+  /**
+   * Compresses a payload that may be in direct memory, which is fed to the
+   * deflater in chunks instead of being copied to the heap whole.
+   *
+   * @param payload The payload to compress, in the remaining bytes of the
+   *        buffer, which are consumed.
+   * @param dictionary The dictionary to compress with, or null.
+   * @return The compressed payload, or a copy of the payload for
+   *         {@link #NONE}.
+   */
+  public byte[] compress(ByteBuffer payload, byte[] dictionary) {
+    int length = payload.remaining();
+    if (this == NONE) {
+      byte[] copy = new byte[length];
+      payload.get(copy);
+      return copy;
+    }
+    Deflater threadDeflater = deflater.get();
+    threadDeflater.reset();
+    if (dictionary != null) {
+      threadDeflater.setDictionary(dictionary);
+    }
+    ByteArrayOutputStream output = new ByteArrayOutputStream(
+      length / 2 + 16);
+    output.write(length >>> 24);
+    output.write(length >>> 16);
+    output.write(length >>> 8);
+    output.write(length);
+    byte[] buffer = new byte[4096];
+    if (payload.hasArray()) {
+      threadDeflater.setInput(payload.array(), payload.arrayOffset() +
+        payload.position(), length);
+      payload.position(payload.limit());
+    } else {
+      byte[] chunk = new byte[Math.min(length, buffer.length)];
+      while (payload.hasRemaining()) {
+        int numBytes = Math.min(payload.remaining(), chunk.length);
+        payload.get(chunk, 0, numBytes);
+        threadDeflater.setInput(chunk, 0, numBytes);
+        while (!threadDeflater.needsInput()) {
+          output.write(buffer, 0, threadDeflater.deflate(buffer));
+        }
+      }
+    }
+    threadDeflater.finish();
+    while (!threadDeflater.finished()) {
+      int numBytes = threadDeflater.deflate(buffer);
+      output.write(buffer, 0, numBytes);
+    }
+    return output.toByteArray();
+  }
+
+  /**
+   * Decompresses a payload.
+   *
+   * @param compressed The compressed payload.
+   * @param dictionary The dictionary it was compressed with, or null.
+   * @return The uncompressed payload, or compressed itself for
+   *         {@link #NONE}.
+   * @throws IOException if the payload is corrupt or needs a dictionary.
+   */
+  public byte[] decompress(byte[] compressed, byte[] dictionary)
+    throws IOException {
+    if (this == NONE) {
+      return compressed;
+    }
+    if (compressed.length < 4) {
+      throw new IOException("Compressed trace payload is truncated");
+    }
+    int length = ((compressed[0] & 0xff) << 24) |
+      ((compressed[1] & 0xff) << 16) | ((compressed[2] & 0xff) << 8) |
+      (compressed[3] & 0xff);
+    byte[] payload = new byte[length];
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compressed, 4, compressed.length - 4);
+      int offset = 0;
+      while (offset < length) {
+        int numBytes = inflater.inflate(payload, offset, length - offset);
+        if (numBytes == 0) {
+          if (inflater.needsDictionary()) {
+            if (dictionary == null) {
+              throw new IOException("Trace payload needs a dictionary");
+            }
+            inflater.setDictionary(dictionary);
+          } else if (inflater.finished() || inflater.needsInput()) {
+            throw new IOException("Compressed trace payload is truncated");
+          }
+        }
+        offset += numBytes;
+      }
+      return payload;
+    } catch (DataFormatException e) {
+      throw new IOException("Compressed trace payload is corrupt", e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  /**
+   * Encodes the contents of a trace file.
+   *
+   * @param message The serialized protobuf of the trace.
+   * @return The contents of the file, with a header unless this is
+   *         {@link #NONE}.
+   */
+  public byte[] encodeFile(byte[] message) {
+    if (this == NONE) {
+      return message;
+    }
+    byte[] compressed = compress(message, null);
+    byte[] contents = Arrays.copyOf(FILE_MAGIC, FILE_MAGIC.length + 1 +
+      compressed.length);
+    contents[FILE_MAGIC.length] = id;
+    System.arraycopy(compressed, 0, contents, FILE_MAGIC.length + 1,
+      compressed.length);
+    return contents;
+  }
+
+  /**
+   * Decodes the contents of a trace file written with any codec.
+   *
+   * @param inputStream The contents of the file.
+   * @return A stream of the serialized protobuf of the trace.
+   * @throws IOException
+   */
+  public static InputStream decodeFile(InputStream inputStream)
+    throws IOException {
+    BufferedInputStream bufferedInput = new BufferedInputStream(inputStream);
+    byte[] header = new byte[FILE_MAGIC.length + 1];
+    bufferedInput.mark(header.length);
+    int numRead = 0;
+    while (numRead < header.length) {
+      int n = bufferedInput.read(header, numRead, header.length - numRead);
+      if (n < 0) {
+        break;
+      }
+      numRead += n;
+    }
+    if (numRead < header.length || !Arrays.equals(FILE_MAGIC,
+      Arrays.copyOf(header, FILE_MAGIC.length))) {
+      bufferedInput.reset();
+      return bufferedInput;
+    }
+    TraceCodec codec = forId(header[FILE_MAGIC.length]);
+    return new ByteArrayInputStream(codec.decompress(
+      IOUtils.toByteArray(bufferedInput), null));
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * A preset dictionary for compressing the records of trace segments with a
+ * {@link TraceCodec}. Records of the same job share most of their structure,
+ * e.g., class names and similar ids and values, so compressing each small
+ * record against a sample of earlier records compresses it nearly as well as
+ * compressing all records together, while records stay individually
+ * readable. A dictionary is saved once, in a file named after its content
+ * hash in the trace directory of the job.
+ */
+public class TraceDictionary {
+  /**
+   * Maximum useful size of a deflate dictionary.
+   */
+  public static final int MAX_SIZE = 32 * 1024;
+
+  /**
+   * The contents of the dictionary.
+   */
+  private final byte[] bytes;
+  /**
+   * Content hash of the dictionary.
+   */
+  private final String hash;
+
+  /**
+   * Constructs a dictionary with the given contents.
+   *
+   * @param bytes The contents of the dictionary.
+   */
+  public TraceDictionary(byte[] bytes) {
+    this.bytes = bytes;
+    this.hash = String.format("%016x", Fingerprints.of(bytes, 0,
+      bytes.length));
+  }
+
+  public byte[] getBytes() {
+    return bytes;
+  }
+
+  public String getHash() {
+    return hash;
+  }
+
+  /**
+   * Reads the dictionary with the given hash saved next to a trace segment.
+   *
+   * @param fs The file system of the segment.
+   * @param segmentPath The path of the segment.
+   * @param hash The content hash of the dictionary.
+   * @return The dictionary.
+   * @throws IOException
+   */
+  public static TraceDictionary read(FileSystem fs, Path segmentPath,
+    String hash) throws IOException {
+    Path path = new Path(segmentPath.getParent(),
+      DebuggerUtils.getTraceDictionaryFileName(hash));
+    try (FSDataInputStream input = fs.open(path)) {
+      return new TraceDictionary(IOUtils.toByteArray(input));
+    }
+  }
+
+  /**
+   * Collects the first records of a worker into a dictionary.
+   */
+  public static class Sampler {
+    /**
+     * The records collected so far.
+     */
+    private final byte[] buffer = new byte[MAX_SIZE];
+    /**
+     * Number of bytes collected so far.
+     */
+    private int size;
+    /**
+     * The dictionary once built, after which no more records are collected.
+     */
+    private volatile TraceDictionary dictionary;
+
+    /**
+     * Collects a record unless the dictionary is built already.
+     *
+     * @param record The uncompressed record.
+     */
+    public void offer(byte[] record) {
+      if (dictionary != null) {
+        return;
+      }
+      synchronized (this) {
+        if (dictionary != null) {
+          return;
+        }
+        int length = Math.min(record.length, MAX_SIZE - size);
+        System.arraycopy(record, 0, buffer, size, length);
+        size += length;
+        if (size == MAX_SIZE) {
+          dictionary = new TraceDictionary(buffer.clone());
+        }
+      }
+    }
+
+    /**
+     * Builds the dictionary from the records collected so far, unless it is
+     * built already.
+     */
+    public synchronized void build() {
+      if (dictionary == null && size > 0) {
+        dictionary = new TraceDictionary(Arrays.copyOf(buffer, size));
+      }
+    }
+
+    /**
+     * @return The dictionary, or null if it is not built yet.
+     */
+    public TraceDictionary getDictionary() {
+      return dictionary;
+    }
+  }
+}
@@ -0,0 +1,341 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.giraph.debugger.utils.DebuggerUtils.DebugTrace;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Index of the records in a trace segment file written by
+ * {@link TraceSegmentWriter}. A segment is laid out as:
+ * <pre>
+ * record* index indexOffset:long magic:int
+ * </pre>
+ * where each record is a serialized scenario protobuf, compressed on its own
+ * with the {@link TraceCodec} of the segment, and the index names the codec
+ * and the {@link TraceDictionary} if any, and lists the trace type, vertex
+ * id, offset and length of every record. The trailer has a fixed size, so a
+ * reader finds the index with two positional reads and can then fetch any
+ * single record without scanning the others.
+ */
+public class TraceSegmentIndex {
+  /**
+   * Marks the end of a complete segment file.
+   */
+  public static final int MAGIC = 0x47545343;
+  /**
+   * Size in bytes of the fixed trailer after the index.
+   */
+  private static final int TRAILER_LENGTH = 8 + 4;
+
+  /**
+   * The records of the segment in the order they were written.
+   */
+  private final List<Entry> entries = new ArrayList<>();
+  /**
+   * The records of a segment read from a file, by trace type and vertex id,
+   * so that finding one does not scan all entries.
+   */
+  private final Map<DebugTrace, Map<String, Entry>> entriesByVertex =
+    new EnumMap<>(DebugTrace.class);
+  /**
+   * The codec the records are compressed with.
+   */
+  private final TraceCodec codec;
+  /**
+   * Content hash of the dictionary the records are compressed with, or an
+   * empty string if there is none.
+   */
+  private final String dictionaryHash;
+  /**
+   * The dictionary, read by the first record that needs it.
+   */
+  private TraceDictionary dictionary;
+
+  /**
+   * Constructs an empty index.
+   *
+   * @param codec The codec the records are compressed with.
+   * @param dictionaryHash Content hash of the dictionary the records are
+   *        compressed with, or an empty string.
+   */
+  TraceSegmentIndex(TraceCodec codec, String dictionaryHash) {
+    this.codec = codec;
+    this.dictionaryHash = dictionaryHash;
+  }
+
+  public TraceCodec getCodec() {
+    return codec;
+  }
+
+  public String getDictionaryHash() {
+    return dictionaryHash;
+  }
+
+  /**
+   * Adds an entry for a record.
+   *
+   * @param entry The entry to add.
+   */
+  void add(Entry entry) {
+    entries.add(entry);
+  }
+
+  /**
+   * Adds an entry for a record read from a segment file and makes it
+   * available to {@link #find(DebugTrace, String)}. The first record of a
+   * vertex and trace type is the one found.
+   *
+   * @param entry The entry to add.
+   */
+  private void addFound(Entry entry) {
+    add(entry);
+    Map<String, Entry> vertexEntries = entriesByVertex.get(entry.debugTrace);
+    if (vertexEntries == null) {
+      vertexEntries = new HashMap<>();
+      entriesByVertex.put(entry.debugTrace, vertexEntries);
+    }
+    if (!vertexEntries.containsKey(entry.vertexId)) {
+      vertexEntries.put(entry.vertexId, entry);
+    }
+  }
+
+  public List<Entry> getEntries() {
+    return Collections.unmodifiableList(entries);
+  }
+
+  /**
+   * Finds the record of the given vertex and trace type in an index read
+   * from a segment file.
+   *
+   * @param debugTrace The trace type, one of the vertex trace types.
+   * @param vertexId The vertex id as a string.
+   * @return The entry of the record or null if the segment has none.
+   */
+  public Entry find(DebugTrace debugTrace, String vertexId) {
+    Map<String, Entry> vertexEntries = entriesByVertex.get(debugTrace);
+    return vertexEntries == null ? null : vertexEntries.get(vertexId);
+  }
+
+  /**
+   * Writes this index followed by the trailer.
+   *
+   * @param output The output positioned at the end of the last record.
+   * @param indexOffset The position of output.
+   * @throws IOException
+   */
+  void write(DataOutput output, long indexOffset) throws IOException {
+    output.writeByte(codec.getId());
+    output.writeUTF(dictionaryHash);
+    output.writeInt(entries.size());
+    for (Entry entry : entries) {
+      output.writeUTF(entry.debugTrace.name());
+      output.writeUTF(entry.vertexId);
+      output.writeLong(entry.offset);
+      output.writeInt(entry.length);
+    }
+    output.writeLong(indexOffset);
+    output.writeInt(MAGIC);
+  }
+
+  /**
+   * Tells whether a file is a complete segment by its trailer, as opposed to
+   * a trace saved as a single protobuf.
+   *
+   * @param fs The file system of the file.
+   * @param path The path of the file.
+   * @return True if the file ends with the trailer of a segment.
+   * @throws IOException if the file cannot be read.
+   */
+  public static boolean isSegment(FileSystem fs, Path path)
+    throws IOException {
+    long fileLength = fs.getFileStatus(path).getLen();
+    if (fileLength < TRAILER_LENGTH) {
+      return false;
+    }
+    byte[] trailer = new byte[TRAILER_LENGTH];
+    try (FSDataInputStream input = fs.open(path)) {
+      input.readFully(fileLength - TRAILER_LENGTH, trailer);
+    }
+    DataInput trailerInput = new DataInputStream(
+      new ByteArrayInputStream(trailer));
+    return isTrailer(trailerInput.readLong(), trailerInput.readInt(),
+      fileLength);
+  }
+
+  /**
+   * @param indexOffset The index position read from a trailer.
+   * @param magic The magic number read from the trailer.
+   * @param fileLength The length of the file.
+   * @return True if the trailer is that of a complete segment.
+   */
+  private static boolean isTrailer(long indexOffset, int magic,
+    long fileLength) {
+    return magic == MAGIC && indexOffset >= 0 &&
+      indexOffset <= fileLength - TRAILER_LENGTH;
+  }
+
+  /**
+   * Reads the index of a segment file.
+   *
+   * @param fs The file system of the segment.
+   * @param path The path of the segment.
+   * @return The index of the segment.
+   * @throws IOException if the segment is incomplete or corrupt.
+   */
+  public static TraceSegmentIndex read(FileSystem fs, Path path)
+    throws IOException {
+    long fileLength = fs.getFileStatus(path).getLen();
+    if (fileLength < TRAILER_LENGTH) {
+      throw new IOException("Trace segment " + path + " is truncated");
+    }
+    try (FSDataInputStream input = fs.open(path)) {
+      byte[] trailer = new byte[TRAILER_LENGTH];
+      input.readFully(fileLength - TRAILER_LENGTH, trailer);
+      DataInput trailerInput = new DataInputStream(
+        new ByteArrayInputStream(trailer));
+      long indexOffset = trailerInput.readLong();
+      int magic = trailerInput.readInt();
+      if (!isTrailer(indexOffset, magic, fileLength)) {
+        throw new IOException("Trace segment " + path + " has no index");
+      }
+      byte[] index = new byte[(int) (fileLength - TRAILER_LENGTH -
+        indexOffset)];
+      input.readFully(indexOffset, index);
+      DataInput indexInput = new DataInputStream(
+        new ByteArrayInputStream(index));
+      TraceSegmentIndex segmentIndex = new TraceSegmentIndex(
+        TraceCodec.forId(indexInput.readByte()), indexInput.readUTF());
+      int numEntries = indexInput.readInt();
+      for (int i = 0; i < numEntries; i++) {
+        DebugTrace debugTrace = DebugTrace.valueOf(indexInput.readUTF());
+        String vertexId = indexInput.readUTF();
+        long offset = indexInput.readLong();
+        int length = indexInput.readInt();
+        segmentIndex.addFound(new Entry(debugTrace, vertexId, offset,
+          length));
+      }
+      return segmentIndex;
+    }
+  }
+
+  /**
+   * Reads a single record of the segment of this index with a positional
+   * read, and decompresses it.
+   *
+   * @param fs The file system of the segment.
+   * @param path The path of the segment.
+   * @param entry The entry of the record in this index.
+   * @return The serialized scenario protobuf.
+   * @throws IOException
+   */
+  public byte[] readRecord(FileSystem fs, Path path, Entry entry)
+    throws IOException {
+    byte[] record = new byte[entry.length];
+    try (FSDataInputStream input = fs.open(path)) {
+      input.readFully(entry.offset, record);
+    }
+    return codec.decompress(record, getDictionaryBytes(fs, path));
+  }
+
+  /**
+   * Returns the dictionary of the segment, reading it if necessary.
+   *
+   * @param fs The file system of the segment.
+   * @param path The path of the segment.
+   * @return The contents of the dictionary, or null if there is none.
+   * @throws IOException
+   */
+  private synchronized byte[] getDictionaryBytes(FileSystem fs, Path path)
+    throws IOException {
+    if (dictionaryHash.isEmpty()) {
+      return null;
+    }
+    if (dictionary == null) {
+      dictionary = TraceDictionary.read(fs, path, dictionaryHash);
+    }
+    return dictionary.getBytes();
+  }
+
+  /**
+   * Location of a single record in a segment.
+   */
+  public static class Entry {
+    /**
+     * The trace type of the record.
+     */
+    private final DebugTrace debugTrace;
+    /**
+     * The id of the vertex the record belongs to.
+     */
+    private final String vertexId;
+    /**
+     * Position of the record in the segment.
+     */
+    private final long offset;
+    /**
+     * Length of the record in bytes.
+     */
+    private final int length;
+
+    /**
+     * Constructs an entry.
+     *
+     * @param debugTrace The trace type of the record.
+     * @param vertexId The id of the vertex the record belongs to.
+     * @param offset Position of the record in the segment.
+     * @param length Length of the record in bytes.
+     */
+    Entry(DebugTrace debugTrace, String vertexId, long offset, int length) {
+      this.debugTrace = debugTrace;
+      this.vertexId = vertexId;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    public DebugTrace getDebugTrace() {
+      return debugTrace;
+    }
+
+    public String getVertexId() {
+      return vertexId;
+    }
+
+    public long getOffset() {
+      return offset;
+    }
+
+    public int getLength() {
+      return length;
+    }
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.giraph.debugger.utils.DebuggerUtils.DebugTrace;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Appends vertex traces to a single segment file instead of creating one file
+ * per trace, which keeps the number of files, and the load on the NameNode,
+ * proportional to the number of compute threads and supersteps rather than to
+ * the number of captured vertices. See {@link TraceSegmentIndex} for the file
+ * layout.
+ *
+ * The file is created when the first trace is written, so threads that
+ * capture nothing leave no file behind. Records only become readable once the
+ * writer is closed and the index is written. Records are written by
+ * {@link AsyncHDFSWriteService}, possibly by several of its threads, so each
+ * append is announced with {@link #beginAppend()} and {@link #close()} waits
+ * for the announced appends to be written. Records are compressed with the
+ * {@link TraceCodec} of the segment by the thread writing them.
+ */
+public class TraceSegmentWriter implements Closeable {
+  /**
+   * Number of bytes of the heap array records in direct memory are copied
+   * through.
+   */
+  private static final int CHUNK_LENGTH = 8192;
+
+  /**
+   * The file system to write to.
+   */
+  private final FileSystem fs;
+  /**
+   * The path of the segment.
+   */
+  private final Path path;
+  /**
+   * Index of the records appended so far.
+   */
+  private final TraceSegmentIndex index;
+  /**
+   * The dictionary records are compressed with, or null.
+   */
+  private final TraceDictionary dictionary;
+  /**
+   * The output stream of the segment, null until the first append.
+   */
+  private FSDataOutputStream output;
+  /**
+   * Whether the segment has been closed.
+   */
+  private boolean closed;
+  /**
+   * Number of appends announced but not written yet.
+   */
+  private int numPendingAppends;
+
+  /**
+   * Constructs a writer for the given segment path.
+   *
+   * @param fs The file system to write to.
+   * @param fileName The full path of the segment.
+   * @param codec The codec to compress records with.
+   * @param dictionary The dictionary to compress records with, or null. Must
+   *        be saved next to the segment for the records to be readable.
+   */
+  public TraceSegmentWriter(FileSystem fs, String fileName, TraceCodec codec,
+    TraceDictionary dictionary) {
+    this.fs = fs;
+    this.path = new Path(fileName);
+    this.dictionary = codec == TraceCodec.NONE ? null : dictionary;
+    this.index = new TraceSegmentIndex(codec, this.dictionary == null ? "" :
+      this.dictionary.getHash());
+  }
+
+  /**
+   * Announces a record that will be written with
+   * {@link #write(DebugTrace, String, ByteBuffer)}.
+   *
+   * @throws IOException if the segment is already closed.
+   */
+  synchronized void beginAppend() throws IOException {
+    if (closed) {
+      throw new IOException("Trace segment " + path + " is already closed");
+    }
+    numPendingAppends++;
+  }
+
+  /**
+   * Withdraws a record announced with {@link #beginAppend()} that will not be
+   * written.
+   */
+  synchronized void cancelAppend() {
+    numPendingAppends--;
+    notifyAll();
+  }
+
+  /**
+   * Writes a vertex trace announced with {@link #beginAppend()} to the
+   * segment.
+   *
+   * @param debugTrace The trace type.
+   * @param vertexId The id of the vertex as a string.
+   * @param record The serialized scenario in the remaining bytes of a
+   *        buffer, on the heap or in direct memory.
+   * @throws IOException
+   */
+  void write(DebugTrace debugTrace, String vertexId, ByteBuffer record)
+    throws IOException {
+    if (index.getCodec() == TraceCodec.NONE) {
+      writeCompressed(debugTrace, vertexId, record);
+      return;
+    }
+    byte[] compressed;
+    try {
+      // Compress outside the lock so that writer threads compress in
+      // parallel.
+      compressed = index.getCodec().compress(record, dictionary == null ?
+        null : dictionary.getBytes());
+    } catch (RuntimeException e) {
+      cancelAppend();
+      throw e;
+    }
+    writeCompressed(debugTrace, vertexId, ByteBuffer.wrap(compressed));
+  }
+
+  /**
+   * Writes a compressed record announced with {@link #beginAppend()} to the
+   * segment.
+   *
+   * @param debugTrace The trace type.
+   * @param vertexId The id of the vertex as a string.
+   * @param compressed The compressed record in the remaining bytes of a
+   *        buffer.
+   * @throws IOException
+   */
+  private synchronized void writeCompressed(DebugTrace debugTrace,
+    String vertexId, ByteBuffer compressed) throws IOException {
+    try {
+      if (output == null) {
+        output = fs.create(path, true);
+      }
+      long offset = output.getPos();
+      int length = compressed.remaining();
+      write(output, compressed);
+      index.add(new TraceSegmentIndex.Entry(debugTrace, vertexId, offset,
+        length));
+    } finally {
+      numPendingAppends--;
+      notifyAll();
+    }
+  }
+
+  /**
+   * Writes the remaining bytes of a buffer, copying those of a direct buffer
+   * through a small heap array.
+   *
+   * @param out The output to write to.
+   * @param bytes The bytes to write.
+   * @throws IOException
+   */
+  static void write(OutputStream out, ByteBuffer bytes) throws IOException {
+    if (bytes.hasArray()) {
+      out.write(bytes.array(), bytes.arrayOffset() + bytes.position(),
+        bytes.remaining());
+      bytes.position(bytes.limit());
+      return;
+    }
+    byte[] chunk = new byte[Math.min(bytes.remaining(), CHUNK_LENGTH)];
+    while (bytes.hasRemaining()) {
+      int length = Math.min(bytes.remaining(), chunk.length);
+      bytes.get(chunk, 0, length);
+      out.write(chunk, 0, length);
+    }
+  }
+
+  /**
+   * Writes the index and closes the segment. Does nothing if no trace was
+   * appended.
+   *
+   * @throws IOException
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    while (numPendingAppends > 0) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while closing " + path, e);
+      }
+    }
+    if (output != null) {
+      try {
+        index.write(output, output.getPos());
+      } finally {
+        output.close();
+      }
+    }
+  }
+
+  public Path getPath() {
+    return path;
+  }
+}
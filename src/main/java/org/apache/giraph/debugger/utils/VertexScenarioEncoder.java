@@ -0,0 +1,599 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.giraph.debugger.Scenario.CommonVertexMasterContext;
+import org.apache.giraph.debugger.Scenario.GiraphVertexScenario;
+import org.apache.giraph.debugger.Scenario.GiraphVertexScenario.VertexContext;
+import org.apache.giraph.debugger.Scenario.GiraphVertexScenario.VertexContext.Neighbor;
+import org.apache.giraph.debugger.Scenario.GiraphVertexScenario.VertexContext.OutgoingMessage;
+import org.apache.giraph.debugger.Scenario.GiraphVertexScenario.VertexScenarioClasses;
+import org.apache.giraph.edge.Edge;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+import com.google.protobuf.WireFormat;
+
+/**
+ * Encodes vertex scenarios in the wire format of
+ * {@link org.apache.giraph.debugger.Scenario.GiraphVertexScenario} straight
+ * from the live vertex, its edges and messages. Unlike
+ * {@link GiraphVertexScenarioWrapper}, which clones every id, value and
+ * message before turning each clone into a protobuf, every element is
+ * serialized exactly once into buffers that are reused for all scenarios an
+ * encoder captures. Not thread-safe: each compute thread uses its own
+ * encoders.
+ *
+ * A scenario is encoded in three steps: {@link #begin} serializes the state
+ * compute() starts from, {@link #addOutgoingMessage} and
+ * {@link #addBroadcastMessage} serialize each message as it is sent, and
+ * {@link #finish} appends the state compute() ends with and returns the
+ * serialized scenario, which can be read back with
+ * {@link GiraphVertexScenarioWrapper}. A message sent to all neighbors is
+ * stored once, and so is a run of the same message sent to several vertices
+ * in a row. The numbers of neighbors, incoming messages and messages sent to
+ * single vertices stored can be capped with {@link #setCaptureLimits}, in
+ * which case a uniform sample of each longer list is stored together with
+ * its summary. Lists without a cap bypass the sampling and are serialized
+ * straight into the scenario.
+ *
+ * @param <I> Vertex id type.
+ * @param <V> Vertex value type.
+ * @param <E> Edge value type.
+ * @param <M1> Incoming message type.
+ * @param <M2> Outgoing message type.
+ */
+@SuppressWarnings("rawtypes")
+public class VertexScenarioEncoder<I extends WritableComparable,
+  V extends Writable, E extends Writable, M1 extends Writable,
+  M2 extends Writable> {
+  /**
+   * The serialized classes of the scenarios, the same for all of them.
+   */
+  private final byte[] vertexScenarioClasses;
+  /**
+   * The fields of the vertex context serialized by {@link #begin}.
+   */
+  private DataOutputBuffer contextFields = new DataOutputBuffer();
+  /**
+   * The outgoing messages serialized so far, i.e., the messages sent to all
+   * neighbors and the runs of messages sent to single vertices that ended,
+   * followed by the sampled ones once the scenario is finished.
+   */
+  private DataOutputBuffer outMessageFields = new DataOutputBuffer();
+  /**
+   * The destination id fields of the run of the same message sent to single
+   * vertices in progress, if those messages are not sampled.
+   */
+  private DataOutputBuffer runDestinations = new DataOutputBuffer();
+  /**
+   * The message of the run in progress.
+   */
+  private DataOutputBuffer runMessage = new DataOutputBuffer();
+  /**
+   * Samples the neighbors of the vertex, with their edge values.
+   */
+  private final ListSampler neighborSampler;
+  /**
+   * Samples the incoming messages of the vertex.
+   */
+  private final ListSampler inMessageSampler;
+  /**
+   * Samples the messages sent to single vertices, with their destinations.
+   */
+  private final ListSampler outMessageSampler;
+  /**
+   * Fingerprint of the serialized target ids, in order, of the edges of the
+   * vertex given to {@link #begin}.
+   */
+  private long neighborIdsHash;
+  /**
+   * The number of edges of the vertex given to {@link #begin}.
+   */
+  private int numNeighbors;
+  /**
+   * Buffer for serializing a single id, value or message.
+   */
+  private final DataOutputBuffer element = new DataOutputBuffer();
+  /**
+   * Buffer for serializing the second element of a neighbor or an outgoing
+   * message.
+   */
+  private DataOutputBuffer secondElement = new DataOutputBuffer();
+  /**
+   * Buffer the whole scenario is assembled in.
+   */
+  private DataOutputBuffer scenario = new DataOutputBuffer();
+
+  /**
+   * Constructor with classes.
+   *
+   * @param classUnderTest The Computation class under test.
+   * @param vertexIdClass The vertex id class.
+   * @param vertexValueClass The vertex value class.
+   * @param edgeValueClass The edge value class.
+   * @param incomingMessageClass The incoming message class.
+   * @param outgoingMessageClass The outgoing message class.
+   */
+  public VertexScenarioEncoder(Class<?> classUnderTest,
+    Class<I> vertexIdClass, Class<V> vertexValueClass, Class<E> edgeValueClass,
+    Class<M1> incomingMessageClass, Class<M2> outgoingMessageClass) {
+    this.vertexScenarioClasses = VertexScenarioClasses.newBuilder()
+      .setClassUnderTest(classUnderTest.getName())
+      .setVertexIdClass(vertexIdClass.getName())
+      .setVertexValueClass(vertexValueClass.getName())
+      .setEdgeValueClass(edgeValueClass.getName())
+      .setIncomingMessageClass(incomingMessageClass.getName())
+      .setOutgoingMessageClass(outgoingMessageClass.getName()).build()
+      .toByteArray();
+    this.neighborSampler = new ListSampler(edgeValueClass);
+    this.inMessageSampler = new ListSampler(incomingMessageClass);
+    this.outMessageSampler = new ListSampler(outgoingMessageClass);
+  }
+
+  /**
+   * Caps the numbers of elements of lists stored in scenarios.
+   *
+   * @param maxNeighbors Maximum number of neighbors, or 0 for no limit.
+   * @param maxInMessages Maximum number of incoming messages, or 0 for no
+   *        limit.
+   * @param maxOutMessages Maximum number of messages sent to single vertices,
+   *        or 0 for no limit.
+   */
+  public void setCaptureLimits(int maxNeighbors, int maxInMessages,
+    int maxOutMessages) {
+    neighborSampler.setMaxSize(maxNeighbors);
+    inMessageSampler.setMaxSize(maxInMessages);
+    outMessageSampler.setMaxSize(maxOutMessages);
+  }
+
+  /**
+   * Starts a new scenario, discarding the one in progress, if any.
+   *
+   * @param vertexId The id of the vertex.
+   * @param vertexValueBefore The value of the vertex before compute(), or
+   *        null.
+   * @param edges The edges of the vertex.
+   * @param inMessages The incoming messages of the vertex.
+   * @throws IOException
+   */
+  public void begin(I vertexId, V vertexValueBefore,
+    Iterable<Edge<I, E>> edges, Iterable<M1> inMessages) throws IOException {
+    contextFields = ListSampler.reset(contextFields);
+    outMessageFields = ListSampler.reset(outMessageFields);
+    runDestinations = ListSampler.reset(runDestinations);
+    runMessage.reset();
+    neighborSampler.reset();
+    inMessageSampler.reset();
+    outMessageSampler.reset();
+    neighborIdsHash = 0;
+    numNeighbors = 0;
+    writeField(contextFields, VertexContext.VERTEXID_FIELD_NUMBER,
+      serialize(vertexId, element));
+    if (vertexValueBefore != null) {
+      writeField(contextFields, VertexContext.VERTEXVALUEBEFORE_FIELD_NUMBER,
+        serialize(vertexValueBefore, element));
+    }
+    for (Edge<I, E> edge : edges) {
+      serialize(edge.getTargetVertexId(), element);
+      neighborIdsHash = Fingerprints.of(element.getData(), 0,
+        element.getLength(), neighborIdsHash);
+      E edgeValue = edge.getValue();
+      if (edgeValue != null) {
+        serialize(edgeValue, secondElement);
+      }
+      if (neighborSampler.isBounded()) {
+        neighborSampler.add(element, edgeValue != null ? secondElement : null,
+          edgeValue);
+      } else {
+        writeNeighbor(element.getData(), 0, element.getLength(),
+          secondElement.getData(), 0, edgeValue != null ?
+            secondElement.getLength() : -1);
+      }
+      numNeighbors++;
+    }
+    byte[] data = neighborSampler.getData();
+    for (int i = 0; i < neighborSampler.size(); i++) {
+      writeNeighbor(data, neighborSampler.getFirstOffset(i),
+        neighborSampler.getFirstLength(i), data,
+        neighborSampler.getSecondOffset(i), neighborSampler.getSecondLength(i));
+    }
+    for (M1 message : inMessages) {
+      serialize(message, element);
+      if (inMessageSampler.isBounded()) {
+        inMessageSampler.add(element, null, message);
+      } else {
+        writeField(contextFields, VertexContext.INMESSAGE_FIELD_NUMBER,
+          element);
+      }
+    }
+    data = inMessageSampler.getData();
+    for (int i = 0; i < inMessageSampler.size(); i++) {
+      writeField(contextFields, VertexContext.INMESSAGE_FIELD_NUMBER, data,
+        inMessageSampler.getFirstOffset(i), inMessageSampler.getFirstLength(i));
+    }
+    writeSummary(contextFields, VertexContext.NEIGHBORSUMMARY_FIELD_NUMBER,
+      neighborSampler);
+    writeSummary(contextFields, VertexContext.INMESSAGESUMMARY_FIELD_NUMBER,
+      inMessageSampler);
+  }
+
+  /**
+   * Writes a neighbor to the context fields.
+   *
+   * @param id The buffer holding the serialized id of the neighbor.
+   * @param idOffset The offset of the id in its buffer.
+   * @param idLength The length of the id.
+   * @param edgeValue The buffer holding the serialized edge value.
+   * @param edgeValueOffset The offset of the edge value in its buffer.
+   * @param edgeValueLength The length of the edge value, or -1 if there is
+   *        none.
+   * @throws IOException
+   */
+  private void writeNeighbor(byte[] id, int idOffset, int idLength,
+    byte[] edgeValue, int edgeValueOffset, int edgeValueLength)
+    throws IOException {
+    int neighborLength = fieldLength(Neighbor.NEIGHBORID_FIELD_NUMBER,
+      idLength);
+    if (edgeValueLength >= 0) {
+      neighborLength += fieldLength(Neighbor.EDGEVALUE_FIELD_NUMBER,
+        edgeValueLength);
+    }
+    writeFieldHeader(contextFields, VertexContext.NEIGHBOR_FIELD_NUMBER,
+      neighborLength);
+    writeField(contextFields, Neighbor.NEIGHBORID_FIELD_NUMBER, id, idOffset,
+      idLength);
+    if (edgeValueLength >= 0) {
+      writeField(contextFields, Neighbor.EDGEVALUE_FIELD_NUMBER, edgeValue,
+        edgeValueOffset, edgeValueLength);
+    }
+  }
+
+  /**
+   * Adds a message sent by the vertex to the scenario in progress.
+   *
+   * @param destinationId The id of the vertex the message is sent to.
+   * @param message The message.
+   */
+  public void addOutgoingMessage(I destinationId, M2 message) {
+    try {
+      serialize(message, secondElement);
+      if (outMessageSampler.isBounded()) {
+        outMessageSampler.add(serialize(destinationId, element),
+          secondElement, message);
+        return;
+      }
+      if (runDestinations.getLength() > 0 &&
+        !isEqual(secondElement, runMessage)) {
+        writeOutgoingMessageRun();
+      }
+      if (runDestinations.getLength() == 0) {
+        // The message starts a run, so keep it by swapping buffers.
+        DataOutputBuffer swap = runMessage;
+        runMessage = secondElement;
+        secondElement = swap;
+      }
+      writeField(runDestinations, OutgoingMessage.DESTINATIONID_FIELD_NUMBER,
+        serialize(destinationId, element));
+    } catch (IOException e) {
+      // Called from sendMessage(), which cannot throw an IOException.
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Adds a message sent by the vertex to all of its neighbors to the scenario
+   * in progress. The message is stored once if the edges of the vertex still
+   * have the target ids given to {@link #begin}, in the same order, and once
+   * per neighbor otherwise. The ids are compared, not the edges object,
+   * since compute() may add and remove edges in place.
+   *
+   * @param edges The edges of the vertex.
+   * @param numEdges The number of edges of the vertex.
+   * @param message The message.
+   */
+  public void addBroadcastMessage(Iterable<Edge<I, E>> edges, int numEdges,
+    M2 message) {
+    try {
+      if (!hasNeighborIds(edges, numEdges)) {
+        // compute() changed the edges, which the scenario stores as they
+        // were before compute().
+        for (Edge<I, E> edge : edges) {
+          addOutgoingMessage(edge.getTargetVertexId(), message);
+        }
+        return;
+      }
+      writeField(outMessageFields,
+        VertexContext.BROADCASTMESSAGE_FIELD_NUMBER,
+        serialize(message, secondElement));
+    } catch (IOException e) {
+      // Called from sendMessageToAllEdges(), which cannot throw an
+      // IOException.
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @param edges The edges of the vertex.
+   * @param numEdges The number of edges of the vertex.
+   * @return Whether the edges have the target ids given to {@link #begin},
+   *         in the same order, up to a collision of their fingerprints.
+   * @throws IOException
+   */
+  private boolean hasNeighborIds(Iterable<Edge<I, E>> edges, int numEdges)
+    throws IOException {
+    if (numEdges != numNeighbors) {
+      return false;
+    }
+    long hash = 0;
+    for (Edge<I, E> edge : edges) {
+      serialize(edge.getTargetVertexId(), element);
+      hash = Fingerprints.of(element.getData(), 0, element.getLength(), hash);
+    }
+    return hash == neighborIdsHash;
+  }
+
+  /**
+   * Appends the run of the same message sent to single vertices in progress
+   * to the outgoing messages, if the messages are not sampled, and starts a
+   * new run.
+   *
+   * @throws IOException
+   */
+  private void writeOutgoingMessageRun() throws IOException {
+    if (runDestinations.getLength() == 0) {
+      return;
+    }
+    writeFieldHeader(outMessageFields, VertexContext.OUTMESSAGE_FIELD_NUMBER,
+      runDestinations.getLength() + fieldLength(
+        OutgoingMessage.MSGDATA_FIELD_NUMBER, runMessage.getLength()));
+    outMessageFields.write(runDestinations.getData(), 0,
+      runDestinations.getLength());
+    writeField(outMessageFields, OutgoingMessage.MSGDATA_FIELD_NUMBER,
+      runMessage);
+    runDestinations.reset();
+  }
+
+  /**
+   * @param first A buffer.
+   * @param second Another buffer.
+   * @return Whether the buffers hold the same bytes.
+   */
+  private static boolean isEqual(DataOutputBuffer first,
+    DataOutputBuffer second) {
+    int length = first.getLength();
+    if (length != second.getLength()) {
+      return false;
+    }
+    byte[] firstBytes = first.getData();
+    byte[] secondBytes = second.getData();
+    for (int i = 0; i < length; i++) {
+      if (firstBytes[i] != secondBytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Appends the messages sent to single vertices to the outgoing messages
+   * serialized so far, storing each run of the same message once.
+   *
+   * @throws IOException
+   */
+  private void writeOutgoingMessages() throws IOException {
+    writeOutgoingMessageRun();
+    int runStart = 0;
+    for (int i = 1; i <= outMessageSampler.size(); i++) {
+      if (i < outMessageSampler.size() &&
+        outMessageSampler.hasEqualSecondParts(runStart, i)) {
+        continue;
+      }
+      byte[] data = outMessageSampler.getData();
+      int messageLength = outMessageSampler.getSecondLength(runStart);
+      int runLength = fieldLength(OutgoingMessage.MSGDATA_FIELD_NUMBER,
+        messageLength);
+      for (int j = runStart; j < i; j++) {
+        runLength += fieldLength(OutgoingMessage.DESTINATIONID_FIELD_NUMBER,
+          outMessageSampler.getFirstLength(j));
+      }
+      writeFieldHeader(outMessageFields,
+        VertexContext.OUTMESSAGE_FIELD_NUMBER, runLength);
+      for (int j = runStart; j < i; j++) {
+        writeField(outMessageFields,
+          OutgoingMessage.DESTINATIONID_FIELD_NUMBER, data,
+          outMessageSampler.getFirstOffset(j),
+          outMessageSampler.getFirstLength(j));
+      }
+      writeField(outMessageFields, OutgoingMessage.MSGDATA_FIELD_NUMBER, data,
+        outMessageSampler.getSecondOffset(runStart), messageLength);
+      runStart = i;
+    }
+    writeSummary(outMessageFields,
+      VertexContext.OUTMESSAGESUMMARY_FIELD_NUMBER, outMessageSampler);
+  }
+
+  /**
+   * Writes the summary of a list if only a sample of it is stored.
+   *
+   * @param output The output to write to.
+   * @param fieldNumber The field number of the summary.
+   * @param sampler The sampler of the list.
+   * @throws IOException
+   */
+  private static void writeSummary(DataOutputBuffer output, int fieldNumber,
+    ListSampler sampler) throws IOException {
+    if (sampler.isTruncated()) {
+      byte[] summaryBytes = sampler.buildSummary().toByteArray();
+      writeField(output, fieldNumber, summaryBytes, 0, summaryBytes.length);
+    }
+  }
+
+  /**
+   * Finishes the scenario in progress.
+   *
+   * @param commonContext The context common to vertices and the master.
+   * @param vertexValueAfter The value of the vertex after compute(), or
+   *        null.
+   * @param exception The exception thrown by compute(), or null.
+   * @return The serialized scenario.
+   * @throws IOException
+   */
+  public byte[] finish(CommonVertexMasterContext commonContext,
+    V vertexValueAfter, ExceptionWrapper exception) throws IOException {
+    writeOutgoingMessages();
+    byte[] commonContextBytes = commonContext.toByteArray();
+    int contextLength = fieldLength(VertexContext.COMMONCONTEXT_FIELD_NUMBER,
+      commonContextBytes.length) + contextFields.getLength() +
+      outMessageFields.getLength();
+    if (vertexValueAfter != null) {
+      serialize(vertexValueAfter, element);
+      contextLength += fieldLength(
+        VertexContext.VERTEXVALUEAFTER_FIELD_NUMBER, element.getLength());
+    }
+    scenario = ListSampler.reset(scenario);
+    writeField(scenario,
+      GiraphVertexScenario.VERTEXSCENARIOCLASSES_FIELD_NUMBER,
+      vertexScenarioClasses, 0, vertexScenarioClasses.length);
+    writeFieldHeader(scenario, GiraphVertexScenario.CONTEXT_FIELD_NUMBER,
+      contextLength);
+    writeField(scenario, VertexContext.COMMONCONTEXT_FIELD_NUMBER,
+      commonContextBytes, 0, commonContextBytes.length);
+    scenario.write(contextFields.getData(), 0, contextFields.getLength());
+    if (vertexValueAfter != null) {
+      writeField(scenario, VertexContext.VERTEXVALUEAFTER_FIELD_NUMBER,
+        element);
+    }
+    scenario.write(outMessageFields.getData(), 0,
+      outMessageFields.getLength());
+    if (exception != null) {
+      byte[] exceptionBytes = exception.buildProtoObject().toByteArray();
+      writeField(scenario, GiraphVertexScenario.EXCEPTION_FIELD_NUMBER,
+        exceptionBytes, 0, exceptionBytes.length);
+    }
+    return Arrays.copyOf(scenario.getData(), scenario.getLength());
+  }
+
+  /**
+   * Serializes a writable into a buffer, replacing its contents.
+   *
+   * @param writable The writable to serialize.
+   * @param buffer The buffer to serialize into.
+   * @return buffer.
+   * @throws IOException
+   */
+  private static DataOutputBuffer serialize(Writable writable,
+    DataOutputBuffer buffer) throws IOException {
+    buffer.reset();
+    writable.write(buffer);
+    return buffer;
+  }
+
+  /**
+   * Writes a length-delimited field holding the contents of a buffer.
+   *
+   * @param output The output to write to.
+   * @param fieldNumber The field number.
+   * @param value The buffer holding the value of the field.
+   * @throws IOException
+   */
+  private static void writeField(DataOutputBuffer output, int fieldNumber,
+    DataOutputBuffer value) throws IOException {
+    writeField(output, fieldNumber, value.getData(), 0, value.getLength());
+  }
+
+  /**
+   * Writes a length-delimited field.
+   *
+   * @param output The output to write to.
+   * @param fieldNumber The field number.
+   * @param value The value of the field.
+   * @param offset The offset of the field in value.
+   * @param length The number of bytes of value to write.
+   * @throws IOException
+   */
+  private static void writeField(DataOutputBuffer output, int fieldNumber,
+    byte[] value, int offset, int length) throws IOException {
+    writeFieldHeader(output, fieldNumber, length);
+    output.write(value, offset, length);
+  }
+
+  /**
+   * Writes the tag and length of a length-delimited field.
+   *
+   * @param output The output to write to.
+   * @param fieldNumber The field number.
+   * @param length The length of the value of the field.
+   * @throws IOException
+   */
+  private static void writeFieldHeader(DataOutputBuffer output,
+    int fieldNumber, int length) throws IOException {
+    writeVarint(output, tag(fieldNumber));
+    writeVarint(output, length);
+  }
+
+  /**
+   * @param fieldNumber A field number.
+   * @param length The length of the value of a length-delimited field.
+   * @return The number of bytes the field takes, including its header.
+   */
+  static int fieldLength(int fieldNumber, int length) {
+    return varintLength(tag(fieldNumber)) + varintLength(length) + length;
+  }
+
+  /**
+   * @param fieldNumber A field number.
+   * @return The tag of a length-delimited field.
+   */
+  private static int tag(int fieldNumber) {
+    return (fieldNumber << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  }
+
+  /**
+   * Writes a non-negative integer as a varint.
+   *
+   * @param output The output to write to.
+   * @param value The value to write.
+   * @throws IOException
+   */
+  private static void writeVarint(DataOutputBuffer output, int value)
+    throws IOException {
+    while ((value & ~0x7f) != 0) {
+      output.writeByte((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    output.writeByte(value);
+  }
+
+  /**
+   * @param value A non-negative integer.
+   * @return The number of bytes of its varint encoding.
+   */
+  private static int varintLength(int value) {
+    int length = 1;
+    while ((value & ~0x7f) != 0) {
+      value >>>= 7;
+      length++;
+    }
+    return length;
+  }
+}
@@ -0,0 +1,305 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.utils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.giraph.debugger.Scenario.CommonVertexMasterContext;
+import org.apache.giraph.debugger.Scenario.GiraphVertexScenario;
+import org.apache.giraph.debugger.Scenario.GiraphVertexScenario.VertexContext;
+import org.apache.giraph.debugger.Scenario.GiraphVertexScenario.VertexContext.Neighbor;
+import org.apache.giraph.debugger.Scenario.GiraphVertexScenario.VertexContext.OutgoingMessage;
+import org.apache.giraph.debugger.Scenario.GiraphVertexScenario.VertexScenarioClasses;
+import org.apache.giraph.edge.Edge;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * Estimates the number of bytes {@link VertexScenarioEncoder} would encode a
+ * vertex scenario in, without encoding it: each id, value and message is
+ * serialized into a stream that only counts bytes, and nothing is copied or
+ * sampled. Used by dry runs to tell what a configuration would capture.
+ *
+ * The steps mirror those of {@link VertexScenarioEncoder}, and so do the
+ * capture limits. When a list is longer than its limit, the sizes of its
+ * first elements stand in for those of the sample, and the summary is
+ * assumed to hold two elements of average size. Runs of the same message
+ * sent to several vertices are counted as separate messages, so the
+ * estimate errs on the high side for such vertices. Not thread-safe.
+ *
+ * @param <I> Vertex id type.
+ * @param <V> Vertex value type.
+ * @param <E> Edge value type.
+ * @param <M1> Incoming message type.
+ * @param <M2> Outgoing message type.
+ */
+@SuppressWarnings("rawtypes")
+public class VertexScenarioSizer<I extends WritableComparable,
+  V extends Writable, E extends Writable, M1 extends Writable,
+  M2 extends Writable> {
+  /**
+   * Number of bytes of the count and hash of a list summary, at most.
+   */
+  private static final int SUMMARY_HEADER_BYTES = 24;
+
+  /**
+   * Counts the bytes of serialized elements.
+   */
+  private final CountingOutput output = new CountingOutput();
+  /**
+   * Number of bytes of the serialized classes of the scenarios.
+   */
+  private final int vertexScenarioClassesLength;
+  /**
+   * Maximum number of neighbors stored, or 0 for no limit.
+   */
+  private int maxNeighbors;
+  /**
+   * Maximum number of incoming messages stored, or 0 for no limit.
+   */
+  private int maxInMessages;
+  /**
+   * Maximum number of messages sent to single vertices stored, or 0 for no
+   * limit.
+   */
+  private int maxOutMessages;
+  /**
+   * Number of bytes of the vertex context measured so far.
+   */
+  private long contextLength;
+  /**
+   * Number of messages sent to single vertices so far.
+   */
+  private long numOutMessages;
+  /**
+   * Number of bytes of the stored messages sent to single vertices.
+   */
+  private long outMessagesLength;
+
+  /**
+   * Constructor with classes.
+   *
+   * @param classUnderTest The Computation class under test.
+   * @param vertexIdClass The vertex id class.
+   * @param vertexValueClass The vertex value class.
+   * @param edgeValueClass The edge value class.
+   * @param incomingMessageClass The incoming message class.
+   * @param outgoingMessageClass The outgoing message class.
+   */
+  public VertexScenarioSizer(Class<?> classUnderTest,
+    Class<I> vertexIdClass, Class<V> vertexValueClass, Class<E> edgeValueClass,
+    Class<M1> incomingMessageClass, Class<M2> outgoingMessageClass) {
+    this.vertexScenarioClassesLength = VertexScenarioClasses.newBuilder()
+      .setClassUnderTest(classUnderTest.getName())
+      .setVertexIdClass(vertexIdClass.getName())
+      .setVertexValueClass(vertexValueClass.getName())
+      .setEdgeValueClass(edgeValueClass.getName())
+      .setIncomingMessageClass(incomingMessageClass.getName())
+      .setOutgoingMessageClass(outgoingMessageClass.getName()).build()
+      .getSerializedSize();
+  }
+
+  /**
+   * Caps the numbers of elements of lists stored in scenarios, as
+   * {@link VertexScenarioEncoder#setCaptureLimits} does.
+   *
+   * @param maxNeighbors Maximum number of neighbors, or 0 for no limit.
+   * @param maxInMessages Maximum number of incoming messages, or 0 for no
+   *        limit.
+   * @param maxOutMessages Maximum number of messages sent to single vertices,
+   *        or 0 for no limit.
+   */
+  public void setCaptureLimits(int maxNeighbors, int maxInMessages,
+    int maxOutMessages) {
+    this.maxNeighbors = maxNeighbors;
+    this.maxInMessages = maxInMessages;
+    this.maxOutMessages = maxOutMessages;
+  }
+
+  /**
+   * Starts measuring a new scenario.
+   *
+   * @param vertexId The id of the vertex.
+   * @param vertexValueBefore The value of the vertex before compute(), or
+   *        null.
+   * @param edges The edges of the vertex.
+   * @param inMessages The incoming messages of the vertex.
+   * @throws IOException
+   */
+  public void begin(I vertexId, V vertexValueBefore,
+    Iterable<Edge<I, E>> edges, Iterable<M1> inMessages) throws IOException {
+    numOutMessages = 0;
+    outMessagesLength = 0;
+    contextLength = VertexScenarioEncoder.fieldLength(
+      VertexContext.VERTEXID_FIELD_NUMBER, output.measure(vertexId));
+    if (vertexValueBefore != null) {
+      contextLength += VertexScenarioEncoder.fieldLength(
+        VertexContext.VERTEXVALUEBEFORE_FIELD_NUMBER,
+        output.measure(vertexValueBefore));
+    }
+    long numNeighbors = 0;
+    long neighborsLength = 0;
+    for (Edge<I, E> edge : edges) {
+      numNeighbors++;
+      if (maxNeighbors > 0 && numNeighbors > maxNeighbors) {
+        continue;
+      }
+      int neighborLength = VertexScenarioEncoder.fieldLength(
+        Neighbor.NEIGHBORID_FIELD_NUMBER,
+        output.measure(edge.getTargetVertexId()));
+      if (edge.getValue() != null) {
+        neighborLength += VertexScenarioEncoder.fieldLength(
+          Neighbor.EDGEVALUE_FIELD_NUMBER, output.measure(edge.getValue()));
+      }
+      neighborsLength += VertexScenarioEncoder.fieldLength(
+        VertexContext.NEIGHBOR_FIELD_NUMBER, neighborLength);
+    }
+    contextLength += neighborsLength + summaryLength(numNeighbors,
+      maxNeighbors, neighborsLength);
+    long numInMessages = 0;
+    long inMessagesLength = 0;
+    for (M1 message : inMessages) {
+      numInMessages++;
+      if (maxInMessages > 0 && numInMessages > maxInMessages) {
+        continue;
+      }
+      inMessagesLength += VertexScenarioEncoder.fieldLength(
+        VertexContext.INMESSAGE_FIELD_NUMBER, output.measure(message));
+    }
+    contextLength += inMessagesLength + summaryLength(numInMessages,
+      maxInMessages, inMessagesLength);
+  }
+
+  /**
+   * Counts a message sent by the vertex.
+   *
+   * @param destinationId The id of the vertex the message is sent to.
+   * @param message The message.
+   */
+  public void addOutgoingMessage(I destinationId, M2 message) {
+    numOutMessages++;
+    if (maxOutMessages > 0 && numOutMessages > maxOutMessages) {
+      return;
+    }
+    try {
+      outMessagesLength += VertexScenarioEncoder.fieldLength(
+        VertexContext.OUTMESSAGE_FIELD_NUMBER,
+        VertexScenarioEncoder.fieldLength(
+          OutgoingMessage.DESTINATIONID_FIELD_NUMBER,
+          output.measure(destinationId)) +
+        VertexScenarioEncoder.fieldLength(
+          OutgoingMessage.MSGDATA_FIELD_NUMBER, output.measure(message)));
+    } catch (IOException e) {
+      // Called from sendMessage(), which cannot throw an IOException.
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Counts a message sent by the vertex to all of its neighbors, which is
+   * stored once.
+   *
+   * @param message The message.
+   */
+  public void addBroadcastMessage(M2 message) {
+    try {
+      contextLength += VertexScenarioEncoder.fieldLength(
+        VertexContext.BROADCASTMESSAGE_FIELD_NUMBER, output.measure(message));
+    } catch (IOException e) {
+      // Called from sendMessageToAllEdges(), which cannot throw an
+      // IOException.
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Finishes measuring the scenario in progress.
+   *
+   * @param commonContext The context common to vertices and the master.
+   * @param vertexValueAfter The value of the vertex after compute(), or
+   *        null.
+   * @return The estimated number of bytes of the encoded scenario.
+   * @throws IOException
+   */
+  public long finish(CommonVertexMasterContext commonContext,
+    V vertexValueAfter) throws IOException {
+    long length = contextLength + outMessagesLength + summaryLength(
+      numOutMessages, maxOutMessages, outMessagesLength) +
+      VertexScenarioEncoder.fieldLength(
+        VertexContext.COMMONCONTEXT_FIELD_NUMBER,
+        commonContext.getSerializedSize());
+    if (vertexValueAfter != null) {
+      length += VertexScenarioEncoder.fieldLength(
+        VertexContext.VERTEXVALUEAFTER_FIELD_NUMBER,
+        output.measure(vertexValueAfter));
+    }
+    return VertexScenarioEncoder.fieldLength(
+      GiraphVertexScenario.VERTEXSCENARIOCLASSES_FIELD_NUMBER,
+      vertexScenarioClassesLength) + VertexScenarioEncoder.fieldLength(
+        GiraphVertexScenario.CONTEXT_FIELD_NUMBER,
+        (int) Math.min(length, Integer.MAX_VALUE));
+  }
+
+  /**
+   * @param count Number of elements of a list.
+   * @param maxSize Maximum number of elements stored, or 0 for no limit.
+   * @param storedLength Number of bytes of the stored elements.
+   * @return The estimated number of bytes of the summary of the list, or 0
+   *         if it is stored whole.
+   */
+  private static long summaryLength(long count, int maxSize,
+    long storedLength) {
+    if (maxSize <= 0 || count <= maxSize) {
+      return 0;
+    }
+    return SUMMARY_HEADER_BYTES + 2 * storedLength / maxSize;
+  }
+
+  /**
+   * A data output that counts the bytes written to it and discards them.
+   */
+  private static final class CountingOutput extends DataOutputStream {
+    /**
+     * Constructor.
+     */
+    private CountingOutput() {
+      super(new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+      });
+    }
+
+    /**
+     * @param writable A writable.
+     * @return The number of bytes of the writable serialized.
+     * @throws IOException
+     */
+    private int measure(Writable writable) throws IOException {
+      written = 0;
+      writable.write(this);
+      return written;
+    }
+  }
+}
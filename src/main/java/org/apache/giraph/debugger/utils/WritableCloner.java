@@ -0,0 +1,365 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.utils;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Clones {@link Writable} objects without allocating anything but the clone.
+ * Instances are created through a constructor handle looked up once per
+ * class, and contents are copied through buffers reused by each thread, or
+ * without serializing at all for the common Hadoop types. Clones can also be
+ * taken from a {@link Pool} of objects that are no longer used, in which case
+ * nothing is allocated.
+ */
+public final class WritableCloner {
+  /**
+   * Initial size of the buffers of each thread.
+   */
+  private static final int INITIAL_BUFFER_SIZE = 256;
+
+  /**
+   * Copiers of the classes cloned so far.
+   */
+  private static final ConcurrentHashMap<Class<?>, Copier<?>> COPIERS =
+    new ConcurrentHashMap<>();
+
+  /**
+   * Buffers for copying through serialization, one pair per thread.
+   */
+  private static final ThreadLocal<Buffers> BUFFERS =
+    new ThreadLocal<Buffers>() {
+      @Override
+      protected Buffers initialValue() {
+        return new Buffers();
+      }
+    };
+
+  static {
+    COPIERS.put(LongWritable.class, new Copier<LongWritable>() {
+      @Override
+      public LongWritable newInstance() {
+        return new LongWritable();
+      }
+
+      @Override
+      public void copy(LongWritable source, LongWritable target) {
+        target.set(source.get());
+      }
+    });
+    COPIERS.put(IntWritable.class, new Copier<IntWritable>() {
+      @Override
+      public IntWritable newInstance() {
+        return new IntWritable();
+      }
+
+      @Override
+      public void copy(IntWritable source, IntWritable target) {
+        target.set(source.get());
+      }
+    });
+    COPIERS.put(DoubleWritable.class, new Copier<DoubleWritable>() {
+      @Override
+      public DoubleWritable newInstance() {
+        return new DoubleWritable();
+      }
+
+      @Override
+      public void copy(DoubleWritable source, DoubleWritable target) {
+        target.set(source.get());
+      }
+    });
+    COPIERS.put(FloatWritable.class, new Copier<FloatWritable>() {
+      @Override
+      public FloatWritable newInstance() {
+        return new FloatWritable();
+      }
+
+      @Override
+      public void copy(FloatWritable source, FloatWritable target) {
+        target.set(source.get());
+      }
+    });
+    COPIERS.put(Text.class, new Copier<Text>() {
+      @Override
+      public Text newInstance() {
+        return new Text();
+      }
+
+      @Override
+      public void copy(Text source, Text target) {
+        target.set(source.getBytes(), 0, source.getLength());
+      }
+    });
+    COPIERS.put(NullWritable.class, new Copier<NullWritable>() {
+      @Override
+      public NullWritable newInstance() {
+        return NullWritable.get();
+      }
+
+      @Override
+      public void copy(NullWritable source, NullWritable target) {
+      }
+    });
+  }
+
+  /**
+   * Not for instantiation.
+   */
+  private WritableCloner() {
+  }
+
+  /**
+   * Instantiates a new object of the given class through its no-argument
+   * constructor.
+   *
+   * @param <T> The type of the new instance.
+   * @param clazz The class of the new instance.
+   * @return The new instance, or the singleton for {@link NullWritable}.
+   */
+  public static <T> T newInstance(Class<T> clazz) {
+    return getCopier(clazz).newInstance();
+  }
+
+  /**
+   * Makes a clone of a writable object.
+   *
+   * @param <T> The type of the object.
+   * @param source The object to clone.
+   * @param clazz The class of the object.
+   * @return The clone.
+   */
+  public static <T extends Writable> T cloneOf(T source, Class<T> clazz) {
+    return cloneOf(source, clazz, null);
+  }
+
+  /**
+   * Makes a clone of a writable object, reusing an object of the given pool
+   * if there is one.
+   *
+   * @param <T> The type of the object.
+   * @param source The object to clone.
+   * @param clazz The class of the object.
+   * @param pool The pool to take the clone from, or null.
+   * @return The clone.
+   */
+  public static <T extends Writable> T cloneOf(T source, Class<T> clazz,
+    Pool<T> pool) {
+    Copier<T> copier = getCopier(clazz);
+    T target = pool == null ? null : pool.take();
+    if (target == null) {
+      target = copier.newInstance();
+    }
+    copier.copy(source, target);
+    return target;
+  }
+
+  /**
+   * Overwrites the contents of a writable object with those of another one of
+   * the same class.
+   *
+   * @param <T> The type of the objects.
+   * @param source The object to copy.
+   * @param target The object to overwrite.
+   * @param clazz The class of the objects.
+   */
+  public static <T extends Writable> void copy(T source, T target,
+    Class<T> clazz) {
+    getCopier(clazz).copy(source, target);
+  }
+
+  /**
+   * Returns the copier of a class, creating it if this is the first object
+   * of the class to be cloned.
+   *
+   * @param <T> The type of the class.
+   * @param clazz The class.
+   * @return The copier of the class.
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> Copier<T> getCopier(Class<T> clazz) {
+    Copier<T> copier = (Copier<T>) COPIERS.get(clazz);
+    if (copier == null) {
+      copier = new SerializingCopier<>(clazz);
+      Copier<T> existing = (Copier<T>) COPIERS.putIfAbsent(clazz, copier);
+      if (existing != null) {
+        copier = existing;
+      }
+    }
+    return copier;
+  }
+
+  /**
+   * Creates and copies the objects of a single class.
+   *
+   * @param <T> The type of the class.
+   */
+  private interface Copier<T> {
+    /**
+     * @return A new object of the class.
+     */
+    T newInstance();
+
+    /**
+     * Overwrites the contents of an object with those of another one.
+     *
+     * @param source The object to copy.
+     * @param target The object to overwrite.
+     */
+    void copy(T source, T target);
+  }
+
+  /**
+   * Copies objects of any writable class by serializing them.
+   *
+   * @param <T> The type of the class.
+   */
+  private static class SerializingCopier<T> implements Copier<T> {
+    /**
+     * The class of the objects.
+     */
+    private final Class<T> clazz;
+    /**
+     * Handle of the no-argument constructor of the class, typed as returning
+     * an Object so that it can be invoked exactly.
+     */
+    private final MethodHandle constructor;
+
+    /**
+     * Constructor.
+     *
+     * @param clazz The class of the objects.
+     */
+    public SerializingCopier(Class<T> clazz) {
+      this.clazz = clazz;
+      try {
+        Constructor<T> noArgConstructor = clazz.getDeclaredConstructor();
+        noArgConstructor.setAccessible(true);
+        this.constructor = MethodHandles.lookup().unreflectConstructor(
+          noArgConstructor).asType(MethodType.methodType(Object.class));
+      } catch (NoSuchMethodException | IllegalAccessException e) {
+        throw new IllegalArgumentException("Cannot instantiate " +
+          clazz.getName(), e);
+      }
+    }
+
+    @Override
+    public T newInstance() {
+      // CHECKSTYLE: stop IllegalCatch
+      try {
+        return clazz.cast((Object) constructor.invokeExact());
+      } catch (Throwable e) {
+        throw new IllegalStateException("Cannot instantiate " +
+          clazz.getName(), e);
+      }
+      // CHECKSTYLE: resume IllegalCatch
+    }
+
+    @Override
+    public void copy(T source, T target) {
+      Buffers buffers = BUFFERS.get();
+      try {
+        buffers.output.reset();
+        ((Writable) source).write(buffers.output);
+        buffers.input.reset(buffers.output.getData(),
+          buffers.output.getLength());
+        ((Writable) target).readFields(buffers.input);
+      } catch (IOException e) {
+        // Callers such as sendMessage() implement Giraph interfaces that do
+        // not allow throwing an IOException.
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * Buffers a thread copies objects through.
+   */
+  private static class Buffers {
+    /**
+     * Holds the serialized object.
+     */
+    private final DataOutputBuffer output = new DataOutputBuffer(
+      INITIAL_BUFFER_SIZE);
+    /**
+     * Reads the serialized object into the copy.
+     */
+    private final DataInputBuffer input = new DataInputBuffer();
+  }
+
+  /**
+   * Objects that are no longer used and can be overwritten by clones. Not
+   * thread-safe: each thread that clones into a pool should have its own.
+   *
+   * @param <T> The type of the objects.
+   */
+  public static class Pool<T extends Writable> {
+    /**
+     * Maximum number of objects kept.
+     */
+    private final int capacity;
+    /**
+     * The objects kept.
+     */
+    private final ArrayDeque<T> objects = new ArrayDeque<>();
+
+    /**
+     * Constructor.
+     *
+     * @param capacity Maximum number of objects to keep.
+     */
+    public Pool(int capacity) {
+      this.capacity = capacity;
+    }
+
+    /**
+     * @return An object that is no longer used, or null if there is none.
+     */
+    public T take() {
+      return objects.pollLast();
+    }
+
+    /**
+     * Returns an object that is no longer used to the pool, unless the pool
+     * is full.
+     *
+     * @param object The object.
+     */
+    public void release(T object) {
+      if (object != null && objects.size() < capacity) {
+        objects.addLast(object);
+      }
+    }
+  }
+}
@@ -413,6 +413,7 @@ Editor.prototype.keyup = function() {
  *                    receiverId2: "message2",
  *                    ...
  *                  },
+ *            broadcastMessages : [ "message1", "message2" ]
  *            incomingMessages : [ "message1", "message2" ]
  *            enabled : true/false
  *          }
@@ -469,6 +470,8 @@ Editor.prototype.updateGraphData = function(scenario) {
         }
 
         var outgoingMessages = scenario[nodeId]['outgoingMessages'];
+        var broadcastMessages = scenario[nodeId]['broadcastMessages'];
+        var neighbors = scenario[nodeId]['neighbors'];
         var incomingMessages = scenario[nodeId]['incomingMessages'];
 
         // Build this.messages
@@ -483,6 +486,20 @@ Editor.prototype.updateGraphData = function(scenario) {
             }
         }
 
+        // Broadcast messages are sent to every neighbor.
+        if (broadcastMessages && neighbors) {
+            for (var i = 0; i < broadcastMessages.length; i++) {
+                for (var j = 0; j < neighbors.length; j++) {
+                    this.messages.push({ 
+                        sender: node,
+                        receiver: this.getNodeWithId(neighbors[j]['neighborId'].toString()),
+                        message: broadcastMessages[i],
+                        outgoing : true
+                    });
+                }
+            }
+        }
+
         if (incomingMessages) {
             for (var i = 0; i < incomingMessages.length; i++) {
               var incomingMessage = incomingMessages[i];
@@ -649,11 +649,14 @@ Editor.prototype.restartTable = function() {
     for (var nodeId in this.currentScenario) {
         var dataRow = {};
         var scenario = this.currentScenario[nodeId];
+        var broadcastMessages = scenario.broadcastMessages ? scenario.broadcastMessages : [];
         dataRow.vertexId = nodeId;
         dataRow.vertexValue = scenario.vertexValue ? scenario.vertexValue : '-',
         dataRow.outgoingMessages = { 
-            numOutgoingMessages : Utils.count(scenario.outgoingMessages), 
-            data : scenario.outgoingMessages
+            numOutgoingMessages : Utils.count(scenario.outgoingMessages) +
+                broadcastMessages.length * Utils.count(scenario.neighbors), 
+            data : scenario.outgoingMessages,
+            broadcastData : broadcastMessages
         },
         dataRow.incomingMessages = { 
             numIncomingMessages : Utils.count(scenario.incomingMessages), 
@@ -696,6 +699,10 @@ Editor.prototype.restartTable = function() {
                     for (var receiverId in outgoingMessages) {
                         $(mainTable).append("<tr><td>{0}</td><td>{1}</td></tr>".format(receiverId, outgoingMessages[receiverId]));
                     }
+                    var broadcastMessages = rowData.outgoingMessages.broadcastData;
+                    for (var i = 0; i < broadcastMessages.length; i++) {
+                        $(mainTable).append("<tr><td>{0}</td><td>{1}</td></tr>".format('All neighbors', broadcastMessages[i]));
+                    }
                     $(mainTable).DataTable();
                 } else if (tabName === 'incomingMessages') {
                     var mainTable = $('<table><thead><th>Incoming Message</th></thead></table>')
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.instrumenter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.giraph.debugger.instrumenter.OverheadBudget.SuperstepOverhead;
+import org.junit.Test;
+
+/**
+ * Tests that {@link OverheadBudget} throttles capture to the level at which
+ * the overhead fits the budget.
+ */
+public class OverheadBudgetTest {
+  /**
+   * Nanoseconds compute() takes for a vertex without interception.
+   */
+  private static final long COMPUTE_NANOS = 1000;
+  /**
+   * Nanoseconds intercepting a vertex takes when it is not captured.
+   */
+  private static final long SKIP_NANOS = 10;
+
+  /**
+   * Intercepts vertices the way a compute thread does, timing one in
+   * {@link OverheadBudget#TIMING_INTERVAL} of them.
+   *
+   * @param overhead The overhead of the superstep.
+   * @param firstSeq Sequence number of the first vertex.
+   * @param numVertices Number of vertices to intercept.
+   * @param captureNanos Nanoseconds intercepting a captured vertex takes.
+   */
+  private static void intercept(SuperstepOverhead overhead, long firstSeq,
+    long numVertices, long captureNanos) {
+    for (long seq = firstSeq; seq < firstSeq + numVertices; seq++) {
+      boolean isAdmitted = overhead.admits(seq);
+      if (OverheadBudget.isTimedVertex(seq)) {
+        long interceptNanos = isAdmitted ? captureNanos : SKIP_NANOS;
+        overhead.vertexTimed(interceptNanos, COMPUTE_NANOS + interceptNanos);
+      }
+    }
+  }
+
+  @Test
+  public void testTimedVerticesRepresentAdmission() {
+    // Any 2^level consecutive timed vertices include exactly one that
+    // SuperstepOverhead.admits(long) admits at the level.
+    for (int level = 0; level <= 10; level++) {
+      long mask = (1L << level) - 1;
+      for (long start = 0; start < 4; start++) {
+        int numAdmitted = 0;
+        for (long i = start; i < start + (1L << level); i++) {
+          long seq = i * OverheadBudget.TIMING_INTERVAL;
+          assertTrue(OverheadBudget.isTimedVertex(seq));
+          if ((seq & mask) == 0) {
+            numAdmitted++;
+          }
+        }
+        assertEquals("level " + level, 1, numAdmitted);
+      }
+    }
+  }
+
+  @Test
+  public void testSettlesWhereFractionIsMet() {
+    // Capturing every vertex doubles its time. Capturing one in 8 costs
+    // 11.8% of compute(), one in 16 costs 6.7%.
+    SuperstepOverhead overhead = new OverheadBudget(0.1, 0).forSuperstep(0);
+    intercept(overhead, 0, 100000, COMPUTE_NANOS);
+    assertEquals(4, overhead.getThrottleLevel());
+    intercept(overhead, 100000, 1000000, COMPUTE_NANOS);
+    assertEquals(4, overhead.getThrottleLevel());
+    assertEquals(1.0 / 16, overhead.getCaptureRate(), 0);
+  }
+
+  @Test
+  public void testSettlesAtHighLevel() {
+    // Capturing one in 128 vertices costs 13.5% of compute(), one in 256
+    // costs 8.1%.
+    SuperstepOverhead overhead = new OverheadBudget(0.1, 0).forSuperstep(0);
+    intercept(overhead, 0, 2000000, 20 * COMPUTE_NANOS);
+    assertEquals(8, overhead.getThrottleLevel());
+    assertFalse(overhead.isStopped());
+  }
+
+  @Test
+  public void testNoThrottleWithinBudget() {
+    SuperstepOverhead overhead = new OverheadBudget(0.5, 0).forSuperstep(0);
+    intercept(overhead, 0, 100000, COMPUTE_NANOS / 2);
+    assertEquals(0, overhead.getThrottleLevel());
+    assertEquals(1.0, overhead.getCaptureRate(), 0);
+  }
+
+  @Test
+  public void testNextSuperstepStartsOneLevelLower() {
+    OverheadBudget budget = new OverheadBudget(0.1, 0);
+    intercept(budget.forSuperstep(0), 0, 100000, COMPUTE_NANOS);
+    assertEquals(3, budget.forSuperstep(1).getThrottleLevel());
+  }
+
+  @Test
+  public void testStopsWhenOutOfBytes() {
+    SuperstepOverhead overhead = new OverheadBudget(0, 100).forSuperstep(0);
+    overhead.traceBytesSaved(100);
+    assertTrue(overhead.admits(0));
+    overhead.traceBytesSaved(1);
+    assertTrue(overhead.isStopped());
+    assertFalse(overhead.admits(0));
+    assertEquals(0, overhead.getCaptureRate(), 0);
+  }
+}
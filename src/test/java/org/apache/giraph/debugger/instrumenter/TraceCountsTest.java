@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.instrumenter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.giraph.debugger.utils.DebuggerUtils.DebugTrace;
+import org.junit.Test;
+
+/**
+ * Tests the counts and the size histogram of {@link TraceCounts}.
+ */
+public class TraceCountsTest {
+  @Test
+  public void testSizeBuckets() {
+    assertEquals(0, TraceCounts.getSizeBucket(0));
+    assertEquals(1, TraceCounts.getSizeBucket(1));
+    assertEquals(2, TraceCounts.getSizeBucket(2));
+    assertEquals(2, TraceCounts.getSizeBucket(3));
+    assertEquals(11, TraceCounts.getSizeBucket(1024));
+    assertEquals(11, TraceCounts.getSizeBucket(2047));
+    assertEquals(TraceCounts.NUM_SIZE_BUCKETS - 1,
+      TraceCounts.getSizeBucket(1L << 23));
+    assertEquals(TraceCounts.NUM_SIZE_BUCKETS - 1,
+      TraceCounts.getSizeBucket(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testCountsAndClear() {
+    TraceCounts traceCounts = new TraceCounts();
+    assertTrue(traceCounts.isEmpty());
+    traceCounts.traceCaptured(DebugTrace.VERTEX_REGULAR, 100);
+    traceCounts.traceCaptured(DebugTrace.VERTEX_REGULAR, 120);
+    traceCounts.traceCaptured(DebugTrace.INTEGRITY_MESSAGE_SINGLE_VERTEX,
+      5000);
+    assertEquals(2, traceCounts.getNumTraces(DebugTrace.VERTEX_REGULAR));
+    assertEquals(220, traceCounts.getNumBytes(DebugTrace.VERTEX_REGULAR));
+    assertEquals(2, traceCounts.getNumTracesOfSize(7));
+    assertEquals(1, traceCounts.getNumTracesOfSize(13));
+    traceCounts.clear();
+    assertTrue(traceCounts.isEmpty());
+    assertEquals(0, traceCounts.getNumTracesOfSize(7));
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.instrumenter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link ViolationRateEstimate} against known Wilson score intervals.
+ */
+public class ViolationRateEstimateTest {
+  /**
+   * Tolerance of the compared bounds.
+   */
+  private static final double DELTA = 1e-4;
+
+  @Test
+  public void testNothingChecked() {
+    ViolationRateEstimate estimate = new ViolationRateEstimate(0, 0);
+    assertEquals(0, estimate.getRate(), 0);
+    assertEquals(0, estimate.getLowerBound(), 0);
+    assertEquals(1, estimate.getUpperBound(), 0);
+  }
+
+  @Test
+  public void testNoViolations() {
+    ViolationRateEstimate estimate = new ViolationRateEstimate(100, 0);
+    assertEquals(0, estimate.getRate(), 0);
+    assertEquals(0, estimate.getLowerBound(), DELTA);
+    // z^2 / (n + z^2)
+    assertEquals(0.0370, estimate.getUpperBound(), DELTA);
+  }
+
+  @Test
+  public void testSomeViolations() {
+    ViolationRateEstimate estimate = new ViolationRateEstimate(100, 10);
+    assertEquals(0.1, estimate.getRate(), 0);
+    assertEquals(0.0552, estimate.getLowerBound(), DELTA);
+    assertEquals(0.1744, estimate.getUpperBound(), DELTA);
+  }
+
+  @Test
+  public void testAllViolations() {
+    ViolationRateEstimate estimate = new ViolationRateEstimate(50, 50);
+    assertEquals(1, estimate.getRate(), 0);
+    // n / (n + z^2)
+    assertEquals(0.9287, estimate.getLowerBound(), DELTA);
+    assertEquals(1, estimate.getUpperBound(), 0);
+  }
+
+  @Test
+  public void testNarrowsWithMoreChecks() {
+    ViolationRateEstimate small = new ViolationRateEstimate(100, 5);
+    ViolationRateEstimate large = new ViolationRateEstimate(10000, 500);
+    assertTrue(large.getLowerBound() > small.getLowerBound());
+    assertTrue(large.getUpperBound() < small.getUpperBound());
+    assertTrue(large.getLowerBound() < 0.05 && 0.05 < large.getUpperBound());
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.selection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Test;
+
+/**
+ * Tests {@link ExternalLongIdSorter}.
+ */
+public class ExternalLongIdSorterTest {
+  /**
+   * Sorts shuffled ids with duplicates across many runs.
+   *
+   * @throws IOException
+   */
+  @Test
+  public void testMergesRuns() throws IOException {
+    ExternalLongIdSorter sorter = new ExternalLongIdSorter(100);
+    Random random = new Random(42);
+    long[] ids = new long[2000];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = 3L * i - 1000;
+    }
+    for (int i = ids.length - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      long id = ids[i];
+      ids[i] = ids[j];
+      ids[j] = id;
+    }
+    for (long id : ids) {
+      sorter.add(id);
+      sorter.add(id);
+    }
+    MappedLongVertexIdSet set = sorter.sort();
+    assertEquals(ids.length, set.size());
+    for (int i = 0; i < ids.length; i++) {
+      assertTrue(set.contains(new LongWritable(3L * i - 1000)));
+      assertFalse(set.contains(new LongWritable(3L * i - 999)));
+    }
+  }
+
+  /**
+   * Sorts no ids.
+   *
+   * @throws IOException
+   */
+  @Test
+  public void testEmpty() throws IOException {
+    MappedLongVertexIdSet set = new ExternalLongIdSorter(100).sort();
+    assertEquals(0, set.size());
+    assertFalse(set.contains(new LongWritable(0)));
+  }
+}
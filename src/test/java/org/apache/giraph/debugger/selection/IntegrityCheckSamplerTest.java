@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.selection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.giraph.debugger.selection.IntegrityCheckSampler.Method;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Test;
+
+/**
+ * Tests {@link IntegrityCheckSampler}.
+ */
+public class IntegrityCheckSamplerTest {
+  /**
+   * Number of vertices sampled in each test.
+   */
+  private static final int NUM_VERTICES = 100000;
+
+  /**
+   * Samples the values of vertices 0 to {@link #NUM_VERTICES} - 1.
+   *
+   * @param sampler The sampler.
+   * @param superstepNo The superstep number.
+   * @return Whether each value was sampled.
+   */
+  private static boolean[] sampleVertexValues(IntegrityCheckSampler sampler,
+    long superstepNo) {
+    sampler.beginSuperstep(superstepNo);
+    boolean[] isSampled = new boolean[NUM_VERTICES];
+    for (int i = 0; i < NUM_VERTICES; i++) {
+      sampler.beginVertex(new LongWritable(i));
+      isSampled[i] = sampler.sampleVertexValue();
+    }
+    return isSampled;
+  }
+
+  /**
+   * @param isSampled Whether each value was sampled.
+   * @return The number of values sampled.
+   */
+  private static int count(boolean[] isSampled) {
+    int numSampled = 0;
+    for (boolean b : isSampled) {
+      numSampled += b ? 1 : 0;
+    }
+    return numSampled;
+  }
+
+  @Test
+  public void testRejectsRateOutOfRange() {
+    try {
+      new IntegrityCheckSampler(Method.HASH, 1.5, 0);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testStratifiedSamplesOneInEveryStratum() {
+    boolean[] isSampled = sampleVertexValues(
+      new IntegrityCheckSampler(Method.STRATIFIED, 0.25, 0), 0);
+    for (int i = 0; i + 4 <= NUM_VERTICES; i += 4) {
+      int numSampled = 0;
+      for (int j = i; j < i + 4; j++) {
+        numSampled += isSampled[j] ? 1 : 0;
+      }
+      assertEquals(1, numSampled);
+    }
+  }
+
+  @Test
+  public void testBernoulliRate() {
+    boolean[] isSampled = sampleVertexValues(
+      new IntegrityCheckSampler(Method.BERNOULLI, 0.1, 0), 0);
+    assertEquals(0.1, (double) count(isSampled) / NUM_VERTICES, 0.01);
+  }
+
+  @Test
+  public void testHashIsRepeatable() {
+    boolean[] isSampled = sampleVertexValues(
+      new IntegrityCheckSampler(Method.HASH, 0.1, 42), 3);
+    assertEquals(0.1, (double) count(isSampled) / NUM_VERTICES, 0.01);
+    boolean[] isSampledAgain = sampleVertexValues(
+      new IntegrityCheckSampler(Method.HASH, 0.1, 42), 3);
+    boolean[] isSampledNextSuperstep = sampleVertexValues(
+      new IntegrityCheckSampler(Method.HASH, 0.1, 42), 4);
+    int numDifferent = 0;
+    for (int i = 0; i < NUM_VERTICES; i++) {
+      assertEquals(isSampled[i], isSampledAgain[i]);
+      numDifferent += isSampled[i] != isSampledNextSuperstep[i] ? 1 : 0;
+    }
+    // Each superstep samples different vertices.
+    assertTrue(numDifferent > NUM_VERTICES / 10);
+  }
+
+  @Test
+  public void testHashSamplesMessagesByDestination() {
+    IntegrityCheckSampler sampler = new IntegrityCheckSampler(Method.HASH,
+      0.5, 7);
+    sampler.beginSuperstep(0);
+    sampler.beginVertex(new LongWritable(1));
+    int numSampled = 0;
+    for (int i = 0; i < NUM_VERTICES; i++) {
+      boolean isSampled = sampler.sampleMessage(new LongWritable(i));
+      assertEquals(isSampled, sampler.sampleMessage(new LongWritable(i)));
+      numSampled += isSampled ? 1 : 0;
+    }
+    assertEquals(0.5, (double) numSampled / NUM_VERTICES, 0.01);
+  }
+
+  @Test
+  public void testExtremeRates() {
+    for (Method method : Method.values()) {
+      assertEquals(0, count(sampleVertexValues(
+        new IntegrityCheckSampler(method, 0, 0), 0)));
+      assertEquals(NUM_VERTICES, count(sampleVertexValues(
+        new IntegrityCheckSampler(method, 1, 0), 0)));
+      IntegrityCheckSampler sampler = new IntegrityCheckSampler(method, 0,
+        0);
+      sampler.beginSuperstep(0);
+      sampler.beginVertex(new LongWritable(0));
+      assertFalse(sampler.sampleBroadcast());
+    }
+  }
+}
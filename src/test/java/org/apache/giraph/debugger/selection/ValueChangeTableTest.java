@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.selection;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link ValueChangeTable}.
+ */
+public class ValueChangeTableTest {
+  /**
+   * Returns the previous change of a vertex.
+   */
+  @Test
+  public void testRecordsLastChange() {
+    ValueChangeTable table = new ValueChangeTable(16);
+    assertEquals(-1, table.recordChange(0x1234567800000003L, 0));
+    assertEquals(0, table.recordChange(0x1234567800000003L, 5));
+    assertEquals(5, table.recordChange(0x1234567800000003L, 7));
+    assertEquals(-1, table.recordChange(0x1234567800000004L, 7));
+  }
+
+  /**
+   * Forgets a vertex whose slot was taken over by another one.
+   */
+  @Test
+  public void testCollisionForgetsChange() {
+    ValueChangeTable table = new ValueChangeTable(16);
+    assertEquals(-1, table.recordChange(0x1111111100000003L, 2));
+    assertEquals(-1, table.recordChange(0x2222222200000013L, 3));
+    assertEquals(-1, table.recordChange(0x1111111100000003L, 4));
+    assertEquals(4, table.recordChange(0x1111111100000003L, 6));
+  }
+}
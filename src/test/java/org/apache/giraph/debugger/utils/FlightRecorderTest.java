@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link FlightRecorder}. Ids fingerprinted to small numbers all fall
+ * in the first ring, which holds 1/16 of the bytes of the recorder.
+ */
+public class FlightRecorderTest {
+  /**
+   * Number of bytes of the header the recorder keeps with each scenario.
+   */
+  private static final int HEADER_BYTES = 28;
+  /**
+   * Number of bytes of each ring of the recorders under test.
+   */
+  private static final int RING_BYTES = 200;
+
+  /**
+   * @param numBytes Number of bytes the scenario takes in a ring, header
+   *        included.
+   * @param fill The value of every byte of the scenario.
+   * @return A scenario.
+   */
+  private static byte[] scenario(int numBytes, int fill) {
+    byte[] scenario = new byte[numBytes - HEADER_BYTES];
+    Arrays.fill(scenario, (byte) fill);
+    return scenario;
+  }
+
+  /**
+   * Asserts that a history holds the given scenarios of the given
+   * supersteps.
+   *
+   * @param history The history.
+   * @param superstepNos The expected supersteps, oldest first.
+   * @param scenarios The expected scenarios, oldest first.
+   */
+  private static void assertHistory(List<FlightRecorder.Entry> history,
+    long[] superstepNos, byte[]... scenarios) {
+    assertEquals(superstepNos.length, history.size());
+    for (int i = 0; i < superstepNos.length; i++) {
+      assertEquals(superstepNos[i], history.get(i).getSuperstepNo());
+      assertArrayEquals(scenarios[i], history.get(i).getScenario());
+    }
+  }
+
+  @Test
+  public void testTakesHistoryOnce() {
+    FlightRecorder recorder = new FlightRecorder(16 * RING_BYTES, 2);
+    byte[] s0 = scenario(40, 0);
+    byte[] s1 = scenario(40, 1);
+    byte[] s2 = scenario(40, 2);
+    recorder.record(1, 0, s0);
+    recorder.record(1, 1, s1);
+    recorder.record(1, 2, s2);
+    assertHistory(recorder.takeHistory(1, 3), new long[] {1, 2}, s1, s2);
+    assertTrue(recorder.takeHistory(1, 3).isEmpty());
+  }
+
+  @Test
+  public void testKeepsSuperstepsAtOrAfterAnomaly() {
+    FlightRecorder recorder = new FlightRecorder(16 * RING_BYTES, 5);
+    byte[][] scenarios = new byte[4][];
+    for (int i = 0; i < scenarios.length; i++) {
+      scenarios[i] = scenario(40, i);
+      recorder.record(1, i, scenarios[i]);
+    }
+    assertHistory(recorder.takeHistory(1, 2), new long[] {0, 1},
+      scenarios[0], scenarios[1]);
+    // The scenarios of the anomaly's superstep and after stay for a later
+    // anomaly, without the ones taken already.
+    assertHistory(recorder.takeHistory(1, 4), new long[] {2, 3},
+      scenarios[2], scenarios[3]);
+    assertTrue(recorder.takeHistory(1, 5).isEmpty());
+  }
+
+  @Test
+  public void testEvictsOldestOfChain() {
+    FlightRecorder recorder = new FlightRecorder(16 * RING_BYTES, 10);
+    byte[] a0 = scenario(50, 1);
+    byte[] b0 = scenario(50, 2);
+    byte[] a1 = scenario(50, 3);
+    byte[] b1 = scenario(50, 4);
+    recorder.record(1, 0, a0);
+    recorder.record(2, 0, b0);
+    recorder.record(1, 1, a1);
+    recorder.record(2, 1, b1);
+    // The ring is full, so this drops a0, the end of the chain of vertex 1.
+    recorder.record(3, 1, scenario(50, 5));
+    assertHistory(recorder.takeHistory(1, 2), new long[] {1}, a1);
+    // These drop b0, the taken a1 and b1, the latest of vertex 2.
+    recorder.record(3, 2, scenario(50, 6));
+    recorder.record(3, 3, scenario(50, 7));
+    recorder.record(3, 4, scenario(50, 8));
+    assertTrue(recorder.takeHistory(2, 5).isEmpty());
+    assertEquals(4, recorder.takeHistory(3, 5).size());
+  }
+
+  @Test
+  public void testWrapsAroundUnusedEndWithHeader() {
+    FlightRecorder recorder = new FlightRecorder(16 * RING_BYTES, 10);
+    // Fill the ring with bytes that read as a large length.
+    recorder.record(1, 0, scenario(RING_BYTES, 0x7f));
+    recorder.record(2, 0, scenario(90, 2));
+    // Does not fit in the 110 bytes left at the end, so this empties the
+    // ring and starts over at the beginning.
+    byte[] c0 = scenario(150, 3);
+    recorder.record(3, 0, c0);
+    byte[] d0 = scenario(40, 4);
+    recorder.record(4, 0, d0);
+    assertHistory(recorder.takeHistory(3, 1), new long[] {0}, c0);
+    assertHistory(recorder.takeHistory(4, 1), new long[] {0}, d0);
+    assertTrue(recorder.takeHistory(1, 1).isEmpty());
+    assertTrue(recorder.takeHistory(2, 1).isEmpty());
+  }
+
+  @Test
+  public void testWrapsAroundUnusedEndWithoutHeader() {
+    FlightRecorder recorder = new FlightRecorder(16 * RING_BYTES, 10);
+    recorder.record(1, 0, scenario(180, 1));
+    // The 20 bytes left at the end cannot hold a header.
+    byte[] b0 = scenario(100, 2);
+    recorder.record(2, 0, b0);
+    byte[] c0 = scenario(50, 3);
+    recorder.record(3, 0, c0);
+    byte[] d0 = scenario(100, 4);
+    recorder.record(4, 0, d0);
+    // d0 wrapped around and dropped b0.
+    assertTrue(recorder.takeHistory(2, 1).isEmpty());
+    assertHistory(recorder.takeHistory(3, 1), new long[] {0}, c0);
+    assertHistory(recorder.takeHistory(4, 1), new long[] {0}, d0);
+  }
+
+  @Test
+  public void testDropsScenarioLargerThanRing() {
+    FlightRecorder recorder = new FlightRecorder(16 * RING_BYTES, 10);
+    byte[] a0 = scenario(50, 1);
+    recorder.record(1, 0, a0);
+    recorder.record(1, 1, scenario(RING_BYTES + 1, 2));
+    assertHistory(recorder.takeHistory(1, 2), new long[] {0}, a0);
+  }
+}
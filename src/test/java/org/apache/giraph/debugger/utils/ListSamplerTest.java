@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.Test;
+
+/**
+ * Tests {@link ListSampler} with elements made of serialized ints.
+ */
+public class ListSamplerTest {
+  /**
+   * Adds the ints from 0 to count - 1 to a sampler, each with the int
+   * modulo 3 as its second part.
+   *
+   * @param sampler The sampler.
+   * @param count The number of elements to add.
+   * @throws IOException
+   */
+  private static void addInts(ListSampler sampler, int count)
+    throws IOException {
+    DataOutputBuffer first = new DataOutputBuffer();
+    DataOutputBuffer second = new DataOutputBuffer();
+    IntWritable value = new IntWritable();
+    for (int i = 0; i < count; i++) {
+      value.set(i);
+      first.reset();
+      value.write(first);
+      second.reset();
+      second.writeInt(i % 3);
+      sampler.add(first, second, value);
+    }
+  }
+
+  /**
+   * @param sampler A sampler of ints.
+   * @param index Index of a kept element.
+   * @return The int of the first part of the element.
+   * @throws IOException
+   */
+  private static int getFirst(ListSampler sampler, int index)
+    throws IOException {
+    assertEquals(4, sampler.getFirstLength(index));
+    return new DataInputStream(new ByteArrayInputStream(sampler.getData(),
+      sampler.getFirstOffset(index), 4)).readInt();
+  }
+
+  @Test
+  public void testUnboundedKeepsAllInOrder() throws IOException {
+    ListSampler sampler = new ListSampler(IntWritable.class);
+    sampler.setMaxSize(0);
+    assertFalse(sampler.isBounded());
+    addInts(sampler, 1000);
+    assertEquals(1000, sampler.size());
+    assertEquals(1000, sampler.getCount());
+    assertFalse(sampler.isTruncated());
+    for (int i = 0; i < sampler.size(); i++) {
+      assertEquals(i, getFirst(sampler, i));
+      assertEquals(4, sampler.getSecondLength(i));
+    }
+    assertTrue(sampler.hasEqualSecondParts(1, 4));
+    assertFalse(sampler.hasEqualSecondParts(1, 2));
+  }
+
+  @Test
+  public void testBoundedKeepsDistinctSample() throws IOException {
+    ListSampler sampler = new ListSampler(IntWritable.class);
+    sampler.setMaxSize(10);
+    assertTrue(sampler.isBounded());
+    addInts(sampler, 100000);
+    assertEquals(10, sampler.size());
+    assertEquals(100000, sampler.getCount());
+    assertTrue(sampler.isTruncated());
+    Set<Integer> kept = new HashSet<>();
+    for (int i = 0; i < sampler.size(); i++) {
+      int value = getFirst(sampler, i);
+      assertTrue(value >= 0 && value < 100000);
+      assertTrue(kept.add(value));
+    }
+    // Replaced elements are compacted away, so the buffer holds little more
+    // than the kept ones.
+    assertTrue(sampler.getData().length < 10000);
+  }
+
+  @Test
+  public void testSampleIsUniform() throws IOException {
+    ListSampler sampler = new ListSampler(null);
+    sampler.setMaxSize(10);
+    int numTrials = 2000;
+    int numInFirstHalf = 0;
+    for (int trial = 0; trial < numTrials; trial++) {
+      sampler.reset();
+      addInts(sampler, 100);
+      for (int i = 0; i < sampler.size(); i++) {
+        if (getFirst(sampler, i) < 50) {
+          numInFirstHalf++;
+        }
+      }
+    }
+    // Half of the 20000 kept elements are expected in the first half, with
+    // a standard deviation of about 70.
+    assertEquals(numTrials * 10 / 2, numInFirstHalf, 500);
+  }
+
+  @Test
+  public void testResetKeepsSmallBuffers() throws IOException {
+    ListSampler sampler = new ListSampler(null);
+    addInts(sampler, 100);
+    byte[] data = sampler.getData();
+    int capacity = sampler.getCapacity();
+    sampler.reset();
+    assertEquals(0, sampler.size());
+    assertEquals(0, sampler.getCount());
+    assertSame(data, sampler.getData());
+    assertEquals(capacity, sampler.getCapacity());
+  }
+
+  @Test
+  public void testResetReleasesLargeBuffers() throws IOException {
+    ListSampler sampler = new ListSampler(null);
+    addInts(sampler, 200000);
+    assertTrue(sampler.getData().length > ListSampler.MAX_RETAINED_BYTES);
+    sampler.reset();
+    assertTrue(sampler.getData().length <= ListSampler.MAX_RETAINED_BYTES);
+    assertTrue(sampler.getCapacity() < 200000);
+    addInts(sampler, 3);
+    assertEquals(3, sampler.size());
+    assertEquals(2, getFirst(sampler, 2));
+  }
+}
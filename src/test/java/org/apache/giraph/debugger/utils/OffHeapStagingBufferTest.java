@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.giraph.debugger.utils.OffHeapStagingBuffer.Slot;
+import org.junit.Test;
+
+/**
+ * Tests {@link OffHeapStagingBuffer}.
+ */
+public class OffHeapStagingBufferTest {
+  /**
+   * Number of bytes of the buffers under test. They are never released, so
+   * every test gets a new one.
+   */
+  private static final int CAPACITY = 100;
+
+  /**
+   * @param length Number of bytes of the trace.
+   * @param fill The value of every byte of the trace.
+   * @return A trace.
+   */
+  private static byte[] record(int length, int fill) {
+    byte[] record = new byte[length];
+    Arrays.fill(record, (byte) fill);
+    return record;
+  }
+
+  /**
+   * Reads a staged trace and frees its space.
+   *
+   * @param buffer The buffer the trace is staged in.
+   * @param slot The staged trace.
+   * @return The trace.
+   */
+  private static byte[] unstage(OffHeapStagingBuffer buffer, Slot slot) {
+    ByteBuffer view = buffer.read(slot);
+    byte[] record = new byte[view.remaining()];
+    view.get(record);
+    buffer.unstage(slot);
+    return record;
+  }
+
+  @Test
+  public void testStagesAndUnstages() {
+    OffHeapStagingBuffer buffer = OffHeapStagingBuffer.acquire(CAPACITY);
+    assertEquals(CAPACITY, buffer.getCapacity());
+    byte[] a = record(30, 1);
+    byte[] b = record(30, 2);
+    Slot slotA = buffer.stage(a);
+    Slot slotB = buffer.stage(b);
+    assertArrayEquals(a, unstage(buffer, slotA));
+    assertArrayEquals(b, unstage(buffer, slotB));
+  }
+
+  @Test
+  public void testFailsWhenFull() {
+    OffHeapStagingBuffer buffer = OffHeapStagingBuffer.acquire(CAPACITY);
+    Slot slot = buffer.stage(record(60, 1));
+    assertNull(buffer.stage(record(50, 2)));
+    assertNull(buffer.stage(record(CAPACITY + 1, 3)));
+    buffer.unstage(slot);
+    assertNotNull(buffer.stage(record(50, 2)));
+  }
+
+  @Test
+  public void testReclaimsInOrderAfterOutOfOrderUnstage() {
+    OffHeapStagingBuffer buffer = OffHeapStagingBuffer.acquire(CAPACITY);
+    byte[] a = record(40, 1);
+    byte[] b = record(40, 2);
+    Slot slotA = buffer.stage(a);
+    Slot slotB = buffer.stage(b);
+    // The space of b is not reclaimed while a, staged before it, is not
+    // unstaged yet.
+    assertArrayEquals(b, unstage(buffer, slotB));
+    assertNull(buffer.stage(record(40, 3)));
+    assertArrayEquals(a, unstage(buffer, slotA));
+    byte[] c = record(40, 3);
+    Slot slotC = buffer.stage(c);
+    assertNotNull(slotC);
+    assertArrayEquals(c, unstage(buffer, slotC));
+  }
+
+  @Test
+  public void testWrapsAround() {
+    OffHeapStagingBuffer buffer = OffHeapStagingBuffer.acquire(CAPACITY);
+    Slot slotA = buffer.stage(record(40, 1));
+    byte[] b = record(40, 2);
+    Slot slotB = buffer.stage(b);
+    buffer.unstage(slotA);
+    // Does not fit in the 20 bytes left at the end, so it is staged at the
+    // beginning, where a was.
+    byte[] c = record(40, 3);
+    Slot slotC = buffer.stage(c);
+    assertNotNull(slotC);
+    // The end was skipped, so only b's space is left to reclaim.
+    assertNull(buffer.stage(record(10, 4)));
+    assertArrayEquals(b, unstage(buffer, slotB));
+    byte[] d = record(50, 4);
+    Slot slotD = buffer.stage(d);
+    assertNotNull(slotD);
+    assertArrayEquals(c, unstage(buffer, slotC));
+    assertArrayEquals(d, unstage(buffer, slotD));
+  }
+
+  @Test
+  public void testReadDoesNotFree() {
+    OffHeapStagingBuffer buffer = OffHeapStagingBuffer.acquire(CAPACITY);
+    byte[] a = record(60, 1);
+    Slot slotA = buffer.stage(a);
+    ByteBuffer view = buffer.read(slotA);
+    assertEquals(a.length, view.remaining());
+    // The space is still in use until the trace is unstaged.
+    assertNull(buffer.stage(record(50, 2)));
+    assertArrayEquals(a, unstage(buffer, slotA));
+    assertNotNull(buffer.stage(record(50, 2)));
+  }
+}
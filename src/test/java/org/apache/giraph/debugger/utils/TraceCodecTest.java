@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.debugger.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests that {@link TraceCodec} compresses payloads in direct memory the same
+ * as payloads on the heap.
+ */
+public class TraceCodecTest {
+  /**
+   * @return A compressible payload larger than the chunks direct payloads
+   *         are fed to the deflater in.
+   */
+  private static byte[] payload() {
+    byte[] payload = new byte[20000];
+    Random random = new Random(1);
+    for (int i = 0; i < payload.length; i++) {
+      payload[i] = (byte) random.nextInt(8);
+    }
+    return payload;
+  }
+
+  @Test
+  public void testCompressesDirectPayloads() throws IOException {
+    byte[] payload = payload();
+    byte[] dictionary = new byte[] { 1, 2, 3, 4, 5, 6, 7 };
+    for (TraceCodec codec : TraceCodec.values()) {
+      ByteBuffer direct = ByteBuffer.allocateDirect(payload.length + 10);
+      direct.position(10);
+      direct.put(payload);
+      direct.position(10);
+      byte[] compressed = codec.compress(direct, dictionary);
+      assertEquals(0, direct.remaining());
+      assertArrayEquals(codec.compress(payload, dictionary), compressed);
+      assertArrayEquals(payload, codec.decompress(compressed, dictionary));
+    }
+  }
+}